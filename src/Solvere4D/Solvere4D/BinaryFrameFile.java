@@ -0,0 +1,323 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * BinaryFrameFile.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class reads and writes the Solvere4D binary frame format (*.s4b), which
+ * can be used anywhere a tab separated *.dat file can: for bodies, the camera,
+ * forces, markers, 3D plots, stick figures and moving labels. A simulation that
+ * writes *.s4b files directly saves both the cost of formatting its results as
+ * text and the cost of parsing that text again here.
+ *
+ * A *.s4b file is little-endian and laid out as follows:
+ *
+ *      bytes  0 -  3 : "S4BF"
+ *      bytes  4 -  7 : version (int, currently 1)
+ *      bytes  8 - 11 : rows, the number of frames (int)
+ *      bytes 12 - 15 : columns (int)
+ *      bytes 16 - 19 : the index of the time column, or -1 if there is none (int)
+ *      bytes 20 - 23 : flags (int): FLOAT32 (1) if the values are stored as
+ *                      float32 rather than float64, DELTA (2) if the frames
+ *                      are delta encoded
+ *      bytes 24 - 27 : the offset of the first frame, a multiple of 8 (int)
+ *      bytes 28 - 31 : unused
+ *      bytes 32 -    : the column names, one after the other, each as a
+ *                      length in bytes (unsigned short) followed by that many
+ *                      bytes of UTF-8, then zeros up to the first frame
+ *
+ * followed by the frames, one after the other, each holding one value per
+ * column. When the frames are delta encoded the first frame is stored as it
+ * is, and every later value is stored as the difference between its bit
+ * pattern (Double.doubleToRawLongBits, or Float.floatToRawIntBits for float32)
+ * and the bit pattern of the value above it, as a long (or int). This is
+ * lossless and turns slowly changing signals into small integers, which
+ * compress very well.
+ *
+ * The rest of the package expects time in the first column, so when a file has
+ * its time column somewhere else it is moved to the front as the file is read.
+ *
+ * The class can also be run to convert a text data file:
+ *
+ *      java Solvere4D.BinaryFrameFile in.dat out.s4b [float32] [delta]
+ *
+ * @author mjhmilla
+ */
+public class BinaryFrameFile {
+
+    public static final String EXTENSION = ".s4b";
+
+    public static final int FLOAT32 = 1;
+    public static final int DELTA = 2;
+
+    private static final int MAGIC = 0x46423453; //"S4BF" read little-endian
+    private static final int VERSION = 1;
+    private static final int FIXED_HEADER_SIZE = 32;
+    private static final long MAP_WINDOW = 1L << 30;
+
+    /**
+     * @return true if fileName has the *.s4b extension
+     */
+    public static boolean isBinaryFrameFile(String fileName){
+        return fileName.toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Reads a *.s4b file.
+     *
+     * @param absoluteFilePath : The complete file path of the *.s4b file
+     * @return The table of data in the file, with the time in column 0
+     */
+    public static ChannelData read(String absoluteFilePath){
+        ChannelData data = null;
+
+        try{
+            RandomAccessFile dataFile = new RandomAccessFile(absoluteFilePath, "r");
+            FileChannel dataChannel = dataFile.getChannel();
+            data = read(dataChannel, absoluteFilePath);
+            dataChannel.close();
+            dataFile.close();
+
+        }catch(FileNotFoundException fnfe){
+            System.out.println("File not found exception thrown in BinaryFrameFile");
+            fnfe.printStackTrace();
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in BinaryFrameFile");
+            ioe.printStackTrace();
+        }
+
+        if(data == null)
+            data = new ChannelData(0, 1);
+        return data;
+    }
+
+    private static ChannelData read(FileChannel dataChannel, String name) throws IOException{
+        long size = dataChannel.size();
+        if(size < FIXED_HEADER_SIZE){
+            System.out.println("Error: " + name + " is too short to be a *.s4b file");
+            return null;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        dataChannel.read(header, 0);
+
+        int version = header.getInt(4);
+        if(header.getInt(0) != MAGIC || version < 1 || version > VERSION){
+            System.out.println("Error: " + name + " is not a version " + VERSION + " *.s4b file");
+            return null;
+        }
+
+        int rows = header.getInt(8);
+        int cols = header.getInt(12);
+        int timeCol = header.getInt(16);
+        int flags = header.getInt(20);
+        int dataOffset = header.getInt(24);
+
+        int valueBytes = ((flags & FLOAT32) != 0) ? 4 : 8;
+        boolean delta = (flags & DELTA) != 0;
+        long frameBytes = (long)valueBytes*cols;
+
+        if(rows < 0 || cols < 0 || dataOffset < FIXED_HEADER_SIZE
+                || size < dataOffset + frameBytes*rows || timeCol >= cols){
+            System.out.println("Error: The header of " + name + " does not match its size");
+            return null;
+        }
+
+        //Column names
+        ByteBuffer nameBuf = ByteBuffer.allocate(dataOffset - FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        dataChannel.read(nameBuf, FIXED_HEADER_SIZE);
+        String[] names = new String[cols];
+        int p = 0;
+        for(int j = 0; j < cols && p + 2 <= nameBuf.capacity(); j++){
+            int len = nameBuf.getShort(p) & 0xffff;
+            p += 2;
+            names[j] = new String(nameBuf.array(), p, Math.min(len, nameBuf.capacity() - p), StandardCharsets.UTF_8);
+            p += len;
+        }
+
+        //Put the time column first: column j of the file is column order[j] of the table
+        int[] order = new int[cols];
+        for(int j = 0; j < cols; j++){
+            if(j < timeCol)
+                order[j] = j+1;
+            else if(j == timeCol)
+                order[j] = 0;
+            else
+                order[j] = j;
+        }
+
+        double[][] columns = new double[cols][rows];
+        long[] prevBits = new long[cols];
+
+        int framesPerWindow = (int)Math.max(1, Math.min(rows, MAP_WINDOW/Math.max(frameBytes, 1)));
+        int r = 0;
+        while(r < rows && frameBytes > 0){
+            int frames = Math.min(framesPerWindow, rows - r);
+            MappedByteBuffer window = dataChannel.map(FileChannel.MapMode.READ_ONLY,
+                    dataOffset + frameBytes*r, frameBytes*frames);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+
+            int pos = 0;
+            for(int i = 0; i < frames; i++, r++){
+                for(int j = 0; j < cols; j++){
+                    long bits = (valueBytes == 8) ? window.getLong(pos) : window.getInt(pos);
+                    pos += valueBytes;
+
+                    if(delta && r > 0)
+                        bits += prevBits[j];
+                    prevBits[j] = bits;
+
+                    if(valueBytes == 8)
+                        columns[order[j]][r] = Double.longBitsToDouble(bits);
+                    else
+                        columns[order[j]][r] = Float.intBitsToFloat((int)bits);
+                }
+            }
+        }
+
+        String[] orderedNames = new String[cols];
+        for(int j = 0; j < cols; j++)
+            orderedNames[order[j]] = names[j];
+
+        ChannelData data = new ChannelData(columns, rows);
+        data.setColumnNames(orderedNames);
+        return data;
+    }
+
+    /**
+     * Writes a table to a *.s4b file.
+     *
+     * @param absoluteFilePath : The complete file path of the *.s4b file
+     * @param data             : The table to write
+     * @param names            : The name of each column, or null
+     * @param timeColumn       : The index of the time column, or -1 if there is none
+     * @param flags            : FLOAT32 and/or DELTA, or 0
+     */
+    public static void write(String absoluteFilePath, ChannelData data, String[] names, int timeColumn, int flags){
+        int rows = data.numRows();
+        int cols = data.numCol();
+        int valueBytes = ((flags & FLOAT32) != 0) ? 4 : 8;
+        boolean delta = (flags & DELTA) != 0;
+
+        byte[][] nameBytes = new byte[cols][];
+        int namesLength = 0;
+        for(int j = 0; j < cols; j++){
+            String n = (names != null && j < names.length && names[j] != null) ? names[j] : "";
+            nameBytes[j] = n.getBytes(StandardCharsets.UTF_8);
+            if(nameBytes[j].length > 0xffff){
+                byte[] tempName = new byte[0xffff];
+                System.arraycopy(nameBytes[j], 0, tempName, 0, tempName.length);
+                nameBytes[j] = tempName;
+            }
+            namesLength += 2 + nameBytes[j].length;
+        }
+        int dataOffset = ((FIXED_HEADER_SIZE + namesLength + 7)/8)*8;
+
+        ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(rows);
+        header.putInt(cols);
+        header.putInt(timeColumn);
+        header.putInt(flags);
+        header.putInt(dataOffset);
+        header.putInt(0);
+        for(int j = 0; j < cols; j++){
+            header.putShort((short)nameBytes[j].length);
+            header.put(nameBytes[j]);
+        }
+        header.rewind();
+
+        try{
+            FileOutputStream out = new FileOutputStream(new File(absoluteFilePath));
+            FileChannel outChannel = out.getChannel();
+            outChannel.write(header);
+
+            ByteBuffer frames = ByteBuffer.allocate(Math.max(valueBytes*cols, 65536)).order(ByteOrder.LITTLE_ENDIAN);
+            long[] prevBits = new long[cols];
+
+            for(int i = 0; i < rows; i++){
+                if(frames.remaining() < valueBytes*cols){
+                    frames.flip();
+                    outChannel.write(frames);
+                    frames.clear();
+                }
+                for(int j = 0; j < cols; j++){
+                    long bits;
+                    if(valueBytes == 8)
+                        bits = Double.doubleToRawLongBits(data.get(i, j));
+                    else
+                        bits = Float.floatToRawIntBits((float)data.get(i, j));
+
+                    long stored = (delta && i > 0) ? bits - prevBits[j] : bits;
+                    prevBits[j] = bits;
+
+                    if(valueBytes == 8)
+                        frames.putLong(stored);
+                    else
+                        frames.putInt((int)stored);
+                }
+            }
+            frames.flip();
+            outChannel.write(frames);
+
+            outChannel.close();
+            out.close();
+
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in BinaryFrameFile");
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Converts a text data file into a *.s4b file, with time in column 0.
+     */
+    public static void main(String[] args){
+        if(args.length < 2){
+            System.out.println("Usage: java Solvere4D.BinaryFrameFile in.dat out.s4b [float32] [delta]");
+            return;
+        }
+
+        int flags = 0;
+        for(int k = 2; k < args.length; k++){
+            if(args[k].equalsIgnoreCase("float32")) flags |= FLOAT32;
+            if(args[k].equalsIgnoreCase("delta"))   flags |= DELTA;
+        }
+
+        ChannelData data = DataReader.read(new File(args[0]).getAbsolutePath());
+        String[] names = new String[data.numCol()];
+        for(int j = 0; j < names.length; j++)
+            names[j] = (j == 0) ? "time" : "column" + (j+1);
+
+        write(new File(args[1]).getAbsolutePath(), data, names, 0, flags);
+    }
+
+}
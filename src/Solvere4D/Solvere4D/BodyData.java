@@ -22,52 +22,64 @@ package Solvere4D;
 
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.BufferedReader;
-import java.nio.CharBuffer;
-import java.io.IOException;
-import java.io.FileNotFoundException;
 import java.lang.Math;
+import java.util.ArrayList;
 /**
  * This function will take a file name to a geometry file, XYX postion data and a
  * rotation matrix for every time step, downsample it and convert it into the
  * form required to for display.
  * 
+ * A BodyData can also be given its data one row at a time, as a RowConsumer,
+ * in which case each row is turned into the text of the animation as soon as
+ * it arrives and the rows themselves are not kept. A row is laid out as the
+ * rows of a body's data file: time, X, Y, Z and the 9 entries of the rotation
+ * matrix (taken row wise). A row of only time, X, Y and Z is not rotated.
+ * Each row is keyed by its own time when the body is given a TimeBase (see
+ * setTimeBase), so a body need not be sampled at the rate of the others.
+ * 
  * @author mjhmilla
  */
-public class BodyData {
+public class BodyData implements RowConsumer {
   
     private SolvereUtilities SolUtil;
     private File geoFile;
     private File frFile;
     private String keyTag;
     
-    private FileReader geoFileFRdr;
-    private BufferedReader geoFileBufRdr;
     private String[] geoFileStr;
-    private FileReader frFileFRdr;
     private String frFileName;
-    private BufferedReader frFileBufRdr;
     private String[] frFileStr;
-    private String[] frRepTxt;
     private String[] transFileStr;
     private String[] orienFileStr;
     private String[] keyVal;
-    private double[] keyValDbl;
+    private float[] keyValDbl;
 
     
     private int defaultRowNum = 1000;
     private int rows;
 
     
-    //x,y,z
-    private double[][] translationXYZ_m;
+    //x,y,z, stored as float32
+    private ChannelData translations;
+    private ChannelData times;
+    
+    //time, x,y,z, the 4 values of convertToQuat; null unless kept
+    private boolean keepChannels;
+    private ChannelData channels;
 
     
     //rot x,y,z
    
     private int downSampling;
     
+    //Used while the rows are being pushed in
+    private ArrayList<String> transText;
+    private ArrayList<String> orienText;
+    private int numCols;
+    private TimeBase timeBase;
+    private double[] rotMatrix;
+    private StringBuffer tempBufStr;
+    
     
     /**
      * This constructor will take in all of the data required to animate a ridgid
@@ -81,190 +93,259 @@ public class BodyData {
      * @param downSample    : The amount of downsampling to use
      */
     public BodyData(String tagName,File vrml97File,double[][] transXYZ_m, double[][] rotMat, int downSample ){
+        this(tagName, vrml97File, readGeometryLines(vrml97File), null, transXYZ_m, rotMat, downSample);
+    }
+
+    /**
+     * This constructor is the same as the one above, except that the lines of
+     * the geometry file, and optionally of its *.fr replacement file, have
+     * already been read in (by a SceneLoader, for example).
+     *
+     * @param tagName       : The unique string identifier for this body
+     * @param vrml97File    : The vrml97File for the geometry of this file
+     * @param geoLines      : The lines of vrml97File
+     * @param frLines       : The lines of the *.fr replacement file for vrml97File,
+     *                        or null to read it only if vrml97File has $n$ tags
+     * @param transXYZ_m    : The n x 3 array of X,Y,Z positions in units of (m)
+     * @param rotMat        : The n x 9 array of rotation matrices (taken row wise)
+     * @param downSample    : The amount of downsampling to use
+     */
+    public BodyData(String tagName,File vrml97File,String[] geoLines, String[] frLines, double[][] transXYZ_m, double[][] rotMat, int downSample ){
         
         if(transXYZ_m != null && rotMat != null){
             
-        downSampling = downSample;
+            downSampling = downSample;
+            keyTag = tagName;
             
-        double[] rotMatrix  = new double[9];
-        rotMatrix[0] = 1;    
-        rotMatrix[1] = 0;
-        rotMatrix[2] = 0;
+            double[] row = new double[13];
+            start(row.length);
+            for(int i = 0; i < transXYZ_m.length/downSampling; i++){
+                for(int j = 0; j < 3; j++)
+                    row[j+1] = transXYZ_m[i*downSampling][j];
+                for(int j = 0; j < 9; j++)
+                    row[j+4] = rotMat[i*downSampling][j];
+                addRow(row);
+            }
+            finish();
+            
+            setGeometry(vrml97File, geoLines, frLines);
+        }
+    }
+
+    /**
+     * This constructor makes a body that is given its data one row at a time,
+     * through start, addRow and finish (see RowConsumer), by DataReader.stream
+     * or SceneLoader.streamData for example. The text of the animation is
+     * ready once finish has been called.
+     *
+     * @param tagName       : The unique string identifier for this body
+     * @param vrml97File    : The vrml97File for the geometry of this file, or
+     *                        null if the body has no geometry (the camera)
+     * @param geoLines      : The lines of vrml97File
+     * @param frLines       : The lines of the *.fr replacement file for vrml97File,
+     *                        or null to read it only if vrml97File has $n$ tags
+     */
+    public BodyData(String tagName, File vrml97File, String[] geoLines, String[] frLines){
+        downSampling = 1;
+        keyTag = tagName;
+        setGeometry(vrml97File, geoLines, frLines);
+    }
+
+    /**
+     * @param animationTimes : The key frames of the animation, against which
+     *                         the key frames of this body are placed by their
+     *                         times, or null if this body's own rows are the
+     *                         key frames of the animation. This must be set
+     *                         before the rows are pushed in.
+     */
+    public void setTimeBase(TimeBase animationTimes){
+        timeBase = animationTimes;
+    }
+
+    public void start(int numValues){
+        numCols = numValues;
+        rows = 0;
+        transText = new ArrayList<String>();
+        orienText = new ArrayList<String>();
+        translations = new ChannelData(3, defaultRowNum, true);
+        times = new ChannelData(1, defaultRowNum);
+        channels = keepChannels ? new ChannelData(8, defaultRowNum) : null;
+        tempBufStr = new StringBuffer();
         
-        rotMatrix[3] = 0;    
+        //A body given only a position (a marker) is not rotated
+        rotMatrix  = new double[9];
+        rotMatrix[0] = 1;    
         rotMatrix[4] = 1;
-        rotMatrix[5] = 0;
-        
-        rotMatrix[6] = 0;    
-        rotMatrix[7] = 0;
         rotMatrix[8] = 1;
+    }
+
+    public void addRow(double[] row){
+        //Rows outside of the animation's cycle are left out
+        if(timeBase != null && timeBase.getPosition(row[0], rows) < 0)
+            return;
         
-        rows = transXYZ_m.length/downSampling;
-        
-        translationXYZ_m = new double[rows][3];
-        //rotationMAT = new double[rows][9];
-        //rotationQUAT = new double[rows][4];
-        
-        keyVal = new String[rows];
-        keyValDbl = new double[rows];
-        transFileStr = new String[rows];
-        orienFileStr = new String[rows];
-        
-        StringBuffer tempBufStr = new StringBuffer();
-
-        double[] temp = new double[3];
-        for(int i = 0; i < rows; i++){      
-            tempBufStr.replace(0,tempBufStr.length(),"");
-            temp = transXYZ_m[i*downSampling];//multiply3x3MatrixVec(rotMatrix, transXYZ_m[i]);
-           
-            for(int j = 0; j < transXYZ_m[0].length; j++){
-                translationXYZ_m[i][j] = (float)temp[j];
-                tempBufStr.append(translationXYZ_m[i][j]);
-                
-                if(j < transXYZ_m[0].length-1){
-                    tempBufStr.append(" ");}
-                   
-            }
-            transFileStr[i] = tempBufStr.toString();
-            keyVal[i] = Double.toString( (float)(i+1)/(float)rows);
-            keyValDbl[i] = (float)(i+1)/(float)rows;
-            
+        float[] position = new float[3];
+        tempBufStr.replace(0,tempBufStr.length(),"");
+        for(int j = 0; j < 3; j++){
+            position[j] = (float)row[j+1];
+            tempBufStr.append((double)position[j]);
             
+            if(j < 2){
+                tempBufStr.append(" ");}
         }
+        transText.add(tempBufStr.toString());
         
+        if(numCols >= 13){
+            for(int j = 0; j < 9; j++)
+                rotMatrix[j] = row[j+4];
+        }
         
-        double[][] rotQuat = SolUtil.convertToQuat(rotMat);
-        for(int i = 0; i < rows; i++){
-            
-            tempBufStr.replace(0,tempBufStr.length(),"");
-            for(int j = 0; j < 4; j++){
-                   tempBufStr.append((float)rotQuat[i*downSampling][j]);
-                  if(j < 3){
-                   tempBufStr.append(" ");}              
-            }
-            orienFileStr[i] = tempBufStr.toString(); 
+        double[] rotQuat = SolUtil.convertToQuat(rotMatrix);
+        tempBufStr.replace(0,tempBufStr.length(),"");
+        for(int j = 0; j < 4; j++){
+            tempBufStr.append((float)rotQuat[j]);
+            if(j < 3){
+                tempBufStr.append(" ");}              
         }
+        orienText.add(tempBufStr.toString());
         
-        keyTag = tagName;
+        translations.addRow(new double[]{position[0], position[1], position[2]});
+        times.addRow(new double[]{row[0]});
+        if(channels != null)
+            channels.addRow(new double[]{row[0], position[0], position[1], position[2],
+                    rotQuat[0], rotQuat[1], rotQuat[2], rotQuat[3]});
+        rows++;
+    }
+
+    public void finish(){
+        //The lists are kept, since more rows may yet be pushed in when the
+        //data file is followed (see DataFollower)
+        transFileStr = transText.toArray(new String[rows]);
+        orienFileStr = orienText.toArray(new String[rows]);
         
-        if(vrml97File != null){
-            
-            try{
-                    frFileName = vrml97File.getAbsolutePath();
-                    int t1 = frFileName.indexOf(".");
-                    frFileName = frFileName.substring(0, t1+1);
-                    frFileName = frFileName.concat("fr");
-                    
-                    geoFile = new File(vrml97File.getAbsolutePath());
-                    geoFileFRdr = new FileReader(vrml97File.getAbsolutePath());
-                    geoFileBufRdr = new BufferedReader(geoFileFRdr);
-                    geoFileStr = new String[defaultRowNum];
-                    int fRows = 0;
-                    String line = new String(geoFileBufRdr.readLine());
-                    
-                    while(line != null && line.indexOf("Transform") == -1){
-                        line = geoFileBufRdr.readLine();
-                    }
-                    StringBuffer firstLine = new StringBuffer();
-                    firstLine.append("DEF ");
-                    firstLine.append(keyTag);
-                    firstLine.append(" Transform {");
-                    
-                    line = firstLine.toString();
-
-                    int f1 = 0; //Index of the 1st "found" tag
-                    int f2 = 0; //Index of the 2nd "found" tag
-                    int r1 = 0; //Index of the start of the replace text
-                    int r2 = 0; //Index of the end of the replacement text
-                    int idxCOMM = 0; //Comment index;
-                    int rline = 0; //lines in the replacement text;
-                    String rtxtLine = new String("");
-                    String ftag = new String("");
-                    String line1 = new String("");
-                    String line2 = new String("");
-                    Integer tagNo = new Integer("0");
-
-                    while(line != null){
-
-                        idxCOMM = line.indexOf("#");
-                        f1 = line.indexOf("$");
-
-                        if( (f1 != -1 && idxCOMM == -1) ||(f1 < idxCOMM && idxCOMM != -1)){
-                            f2 = line.indexOf("$", f1+1);
-                            ftag = line.substring(f1+1, f2);
-                            tagNo = new Integer(ftag);
-
-
-                            if (frFile == null){
-                                frFile = new File(frFileName);
-                                frFileFRdr = new FileReader(frFileName);
-                                frFileBufRdr = new BufferedReader(frFileFRdr);
-                                frFileStr = new String[defaultRowNum];
-                                rtxtLine = frFileBufRdr.readLine();
-
-                                while(rtxtLine != null){
-                                    frFileStr[rline] = rtxtLine;
-                                    rline++;
-                                    rtxtLine = frFileBufRdr.readLine();
-                                }
-
-
-                            }
+        keyVal = new String[rows];
+        keyValDbl = new float[rows];
+        
+        for(int i = 0; i < rows; i++){
+            if(timeBase == null)
+                keyValDbl[i] = (float)(i+1)/(float)rows;
+            else
+                keyValDbl[i] = (float)(timeBase.getPosition(times.get(i, 0), i)+1)/(float)timeBase.getNumRows();
+            keyVal[i] = Double.toString(keyValDbl[i]);
+        }
+        translations.trimToSize();
+        times.trimToSize();
+    }
 
+    /**
+     * Reads the geometry of the body, giving its outermost Transform the DEF
+     * name of the body and filling in any $n$ tags from the *.fr file.
+     */
+    private void setGeometry(File vrml97File, String[] geoLines, String[] frLines){
+        if(vrml97File != null && geoLines != null){
+
+                frFileName = getReplacementFileName(vrml97File);
+
+                geoFile = new File(vrml97File.getAbsolutePath());
+                frFileStr = frLines;
+                geoFileStr = new String[geoLines.length+1];
+                int fRows = 0;
+                int g = 0;
+
+                while(g < geoLines.length && geoLines[g].indexOf("Transform") == -1){
+                    g++;
+                }
+                StringBuffer firstLine = new StringBuffer();
+                firstLine.append("DEF ");
+                firstLine.append(keyTag);
+                firstLine.append(" Transform {");
+
+                String line = firstLine.toString();
+
+                int f1 = 0; //Index of the 1st "found" tag
+                int f2 = 0; //Index of the 2nd "found" tag
+                int idxCOMM = 0; //Comment index;
+                String ftag = new String("");
+                String line1 = new String("");
+                String line2 = new String("");
+                Integer tagNo = new Integer("0");
+
+                while(line != null){
+
+                    idxCOMM = line.indexOf("#");
+                    f1 = line.indexOf("$");
+
+                    if( (f1 != -1 && idxCOMM == -1) ||(f1 < idxCOMM && idxCOMM != -1)){
+                        f2 = line.indexOf("$", f1+1);
+                        ftag = line.substring(f1+1, f2);
+                        tagNo = new Integer(ftag);
+
+
+                        if (frFile == null){
+                            frFile = new File(frFileName);
+                            if(frFileStr == null)
+                                frFileStr = SolvereUtilities.getTextFile(frFile);
+                        }
+
+                        if(frFileStr != null){
                             line1 = new String(line.substring(0, f1));
                             line2 = new String(line.substring(f2, line.length()-1));
-                            
-                            
+
+
                             line = line1.concat(frFileStr[tagNo.intValue()-1]);
 
                             if(line2 != null)
                                 line = line.concat(line2);
-
-                           
-                            
+                        }else{
+                            System.out.println("VRML/X3D replacement file " + frFileName + " could not be read in BodyData");
                         }
 
-                        geoFileStr[fRows] = line;
-                        fRows++;
+                    }
 
-                        if( fRows%(defaultRowNum-1) == 0){
-                            //resize dataString without losing data;
-                            int scaleFactor = 1 + (int)Math.floor((double)fRows/(double)(defaultRowNum-2));
-                            String[] tempDataHolder = new String[scaleFactor*fRows];
-                            for(int i = 0; i < fRows; i++)
-                                    tempDataHolder[i]= geoFileStr[i];
+                    geoFileStr[fRows] = line;
+                    fRows++;
 
-                             geoFileStr = tempDataHolder;
-                        }
-                        line = geoFileBufRdr.readLine();
-                    }
+                    g++;
+                    if(g < geoLines.length) line = geoLines[g];
+                    else line = null;
+                }
 
-                    String[] tempDataHolder = new String[fRows];
-                    for(int i = 0; i < fRows; i++)
-                            tempDataHolder[i] = geoFileStr[i];
-
-                    geoFileStr = tempDataHolder;
-
-                    geoFileFRdr.close();
-                    geoFileBufRdr.close();
-                    
-            }catch(FileNotFoundException fnfe){
-                System.out.println("VRML/X3D file not found exception thrown in LeafData");
-                fnfe.printStackTrace();
-            }catch(IOException ioe){
-                System.out.println("IO exception thrown while trying to read VRML/X3D file in LeafData");
-                ioe.printStackTrace();
-            }   
-                    
-                    
-            }else{
-
-                geoFileFRdr = null;
-                geoFileBufRdr = null;
-                geoFileStr = null;
-            }
+                String[] tempDataHolder = new String[fRows];
+                for(int i = 0; i < fRows; i++)
+                        tempDataHolder[i] = geoFileStr[i];
+
+                geoFileStr = tempDataHolder;
+
+        }else{
+            geoFileStr = null;
         }
     }
+
+    /**
+     * @return The lines of geoFile, or null if geoFile is null or cannot be
+     *         read. An OBJ or STL file is read as VRML (see MeshReader).
+     */
+    private static String[] readGeometryLines(File geoFile){
+        if(geoFile == null)
+            return null;
+        if(MeshReader.isMesh(geoFile.getAbsolutePath()))
+            return MeshReader.readGeometryLines(geoFile);
+        return SolvereUtilities.getTextFile(geoFile);
+    }
+
+    /**
+     * @return The name of the *.fr replacement file that goes with geoFile. The
+     *         replacement text for the $n$ tags in geoFile is read from it. If
+     *         there is no *.fr file but there is a compressed *.fr.gz file,
+     *         that is used instead.
+     */
+    public static String getReplacementFileName(File geoFile){
+        String name = geoFile.getAbsolutePath();
+        name = name.substring(0, name.indexOf(".")+1).concat("fr");
+        if(!new File(name).exists() && new File(name + ".gz").exists())
+            return name + ".gz";
+        return name;
+    }
     
     
 
@@ -274,7 +355,15 @@ public class BodyData {
         return geoFile;
     }
     
-    public double[][] getTranslationXYZ_m(){
+    public float[][] getTranslationXYZ_m(){
+        if(translations == null)
+            return null;
+        
+        float[][] translationXYZ_m = new float[rows][3];
+        for(int i = 0; i < rows; i++){
+            for(int j = 0; j < 3; j++)
+                translationXYZ_m[i][j] = (float)translations.get(i, j);
+        }
         return translationXYZ_m;
     }
  
@@ -297,9 +386,43 @@ public class BodyData {
     public String[] getKeyFrameText(){
         return keyVal;
     }
-    public double[] getKeyFrame(){
+    public float[] getKeyFrame(){
         return keyValDbl;
     }
+    
+    /**
+     * @return The times of the rows, taken from column 0 of the rows that were
+     *         pushed in (they are 0 for a body made from arrays)
+     */
+    public ChannelData getTime(){
+        return times;
+    }
+    
+    /**
+     * @param keep : If true the positions and orientations that are animated
+     *               are kept as numbers (see getChannels). This must be set
+     *               before the rows are pushed in.
+     */
+    public void setKeepChannels(boolean keep){
+        keepChannels = keep;
+    }
+    
+    /**
+     * @return The channels that are animated, one row per key frame: time,
+     *         X, Y, Z, and the four values of SolvereUtilities.convertToQuat
+     *         (the rotation axis and angle). Null unless setKeepChannels was
+     *         called before the rows were pushed in.
+     */
+    public ChannelData getChannels(){
+        return channels;
+    }
+    
+    /**
+     * @return The number of key frames of the body
+     */
+    public int getNumRows(){
+        return rows;
+    }
    
     
 }
\ No newline at end of file
@@ -0,0 +1,516 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * C3DFile.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This class reads motion capture data straight out of a C3D file, so that the
+ * markers and force plate channels of a trial do not have to be exported to
+ * text files first. Intel, DEC and MIPS files are read, with the 3D points and
+ * analog channels stored either as scaled integers or as floats.
+ *
+ * The channels to read are chosen by label in the *.s4d file, between braces
+ * after the file name:
+ *
+ *      redsphere.wrl,trial.c3d{RASI}
+ *      trial.c3d{FP1COP Fx1 Fy1 Fz1 Mx1 My1 Mz1}, <f1 w1> <t1 w1>
+ *
+ * Each 3D point label gives three columns (X, Y, Z) and each analog label one
+ * column, in the order the labels are given, after a time column. A body that
+ * is given a single point gets the identity orientation. The table is sampled
+ * at the point rate unless only analog channels are chosen, in which case it
+ * is sampled at the analog rate; analog channels that are read together with
+ * points take the analog sample that falls on each point frame.
+ *
+ * Points are converted from millimetres to metres when POINT:UNITS is "mm",
+ * and analog channels whose units end in "mm" (moments in Nmm) likewise.
+ * Points that the file marks as invalid (a negative residual) are read as NaN.
+ * The time of frame n is n - 1 divided by the point rate, so that a trial
+ * whose first frame is 1 starts at 0, as a text file does.
+ *
+ * A C3D file can also be given in the <markers> block, where each point label
+ * gives one static marker at the position of the point in one frame of the
+ * trial (see getMarkers):
+ *
+ *      floorMarkers.c3d{FP1 FP2 FP3 FP4},  <sphere r0.01 n1>
+ *
+ * Only the header and parameter blocks are mapped whole; the frames are
+ * mapped a window at a time, so that trials of more than 2 GB can be read.
+ *
+ * @author mjhmilla
+ */
+public class C3DFile {
+
+    public static final String EXTENSION = ".c3d";
+
+    private static final int PROCESSOR_INTEL = 84;
+    private static final int PROCESSOR_DEC = 85;
+    private static final int PROCESSOR_MIPS = 86;
+
+    //The header and parameter section start within the first 255 blocks and
+    //are at most 255 blocks long
+    private static final int HEADER_SIZE = 512*510;
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private ByteBuffer buf;         //The header and parameter blocks
+    private FileChannel channel;
+    private ByteBuffer window;      //The frames from windowStart to windowEnd
+    private long windowStart;
+    private long windowEnd;
+    private int processor;
+    private String name;
+
+    /** The parameters by "GROUP:NAME": {type, number of dimensions, dimensions..., data position} */
+    private HashMap<String, int[]> parameters;
+
+    /**
+     * @return true if fileName has the *.c3d extension
+     */
+    public static boolean isC3DFile(String fileName){
+        return fileName.toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Reads the chosen channels of a C3D file.
+     *
+     * @param absoluteFilePath : The complete file path of the C3D file
+     * @param labels           : The labels of the points and analog channels
+     *                           to read, or null to read every point
+     * @return The table of data, with the time in column 0
+     */
+    public static ChannelData read(String absoluteFilePath, String[] labels){
+        ChannelData data = null;
+
+        try{
+            RandomAccessFile c3dFile = new RandomAccessFile(absoluteFilePath, "r");
+            FileChannel c3dChannel = c3dFile.getChannel();
+            ByteBuffer mapped = c3dChannel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(c3dChannel.size(), HEADER_SIZE));
+
+            C3DFile c3d = new C3DFile(mapped, c3dChannel, absoluteFilePath);
+            data = c3d.readChannels(labels);
+
+            c3dChannel.close();
+            c3dFile.close();
+
+        }catch(FileNotFoundException fnfe){
+            System.out.println("File not found exception thrown in C3DFile");
+            fnfe.printStackTrace();
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in C3DFile");
+            ioe.printStackTrace();
+        }catch(IndexOutOfBoundsException ioobe){
+            System.out.println("Error: " + absoluteFilePath + " is not a valid C3D file, it ends too soon");
+        }
+
+        if(data == null)
+            data = new ChannelData(0, 1);
+        return data;
+    }
+
+    /**
+     * Turns the points of one frame of a table read from a C3D file into the
+     * table of a set of static markers, one marker (X, Y, Z) for each point.
+     * The time column and the analog channels are left out.
+     *
+     * @param data     : The table read from the C3D file
+     * @param frame    : The frame to take the markers from, counted from 1
+     * @param fileName : The name of the C3D file, for errors
+     * @return The table of markers, with one row for each point
+     */
+    public static ChannelData getMarkers(ChannelData data, int frame, String fileName){
+        //A point is three columns named label_X, label_Y and label_Z
+        ArrayList<Integer> points = new ArrayList<Integer>();
+        for(int j = 1; j + 2 < data.numCol(); j++){
+            String name = data.getColumnName(j);
+            if(name != null && name.endsWith("_X") && (name.substring(0, name.length() - 1) + "Y").equals(data.getColumnName(j + 1))){
+                points.add(Integer.valueOf(j));
+                j += 2;
+            }
+        }
+
+        if(frame < 1 || frame > data.numRows()){
+            System.out.println("Error: " + fileName + " has no frame " + frame + ", it has " + data.numRows());
+            return new ChannelData(3, 0);
+        }
+
+        double[][] columns = new double[3][points.size()];
+        for(int k = 0; k < points.size(); k++){
+            for(int d = 0; d < 3; d++)
+                columns[d][k] = data.get(frame - 1, points.get(k).intValue() + d);
+        }
+        return new ChannelData(columns, points.size());
+    }
+
+    private C3DFile(ByteBuffer mapped, FileChannel c3dChannel, String fileName){
+        buf = mapped;
+        channel = c3dChannel;
+        name = fileName;
+
+        int paramStart = 512*((buf.get(0) & 0xff) - 1);
+        processor = buf.get(paramStart + 3);
+        if(processor == PROCESSOR_MIPS)
+            buf.order(ByteOrder.BIG_ENDIAN);
+        else
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        readParameters(paramStart);
+    }
+
+    /**
+     * Goes through the parameter section, noting where the value of every
+     * parameter is kept.
+     */
+    private void readParameters(int paramStart){
+        parameters = new HashMap<String, int[]>();
+        HashMap<Integer, String> groups = new HashMap<Integer, String>();
+        ArrayList<Object[]> params = new ArrayList<Object[]>();
+
+        int paramEnd = Math.min(buf.limit(), paramStart + 512*(buf.get(paramStart + 2) & 0xff));
+        int pos = paramStart + 4;
+
+        while(pos + 4 < paramEnd){
+            int nameLen = Math.abs(buf.get(pos));
+            int id = buf.get(pos + 1);
+            if(nameLen == 0 || id == 0)
+                break;
+
+            String recordName = new String(getBytes(pos + 2, nameLen), StandardCharsets.ISO_8859_1).trim().toUpperCase();
+            int offsetPos = pos + 2 + nameLen;
+            int next = buf.getShort(offsetPos);
+
+            if(id < 0){
+                groups.put(-id, recordName);
+            }else{
+                int numDims = buf.get(offsetPos + 3) & 0xff;
+                int[] param = new int[numDims + 3];
+                param[0] = buf.get(offsetPos + 2);
+                param[1] = numDims;
+                for(int d = 0; d < numDims; d++)
+                    param[d + 2] = buf.get(offsetPos + 4 + d) & 0xff;
+                param[numDims + 2] = offsetPos + 4 + numDims;
+                params.add(new Object[] {Integer.valueOf(id), recordName, param});
+            }
+
+            if(next <= 0)
+                break;
+            pos = offsetPos + next;
+        }
+
+        for(Object[] p : params){
+            String group = groups.get((Integer)p[0]);
+            if(group != null)
+                parameters.put(group + ":" + p[1], (int[])p[2]);
+        }
+    }
+
+    private ChannelData readChannels(String[] labels) throws IOException{
+        int numPoints = getInt("POINT:USED", buf.getShort(2) & 0xffff);
+        double pointScale = getFloat("POINT:SCALE", 1);
+        double pointRate = getFloat("POINT:RATE", 1);
+        boolean floats = pointScale < 0;
+        int valueBytes = floats ? 4 : 2;
+        double pointUnits = getString("POINT:UNITS", "").trim().equalsIgnoreCase("mm") ? 0.001 : 1;
+
+        int numAnalog = getInt("ANALOG:USED", 0);
+        int analogPerFrame = buf.getShort(4) & 0xffff;
+        int samplesPerFrame = (numAnalog > 0) ? analogPerFrame/numAnalog : 0;
+        double genScale = getFloat("ANALOG:GEN_SCALE", 1);
+        double[] analogScale = getFloats("ANALOG:SCALE", numAnalog, 1);
+        boolean analogUnsigned = getString("ANALOG:FORMAT", "").trim().equalsIgnoreCase("UNSIGNED");
+        double[] analogOffset = getInts("ANALOG:OFFSET", numAnalog, analogUnsigned);
+        String[] analogUnits = getStrings("ANALOG:UNITS");
+
+        int firstFrame = buf.getShort(6) & 0xffff;
+        int lastFrame = buf.getShort(8) & 0xffff;
+        if(parameters.containsKey("TRIAL:ACTUAL_END_FIELD")){
+            double[] endField = getInts("TRIAL:ACTUAL_END_FIELD", 2, true);
+            lastFrame = (int)endField[0] | ((int)endField[1] << 16);
+        }
+
+        long dataStart = 512L*(getInt("POINT:DATA_START", buf.getShort(16) & 0xffff) - 1);
+        int frameBytes = valueBytes*(4*numPoints + samplesPerFrame*numAnalog);
+        int frames = lastFrame - firstFrame + 1;
+        if(frameBytes > 0)
+            frames = (int)Math.max(0, Math.min(frames, (channel.size() - dataStart)/frameBytes));
+
+        String[] pointLabels = getLabels("POINT");
+        String[] analogLabels = getLabels("ANALOG");
+
+        //Work out which columns to fill: points give 3 columns, analogs 1
+        ArrayList<int[]> picked = new ArrayList<int[]>();
+        ArrayList<String> names = new ArrayList<String>();
+        names.add("time");
+        boolean anyPoint = false;
+
+        if(labels == null){
+            for(int k = 0; k < numPoints; k++){
+                picked.add(new int[] {0, k});
+                anyPoint = true;
+            }
+        }else{
+            for(String label : labels){
+                int k = indexOf(pointLabels, label, numPoints);
+                if(k != -1){
+                    picked.add(new int[] {0, k});
+                    anyPoint = true;
+                }else{
+                    k = indexOf(analogLabels, label, numAnalog);
+                    if(k != -1)
+                        picked.add(new int[] {1, k});
+                    else
+                        System.out.println("Error: There is no point or analog channel labelled " + label + " in " + name);
+                }
+            }
+        }
+
+        int cols = 1;
+        for(int[] p : picked){
+            if(p[0] == 0){
+                String label = (p[1] < pointLabels.length) ? pointLabels[p[1]] : "POINT" + (p[1]+1);
+                names.add(label + "_X");
+                names.add(label + "_Y");
+                names.add(label + "_Z");
+                cols += 3;
+            }else{
+                names.add((p[1] < analogLabels.length) ? analogLabels[p[1]] : "ANALOG" + (p[1]+1));
+                cols += 1;
+            }
+        }
+
+        //Only analog channels: read every analog sample
+        int subSamples = (!anyPoint && samplesPerFrame > 0) ? samplesPerFrame : 1;
+        int rows = frames*subSamples;
+        double[][] columns = new double[cols][rows];
+
+        for(int f = 0; f < frames; f++){
+            int framePos = (frameBytes > 0) ? mapFrame(dataStart + (long)f*frameBytes, frameBytes) : 0;
+            int analogPos = framePos + 4*numPoints*valueBytes;
+
+            for(int s = 0; s < subSamples; s++){
+                int r = f*subSamples + s;
+                columns[0][r] = (firstFrame - 1 + f + s/(double)subSamples)/pointRate;
+
+                int c = 1;
+                for(int[] p : picked){
+                    if(p[0] == 0){
+                        int pos = framePos + 4*p[1]*valueBytes;
+                        double residual = readValue(pos + 3*valueBytes, floats, false);
+                        for(int d = 0; d < 3; d++){
+                            double value = readValue(pos + d*valueBytes, floats, false);
+                            if(!floats)
+                                value *= pointScale;
+                            columns[c + d][r] = (residual < 0) ? Double.NaN : value*pointUnits;
+                        }
+                        c += 3;
+                    }else{
+                        int ch = p[1];
+                        double raw = readValue(analogPos + (s*numAnalog + ch)*valueBytes, floats, analogUnsigned);
+                        double value = (raw - analogOffset[ch])*genScale*analogScale[ch];
+                        if(ch < analogUnits.length && analogUnits[ch].trim().toLowerCase().endsWith("mm"))
+                            value *= 0.001;
+                        columns[c][r] = value;
+                        c += 1;
+                    }
+                }
+            }
+        }
+
+        ChannelData data = new ChannelData(columns, rows);
+        data.setColumnNames(names.toArray(new String[names.size()]));
+        return data;
+    }
+
+    /**
+     * Maps the window of the file that holds a frame, if the frame is not in
+     * the window that is mapped already.
+     *
+     * @param framePos   : The position of the frame in the file
+     * @param frameBytes : The length of a frame
+     * @return The position of the frame in the window
+     */
+    private int mapFrame(long framePos, int frameBytes) throws IOException{
+        if(window == null || framePos < windowStart || framePos + frameBytes > windowEnd){
+            long len = Math.min(channel.size() - framePos, Math.max(frameBytes, (WINDOW_SIZE/frameBytes)*frameBytes));
+            window = channel.map(FileChannel.MapMode.READ_ONLY, framePos, len);
+            window.order(buf.order());
+            windowStart = framePos;
+            windowEnd = framePos + len;
+        }
+        return (int)(framePos - windowStart);
+    }
+
+    /**
+     * Reads a sample of a frame in the window that is mapped.
+     *
+     * @param unsigned : true for analog samples of a file whose ANALOG:FORMAT
+     *                   is UNSIGNED; points are always signed
+     */
+    private double readValue(int pos, boolean floats, boolean unsigned){
+        if(floats)
+            return readFloat(window, pos);
+        else if(unsigned)
+            return window.getShort(pos) & 0xffff;
+        else
+            return window.getShort(pos);
+    }
+
+    /**
+     * Reads a float in the byte order and format of the processor that wrote
+     * the file. DEC files hold VAX F floats, which have their 16 bit halves
+     * swapped relative to an Intel float and are 4 times as large.
+     */
+    private float readFloat(ByteBuffer b, int pos){
+        if(processor != PROCESSOR_DEC)
+            return b.getFloat(pos);
+
+        int bits = ((b.get(pos + 2) & 0xff)) | ((b.get(pos + 3) & 0xff) << 8)
+                 | ((b.get(pos) & 0xff) << 16) | ((b.get(pos + 1) & 0xff) << 24);
+        if((bits & 0x7f800000) == 0)
+            return 0;
+        return Float.intBitsToFloat(bits)/4;
+    }
+
+    private byte[] getBytes(int pos, int len){
+        byte[] bytes = new byte[len];
+        for(int k = 0; k < len; k++)
+            bytes[k] = buf.get(pos + k);
+        return bytes;
+    }
+
+    /**
+     * @return The number of values held by param
+     */
+    private static int getCount(int[] param){
+        int count = 1;
+        for(int d = 0; d < param[1]; d++)
+            count *= param[d + 2];
+        return count;
+    }
+
+    private int getInt(String key, int defaultValue){
+        int[] param = parameters.get(key);
+        if(param == null || getCount(param) < 1)
+            return defaultValue;
+        int pos = param[param[1] + 2];
+
+        if(param[0] == 2)       return buf.getShort(pos) & 0xffff;
+        else if(param[0] == 1)  return buf.get(pos) & 0xff;
+        else if(param[0] == 4)  return (int)readFloat(buf, pos);
+        return defaultValue;
+    }
+
+    private double getFloat(String key, double defaultValue){
+        double[] values = getFloats(key, 1, defaultValue);
+        return values[0];
+    }
+
+    private double[] getFloats(String key, int count, double defaultValue){
+        double[] values = new double[count];
+        for(int k = 0; k < count; k++)
+            values[k] = defaultValue;
+
+        int[] param = parameters.get(key);
+        if(param == null)
+            return values;
+        int pos = param[param[1] + 2];
+
+        for(int k = 0; k < Math.min(count, getCount(param)); k++){
+            if(param[0] == 4)       values[k] = readFloat(buf, pos + 4*k);
+            else if(param[0] == 2)  values[k] = buf.getShort(pos + 2*k);
+            else if(param[0] == 1)  values[k] = buf.get(pos + k);
+        }
+        return values;
+    }
+
+    private double[] getInts(String key, int count, boolean unsigned){
+        double[] values = new double[count];
+
+        int[] param = parameters.get(key);
+        if(param == null || param[0] != 2)
+            return getFloats(key, count, 0);
+        int pos = param[param[1] + 2];
+
+        for(int k = 0; k < Math.min(count, getCount(param)); k++){
+            values[k] = buf.getShort(pos + 2*k);
+            if(unsigned)
+                values[k] = (int)values[k] & 0xffff;
+        }
+        return values;
+    }
+
+    private String getString(String key, String defaultValue){
+        String[] strings = getStrings(key);
+        if(strings.length == 0)
+            return defaultValue;
+        return strings[0];
+    }
+
+    /**
+     * @return The strings of a character parameter, whose first dimension is
+     *         the length of each string
+     */
+    private String[] getStrings(String key){
+        int[] param = parameters.get(key);
+        if(param == null || param[0] != -1 || param[1] == 0)
+            return new String[0];
+        int pos = param[param[1] + 2];
+
+        int len = param[2];
+        int count = getCount(param)/Math.max(len, 1);
+        String[] strings = new String[count];
+        for(int k = 0; k < count; k++)
+            strings[k] = new String(getBytes(pos + k*len, len), StandardCharsets.ISO_8859_1).trim();
+        return strings;
+    }
+
+    /**
+     * @return The labels of group, including those continued in LABELS2, ...
+     */
+    private String[] getLabels(String group){
+        ArrayList<String> labels = new ArrayList<String>();
+        String key = group + ":LABELS";
+        int k = 2;
+        while(parameters.containsKey(key)){
+            for(String label : getStrings(key))
+                labels.add(label);
+            key = group + ":LABELS" + k;
+            k++;
+        }
+        return labels.toArray(new String[labels.size()]);
+    }
+
+    private static int indexOf(String[] labels, String label, int used){
+        for(int k = 0; k < Math.min(labels.length, used); k++){
+            if(labels[k].equalsIgnoreCase(label.trim()))
+                return k;
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,644 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * ChannelData.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.util.ArrayList;
+
+/**
+ * This class holds a table of numbers read in from one of the user's data
+ * files (time, X, Y, Z, ...). The values are stored column by column in
+ * primitive double arrays, so a column can be handed to the rest of the package
+ * without boxing every number or copying the whole table.
+ *
+ * For long sessions with large files the table can instead be stored as
+ * float32 (see isFloat32), which halves the memory it takes. The values are
+ * still handed out as doubles, so all of the math done with them is done in
+ * double precision; only the storage is rounded.
+ *
+ * A table can also be kept off the heap, in direct buffers or a memory mapped
+ * file (see OffHeapStore). The readers add the rows of a table that is made
+ * off the heap straight into its store, and a finished table can be moved
+ * there with moveOffHeap. The values are read the same way wherever the table
+ * is kept, and the tables made from an off heap table (by decimate, window
+ * and toFloat32) are kept off the heap too.
+ *
+ * Rows are appended one at a time. When the columns run out of room their
+ * capacity is doubled, so the cost of growing the table is amortized over
+ * all of the rows that are read. A ChannelData is the RowConsumer the readers
+ * push rows into when the whole table is wanted, and pushRows hands the rows
+ * of a finished table to any other RowConsumer.
+ *
+ * The smallest and largest value, sum of squares and number of NaNs of every
+ * column, and whether the times only ever increase, are gathered as the rows
+ * are added (see ColumnStats), so the elements that need them do not have to
+ * scan the table again.
+ *
+ * @author mjhmilla
+ */
+public class ChannelData implements RowConsumer {
+
+    private double[][] columns;         //null when stored as float32
+    private float[][] floatColumns;     //null when stored as float64
+    private OffHeapStore store;         //null when stored on the heap
+    private int rows;
+    private int cols;
+    private String[] names;
+    private ColumnStats stats;          //null until the first row is added
+    private double[] statsRow;          //the rounded row, for float32
+
+    private int defaultRowNum = 1000;
+
+    /**
+     * @param numCols       : The number of columns in the table
+     * @param initialRows   : A guess at the number of rows, used to size the
+     *                        columns. If this is less than 1 a default is used.
+     */
+    public ChannelData(int numCols, int initialRows){
+        this(numCols, initialRows, false);
+    }
+
+    /**
+     * @param numCols       : The number of columns in the table
+     * @param initialRows   : A guess at the number of rows, used to size the
+     *                        columns. If this is less than 1 a default is used.
+     * @param float32       : If true the values are stored as floats
+     */
+    public ChannelData(int numCols, int initialRows, boolean float32){
+        cols = numCols;
+        rows = 0;
+
+        if(initialRows < 1)
+            initialRows = defaultRowNum;
+
+        if(float32)
+            floatColumns = new float[cols][initialRows];
+        else
+            columns = new double[cols][initialRows];
+    }
+
+    /**
+     * Wraps columns that have already been filled in. The arrays are used as
+     * they are, not copied.
+     *
+     * @param filledColumns : The columns of the table, each at least numRows long
+     * @param numRows       : The number of rows in the table
+     */
+    public ChannelData(double[][] filledColumns, int numRows){
+        columns = filledColumns;
+        cols = filledColumns.length;
+        rows = numRows;
+    }
+
+    /**
+     * Wraps float32 columns that have already been filled in. The arrays are
+     * used as they are, not copied.
+     *
+     * @param filledColumns : The columns of the table, each at least numRows long
+     * @param numRows       : The number of rows in the table
+     */
+    public ChannelData(float[][] filledColumns, int numRows){
+        floatColumns = filledColumns;
+        cols = filledColumns.length;
+        rows = numRows;
+    }
+
+    /**
+     * Makes an empty table off the heap, which rows are added to as usual.
+     *
+     * @param numCols : The number of columns in the table
+     * @param float32 : If true the values are stored as floats
+     * @param space   : The room to keep the table in
+     */
+    public ChannelData(int numCols, boolean float32, OffHeapStore.Space space){
+        this(OffHeapStore.allocate(0, numCols, float32, space));
+    }
+
+    /**
+     * Wraps a table that is held off the heap.
+     *
+     * @param offHeapStore : The table
+     */
+    public ChannelData(OffHeapStore offHeapStore){
+        store = offHeapStore;
+        cols = offHeapStore.numCol();
+        rows = offHeapStore.numRows();
+    }
+
+    /**
+     * @return true if the values are stored as floats rather than doubles
+     */
+    public boolean isFloat32(){
+        if(store != null)
+            return store.isFloat32();
+        return floatColumns != null;
+    }
+
+    /**
+     * @return true if the table is held off the heap
+     */
+    public boolean isOffHeap(){
+        return store != null;
+    }
+
+    /**
+     * Copies the table off the heap, so that the arrays of this table can be
+     * collected. This is for the readers that cannot add their rows to a
+     * table off the heap as they read them.
+     *
+     * @param space : The room to keep the table in, or null to keep it here
+     * @return A copy of this table held off the heap, or this table if it is
+     *         already off the heap or if space is null
+     */
+    public ChannelData moveOffHeap(OffHeapStore.Space space){
+        if(store != null || space == null)
+            return this;
+
+        OffHeapStore offHeap = OffHeapStore.allocate(rows, cols, isFloat32(), space);
+        for(int j = 0; j < cols; j++){
+            for(int i = 0; i < rows; i++)
+                offHeap.set(i, j, get(i, j));
+        }
+
+        ChannelData data = new ChannelData(offHeap);
+        data.setColumnNames(names);
+        if(hasStats())
+            data.stats = stats;
+        return data;
+    }
+
+    /**
+     * @return A float32 copy of the table, or this table if it is already
+     *         stored as float32
+     */
+    public ChannelData toFloat32(){
+        if(isFloat32())
+            return this;
+
+        if(store != null && store.getSpace() != null){
+            ChannelData data = new ChannelData(cols, true, store.getSpace());
+            pushRows(data);
+            data.setColumnNames(names);
+            return data;
+        }
+
+        float[][] rounded = new float[cols][rows];
+        for(int j = 0; j < cols; j++){
+            for(int i = 0; i < rows; i++)
+                rounded[j][i] = (float)get(i, j);
+        }
+
+        ChannelData data = new ChannelData(rounded, rows);
+        data.setColumnNames(names);
+        return data;
+    }
+
+    /**
+     * Appends one row to the end of the table. Only the first numCol() entries
+     * of row are used.
+     *
+     * @param row : The values of the new row, one per column
+     */
+    public void addRow(double[] row){
+        if(cols == 0)
+            return;
+
+        //A store off the heap grows by itself
+        if(store == null && rows == capacity())
+            resize(Math.max(2*rows, defaultRowNum));
+
+        if(rows == 0 && stats == null)
+            stats = new ColumnStats(cols);
+
+        if(store != null){
+            if(store.isFloat32()){
+                if(statsRow == null)
+                    statsRow = new double[cols];
+                for(int j = 0; j < cols; j++)
+                    statsRow[j] = (float)row[j];
+                store.addRow(statsRow);
+                if(stats != null)
+                    stats.add(statsRow);
+            }else{
+                store.addRow(row);
+                if(stats != null)
+                    stats.add(row);
+            }
+        }else if(floatColumns != null){
+            if(statsRow == null)
+                statsRow = new double[cols];
+            for(int j = 0; j < cols; j++){
+                floatColumns[j][rows] = (float)row[j];
+                statsRow[j] = floatColumns[j][rows];
+            }
+            if(stats != null)
+                stats.add(statsRow);
+        }else{
+            for(int j = 0; j < cols; j++)
+                columns[j][rows] = row[j];
+            if(stats != null)
+                stats.add(row);
+        }
+
+        rows++;
+    }
+
+    /**
+     * The number of columns is set when the table is made, so there is
+     * nothing to do here.
+     */
+    public void start(int numCols){
+    }
+
+    /**
+     * Called by the readers after the last row; the same as trimToSize().
+     */
+    public void finish(){
+        trimToSize();
+    }
+
+    /**
+     * Hands the rows of the table, in order, to consumer.
+     */
+    public void pushRows(RowConsumer consumer){
+        double[] row = new double[cols];
+
+        consumer.start(cols);
+        for(int i = 0; i < rows; i++){
+            for(int j = 0; j < cols; j++)
+                row[j] = get(i, j);
+            consumer.addRow(row);
+        }
+        consumer.finish();
+    }
+
+    /**
+     * Shrinks the columns so that they hold exactly numRows() values. This is
+     * called by the parsers once the last row has been read.
+     */
+    public void trimToSize(){
+        if(cols > 0 && capacity() != rows)
+            resize(rows);
+    }
+
+    private int capacity(){
+        if(store != null)
+            return rows;
+        return (floatColumns != null) ? floatColumns[0].length : columns[0].length;
+    }
+
+    private void resize(int capacity){
+        for(int j = 0; j < cols; j++){
+            if(floatColumns != null){
+                float[] tempColumn = new float[capacity];
+                System.arraycopy(floatColumns[j], 0, tempColumn, 0, Math.min(rows, capacity));
+                floatColumns[j] = tempColumn;
+            }else{
+                double[] tempColumn = new double[capacity];
+                System.arraycopy(columns[j], 0, tempColumn, 0, Math.min(rows, capacity));
+                columns[j] = tempColumn;
+            }
+        }
+    }
+
+    /**
+     * Joins tables with the same columns end to end, in the order given.
+     *
+     * @param parts : The tables to join
+     * @param count : The number of entries of parts to use
+     * @return A new table holding the rows of parts[0], then parts[1], ...
+     */
+    public static ChannelData concat(ChannelData[] parts, int count){
+        int totalRows = 0;
+        for(int k = 0; k < count; k++)
+            totalRows += parts[k].rows;
+
+        ChannelData joined;
+        if(parts[0].store != null && parts[0].store.getSpace() != null){
+            OffHeapStore offHeap = OffHeapStore.allocate(totalRows, parts[0].cols, parts[0].isFloat32(), parts[0].store.getSpace());
+            int row = 0;
+            for(int k = 0; k < count; k++){
+                for(int i = 0; i < parts[k].rows; i++, row++){
+                    for(int j = 0; j < parts[k].cols; j++)
+                        offHeap.set(row, j, parts[k].get(i, j));
+                }
+            }
+            joined = new ChannelData(offHeap);
+        }else{
+            joined = new ChannelData(parts[0].cols, totalRows, parts[0].isFloat32());
+            for(int k = 0; k < count; k++){
+                for(int j = 0; j < joined.cols; j++){
+                    if(joined.floatColumns != null)
+                        System.arraycopy(parts[k].floatColumns[j], 0, joined.floatColumns[j], joined.rows, parts[k].rows);
+                    else
+                        System.arraycopy(parts[k].columns[j], 0, joined.columns[j], joined.rows, parts[k].rows);
+                }
+                joined.rows += parts[k].rows;
+            }
+        }
+
+        joined.stats = new ColumnStats(joined.cols);
+        for(int k = 0; k < count; k++)
+            joined.stats.merge(parts[k].getStats());
+        return joined;
+    }
+
+    /**
+     * @return  the value at row, col
+     */
+    public double get(int row, int col){
+        if(store != null)
+            return store.get(row, col);
+        if(floatColumns != null)
+            return floatColumns[col][row];
+        return columns[col][row];
+    }
+
+    /**
+     * @return  A copy of column col, numRows() long
+     */
+    public double[] getColumn(int col){
+        double[] column = new double[rows];
+        if(store != null){
+            for(int i = 0; i < rows; i++)
+                column[i] = store.get(i, col);
+        }else if(floatColumns != null){
+            for(int i = 0; i < rows; i++)
+                column[i] = floatColumns[col][i];
+        }else{
+            System.arraycopy(columns[col], 0, column, 0, rows);
+        }
+        return column;
+    }
+
+    /**
+     * @return  A 2D data table of doubles, one row per index, in the same
+     *          layout as TextParser.getDoubleData()
+     */
+    public double[][] getDoubleData(){
+        double[][] doubleData = new double[rows][cols];
+
+        for(int j = 0; j < cols; j++){
+            for(int i = 0; i < rows; i++)
+                doubleData[i][j] = get(i, j);
+        }
+        return doubleData;
+    }
+
+    /**
+     * @return  the summary of the columns of the table. The summary of a table
+     *          that was read a row at a time was gathered as it was read; that
+     *          of any other table is worked out the first time it is asked for.
+     */
+    public ColumnStats getStats(){
+        if(!hasStats())
+            stats = ColumnStats.of(this);
+        return stats;
+    }
+
+    /**
+     * @return  true if the summary of the columns is up to date
+     */
+    private boolean hasStats(){
+        return stats != null && stats.numRows() == rows;
+    }
+
+    /**
+     * Names the columns of the table, for the file formats that carry names.
+     *
+     * @param columnNames : One name per column
+     */
+    public void setColumnNames(String[] columnNames){
+        names = columnNames;
+    }
+
+    /**
+     * @return  the name of column col, or null if the columns are not named
+     */
+    public String getColumnName(int col){
+        if(names == null || col >= names.length)
+            return null;
+        return names[col];
+    }
+
+    /**
+     * @return  the index of the column called name, or -1 if there is none
+     */
+    public int findColumn(String name){
+        if(names == null)
+            return -1;
+        for(int j = 0; j < names.length; j++){
+            if(name.equals(names[j]))
+                return j;
+        }
+        return -1;
+    }
+
+    /**
+     * Picks columns out of the table by name. Column 0 (time) is always kept.
+     * A name matches either the column of that name or the three columns
+     * name_X, name_Y and name_Z.
+     *
+     * @param columnNames : The names of the columns to keep, in order
+     * @param sourceName  : The name of the data source, used in error messages
+     * @return A new table sharing the chosen columns with this one
+     */
+    public ChannelData select(String[] columnNames, String sourceName){
+        ArrayList<Integer> picked = new ArrayList<Integer>();
+        picked.add(0);
+
+        for(String n : columnNames){
+            int j = findColumn(n);
+            if(j != -1){
+                picked.add(j);
+            }else if(findColumn(n + "_X") != -1){
+                picked.add(findColumn(n + "_X"));
+                picked.add(findColumn(n + "_Y"));
+                picked.add(findColumn(n + "_Z"));
+            }else{
+                System.out.println("Error: There is no column named " + n + " in " + sourceName);
+            }
+        }
+
+        int[] selected = new int[picked.size()];
+        for(int k = 0; k < selected.length; k++)
+            selected[k] = picked.get(k);
+
+        return pick(selected, rows);
+    }
+
+    /**
+     * Picks columns out of the table by index, for readers that can not skip
+     * columns as they read.
+     *
+     * @param columnIndices : The columns to keep, in order, or null to keep all.
+     *                        Columns that the table does not have are left out.
+     * @return A table sharing the chosen columns with this one, or this table
+     *         if columnIndices is null
+     */
+    public ChannelData project(int[] columnIndices){
+        if(columnIndices == null)
+            return this;
+
+        int numCols = 0;
+        int[] projected = new int[columnIndices.length];
+        for(int k = 0; k < columnIndices.length; k++){
+            if(columnIndices[k] < cols)
+                projected[numCols++] = columnIndices[k];
+        }
+
+        int[] kept = new int[numCols];
+        System.arraycopy(projected, 0, kept, 0, numCols);
+        return pick(kept, rows);
+    }
+
+    /**
+     * @param picked : The columns to keep, in order; -1 gives a column of zeros
+     * @return A new table sharing the picked columns with this one
+     */
+    private ChannelData pick(int[] picked, int numRows){
+        String[] pickedNames = new String[picked.length];
+        for(int k = 0; k < picked.length; k++)
+            pickedNames[k] = (picked[k] == -1) ? null : getColumnName(picked[k]);
+
+        ChannelData data;
+        if(store != null){
+            data = new ChannelData(store.pick(picked));
+        }else if(floatColumns != null){
+            float[][] pickedColumns = new float[picked.length][];
+            for(int k = 0; k < picked.length; k++)
+                pickedColumns[k] = (picked[k] == -1) ? new float[numRows] : floatColumns[picked[k]];
+            data = new ChannelData(pickedColumns, numRows);
+        }else{
+            double[][] pickedColumns = new double[picked.length][];
+            for(int k = 0; k < picked.length; k++)
+                pickedColumns[k] = (picked[k] == -1) ? new double[numRows] : columns[picked[k]];
+            data = new ChannelData(pickedColumns, numRows);
+        }
+        data.setColumnNames(pickedNames);
+        if(hasStats())
+            data.stats = stats.pick(picked);
+        return data;
+    }
+
+    /**
+     * Picks every stride'th row out of the table, starting with the first, for
+     * readers that can not skip rows as they read.
+     *
+     * @param stride : The number of rows of this table for every row kept
+     * @return A new table holding the kept rows, or this table if stride is 1
+     */
+    public ChannelData decimate(int stride){
+        if(stride <= 1)
+            return this;
+
+        int keptRows = (rows + stride - 1)/stride;
+        ChannelData data = newTable(keptRows);
+        double[] row = new double[cols];
+        for(int i = 0; i < keptRows; i++){
+            for(int j = 0; j < cols; j++)
+                row[j] = get(i*stride, j);
+            data.addRow(row);
+        }
+
+        data.setColumnNames(names);
+        return data;
+    }
+
+    /**
+     * Picks the rows whose time (column 0) is at least startTime and at most
+     * endTime out of the table, for readers that can not skip rows as they read.
+     * If the times never decrease the first and last rows are searched for,
+     * rather than every row being looked at.
+     *
+     * @param startTime : The time of the first row wanted
+     * @param endTime   : The time of the last row wanted
+     * @return A new table holding the kept rows
+     */
+    public ChannelData window(double startTime, double endTime){
+        int first = 0;
+        int last = rows;
+        if(hasStats() && stats.isTimeSorted()){
+            first = findFirstRow(startTime, false);
+            last = findFirstRow(endTime, true);
+        }
+
+        ChannelData data = newTable(Math.max(last - first, 16));
+        double[] row = new double[cols];
+        for(int i = first; i < last; i++){
+            double time = get(i, 0);
+            if(time < startTime || time > endTime)
+                continue;
+            for(int j = 0; j < cols; j++)
+                row[j] = get(i, j);
+            data.addRow(row);
+        }
+
+        data.trimToSize();
+        data.setColumnNames(names);
+        return data;
+    }
+
+    /**
+     * @param initialRows : A guess at the number of rows
+     * @return An empty table with the columns of this one, kept off the heap
+     *         if this one was made there
+     */
+    private ChannelData newTable(int initialRows){
+        if(store != null && store.getSpace() != null)
+            return new ChannelData(cols, isFloat32(), store.getSpace());
+        return new ChannelData(cols, initialRows, isFloat32());
+    }
+
+    /**
+     * @param time  : The time to search for
+     * @param after : If true the first row later than time is found, otherwise
+     *                the first row at or later than time
+     * @return The first such row of a table whose times never decrease, or
+     *         numRows() if there is none
+     */
+    private int findFirstRow(double time, boolean after){
+        int lo = 0;
+        int hi = rows;
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            double t = get(mid, 0);
+            if(after ? (t <= time) : (t < time))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return  the number of rows in the table
+     */
+    public int numRows(){
+        return rows;
+    }
+
+    /**
+     * @return  the number of columns in the table
+     */
+    public int numCol(){
+        return cols;
+    }
+
+}
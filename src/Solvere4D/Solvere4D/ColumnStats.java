@@ -0,0 +1,258 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * ColumnStats.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+/**
+ * This class holds a summary of every column of a table: its smallest and
+ * largest value, the sum of the squares of its values, and the number of
+ * values that are not numbers (NaN). It also records whether the times of the
+ * table (column 0) never decrease, and whether they always increase.
+ *
+ * A ChannelData gathers its summary as its rows are added, so a table that
+ * has been parsed from a text file has its summary ready without its columns
+ * being scanned again (see ChannelData.getStats). Values that are NaN are
+ * counted, but are left out of the smallest and largest values and of the sum
+ * of squares; a column with no numbers at all has a smallest value of
+ * +infinity and a largest value of -infinity.
+ *
+ * @author mjhmilla
+ */
+public class ColumnStats {
+
+    private int cols;
+    private int rows;
+    private double[] min;
+    private double[] max;
+    private double[] sumSq;
+    private int[] nanCount;
+
+    private double firstTime;
+    private double lastTime;
+    private boolean timeSorted;
+    private boolean timeIncreasing;
+
+    /**
+     * @param numCols : The number of columns in the table
+     */
+    public ColumnStats(int numCols){
+        cols = numCols;
+        min = new double[cols];
+        max = new double[cols];
+        sumSq = new double[cols];
+        nanCount = new int[cols];
+        for(int j = 0; j < cols; j++){
+            min[j] = Double.POSITIVE_INFINITY;
+            max[j] = Double.NEGATIVE_INFINITY;
+        }
+        timeSorted = true;
+        timeIncreasing = true;
+    }
+
+    /**
+     * Summarizes every row of a table that was not made a row at a time, such
+     * as one read from a binary or cache file.
+     *
+     * @param data : The table
+     * @return The summary of the table
+     */
+    public static ColumnStats of(ChannelData data){
+        ColumnStats stats = new ColumnStats(data.numCol());
+        double[] row = new double[data.numCol()];
+        for(int i = 0; i < data.numRows(); i++){
+            for(int j = 0; j < row.length; j++)
+                row[j] = data.get(i, j);
+            stats.add(row);
+        }
+        return stats;
+    }
+
+    /**
+     * Adds one row to the summary. Only the first numCol() entries of row are
+     * used.
+     *
+     * @param row : The values of the row, one per column
+     */
+    public void add(double[] row){
+        for(int j = 0; j < cols; j++){
+            double value = row[j];
+            if(value != value){
+                nanCount[j]++;
+                continue;
+            }
+            if(value < min[j])
+                min[j] = value;
+            if(value > max[j])
+                max[j] = value;
+            sumSq[j] += value*value;
+        }
+
+        if(cols > 0){
+            double time = row[0];
+            if(rows == 0){
+                firstTime = time;
+            }else{
+                if(!(time >= lastTime))
+                    timeSorted = false;
+                if(!(time > lastTime))
+                    timeIncreasing = false;
+            }
+            lastTime = time;
+        }
+        rows++;
+    }
+
+    /**
+     * Adds the summary of the rows that follow the rows of this summary, for
+     * tables that are read in pieces and then joined (see
+     * DataReader.readParallel).
+     *
+     * @param later : The summary of the rows that come after these ones
+     */
+    public void merge(ColumnStats later){
+        if(later.rows == 0)
+            return;
+
+        for(int j = 0; j < cols; j++){
+            min[j] = Math.min(min[j], later.min[j]);
+            max[j] = Math.max(max[j], later.max[j]);
+            sumSq[j] += later.sumSq[j];
+            nanCount[j] += later.nanCount[j];
+        }
+
+        if(rows == 0){
+            firstTime = later.firstTime;
+        }else{
+            if(!(later.firstTime >= lastTime))
+                timeSorted = false;
+            if(!(later.firstTime > lastTime))
+                timeIncreasing = false;
+        }
+        timeSorted = timeSorted && later.timeSorted;
+        timeIncreasing = timeIncreasing && later.timeIncreasing;
+        lastTime = later.lastTime;
+        rows += later.rows;
+    }
+
+    /**
+     * @param picked : The columns to keep, in order; -1 gives a column of zeros
+     * @return The summary of a table made of the picked columns of this one
+     *         (see ChannelData.project), or null if its times (column 0) are
+     *         not column 0 of this table
+     */
+    public ColumnStats pick(int[] picked){
+        if(picked.length > 0 && picked[0] != 0)
+            return null;
+
+        ColumnStats stats = new ColumnStats(picked.length);
+        for(int k = 0; k < picked.length; k++){
+            int j = picked[k];
+            if(j == -1){
+                stats.min[k] = (rows > 0) ? 0 : Double.POSITIVE_INFINITY;
+                stats.max[k] = (rows > 0) ? 0 : Double.NEGATIVE_INFINITY;
+            }else{
+                stats.min[k] = min[j];
+                stats.max[k] = max[j];
+                stats.sumSq[k] = sumSq[j];
+                stats.nanCount[k] = nanCount[j];
+            }
+        }
+        stats.rows = rows;
+        stats.firstTime = firstTime;
+        stats.lastTime = lastTime;
+        stats.timeSorted = timeSorted;
+        stats.timeIncreasing = timeIncreasing;
+        return stats;
+    }
+
+    /**
+     * @return The number of rows summarized
+     */
+    public int numRows(){
+        return rows;
+    }
+
+    /**
+     * @return The number of columns summarized
+     */
+    public int numCol(){
+        return cols;
+    }
+
+    /**
+     * @return The smallest value of column col that is a number
+     */
+    public double getMin(int col){
+        return min[col];
+    }
+
+    /**
+     * @return The largest value of column col that is a number
+     */
+    public double getMax(int col){
+        return max[col];
+    }
+
+    /**
+     * @return The sum of the squares of the values of column col that are
+     *         numbers
+     */
+    public double getSumOfSquares(int col){
+        return sumSq[col];
+    }
+
+    /**
+     * @return The number of values of column col that are not numbers
+     */
+    public int getNaNCount(int col){
+        return nanCount[col];
+    }
+
+    /**
+     * @return The number of values in the whole table that are not numbers
+     */
+    public int getNaNCount(){
+        int count = 0;
+        for(int j = 0; j < cols; j++)
+            count += nanCount[j];
+        return count;
+    }
+
+    /**
+     * @return The time (column 0) of the last row
+     */
+    public double getLastTime(){
+        return lastTime;
+    }
+
+    /**
+     * @return true if the times (column 0) never decrease from row to row
+     */
+    public boolean isTimeSorted(){
+        return timeSorted;
+    }
+
+    /**
+     * @return true if the times (column 0) increase from every row to the next
+     */
+    public boolean isTimeIncreasing(){
+        return timeIncreasing;
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * DataFollower.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * This class follows a text data file that is still being written (by a
+ * simulation that is running, say), and pushes the rows that have been added
+ * to the end of the file since it was last read into a RowConsumer. It
+ * remembers the byte offset just after the last complete line it has read, so
+ * every call to update parses only the new lines. A line that has not yet
+ * been finished (whose new line has not been written) is left until it has.
+ * The stride of the ReadOptions follows the rows of the whole file, however
+ * many updates they arrive in.
+ *
+ * The consumer is started once, before its first row, and is then given the
+ * new rows of every update. Its finish is left to the caller, so that other
+ * elements whose key frames depend on these rows can be finished along with
+ * it (see Solvere4D.updateAnimationData).
+ *
+ * Rows that are later than the last key frame of the animation (see TimeBase)
+ * are held back, rather than being left out as they would be by the consumer,
+ * until the file that sets the key frames has caught up with them.
+ *
+ * Compressed and binary files, and files that several elements are made
+ * from (see DataReader.getColumnGroup), cannot be followed.
+ *
+ * @author mjhmilla
+ */
+public class DataFollower implements RowConsumer {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private String filePath;
+    private ReadOptions options;
+    private RowConsumer consumer;
+    private TimeBase timeBase;
+
+    private long offset;
+    private int rowsRead;
+    private boolean ended;
+
+    //Used while the rows are being pushed in
+    private boolean started;
+    private int rowsPushed;
+    private boolean changed;
+    private ArrayDeque<double[]> heldRows;
+
+    /**
+     * @param absoluteFilePath : The complete file path of the data file
+     * @param readOptions      : The columns and rows to keep; a time window
+     *                           cannot be used
+     * @param rowConsumer      : The consumer of the rows of the file
+     * @param animationTimes   : The key frames of the animation, or null if
+     *                           no row should be held back
+     */
+    public DataFollower(String absoluteFilePath, ReadOptions readOptions, RowConsumer rowConsumer, TimeBase animationTimes){
+        filePath = absoluteFilePath;
+        options = readOptions;
+        consumer = rowConsumer;
+        timeBase = animationTimes;
+        heldRows = new ArrayDeque<double[]>();
+    }
+
+    /**
+     * @return true if the file at absoluteFilePath can be followed
+     */
+    public static boolean canFollow(String absoluteFilePath){
+        return !DataReader.isBinary(absoluteFilePath) && !DataReader.isCompressed(absoluteFilePath)
+                && DataReader.getSelection(absoluteFilePath) == null && DataReader.getColumnGroup(absoluteFilePath) == null;
+    }
+
+    /**
+     * Pushes the rows that have been completed since the last update (or, the
+     * first time, every complete row of the file) into the consumer.
+     *
+     * @return true if any rows were pushed into the consumer
+     */
+    public boolean update(){
+        changed = false;
+
+        //Rows that were held back may now be within the animation
+        releaseHeldRows();
+
+        if(ended)
+            return changed;
+
+        File dataFile = new File(filePath);
+        long size = dataFile.length();
+        if(size < offset){
+            System.out.println("Error: " + filePath + " is shorter than when it was last read, it is no longer followed");
+            ended = true;
+            return changed;
+        }
+
+        try{
+            RandomAccessFile file = new RandomAccessFile(dataFile, "r");
+            long end = findLastLineEnd(file, offset, size);
+
+            if(end > offset){
+                NumericParser parser = new NumericParser(filePath);
+                parser.setConsumer(this);
+                parser.setProjection(options.getColumns());
+                parser.setStride(options.getStride());
+                parser.setFirstRow(rowsRead);
+
+                byte[] buf = new byte[BUFFER_SIZE];
+                file.seek(offset);
+                long pos = offset;
+                while(pos < end && !parser.isFinished()){
+                    int n = file.read(buf, 0, (int)Math.min(buf.length, end - pos));
+                    if(n == -1)
+                        break;
+                    for(int i = 0; i < n; i++){
+                        if(buf[i] == '\n')
+                            rowsRead++;
+                    }
+                    parser.parse(buf, 0, n);
+                    pos += n;
+                }
+
+                //An empty line ends the table, so nothing after it is read
+                if(parser.isFinished())
+                    ended = true;
+                parser.finish();
+                offset = end;
+            }else if(!started){
+                //The consumer is started even if the file has no rows yet
+                start(0);
+            }
+
+            file.close();
+
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in DataFollower");
+            ioe.printStackTrace();
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return The offset just after the last new line between start and size,
+     *         or start if there is none
+     */
+    private static long findLastLineEnd(RandomAccessFile file, long start, long size) throws IOException{
+        byte[] buf = new byte[BUFFER_SIZE];
+        long pos = size;
+        while(pos > start){
+            int n = (int)Math.min(buf.length, pos - start);
+            pos -= n;
+            file.seek(pos);
+            file.readFully(buf, 0, n);
+            for(int i = n-1; i >= 0; i--){
+                if(buf[i] == '\n')
+                    return pos + i + 1;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Passes the rows that were held back, and that are no longer later than
+     * the last key frame of the animation, on to the consumer.
+     */
+    private void releaseHeldRows(){
+        while(!heldRows.isEmpty() && !timeBase.isAfterEnd(heldRows.peekFirst()[0])){
+            consumer.addRow(heldRows.pollFirst());
+            rowsPushed++;
+            changed = true;
+        }
+    }
+
+    /**
+     * @return The consumer of the rows of the file
+     */
+    public RowConsumer getConsumer(){
+        return consumer;
+    }
+
+    /**
+     * Every update parses its lines with a new NumericParser, which starts
+     * the consumer again; it is only really started again while it has no
+     * rows.
+     */
+    public void start(int numCols){
+        if(!started || rowsPushed == 0){
+            consumer.start(numCols);
+            started = true;
+        }
+    }
+
+    public void addRow(double[] row){
+        if(timeBase != null && (!heldRows.isEmpty() || timeBase.isAfterEnd(row[0]))){
+            heldRows.addLast(row.clone());
+            return;
+        }
+        consumer.addRow(row);
+        rowsPushed++;
+        changed = true;
+    }
+
+    /**
+     * The consumer is finished by the caller of update.
+     */
+    public void finish(){
+    }
+
+}
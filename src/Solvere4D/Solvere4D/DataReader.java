@@ -0,0 +1,874 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * DataReader.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.FileNotFoundException;
+import java.util.zip.GZIPInputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class is the single place the rest of the package goes to read one of
+ * the user's numeric data files (bodies, the camera, forces, markers, 3D plots,
+ * stick figures and moving labels) into a ChannelData table.
+ *
+ * Large files are memory mapped with FileChannel.map and the NumericParser
+ * reads the ASCII numbers directly out of the mapped pages, so the bytes of
+ * the file are never decoded into characters, copied into line Strings or cut
+ * into field Strings. Files are mapped in windows of at most MAP_WINDOW bytes,
+ * so files larger than 2 GB can be read as well. Small files are read through
+ * a plain stream, since setting up a mapping costs more than it saves for them.
+ *
+ * Very large files are split at line boundaries into one chunk per processor
+ * and the chunks are parsed at the same time on a ForkJoinPool. The column
+ * count is taken from the first line of the file and handed to every chunk,
+ * and the chunks are joined back together in file order, so the result is
+ * identical to reading the file from start to end (including stopping at the
+ * first empty line).
+ *
+ * When only every n'th row is needed (the scene is down sampled) the rows in
+ * between are skipped by the parser for text files, and dropped right after
+ * reading for the binary formats, so every element gets the same rows.
+ *
+ * Text files compressed with gzip (their names end in ".gz", for example
+ * "HatPosOrien.dat.gz") are decompressed as they are read, through a
+ * GZIPInputStream, without a temporary copy. Compressed files cannot be mapped
+ * or split into chunks, so they are always read from start to end.
+ *
+ * When only a time window of a text file is needed (see ReadOptions), the
+ * file is entered near the start of the window with the help of its
+ * TimeIndex, and parsing stops at the end of the window.
+ *
+ * Rows can also be streamed into a RowConsumer (see stream) instead of being
+ * collected into a table.
+ *
+ * Files in one of the binary formats (see BinaryFrameFile, C3DFile, MATFile
+ * and NPYFile) are recognized by their extension and handed to the matching
+ * reader instead. The channels to read from a file with named channels can be
+ * chosen by putting their names between braces after the file name, for
+ * example "trial.c3d{RASI LASI}", "kin.mat{time hip knee}" or
+ * "kin.npz{time hip knee}".
+ *
+ * Several elements can be made from one wide file (a solver that writes the
+ * state of every body of a run to a single file, say) by putting the columns
+ * of the file that an element uses between square brackets after its name,
+ * counting from 0 and in the order the element expects them. A body whose
+ * time, position and rotation matrix are in columns 0 and 13 to 24 of
+ * "run.dat" is given "run.dat[0 13-24]". A SceneLoader reads such a file only
+ * once, however many elements are made from it.
+ *
+ * @author mjhmilla
+ */
+public class DataReader {
+
+    /** Files smaller than this are streamed rather than mapped */
+    public static final long MAP_THRESHOLD = 1L << 20;
+
+    /** Files at least this large are split into chunks and parsed in parallel */
+    public static final long PARALLEL_THRESHOLD = 16L << 20;
+
+    /** The largest piece of a file that is mapped at one time */
+    private static final long MAP_WINDOW = 1L << 30;
+
+    /** The size of the buffer a compressed file is decompressed through */
+    private static final int GZIP_BUFFER = 65536;
+
+    private static ForkJoinPool parsePool;
+
+    /**
+     * Reads a numeric data file, mapping it into memory if it is large.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @return The table of data in the file
+     */
+    public static ChannelData read(String absoluteFilePath){
+        return read(absoluteFilePath, new ReadOptions());
+    }
+
+    /**
+     * Reads the part of a numeric data file described by options.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @param options          : The part of the file that is needed
+     * @return The table of data in the file
+     */
+    public static ChannelData read(String absoluteFilePath, ReadOptions options){
+        int[] group = getColumnGroup(absoluteFilePath);
+        if(group != null)
+            return read(getFilePath(absoluteFilePath), getGroupOptions(group, options));
+        
+        String[] selection = getSelection(absoluteFilePath);
+        absoluteFilePath = getFilePath(absoluteFilePath);
+        int[] columns = options.getColumns();
+        int stride = options.getStride();
+
+        if(isCompressed(absoluteFilePath) || (options.hasTimeWindow() && !isBinary(absoluteFilePath))){
+            if(isBinary(getUncompressedPath(absoluteFilePath)))
+                System.out.println("Error: Compressed binary files cannot be read, decompress " + absoluteFilePath + " first");
+            if(selection != null)
+                System.out.println("Error: Channels cannot be chosen by name from the text file "
+                        + absoluteFilePath + ", the whole file is read");
+            if(options.hasTimeWindow())
+                return readWindow(absoluteFilePath, options, null);
+            return NumericParser.parseFile(absoluteFilePath, options);
+        }
+
+        ChannelData data = null;
+        if(C3DFile.isC3DFile(absoluteFilePath))
+            data = C3DFile.read(absoluteFilePath, selection);
+        else if(MATFile.isMATFile(absoluteFilePath))
+            data = MATFile.read(absoluteFilePath, selection);
+        else if(NPYFile.isNPYFile(absoluteFilePath))
+            data = NPYFile.read(absoluteFilePath, selection);
+        else if(BinaryFrameFile.isBinaryFrameFile(absoluteFilePath)){
+            data = BinaryFrameFile.read(absoluteFilePath);
+            if(selection != null)
+                data = data.select(selection, absoluteFilePath);
+        }
+
+        if(data != null){
+            if(options.hasTimeWindow())
+                data = data.window(options.getWindowStart(), options.getWindowEnd());
+            data = data.project(columns).decimate(stride);
+            if(options.isFloat32())
+                data = data.toFloat32();
+            //These readers make the whole table on the heap first
+            return data.moveOffHeap(options.getOffHeap());
+        }
+
+        if(selection != null)
+            System.out.println("Error: Channels cannot be chosen by name from the text file "
+                    + absoluteFilePath + ", the whole file is read");
+
+        File dataFile = new File(absoluteFilePath);
+
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        if(dataFile.length() >= PARALLEL_THRESHOLD && processors > 1)
+            return readParallel(absoluteFilePath, options, processors, getParsePool());
+        else if(dataFile.length() >= MAP_THRESHOLD)
+            return readMapped(absoluteFilePath, options);
+        else
+            return NumericParser.parseFile(absoluteFilePath, options);
+    }
+
+    /**
+     * Reads the part of a numeric data file described by options and pushes
+     * its rows into consumer one at a time, as they are read. Text files are
+     * parsed from start to end without ever building a table, so memory use
+     * does not grow with the length of the recording. The binary formats are
+     * read into a table first, since their readers need the whole file.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @param options          : The part of the file that is needed
+     * @param consumer         : The consumer of the rows
+     */
+    public static void stream(String absoluteFilePath, ReadOptions options, RowConsumer consumer){
+        int[] group = getColumnGroup(absoluteFilePath);
+        if(group != null){
+            stream(getFilePath(absoluteFilePath), getGroupOptions(group, options), consumer);
+            return;
+        }
+        
+        if(isBinary(absoluteFilePath)){
+            read(absoluteFilePath, options).pushRows(consumer);
+            return;
+        }
+
+        if(getSelection(absoluteFilePath) != null)
+            System.out.println("Error: Channels cannot be chosen by name from the text file "
+                    + getFilePath(absoluteFilePath) + ", the whole file is read");
+        absoluteFilePath = getFilePath(absoluteFilePath);
+
+        if(options.hasTimeWindow())
+            readWindow(absoluteFilePath, options, consumer);
+        else if(new File(absoluteFilePath).length() >= MAP_THRESHOLD && !isCompressed(absoluteFilePath))
+            readMapped(absoluteFilePath, options, consumer);
+        else
+            NumericParser.parseFile(absoluteFilePath, options, consumer);
+    }
+
+    /**
+     * Reads the part of a data file described by options from its contents,
+     * which are held in memory rather than in a file (see ScenePipe). Text
+     * files, compressed with gzip or not, and NumPy files can be read this
+     * way; the other binary formats need the file itself.
+     *
+     * @param contents         : The contents of the file
+     * @param absoluteFilePath : The complete file path of the data file, which
+     *                           gives its format, channels and column group
+     * @param options          : The part of the file that is needed
+     * @param consumer         : The consumer of the rows, or null to make a table
+     * @return The table of data in the file, or null if consumer was given
+     */
+    public static ChannelData readContents(byte[] contents, String absoluteFilePath, ReadOptions options, RowConsumer consumer){
+        int[] group = getColumnGroup(absoluteFilePath);
+        if(group != null)
+            return readContents(contents, getFilePath(absoluteFilePath), getGroupOptions(group, options), consumer);
+        
+        String[] selection = getSelection(absoluteFilePath);
+        absoluteFilePath = getFilePath(absoluteFilePath);
+
+        if(isBinary(getUncompressedPath(absoluteFilePath))){
+            ChannelData data;
+            if(NPYFile.isNPYFile(absoluteFilePath)){
+                data = NPYFile.read(contents, selection, absoluteFilePath);
+            }else{
+                System.out.println("Error: " + absoluteFilePath + " cannot be piped, only text and NumPy data files can");
+                data = new ChannelData(0, 1);
+            }
+            
+            if(options.hasTimeWindow())
+                data = data.window(options.getWindowStart(), options.getWindowEnd());
+            data = data.project(options.getColumns()).decimate(options.getStride());
+            if(options.isFloat32())
+                data = data.toFloat32();
+            
+            if(consumer == null)
+                return data.moveOffHeap(options.getOffHeap());
+            data.pushRows(consumer);
+            return null;
+        }
+
+        if(selection != null)
+            System.out.println("Error: Channels cannot be chosen by name from the text file "
+                    + absoluteFilePath + ", the whole file is read");
+
+        NumericParser parser = new NumericParser(absoluteFilePath);
+        parser.setConsumer(consumer);
+        parser.setProjection(options.getColumns());
+        parser.setStride(options.getStride());
+        parser.setFloat32(options.isFloat32());
+        parser.setOffHeap(options.getOffHeap());
+        if(options.hasTimeWindow())
+            parser.setTimeWindow(options.getWindowStart(), options.getWindowEnd(), false);
+
+        try{
+            if(isCompressed(absoluteFilePath)){
+                InputStream dataStream = new GZIPInputStream(new ByteArrayInputStream(contents), GZIP_BUFFER);
+                byte[] buf = new byte[GZIP_BUFFER];
+                int n = dataStream.read(buf);
+                while(n != -1 && !parser.isFinished()){
+                    parser.parse(buf, 0, n);
+                    n = dataStream.read(buf);
+                }
+                dataStream.close();
+            }else{
+                parser.setSizeHint(contents.length);
+                parser.parse(contents, 0, contents.length);
+            }
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in DataReader");
+            ioe.printStackTrace();
+        }
+
+        return parser.finish();
+    }
+
+    /**
+     * Reads the rows of a text data file that fall inside the time window of
+     * options. Parsing starts at the last row the file's TimeIndex has before
+     * the start of the window and, if the times in the file are in order,
+     * stops at the first row after its end.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @param options          : The columns, rows and time window to keep
+     * @param consumer         : The consumer of the rows, or null to make a table
+     * @return The table of data in the window, or null if consumer was given
+     */
+    public static ChannelData readWindow(String absoluteFilePath, ReadOptions options, RowConsumer consumer){
+        double start = options.getWindowStart();
+        double end = options.getWindowEnd();
+
+        TimeIndex index = TimeIndex.get(absoluteFilePath);
+        boolean sorted = (index != null && index.isSorted());
+
+        NumericParser parser = new NumericParser(absoluteFilePath);
+        parser.setConsumer(consumer);
+        parser.setProjection(options.getColumns());
+        parser.setTimeWindow(start, end, sorted);
+        parser.setStride(options.getStride());
+        parser.setFloat32(options.isFloat32());
+        parser.setOffHeap(options.getOffHeap());
+
+        long offset = 0;
+        if(sorted){
+            offset = index.getStartOffset(start);
+            parser.setFirstRow(index.getStartRow(start));
+        }
+
+        try{
+            InputStream dataStream = openStream(absoluteFilePath);
+            while(offset > 0){
+                long skipped = dataStream.skip(offset);
+                if(skipped <= 0)
+                    break;
+                offset -= skipped;
+            }
+
+            byte[] buf = new byte[GZIP_BUFFER];
+            int n = dataStream.read(buf);
+            while(n != -1 && !parser.isFinished()){
+                parser.parse(buf, 0, n);
+                n = dataStream.read(buf);
+            }
+            dataStream.close();
+
+        }catch(FileNotFoundException fnfe){
+            System.out.println("File not found exception thrown in DataReader");
+            fnfe.printStackTrace();
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in DataReader");
+            ioe.printStackTrace();
+        }
+
+        return parser.finish();
+    }
+
+    /**
+     * @return true if absoluteFilePath is in one of the binary formats, which
+     *         are not worth caching since they are not parsed
+     */
+    public static boolean isBinary(String absoluteFilePath){
+        absoluteFilePath = getFilePath(absoluteFilePath);
+        return BinaryFrameFile.isBinaryFrameFile(absoluteFilePath) || C3DFile.isC3DFile(absoluteFilePath)
+                || MATFile.isMATFile(absoluteFilePath) || NPYFile.isNPYFile(absoluteFilePath);
+    }
+
+    /**
+     * @return true if absoluteFilePath is compressed with gzip
+     */
+    public static boolean isCompressed(String absoluteFilePath){
+        return getFilePath(absoluteFilePath).toLowerCase().endsWith(".gz");
+    }
+
+    /**
+     * @return absoluteFilePath without its ".gz" extension, if it has one
+     */
+    public static String getUncompressedPath(String absoluteFilePath){
+        if(!isCompressed(absoluteFilePath))
+            return absoluteFilePath;
+        return absoluteFilePath.substring(0, absoluteFilePath.length() - 3);
+    }
+
+    /**
+     * Opens a file for reading from start to end, decompressing it on the fly
+     * if it is compressed with gzip. This is used for every text file, both
+     * data and geometry, that is not mapped.
+     *
+     * @param absoluteFilePath : The complete file path of the file
+     * @return A stream of the (decompressed) contents of the file
+     */
+    public static InputStream openStream(String absoluteFilePath) throws IOException{
+        InputStream in = new FileInputStream(absoluteFilePath);
+        if(!isCompressed(absoluteFilePath))
+            return in;
+
+        try{
+            return new GZIPInputStream(in, GZIP_BUFFER);
+        }catch(IOException ioe){
+            in.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * @return The number of bytes in the file once it is decompressed. For a
+     *         compressed file this is read from the end of the file, where
+     *         gzip keeps the size modulo 4 GB, so it is only an estimate for
+     *         very large files.
+     */
+    public static long getContentSize(String absoluteFilePath){
+        File file = new File(absoluteFilePath);
+        if(!isCompressed(absoluteFilePath) || file.length() < 4)
+            return file.length();
+
+        try{
+            RandomAccessFile gzFile = new RandomAccessFile(file, "r");
+            gzFile.seek(file.length() - 4);
+            long size = (gzFile.read() & 0xFF) | (gzFile.read() & 0xFF) << 8
+                      | (gzFile.read() & 0xFF) << 16 | ((long)(gzFile.read() & 0xFF)) << 24;
+            gzFile.close();
+            return Math.max(size, file.length());
+        }catch(IOException ioe){
+            return file.length();
+        }
+    }
+
+    /**
+     * @return fileName without the channel selection in braces or the column
+     *         group in square brackets, if it has one
+     */
+    public static String getFilePath(String fileName){
+        int s = fileName.indexOf("{");
+        int b = fileName.indexOf("[");
+        if(s == -1 || (b != -1 && b < s))
+            s = b;
+        if(s == -1)
+            return fileName;
+        return fileName.substring(0, s).trim();
+    }
+
+    /**
+     * @return The columns given in square brackets after fileName, for example
+     *         {0, 13, 14, ..., 24} for "run.dat[0 13-24]", or null if there
+     *         are none or they cannot be read
+     */
+    public static int[] getColumnGroup(String fileName){
+        int s = fileName.indexOf("[");
+        if(s == -1)
+            return null;
+        int e = fileName.indexOf("]", s);
+        if(e == -1)
+            e = fileName.length();
+
+        String[] ranges = fileName.substring(s+1, e).trim().split("\\s+");
+        int[] group = new int[0];
+        try{
+            for(int k = 0; k < ranges.length; k++){
+                if(ranges[k].length() == 0)
+                    continue;
+                int dash = ranges[k].indexOf("-", 1);
+                int first = Integer.parseInt(ranges[k].substring(0, (dash == -1) ? ranges[k].length() : dash));
+                int last = (dash == -1) ? first : Integer.parseInt(ranges[k].substring(dash+1));
+                if(first < 0 || last < first)
+                    throw new NumberFormatException(ranges[k]);
+
+                int[] tempGroup = new int[group.length + last - first + 1];
+                System.arraycopy(group, 0, tempGroup, 0, group.length);
+                for(int j = first; j <= last; j++)
+                    tempGroup[group.length + j - first] = j;
+                group = tempGroup;
+            }
+        }catch(NumberFormatException nfe){
+            System.out.println("Error: The columns " + fileName.substring(s) + " should be numbers or ranges (such as 13-24)"
+                    + " separated by spaces, the whole file " + getFilePath(fileName) + " is read");
+            return null;
+        }
+
+        return (group.length == 0) ? null : group;
+    }
+
+    /**
+     * @param group   : The columns of a file that an element is made from
+     * @param options : The columns of the group, and the rows, the element needs
+     * @return The same options, with the columns of the group translated into
+     *         columns of the file
+     */
+    public static ReadOptions getGroupOptions(int[] group, ReadOptions options){
+        int[] columns = options.getColumns();
+        if(columns == null)
+            return options.copyWithColumns(group);
+
+        int numCols = 0;
+        int[] fileColumns = new int[columns.length];
+        for(int k = 0; k < columns.length; k++){
+            if(columns[k] < group.length)
+                fileColumns[numCols++] = group[columns[k]];
+        }
+        int[] kept = new int[numCols];
+        System.arraycopy(fileColumns, 0, kept, 0, numCols);
+        return options.copyWithColumns(kept);
+    }
+
+    /**
+     * @return The channel names given in braces after fileName, or null if
+     *         there are none
+     */
+    public static String[] getSelection(String fileName){
+        int s = fileName.indexOf("{");
+        if(s == -1)
+            return null;
+        int e = fileName.indexOf("}", s);
+        if(e == -1)
+            e = fileName.length();
+
+        String labels = fileName.substring(s+1, e).trim();
+        if(labels.length() == 0)
+            return null;
+        return labels.split("\\s+");
+    }
+
+    /**
+     * Reads a numeric data file by mapping it into memory and parsing the
+     * mapped bytes in place.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @return The table of data in the file
+     */
+    public static ChannelData readMapped(String absoluteFilePath){
+        return readMapped(absoluteFilePath, new ReadOptions());
+    }
+
+    /**
+     * Reads the chosen columns of a numeric data file by mapping it into
+     * memory and parsing the mapped bytes in place.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @param columns          : The columns to keep, or null to keep all
+     * @return The table of data in the file
+     */
+    public static ChannelData readMapped(String absoluteFilePath, int[] columns){
+        ReadOptions options = new ReadOptions();
+        options.setColumns(columns);
+        return readMapped(absoluteFilePath, options);
+    }
+
+    /**
+     * Reads the part of a numeric data file described by options by mapping
+     * it into memory and parsing the mapped bytes in place.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @param options          : The columns and rows to keep
+     * @return The table of data in the file
+     */
+    public static ChannelData readMapped(String absoluteFilePath, ReadOptions options){
+        return readMapped(absoluteFilePath, options, null);
+    }
+
+    /**
+     * Reads the part of a numeric data file described by options by mapping
+     * it into memory and parsing the mapped bytes in place, pushing each row
+     * into consumer as it is read.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @param options          : The columns and rows to keep
+     * @param consumer         : The consumer of the rows, or null to make a table
+     * @return The table of data in the file, or null if consumer was given
+     */
+    public static ChannelData readMapped(String absoluteFilePath, ReadOptions options, RowConsumer consumer){
+        NumericParser parser = new NumericParser(absoluteFilePath);
+        parser.setConsumer(consumer);
+        parser.setProjection(options.getColumns());
+        parser.setStride(options.getStride());
+        parser.setFloat32(options.isFloat32());
+        parser.setOffHeap(options.getOffHeap());
+
+        try{
+            RandomAccessFile dataFile = new RandomAccessFile(absoluteFilePath, "r");
+            FileChannel dataChannel = dataFile.getChannel();
+
+            long size = dataChannel.size();
+            parser.setSizeHint(size);
+
+            long pos = 0;
+            while(pos < size && !parser.isFinished()){
+                long len = Math.min(MAP_WINDOW, size - pos);
+                MappedByteBuffer window = dataChannel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                parser.parse(window);
+                pos += len;
+            }
+
+            dataChannel.close();
+            dataFile.close();
+
+        }catch(FileNotFoundException fnfe){
+            System.out.println("File not found exception thrown in DataReader");
+            fnfe.printStackTrace();
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in DataReader");
+            ioe.printStackTrace();
+        }
+
+        return parser.finish();
+    }
+
+    /**
+     * Reads a numeric data file by splitting it at line boundaries into
+     * numChunks pieces and parsing the pieces concurrently on pool.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @param numChunks        : The number of pieces to split the file into
+     * @param pool             : The pool that parses the pieces
+     * @return The table of data in the file, identical to that of readMapped()
+     */
+    public static ChannelData readParallel(String absoluteFilePath, int numChunks, ForkJoinPool pool){
+        return readParallel(absoluteFilePath, new ReadOptions(), numChunks, pool);
+    }
+
+    /**
+     * The same as readParallel above, but keeping only the chosen columns.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @param columns          : The columns to keep, or null to keep all
+     * @param numChunks        : The number of pieces to split the file into
+     * @param pool             : The pool that parses the pieces
+     * @return The table of data in the file, identical to that of readMapped()
+     */
+    public static ChannelData readParallel(String absoluteFilePath, int[] columns, int numChunks, ForkJoinPool pool){
+        ReadOptions options = new ReadOptions();
+        options.setColumns(columns);
+        return readParallel(absoluteFilePath, options, numChunks, pool);
+    }
+
+    /**
+     * The same as readParallel above, but keeping only the columns and rows
+     * described by options. When rows are skipped the new lines in every chunk
+     * are counted first (also in parallel), so that each chunk knows which row
+     * of the file it starts at.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @param options          : The columns and rows to keep
+     * @param numChunks        : The number of pieces to split the file into
+     * @param pool             : The pool that parses the pieces
+     * @return The table of data in the file, identical to that of readMapped()
+     */
+    public static ChannelData readParallel(String absoluteFilePath, ReadOptions options, int numChunks, ForkJoinPool pool){
+        ChannelData data = null;
+        int[] columns = options.getColumns();
+        int stride = options.getStride();
+
+        try{
+            RandomAccessFile dataFile = new RandomAccessFile(absoluteFilePath, "r");
+            FileChannel dataChannel = dataFile.getChannel();
+            long size = dataChannel.size();
+
+            //Find the start of every chunk, each just after a new line
+            long[] bounds = new long[numChunks+1];
+            int cols = 0;
+            int chunks = 0;
+
+            if(size > 0){
+                MappedByteBuffer head = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAP_WINDOW));
+                cols = countFields(head);
+
+                bounds[0] = 0;
+                for(int k = 1; k < numChunks; k++){
+                    long b = nextLineStart(dataChannel, Math.max(bounds[chunks], (size*k)/numChunks), size);
+                    if(b > bounds[chunks] && b < size){
+                        chunks++;
+                        bounds[chunks] = b;
+                    }
+                }
+                chunks++;
+                bounds[chunks] = size;
+            }
+
+            if(cols == 0){
+                data = new ChannelData((columns == null) ? 0 : columns.length, 1, options.isFloat32());
+            }else{
+                //The row of the file that each chunk starts at
+                int[] firstRows = new int[chunks];
+                if(stride > 1){
+                    LineCountTask[] counts = new LineCountTask[chunks];
+                    for(int k = 0; k < chunks; k++){
+                        counts[k] = new LineCountTask(dataChannel, bounds[k], bounds[k+1]);
+                        pool.execute(counts[k]);
+                    }
+                    for(int k = 1; k < chunks; k++)
+                        firstRows[k] = firstRows[k-1] + counts[k-1].join();
+                    counts[chunks-1].join();
+                }
+
+                ChunkTask[] tasks = new ChunkTask[chunks];
+                for(int k = 0; k < chunks; k++){
+                    tasks[k] = new ChunkTask(absoluteFilePath, dataChannel, bounds[k], bounds[k+1], cols, columns,
+                            firstRows[k], stride, options.isFloat32(), options.getOffHeap());
+                    pool.execute(tasks[k]);
+                }
+
+                ChannelData[] parts = new ChannelData[chunks];
+                int used = 0;
+                for(int k = 0; k < chunks; k++){
+                    parts[k] = tasks[k].join();
+                    used++;
+                    if(tasks[k].endOfTable)
+                        break;
+                }
+                //The chunks after an empty line are not part of the table
+                for(int k = used; k < chunks; k++)
+                    tasks[k].join();
+
+                data = ChannelData.concat(parts, used);
+            }
+
+            dataChannel.close();
+            dataFile.close();
+
+        }catch(FileNotFoundException fnfe){
+            System.out.println("File not found exception thrown in DataReader");
+            fnfe.printStackTrace();
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in DataReader");
+            ioe.printStackTrace();
+        }
+
+        if(data == null)
+            data = new ChannelData(0, 1);
+        return data;
+    }
+
+    /**
+     * @return The pool used to parse large files, with one thread per processor
+     */
+    private static synchronized ForkJoinPool getParsePool(){
+        if(parsePool == null)
+            parsePool = new ForkJoinPool();
+        return parsePool;
+    }
+
+    /**
+     * @return The number of fields on the first line of buf
+     */
+    private static int countFields(MappedByteBuffer buf){
+        int fields = 0;
+        boolean inField = false;
+
+        for(int i = 0; i < buf.limit(); i++){
+            byte b = buf.get(i);
+            if(b == '\n')
+                break;
+            if(b == '\t' || b == ' ' || b == '\r'){
+                inField = false;
+            }else if(!inField){
+                inField = true;
+                fields++;
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return The position just after the first new line at or after pos, or
+     *         size if there is none
+     */
+    private static long nextLineStart(FileChannel dataChannel, long pos, long size) throws IOException{
+        while(pos < size){
+            long len = Math.min(1L << 16, size - pos);
+            MappedByteBuffer buf = dataChannel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            for(int i = 0; i < len; i++){
+                if(buf.get(i) == '\n')
+                    return pos + i + 1;
+            }
+            pos += len;
+        }
+        return size;
+    }
+
+    /**
+     * Parses the bytes of a file from start up to end, which are both at the
+     * start of a line.
+     */
+    private static class ChunkTask extends RecursiveTask<ChannelData> {
+
+        private static final long serialVersionUID = 1L;
+
+        private String name;
+        private FileChannel dataChannel;
+        private long start;
+        private long end;
+        private int cols;
+        private int[] projection;
+        private int firstRow;
+        private int stride;
+        private boolean float32;
+        private OffHeapStore.Space offHeap;
+        private volatile boolean endOfTable;
+
+        ChunkTask(String fileName, FileChannel channel, long startPos, long endPos, int numCols, int[] columns,
+                int startRow, int rowStride, boolean storeFloat32, OffHeapStore.Space space){
+            name = fileName;
+            dataChannel = channel;
+            start = startPos;
+            end = endPos;
+            cols = numCols;
+            projection = columns;
+            firstRow = startRow;
+            stride = rowStride;
+            float32 = storeFloat32;
+            offHeap = space;
+        }
+
+        protected ChannelData compute(){
+            NumericParser parser = new NumericParser(name + " (from byte " + start + ")");
+            parser.setColumns(cols);
+            parser.setProjection(projection);
+            parser.setStride(stride);
+            parser.setFirstRow(firstRow);
+            parser.setFloat32(float32);
+            parser.setOffHeap(offHeap);
+            parser.setSizeHint(end - start);
+
+            try{
+                long pos = start;
+                while(pos < end && !parser.isFinished()){
+                    long len = Math.min(MAP_WINDOW, end - pos);
+                    parser.parse(dataChannel.map(FileChannel.MapMode.READ_ONLY, pos, len));
+                    pos += len;
+                }
+            }catch(IOException ioe){
+                System.out.println("IO exception thrown in DataReader");
+                ioe.printStackTrace();
+            }
+
+            endOfTable = parser.isFinished();
+            return parser.finish();
+        }
+    }
+
+    /**
+     * Counts the new lines in the bytes of a file from start up to end.
+     */
+    private static class LineCountTask extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private FileChannel dataChannel;
+        private long start;
+        private long end;
+
+        LineCountTask(FileChannel channel, long startPos, long endPos){
+            dataChannel = channel;
+            start = startPos;
+            end = endPos;
+        }
+
+        protected Integer compute(){
+            int lines = 0;
+
+            try{
+                long pos = start;
+                while(pos < end){
+                    long len = Math.min(MAP_WINDOW, end - pos);
+                    MappedByteBuffer window = dataChannel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                    for(int i = 0; i < len; i++){
+                        if(window.get(i) == '\n')
+                            lines++;
+                    }
+                    pos += len;
+                }
+            }catch(IOException ioe){
+                System.out.println("IO exception thrown in DataReader");
+                ioe.printStackTrace();
+            }
+
+            return lines;
+        }
+    }
+
+}
@@ -27,6 +27,7 @@ import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 
 
 /**
@@ -35,11 +36,19 @@ import java.io.FileNotFoundException;
  * vectors that change magnitude with the magnitude of F and T, and also change 
  * colour with the orientation of the vectors.
  * 
+ * The data can also be given one row at a time, as a RowConsumer (time, X, Y,
+ * Z, Fx, Fy, Fz, Tx, Ty, Tz), in which case the orientations, colours, scales
+ * and history plots of each row are made as soon as it arrives and the rows
+ * themselves are not kept. Rows given this way need not be sampled at the
+ * rate of the rest of the animation: with a TimeBase (see setTimeBase) each
+ * row is keyed by its own time.
+ * 
  * @author mjhmilla
  */
-public class ForceTorqueData {
+public class ForceTorqueData implements RowConsumer {
     
     private SolvereUtilities SolUtil;
+    private String keyTag;
     private String keyForceTag;
     private String keyTorqueTag;
     
@@ -64,23 +73,9 @@ public class ForceTorqueData {
     private int rows;
     private int cols;
     
-    //x,y,z
-    private double[][] posXYZ_m;
-    private double[] forceXYZ_m;
-    private double[] torqueXYZ_m;
-    
     private double maxTorque;
     private double maxForce;
     
-    private double[][] forceOrien;
-    private double[][] torqueOrien;
-    
-    private double[][] fColour;
-    private double[][] tColour;
-    
-    private double[][] fVector_d;
-    private double[][] tVector_d;
-    
     //plotting
     private boolean genPlots;
     private boolean genForcePlots;
@@ -111,15 +106,40 @@ public class ForceTorqueData {
      * 7 - t (transparency)
      */
     
-    private double[][][] pFTri;
     private String[] pFTriStr;
     private String[] cFTriStr;
-    private double[][][] pTTri;
     private String[] pTTriStr;
     private String[] cTTriStr;
 
     private int downSampling;
     
+    //Used while the rows are being pushed in
+    private double fScaling;
+    private double tScaling;
+    private double dScaling;
+    private TimeBase timeBase;
+    private ChannelData times;
+    private boolean keepChannels;
+    private ChannelData channels;   //see getChannels, null unless kept
+    private double[] rVec;
+    private double[] fPosBasis;
+    private double[] tPosBasis;
+    private double[] firstFColour;
+    private double[] firstTColour;
+    private HistoryStrip fStrip;
+    private HistoryStrip tStrip;
+    private ArrayList<String> transText;
+    private ArrayList<String> fOrienText;
+    private ArrayList<String> tOrienText;
+    private ArrayList<String> fScaleText;
+    private ArrayList<String> tScaleText;
+    private ArrayList<String> fColourText;
+    private ArrayList<String> tColourText;
+    private ArrayList<String> pFTriText;
+    private ArrayList<String> pTTriText;
+    private ArrayList<String> cFTriText;
+    private ArrayList<String> cTTriText;
+    
     /**
      * This constructor will take in all of the data from the user required to
      * represent forces and torques as animated 3D vectors of arrows, and arrows
@@ -155,28 +175,49 @@ public class ForceTorqueData {
      */
     public ForceTorqueData(String fTTagName, File geoForceFile,File geoTorqueFile,double[][] fTTransXYZ, double[][] fVector, double [][] tVector,  
             double fNorm, double tNorm, double dNorm, boolean[] plotFlag, double[] plotOpt, int downSampleFactor) {
+        
+        this(fTTagName, geoForceFile, geoTorqueFile, fNorm, tNorm, dNorm, plotFlag, plotOpt);
+        
+        downSampling = downSampleFactor;
+        
+        double[] row = new double[10];
+        start(row.length);
+        for(int i = 0; i < fTTransXYZ.length/downSampling; i++){
+            for(int j = 0; j < 3; j++){
+                row[j+1] = fTTransXYZ[i*downSampling][j];
+                row[j+4] = fVector[i*downSampling][j];
+                row[j+7] = tVector[i*downSampling][j];
+            }
+            addRow(row);
+        }
+        finish();
+    }
     
-       
+    /**
+     * This constructor makes a force and torque pair that is given its data
+     * one row at a time, through start, addRow and finish (see RowConsumer).
+     * The text of the animation is ready once finish has been called.
+     * 
+     * @param fTTagName     : The unique string name that will be used to indentify this element
+     * @param geoForceFile  : The *.wrl file that should be used to represent the force vector
+     * @param geoTorqueFile : The *.wrl file that should be used to represent the torque vector
+     * @param fNorm         : The magnitude of F will be divided by fNorm
+     * @param tNorm         : The magnitude of T will be divided by dNorm
+     * @param dNorm         : (distance Norm) The magnidue of F, and T will be multipled by dNorm
+     * @param plotFlag      : The history plot flags, as above
+     * @param plotOpt       : The colour and transparency of the history plots, as above
+     */
+    public ForceTorqueData(String fTTagName, File geoForceFile, File geoTorqueFile,
+            double fNorm, double tNorm, double dNorm, boolean[] plotFlag, double[] plotOpt) {
+    
+        keyTag = fTTagName;
         keyForceTag = fTTagName.concat("_F");
         keyTorqueTag = fTTagName.concat("_T");
 
-        downSampling = downSampleFactor;
-        
-        int rows = (int)Math.floor(fTTransXYZ.length/downSampling);
-        posXYZ_m = new double[rows][3];
-        forceXYZ_m = new double[rows];
-        torqueXYZ_m = new double[rows];
-        forceOrien = new double[rows][4];
-        torqueOrien = new double[rows][4];
-        fColour = new double[rows][3];
-        tColour = new double[rows][3];
-        fVector_d = new double[rows][3];
-        tVector_d = new double[rows][3];
-        
-        double fCScaling = 1.0;
-        double tCScaling = 1.0;
-        maxForce = 0;
-        maxTorque = 0;
+        downSampling = 1;
+        fScaling = fNorm;
+        tScaling = tNorm;
+        dScaling = dNorm;
         
         plotFlags = new boolean[plotFlag.length];
         plotOptions = new double[plotOpt.length];
@@ -194,91 +235,7 @@ public class ForceTorqueData {
         }
         else{genPlots = false;}
         
-        if(genPlots){ 
-               pFTri = new double[rows][6][3];
-               pTTri = new double[rows][6][3];
-        }
-        
-        
-        double[] rVec = new double[3];
-        rVec[0] = 0;
-        rVec[1] = 1;
-        rVec[2] = 0;
-
-        
-        for(int i=0; i < rows; i++){
-            
-            forceXYZ_m[i] = 0;
-            torqueXYZ_m[i] = 0;
-            
-            for(int j=0; j < 3; j++){
-                posXYZ_m[i][j] = fTTransXYZ[i*downSampling][j];
-                forceXYZ_m[i] = forceXYZ_m[i] + fVector[i*downSampling][j]*fVector[i*downSampling][j];
-                torqueXYZ_m[i] = torqueXYZ_m[i] + tVector[i*downSampling][j]*tVector[i*downSampling][j];
-                fVector_d[i][j] = fVector[i*downSampling][j];
-                tVector_d[i][j] = tVector[i*downSampling][j];
-            }
-            
-            forceXYZ_m[i] = Math.sqrt(forceXYZ_m[i]);
-            torqueXYZ_m[i] = Math.sqrt(torqueXYZ_m[i]);
-            
-            if(forceXYZ_m[i] == Double.NaN) forceXYZ_m[i] = 0;
-            if(torqueXYZ_m[i] == Double.NaN) torqueXYZ_m[i] = 0;
-            
-            if(Math.abs(forceXYZ_m[i]) > fCScaling)
-                fCScaling = Math.abs(forceXYZ_m[i]);
-            if(Math.abs(torqueXYZ_m[i]) > tCScaling)
-                tCScaling = Math.abs(torqueXYZ_m[i]);
-            
-            if(Math.abs(forceXYZ_m[i]) > maxForce)
-                maxForce = Math.abs(forceXYZ_m[i]);
-            if(Math.abs(torqueXYZ_m[i]) > maxTorque)
-                maxTorque = Math.abs(torqueXYZ_m[i]);
-            
-            
-            forceXYZ_m[i] = forceXYZ_m[i]*dNorm/fNorm;
-            torqueXYZ_m[i] = torqueXYZ_m[i]*dNorm/tNorm;
-            
-        }
-        if(genPlots){
-            pFTri = SolUtil.getTriangularArray(posXYZ_m, fVector_d, forceXYZ_m);
-            pTTri = SolUtil.getTriangularArray(posXYZ_m, tVector_d, torqueXYZ_m);
-        }
-        
-        forceOrien = SolUtil.getAxisAngle(fVector_d,rVec);
-        torqueOrien = SolUtil.getAxisAngle(tVector_d,rVec);
-        
-        fColour = SolUtil.getColourMapping(fVector_d);
-        tColour = SolUtil.getColourMapping(tVector_d);
-        
-        //Now make the text versions of these matricies
-        keyVal = new String[rows];
-        keyValDbl = new double[rows];
-        transFileStr = new String[rows];
-        fOrienFileStr = new String[rows];
-        tOrienFileStr = new String[rows];
-        fColourFileStr = new String[rows];
-        tColourFileStr = new String[rows];
-        fScaleFileStr = new String[rows];
-        tScaleFileStr = new String[rows];
-    
-        StringBuffer transBufStr = new StringBuffer();
-        StringBuffer fOrienBufStr = new StringBuffer();
-        StringBuffer tOrienBufStr = new StringBuffer();
-        StringBuffer tScaleBufStr = new StringBuffer();
-        StringBuffer fScaleBufStr = new StringBuffer();
-        StringBuffer fColourBufStr = new StringBuffer();
-        StringBuffer tColourBufStr = new StringBuffer();
-        
-        StringBuffer pFTriBufStr = new StringBuffer();
-        StringBuffer pTTriBufStr = new StringBuffer();
-        StringBuffer cFTriBufStr = new StringBuffer();
-        StringBuffer cTTriBufStr = new StringBuffer();
-        
         if(genPlots){
-            pFTriStr = new String[rows*6];
-            pTTriStr = new String[rows*6];    
-            
             if(plotFlags[2]){ 
                 cFTriStr = new String[1];
                 cFTriStr[0] = new String();
@@ -286,8 +243,7 @@ public class ForceTorqueData {
                                 Double.toString(plotOptions[1]) + " " +
                                 Double.toString(plotOptions[2]);
                 fTransparency = Double.toString(plotOptions[3]);
-                
-            }else{ cFTriStr = new String[rows*6];}
+            }
             
             if(plotFlags[5]){ 
                 cTTriStr = new String[1];
@@ -296,92 +252,260 @@ public class ForceTorqueData {
                                 Double.toString(plotOptions[5]) + " " +
                                 Double.toString(plotOptions[6]);
                 tTransparency = Double.toString(plotOptions[7]);
-                
-            }else{ cTTriStr = new String[rows*6];}
+            }
         }
         
-        double[] temp = new double[3];
-        for(int i = 0; i < rows; i++){      
-            transBufStr.replace(0,transBufStr.length(),"");
-            fOrienBufStr.replace(0,fOrienBufStr.length(),"");
-            tOrienBufStr.replace(0,tOrienBufStr.length(),"");
-            tScaleBufStr.replace(0,tScaleBufStr.length(),"");
-            fScaleBufStr.replace(0,fScaleBufStr.length(),"");
-            fColourBufStr.replace(0,fColourBufStr.length(),"");
-            tColourBufStr.replace(0,tColourBufStr.length(),"");
+        geoForceFileStr = getGeoText(geoForceFile, "force", fTTagName.concat("_F"));
+        geoTorqueFileStr= getGeoText(geoTorqueFile,"torque", fTTagName.concat("_T"));
+    }
 
-            for(int j = 0; j < 3; j++){
-                transBufStr.append(posXYZ_m[i][j]);
-                fColourBufStr.append(fColour[i][j]);
-                tColourBufStr.append(tColour[i][j]);
-                fScaleBufStr.append(forceXYZ_m[i]);
-                tScaleBufStr.append(torqueXYZ_m[i]);
-                if(j < 2){
-                    transBufStr.append(" ");
-                    fColourBufStr.append(" ");
-                    tColourBufStr.append(" ");
-                    fScaleBufStr.append(" ");
-                    tScaleBufStr.append(" ");
-                }
-            }
+    /**
+     * @param animationTimes : The key frames of the animation, against which
+     *                         the key frames of the force and torque are placed
+     *                         by their times, or null to key every row in
+     *                         turn. This must be set before the rows are
+     *                         pushed in.
+     */
+    public void setTimeBase(TimeBase animationTimes){
+        timeBase = animationTimes;
+    }
+
+    public void start(int numValues){
+        rows = 0;
+        maxForce = 0;
+        maxTorque = 0;
+        
+        rVec = new double[3];
+        rVec[0] = 0;
+        rVec[1] = 1;
+        rVec[2] = 0;
+        
+        fPosBasis = new double[6];
+        tPosBasis = new double[6];
+        
+        transText = new ArrayList<String>();
+        fOrienText = new ArrayList<String>();
+        tOrienText = new ArrayList<String>();
+        fScaleText = new ArrayList<String>();
+        tScaleText = new ArrayList<String>();
+        fColourText = new ArrayList<String>();
+        tColourText = new ArrayList<String>();
+        
+        if(genPlots){
+            fStrip = new HistoryStrip();
+            tStrip = new HistoryStrip();
+            pFTriText = new ArrayList<String>();
+            pTTriText = new ArrayList<String>();
+            cFTriText = new ArrayList<String>();
+            cTTriText = new ArrayList<String>();
+        }
+        
+        tempStrBuf = new StringBuffer();
+        times = new ChannelData(1, defaultRowNum);
+        channels = keepChannels ? new ChannelData(17, defaultRowNum) : null;
+    }
+
+    public void addRow(double[] row){
+        //Rows outside of the animation's cycle are left out
+        if(timeBase != null && timeBase.getPosition(row[0], rows) < 0)
+            return;
+        
+        double[] pos = new double[]{row[1], row[2], row[3]};
+        double[] fVec = new double[]{row[4], row[5], row[6]};
+        double[] tVec = new double[]{row[7], row[8], row[9]};
+        
+        double force = 0;
+        double torque = 0;
+        for(int j=0; j < 3; j++){
+            force = force + fVec[j]*fVec[j];
+            torque = torque + tVec[j]*tVec[j];
+        }
+        force = Math.sqrt(force);
+        torque = Math.sqrt(torque);
+        double forceMagnitude = force;
+        double torqueMagnitude = torque;
+        
+        if(Math.abs(force) > maxForce)
+            maxForce = Math.abs(force);
+        if(Math.abs(torque) > maxTorque)
+            maxTorque = Math.abs(torque);
+        
+        force = force*dScaling/fScaling;
+        torque = torque*dScaling/tScaling;
+        
+        double[] forceOrien = SolUtil.getAxisAngle(fVec,rVec);
+        double[] torqueOrien = SolUtil.getAxisAngle(tVec,rVec);
+        
+        double[] fColour = SolUtil.getColourMapping(fVec, fPosBasis);
+        double[] tColour = SolUtil.getColourMapping(tVec, tPosBasis);
+        
+        transText.add(join(pos, 3));
+        fColourText.add(join(fColour, 3));
+        tColourText.add(join(tColour, 3));
+        fScaleText.add(join(new double[]{force, force, force}, 3));
+        tScaleText.add(join(new double[]{torque, torque, torque}, 3));
+        fOrienText.add(join(forceOrien, 4));
+        tOrienText.add(join(torqueOrien, 4));
+        
+        if(genPlots){
+            boolean fTri = fStrip.addPoint(pos, fVec, force);
+            boolean tTri = tStrip.addPoint(pos, tVec, torque);
             
-             for(int j = 0; j < 4; j++){
-                fOrienBufStr.append(forceOrien[i][j]);
-                tOrienBufStr.append(torqueOrien[i][j]);
-                if(j < 3){
-                    fOrienBufStr.append(" ");
-                    tOrienBufStr.append(" ");
-                }
+            //The first row has no triangles of its own and is given those of
+            //the second, so it is written out once the second row arrives
+            if(rows == 0){
+                firstFColour = fColour;
+                firstTColour = tColour;
+            }else{
+                if(rows == 1)
+                    addPlotRow(fStrip.triangles, tStrip.triangles, firstFColour, firstTColour);
+                addPlotRow(fStrip.triangles, tStrip.triangles, fColour, tColour);
             }
+        }
+        
+        times.addRow(new double[]{row[0]});
+        if(channels != null){
+            double[] channelRow = new double[17];
+            channelRow[0] = row[0];
+            channelRow[1] = forceMagnitude;
+            channelRow[2] = torqueMagnitude;
+            System.arraycopy(forceOrien, 0, channelRow, 3, 4);
+            System.arraycopy(torqueOrien, 0, channelRow, 7, 4);
+            System.arraycopy(fColour, 0, channelRow, 11, 3);
+            System.arraycopy(tColour, 0, channelRow, 14, 3);
+            channels.addRow(channelRow);
+        }
+        rows++;
+    }
+
+    public void finish(){
+        //The lists are kept, since more rows may yet be pushed in when the
+        //data file is followed (see DataFollower)
+        if(genPlots){
+            //A single row has no triangles at all; they are taken out of the
+            //lists again in case a second row arrives
+            if(rows == 1)
+                addPlotRow(new double[6][3], new double[6][3], firstFColour, firstTColour);
             
-            if(genPlots){
-                
-                for(int j=0; j<6; j++){   
-                    for(int k=0; k<3; k++){
-                        pFTriBufStr.append(pFTri[i][j][k]);
-                        pTTriBufStr.append(pTTri[i][j][k]);
-                        
-                        cFTriBufStr.append(fColour[i][k]);
-                        cTTriBufStr.append(tColour[i][k]);
-                        
-                        if(k < 2){
-                            pFTriBufStr.append(" ");
-                            pTTriBufStr.append(" ");
-                            cFTriBufStr.append(" ");
-                            cTTriBufStr.append(" ");
-                        }
-                    }
-                    pFTriStr[i*6+j] = pFTriBufStr.toString();
-                    pTTriStr[i*6+j] = pTTriBufStr.toString();
-                    
-                    if(plotFlags[2] == false) cFTriStr[i*6+j] = cFTriBufStr.toString();
-                    if(plotFlags[5] == false) cTTriStr[i*6+j] = cTTriBufStr.toString();
-                    
-                    pFTriBufStr.replace(0,pFTriBufStr.length(),"");
-                    pTTriBufStr.replace(0,pTTriBufStr.length(),"");
-                    cFTriBufStr.replace(0,cFTriBufStr.length(),"");
-                    cTTriBufStr.replace(0,cTTriBufStr.length(),"");
-                }
-                
-                
-            }
-                
+            pFTriStr = pFTriText.toArray(new String[pFTriText.size()]);
+            pTTriStr = pTTriText.toArray(new String[pTTriText.size()]);
+            if(plotFlags[2] == false) cFTriStr = cFTriText.toArray(new String[cFTriText.size()]);
+            if(plotFlags[5] == false) cTTriStr = cTTriText.toArray(new String[cTTriText.size()]);
             
-            transFileStr[i] = transBufStr.toString();
-            keyValDbl[i] = (double)(i+1)/(double)rows;
+            if(rows == 1){
+                pFTriText.clear();
+                pTTriText.clear();
+                cFTriText.clear();
+                cTTriText.clear();
+            }
+        }
+        
+        transFileStr = transText.toArray(new String[rows]);
+        fOrienFileStr = fOrienText.toArray(new String[rows]);
+        tOrienFileStr = tOrienText.toArray(new String[rows]);
+        fColourFileStr = fColourText.toArray(new String[rows]);
+        tColourFileStr = tColourText.toArray(new String[rows]);
+        fScaleFileStr = fScaleText.toArray(new String[rows]);
+        tScaleFileStr = tScaleText.toArray(new String[rows]);
+        
+        keyVal = new String[rows];
+        keyValDbl = new double[rows];
+        for(int i = 0; i < rows; i++){
+            if(timeBase == null)
+                keyValDbl[i] = (double)(i+1)/(double)rows;
+            else
+                keyValDbl[i] = (timeBase.getPosition(times.get(i, 0), i)+1)/(double)timeBase.getNumRows();
             keyVal[i] = Double.toString(keyValDbl[i]); 
-            fOrienFileStr[i] = fOrienBufStr.toString();
-            tOrienFileStr[i] = tOrienBufStr.toString();
-            fColourFileStr[i]= fColourBufStr.toString();
-            tColourFileStr[i]= tColourBufStr.toString();
-            fScaleFileStr[i] = fScaleBufStr.toString();
-            tScaleFileStr[i] = tScaleBufStr.toString();
         }
-        geoForceFileStr = getGeoText(geoForceFile, "force", fTTagName.concat("_F"));
-        geoTorqueFileStr= getGeoText(geoTorqueFile,"torque", fTTagName.concat("_T"));
-        //Parse force and torque 3D files.
+    }
 
+    /**
+     * Adds the text of the 6 vertices of the force and torque history plots
+     * for one row, and their colours.
+     */
+    private void addPlotRow(double[][] pFTri, double[][] pTTri, double[] fColour, double[] tColour){
+        for(int j=0; j<6; j++){   
+            pFTriText.add(join(pFTri[j], 3));
+            pTTriText.add(join(pTTri[j], 3));
+            
+            if(plotFlags[2] == false) cFTriText.add(join(fColour, 3));
+            if(plotFlags[5] == false) cTTriText.add(join(tColour, 3));
+        }
+    }
 
+    /**
+     * @return The first n values of v, separated by spaces
+     */
+    private String join(double[] v, int n){
+        tempStrBuf.replace(0,tempStrBuf.length(),"");
+        for(int j = 0; j < n; j++){
+            tempStrBuf.append(v[j]);
+            if(j < n-1)
+                tempStrBuf.append(" ");
+        }
+        return tempStrBuf.toString();
+    }
+
+    /**
+     * This class builds the triangle strip of a history plot one point at a
+     * time, in the same way as SolvereUtilities.getTriangularArray: each point
+     * adds the 2 triangles between the line it spans (from the point of
+     * application back along the vector) and the line spanned by the point
+     * before it.
+     */
+    private static class HistoryStrip {
+        private double[][] prevPts = new double[2][3];
+        private double[][] currPts = new double[2][3];
+        private double currMag = 0;
+        private boolean started = false;
+        
+        /** The 6 vertices added by the last point */
+        double[][] triangles = new double[6][3];
+        
+        /**
+         * @return true if the point added triangles, false for the first point
+         */
+        boolean addPoint(double[] pos, double[] dir, double mag){
+            int k;
+            if(!started){
+                for(k=0; k<3; k++){
+                    prevPts[0][k] = pos[k];
+                    currMag = currMag + dir[k]*dir[k];
+                }
+                currMag = Math.sqrt(currMag);
+                for(k=0; k<3; k++){
+                    prevPts[1][k] = prevPts[0][k] - dir[k]*mag/(currMag+Double.MIN_VALUE);
+                }
+                started = true;
+                return false;
+            }
+            
+            for(k=0; k<3; k++){
+                currPts[0][k] = pos[k];
+                currMag = currMag + dir[k]*dir[k];
+            }
+            currMag = Math.sqrt(currMag);
+            
+            for(k=0; k<3; k++){
+                currPts[1][k] = currPts[0][k] - dir[k]*mag/(currMag+Double.MIN_VALUE);
+            }    
+            
+            //assign the 6 vertices, chosen such that the triangles will
+            //all have the same normals.
+            for(k=0; k<3; k++){
+                triangles[0][k] = prevPts[0][k]; 
+                triangles[1][k] = prevPts[1][k];
+                triangles[2][k] = currPts[1][k];
+                triangles[3][k] = prevPts[0][k];
+                triangles[4][k] = currPts[1][k];
+                triangles[5][k] = currPts[0][k];
+            }
+            for(k=0; k<3; k++){
+                prevPts[0][k]=currPts[0][k];
+                prevPts[1][k]=currPts[1][k];
+            }
+            return true;
+        }
     }
     
 /**
@@ -406,7 +530,7 @@ public class ForceTorqueData {
                     
                     
                     geoFileStr = new String[defaultRowNum];
-                    rows = 0;
+                    int lines = 0;
                     String line = new String(geoFileBufRdr.readLine());
                     
                     while(line != null && line.indexOf("Transform") == -1){
@@ -417,15 +541,15 @@ public class ForceTorqueData {
                     while(line != null){
                         
                         if(line != null){
-                            geoFileStr[rows] = line;
-                            rows++;
+                            geoFileStr[lines] = line;
+                            lines++;
                         }
 
-                        if( rows%(defaultRowNum-1) == 0){
+                        if( lines%(defaultRowNum-1) == 0){
                             //resize dataString without losing data;
-                            int scaleFactor = 1 + (int)Math.floor((double)rows/(double)(defaultRowNum-2));
-                            String[] tempDataHolder = new String[scaleFactor*rows];
-                            for(int i = 0; i < rows; i++)
+                            int scaleFactor = 1 + (int)Math.floor((double)lines/(double)(defaultRowNum-2));
+                            String[] tempDataHolder = new String[scaleFactor*lines];
+                            for(int i = 0; i < lines; i++)
                                     tempDataHolder[i]= geoFileStr[i];
 
                              geoFileStr = tempDataHolder;
@@ -435,8 +559,8 @@ public class ForceTorqueData {
                             line = line.replaceAll(oldTag, newTag);
                     }
 
-                    String[] tempDataHolder = new String[rows];
-                    for(int i = 0; i < rows; i++)
+                    String[] tempDataHolder = new String[lines];
+                    for(int i = 0; i < lines; i++)
                             tempDataHolder[i] = geoFileStr[i];
 
                     geoFileStr = tempDataHolder;
@@ -456,6 +580,10 @@ public class ForceTorqueData {
     }
     
 
+    public String getTagName(){
+        return keyTag;
+    }
+    
     public String getForceTag(){
         return keyForceTag;
     }
@@ -580,5 +708,33 @@ public class ForceTorqueData {
     public String getTorqueTransparencyText(){
         return tTransparency;
     }
+    
+    /**
+     * @param keep : If true the magnitudes, orientations and colours that are
+     *               animated are kept as numbers (see getChannels). This must
+     *               be set before the rows are pushed in.
+     */
+    public void setKeepChannels(boolean keep){
+        keepChannels = keep;
+    }
+    
+    /**
+     * @return The channels that are animated, one row per key frame: time,
+     *         the magnitude of the force and of the torque, the axis and angle
+     *         of the force and of the torque (SolvereUtilities.getAxisAngle),
+     *         and the R, G, B colour of the force and of the torque
+     *         (SolvereUtilities.getColourMapping); 17 columns in all. Null
+     *         unless setKeepChannels was called before the rows were pushed in.
+     */
+    public ChannelData getChannels(){
+        return channels;
+    }
+    
+    /**
+     * @return The number of key frames of the force and torque
+     */
+    public int getNumRows(){
+        return rows;
+    }
   
 }
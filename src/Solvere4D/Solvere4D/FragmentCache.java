@@ -0,0 +1,318 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * FragmentCache.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * This class keeps the text of every section of the last animation file that
+ * was written for a scene (the header, each body, marker set, force, plot,
+ * stick figure and label, the camera and the time controls), so that when the
+ * scene is written again only the sections whose inputs have changed are
+ * worked out again. Changing the colour of one force then means reading one
+ * force file and writing the text of one force; the rest of the animation is
+ * copied from the cache. The cache of "airWalkHat.s4d" is kept in
+ * "airWalkHat.s4d.s4f", and is used if the scene has the line
+ *
+ *      <incremental>,  1
+ *
+ * Each section is given a signature: a string made from everything its text
+ * depends on, that is the options of its entry, the part of its data file that
+ * is read (see ReadOptions.getKey), the size and CRC32 of every file it is
+ * made from and, for the bodies, camera and forces that are keyed against the
+ * times of the first body, the signature of those times. The text of a section
+ * is kept under its signature, so a section is clean if the text of its
+ * signature is in the cache, wherever the section is in the scene. The CRC32
+ * of a file is only worked out again if its size or modification time has
+ * changed since the last time.
+ *
+ * A cache file is laid out as follows (big-endian, strings as a length in
+ * bytes followed by UTF-8):
+ *
+ *      "S4DF" (int), version (int)
+ *      the number of files (int), then for each its path (string), size
+ *          (long), last modified time in ms (long) and CRC32 (long)
+ *      the signature of the key frame times (string), the number of key
+ *          frames (int), then the times (double)
+ *      the number of sections (int), then for each its signature (string)
+ *          and its text (string)
+ *
+ * @author mjhmilla
+ */
+public class FragmentCache {
+
+    public static final String EXTENSION = ".s4f";
+
+    private static final int MAGIC = 0x53344446; //"S4DF"
+    private static final int VERSION = 1;
+
+    private File cacheFile;
+
+    private HashMap<String, long[]> stamps;         //path -> size, modified, CRC32 as last cached
+    private HashMap<String, long[]> newStamps;      //the same for the files of this scene
+    private HashMap<String, String> stored;         //signature -> text, as last cached
+    private HashMap<String, String> kept;           //signature -> text, of the sections of this scene
+    private HashMap<String, String> signatures;     //section -> signature, for this scene
+    private HashSet<String> dirty;                  //sections that are worked out even if they are cached
+    private String timesSignature;
+    private double[] times;
+    private int numClean;
+
+    private FragmentCache(File cacheFile){
+        this.cacheFile = cacheFile;
+        stamps = new HashMap<String, long[]>();
+        newStamps = new HashMap<String, long[]>();
+        stored = new HashMap<String, String>();
+        kept = new HashMap<String, String>();
+        signatures = new HashMap<String, String>();
+        dirty = new HashSet<String>();
+    }
+
+    /**
+     * Reads the cache of a scene. A cache that is missing, of another version
+     * or damaged is treated as empty, so that every section is worked out.
+     *
+     * @param sceneFile : The *.s4d file
+     * @return The cache of the scene
+     */
+    public static FragmentCache open(File sceneFile){
+        FragmentCache cache = new FragmentCache(new File(sceneFile.getAbsolutePath() + EXTENSION));
+        if(!cache.cacheFile.exists())
+            return cache;
+
+        try{
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache.cacheFile)));
+            try{
+                if(in.readInt() == MAGIC && in.readInt() == VERSION){
+                    int numFiles = in.readInt();
+                    for(int k = 0; k < numFiles; k++){
+                        String path = readString(in);
+                        cache.stamps.put(path, new long[]{in.readLong(), in.readLong(), in.readLong()});
+                    }
+
+                    cache.timesSignature = readString(in);
+                    cache.times = new double[in.readInt()];
+                    for(int k = 0; k < cache.times.length; k++)
+                        cache.times[k] = in.readDouble();
+
+                    int numSections = in.readInt();
+                    for(int k = 0; k < numSections; k++){
+                        String signature = readString(in);
+                        cache.stored.put(signature, readString(in));
+                    }
+                }
+            }finally{
+                in.close();
+            }
+        }catch(IOException ioe){
+            //A damaged cache is written again from scratch
+            cache = new FragmentCache(cache.cacheFile);
+        }
+        return cache;
+    }
+
+    /**
+     * @param absoluteFilePath : The complete path of a file a section is made
+     *                           from
+     * @return The size and CRC32 of the file as a string for a signature, or
+     *         "none" if there is no such file
+     */
+    public String hashFile(String absoluteFilePath){
+        long[] stamp = newStamps.get(absoluteFilePath);
+        if(stamp != null)
+            return stamp[0] + ":" + Long.toHexString(stamp[2]);
+
+        File file = new File(absoluteFilePath);
+        if(!file.isFile())
+            return "none";
+
+        stamp = stamps.get(absoluteFilePath);
+        if(stamp == null || stamp[0] != file.length() || stamp[1] != file.lastModified()){
+            try{
+                stamp = new long[]{file.length(), file.lastModified(), ParseCache.hashFile(file)};
+            }catch(IOException ioe){
+                //A file that cannot be read is never taken to be unchanged
+                return "unreadable " + System.nanoTime();
+            }
+        }
+        newStamps.put(absoluteFilePath, stamp);
+        return stamp[0] + ":" + Long.toHexString(stamp[2]);
+    }
+
+    /**
+     * @param section   : The name of a section of the animation, such as
+     *                    "body 3"
+     * @param signature : Everything the text of the section depends on
+     */
+    public void setSignature(String section, String signature){
+        signatures.put(section, signature);
+    }
+
+    /**
+     * @return The signature of a section, or null if it has none
+     */
+    public String getSignature(String section){
+        return signatures.get(section);
+    }
+
+    /**
+     * @return true if the text of the section is in the cache, so that its
+     *         element need not be made
+     */
+    public boolean isClean(String section){
+        String signature = signatures.get(section);
+        return signature != null && !dirty.contains(section) && stored.containsKey(signature);
+    }
+
+    /**
+     * Makes a section dirty, so that its element is made even though its text
+     * is in the cache.
+     */
+    public void setDirty(String section){
+        dirty.add(section);
+    }
+
+    /**
+     * @return The cached text of a clean section, which is kept for the next
+     *         time
+     */
+    public String reuse(String section){
+        String signature = signatures.get(section);
+        String text = stored.get(signature);
+        kept.put(signature, text);
+        numClean++;
+        return text;
+    }
+
+    /**
+     * Keeps the text of a section that has been worked out.
+     */
+    public void put(String section, String text){
+        String signature = signatures.get(section);
+        if(signature != null)
+            kept.put(signature, text);
+    }
+
+    /**
+     * @return The key frame times that were cached under signature, or null
+     *         if they were cached under another
+     */
+    public double[] getTimes(String signature){
+        if(times == null || timesSignature == null || timesSignature.compareTo(signature) != 0)
+            return null;
+        return times.clone();
+    }
+
+    /**
+     * Keeps the key frame times of the animation under their signature.
+     */
+    public void setTimes(String signature, double[] aniTime){
+        timesSignature = signature;
+        times = aniTime.clone();
+    }
+
+    /**
+     * @return The number of sections that were copied from the cache since
+     *         the cache was last written
+     */
+    public int numClean(){
+        return numClean;
+    }
+
+    /**
+     * Writes the sections of the animation that was just written, and the
+     * files they were made from, in place of the last ones. The file is
+     * written under a temporary name first and then renamed, so that a half
+     * written cache file is never read.
+     */
+    public void write(){
+        File temp = new File(cacheFile.getAbsolutePath() + ".tmp");
+        try{
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try{
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+
+                out.writeInt(newStamps.size());
+                for(String path : newStamps.keySet()){
+                    long[] stamp = newStamps.get(path);
+                    writeString(out, path);
+                    for(int k = 0; k < 3; k++)
+                        out.writeLong(stamp[k]);
+                }
+
+                writeString(out, (timesSignature == null) ? "" : timesSignature);
+                out.writeInt((times == null) ? 0 : times.length);
+                for(int k = 0; times != null && k < times.length; k++)
+                    out.writeDouble(times[k]);
+
+                out.writeInt(kept.size());
+                for(String signature : kept.keySet()){
+                    writeString(out, signature);
+                    writeString(out, kept.get(signature));
+                }
+            }finally{
+                out.close();
+            }
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in FragmentCache");
+            ioe.printStackTrace();
+            temp.delete();
+            return;
+        }
+
+        if(cacheFile.exists())
+            cacheFile.delete();
+        if(!temp.renameTo(cacheFile))
+            temp.delete();
+
+        //The animation may be written again without the scene being read
+        stored = kept;
+        kept = new HashMap<String, String>();
+        dirty.clear();
+        numClean = 0;
+    }
+
+    private static String readString(DataInputStream in) throws IOException{
+        int length = in.readInt();
+        if(length < 0)
+            throw new IOException("Negative string length in a fragment cache");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException{
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+}
@@ -52,12 +52,12 @@ public class Label3D {
      *                  to make it the proper size
      * @param rgb : This is the RGB colour of the label, with values for R,G 
      *              and B ranging between 0 and 1 
-     * @param data : This is the 2 dimensional array containing the position of 
+     * @param data : This is the table containing the position of 
      *                  the label at every time step. Column 1 contains the time
      *                  Column 2,3 and 4 the X, Y and Z locations of the label.
      */
     
-    public Label3D(String tag, String text, double scaling, double[] rgb, double[][] data){
+    public Label3D(String tag, String text, double scaling, double[] rgb, ChannelData data){
         nametag = tag;
         labeltext = text;
         StringBuffer tempStrBuf = new StringBuffer();
@@ -69,15 +69,16 @@ public class Label3D {
         }
         labelrgbStr = tempStrBuf.toString();
         
-        timeStr = new String[data.length];
-        posStr = new String[data.length];
+        int rows = data.numRows();
+        timeStr = new String[rows];
+        posStr = new String[rows];
         
-        for(int i=0; i<data.length; i++){
-            timeStr[i] = Double.toString(data[i][0]/data[data.length-1][0]);
+        for(int i=0; i<rows; i++){
+            timeStr[i] = Double.toString(data.get(i, 0)/data.get(rows-1, 0));
             
             tempStrBuf.replace(0, tempStrBuf.length(), "");
             for(int k=1; k<4; k++){
-                tempStrBuf.append(data[i][k]);
+                tempStrBuf.append(data.get(i, k));
                 if(k<3) tempStrBuf.append(" ");
             }
             posStr[i] = tempStrBuf.toString();
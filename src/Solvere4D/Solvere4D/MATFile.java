@@ -0,0 +1,438 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * MATFile.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * This class reads numeric variables straight out of a MATLAB Level 5 *.mat
+ * file, so that data saved from MATLAB does not have to be written out as text
+ * before it can be animated. Both plain and compressed (miCOMPRESSED, saved by
+ * MATLAB 7 and later) variables are read; compressed variables are inflated
+ * with java.util.zip.
+ *
+ * The variables to read are chosen by name in the *.s4d file, between braces
+ * after the file name, with the time variable first:
+ *
+ *      kin_Winter1991.mat{T_per_wint hip_w91_norm knee_w91_norm ankle_w91_norm}
+ *
+ * A vector gives one column and an N by M matrix gives M columns (named
+ * name_1 ... name_M), in the order the names are given. Real numeric matrices
+ * of any class are read as doubles; the imaginary part of complex variables is
+ * ignored. A field of a 1 by 1 structure is given as name.field. If no names
+ * are given every numeric variable in the file is read, in the order they are
+ * saved, and the first of them is taken to be time.
+ *
+ * Only the name of each variable is decoded until one is found that is
+ * needed, so a large file can be read for a few of its variables quickly.
+ *
+ * @author mjhmilla
+ */
+public class MATFile {
+
+    public static final String EXTENSION = ".mat";
+
+    private static final int HEADER_SIZE = 128;
+
+    private static final int miINT8 = 1;
+    private static final int miUINT8 = 2;
+    private static final int miINT16 = 3;
+    private static final int miUINT16 = 4;
+    private static final int miINT32 = 5;
+    private static final int miUINT32 = 6;
+    private static final int miSINGLE = 7;
+    private static final int miDOUBLE = 9;
+    private static final int miINT64 = 12;
+    private static final int miUINT64 = 13;
+    private static final int miMATRIX = 14;
+    private static final int miCOMPRESSED = 15;
+
+    /** The first and last array classes that hold numbers (mxDOUBLE_CLASS to mxUINT64_CLASS) */
+    private static final int FIRST_NUMERIC_CLASS = 6;
+    private static final int LAST_NUMERIC_CLASS = 15;
+    private static final int STRUCT_CLASS = 2;
+
+    /**
+     * @return true if fileName has the *.mat extension
+     */
+    public static boolean isMATFile(String fileName){
+        return fileName.toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Reads the chosen variables of a *.mat file.
+     *
+     * @param absoluteFilePath : The complete file path of the *.mat file
+     * @param names            : The names of the variables to read, time first,
+     *                           or null to read every numeric variable
+     * @return The table of data, with the time in column 0
+     */
+    public static ChannelData read(String absoluteFilePath, String[] names){
+        ChannelData data = null;
+
+        try{
+            RandomAccessFile matFile = new RandomAccessFile(absoluteFilePath, "r");
+            FileChannel matChannel = matFile.getChannel();
+            ByteBuffer mapped = matChannel.map(FileChannel.MapMode.READ_ONLY, 0, matChannel.size());
+
+            data = read(mapped, names, absoluteFilePath);
+
+            matChannel.close();
+            matFile.close();
+
+        }catch(FileNotFoundException fnfe){
+            System.out.println("File not found exception thrown in MATFile");
+            fnfe.printStackTrace();
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in MATFile");
+            ioe.printStackTrace();
+        }catch(DataFormatException dfe){
+            System.out.println("Error: A compressed variable in " + absoluteFilePath + " could not be inflated");
+        }catch(IndexOutOfBoundsException ioobe){
+            System.out.println("Error: " + absoluteFilePath + " is not a valid MAT file, it ends too soon");
+        }
+
+        if(data == null)
+            data = new ChannelData(0, 1);
+        return data;
+    }
+
+    private static ChannelData read(ByteBuffer buf, String[] names, String fileName) throws DataFormatException{
+        if(buf.limit() < HEADER_SIZE || buf.get(126) == 0 || buf.get(0) == 0){
+            System.out.println("Error: " + fileName + " is not a Level 5 MAT file");
+            return null;
+        }
+        if(buf.get(126) == 'M' && buf.get(127) == 'I')
+            buf.order(ByteOrder.BIG_ENDIAN);
+        else
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        //The columns of each variable that was read, by name, and the order they were found in
+        HashMap<String, double[][]> variables = new HashMap<String, double[][]>();
+        ArrayList<String> found = new ArrayList<String>();
+
+        int pos = HEADER_SIZE;
+        while(pos + 8 <= buf.limit() && (names == null || found.size() < names.length)){
+            int type = buf.getInt(pos);
+            int size = buf.getInt(pos + 4);
+            int dataPos = pos + 8;
+
+            ByteBuffer element = null;
+            if(type == miMATRIX){
+                element = buf.duplicate().order(buf.order());
+                element.position(dataPos);
+                element.limit(dataPos + size);
+                element = element.slice().order(buf.order());
+            }else if(type == miCOMPRESSED){
+                byte[] compressed = new byte[size];
+                ByteBuffer src = buf.duplicate();
+                src.position(dataPos);
+                src.get(compressed);
+                element = inflate(compressed, names, buf.order());
+            }
+
+            if(element != null){
+                String name = getName(element);
+                if(name != null && (names == null || indexOf(names, name) != -1) && !variables.containsKey(name)){
+                    double[][] columns = getColumns(element, name, fileName);
+                    if(columns != null){
+                        variables.put(name, columns);
+                        found.add(name);
+                    }
+                }
+
+                //Fields of a structure, given as name.field
+                for(int k = 0; name != null && names != null && k < names.length; k++){
+                    if(names[k].startsWith(name + ".") && !variables.containsKey(names[k])){
+                        ByteBuffer field = getField(element, names[k].substring(name.length() + 1));
+                        double[][] columns = (field != null) ? getColumns(field, names[k], fileName) : null;
+                        if(columns != null){
+                            variables.put(names[k], columns);
+                            found.add(names[k]);
+                        }
+                    }
+                }
+            }
+
+            //miCOMPRESSED elements are not padded
+            pos = dataPos + size;
+            if(type != miCOMPRESSED)
+                pos += (8 - size % 8) % 8;
+        }
+
+        if(names == null)
+            names = found.toArray(new String[found.size()]);
+
+        //Lay the variables out side by side, time first
+        ArrayList<double[]> columns = new ArrayList<double[]>();
+        ArrayList<String> columnNames = new ArrayList<String>();
+        int rows = -1;
+
+        for(String n : names){
+            double[][] variable = variables.get(n);
+            if(variable == null){
+                System.out.println("Error: There is no numeric variable named " + n + " in " + fileName);
+                continue;
+            }
+            if(rows == -1)
+                rows = variable[0].length;
+            else if(variable[0].length != rows)
+                System.out.println("Error: " + n + " in " + fileName + " has " + variable[0].length
+                        + " rows rather than " + rows + ", the missing values are set to NaN");
+
+            for(int k = 0; k < variable.length; k++){
+                double[] column = variable[k];
+                if(column.length != rows){
+                    double[] tempColumn = new double[rows];
+                    for(int r = 0; r < rows; r++)
+                        tempColumn[r] = (r < column.length) ? column[r] : Double.NaN;
+                    column = tempColumn;
+                }
+                columns.add(column);
+                columnNames.add(variable.length == 1 ? n : n + "_" + (k+1));
+            }
+        }
+
+        if(rows == -1)
+            return null;
+
+        ChannelData data = new ChannelData(columns.toArray(new double[columns.size()][]), rows);
+        data.setColumnNames(columnNames.toArray(new String[columnNames.size()]));
+        return data;
+    }
+
+    /**
+     * Inflates a compressed variable. Only the start of it is inflated at
+     * first, enough to read its name; the rest is only inflated if the
+     * variable is one of names.
+     *
+     * @return The contents of the miMATRIX element held in compressed, or null
+     *         if it is not a miMATRIX or not wanted
+     */
+    private static ByteBuffer inflate(byte[] compressed, String[] names, ByteOrder order) throws DataFormatException{
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+
+        byte[] head = new byte[256];
+        int headLen = 0;
+        while(headLen < head.length && !inflater.finished() && !inflater.needsInput())
+            headLen += inflater.inflate(head, headLen, head.length - headLen);
+
+        ByteBuffer headBuf = ByteBuffer.wrap(head, 0, headLen).order(order);
+        if(headLen < 8 || headBuf.getInt(0) != miMATRIX){
+            inflater.end();
+            return null;
+        }
+        int size = headBuf.getInt(4);
+
+        if(names != null){
+            ByteBuffer start = ByteBuffer.wrap(head, 8, headLen - 8).slice().order(order);
+            String name = getName(start);
+            if(name == null || !isWanted(names, name)){
+                inflater.end();
+                return null;
+            }
+        }
+
+        byte[] contents = new byte[size];
+        int len = Math.min(size, headLen - 8);
+        System.arraycopy(head, 8, contents, 0, len);
+        while(len < size && !inflater.finished() && !inflater.needsInput())
+            len += inflater.inflate(contents, len, size - len);
+        inflater.end();
+
+        return ByteBuffer.wrap(contents).order(order);
+    }
+
+    /**
+     * @return {type, number of bytes, position of the data, position of the
+     *         next element} of the data element at pos of buf, which may be in
+     *         the small (4 byte) format
+     */
+    private static int[] getTag(ByteBuffer buf, int pos){
+        int first = buf.getInt(pos);
+        if((first >>> 16) != 0)
+            return new int[] {first & 0xffff, first >>> 16, pos + 4, pos + 8};
+
+        int size = buf.getInt(pos + 4);
+        return new int[] {first, size, pos + 8, pos + 8 + size + (8 - size % 8) % 8};
+    }
+
+    /**
+     * @return The name of the miMATRIX whose contents are in element, or null
+     *         if element is too short to hold it
+     */
+    private static String getName(ByteBuffer element){
+        try{
+            int[] flags = getTag(element, 0);
+            int[] dims = getTag(element, flags[3]);
+            int[] name = getTag(element, dims[3]);
+
+            byte[] nameBytes = new byte[name[1]];
+            for(int k = 0; k < nameBytes.length; k++)
+                nameBytes[k] = element.get(name[2] + k);
+            return new String(nameBytes, StandardCharsets.ISO_8859_1);
+
+        }catch(IndexOutOfBoundsException ioobe){
+            return null;
+        }
+    }
+
+    /**
+     * @return The contents of the miMATRIX held in field fieldName of the 1 by 1
+     *         structure whose contents are in element, or null if there is no
+     *         such field
+     */
+    private static ByteBuffer getField(ByteBuffer element, String fieldName){
+        int[] flags = getTag(element, 0);
+        if((element.getInt(flags[2]) & 0xff) != STRUCT_CLASS)
+            return null;
+
+        int[] dimsTag = getTag(element, flags[3]);
+        int[] nameTag = getTag(element, dimsTag[3]);
+        int[] lengthTag = getTag(element, nameTag[3]);
+        int fieldLength = element.getInt(lengthTag[2]);
+        int[] fieldsTag = getTag(element, lengthTag[3]);
+        int numFields = (fieldLength > 0) ? fieldsTag[1]/fieldLength : 0;
+
+        int pos = fieldsTag[3];
+        for(int k = 0; k < numFields; k++){
+            byte[] fieldBytes = new byte[fieldLength];
+            for(int c = 0; c < fieldLength; c++)
+                fieldBytes[c] = element.get(fieldsTag[2] + k*fieldLength + c);
+            String name = new String(fieldBytes, StandardCharsets.ISO_8859_1).trim();
+            int nul = name.indexOf(0);
+            if(nul != -1)
+                name = name.substring(0, nul);
+
+            int[] fieldTag = getTag(element, pos);
+            if(name.equals(fieldName)){
+                ByteBuffer field = element.duplicate();
+                field.position(fieldTag[2]);
+                field.limit(fieldTag[2] + fieldTag[1]);
+                return field.slice().order(element.order());
+            }
+            pos = fieldTag[3];
+        }
+        return null;
+    }
+
+    /**
+     * @return The real part of the numeric miMATRIX whose contents are in
+     *         element, one array per column, or null if it is not numeric
+     */
+    private static double[][] getColumns(ByteBuffer element, String name, String fileName){
+        int[] flags = getTag(element, 0);
+        int arrayClass = element.getInt(flags[2]) & 0xff;
+
+        if(arrayClass < FIRST_NUMERIC_CLASS || arrayClass > LAST_NUMERIC_CLASS){
+            System.out.println("Error: " + name + " in " + fileName + " is not a numeric matrix and can not be read");
+            return null;
+        }
+
+        int[] dimsTag = getTag(element, flags[3]);
+        int numDims = dimsTag[1]/4;
+        int rows = (numDims > 0) ? element.getInt(dimsTag[2]) : 0;
+        int cols = 1;
+        for(int d = 1; d < numDims; d++)
+            cols *= element.getInt(dimsTag[2] + 4*d);
+
+        //A row vector is read as a column
+        if(rows == 1 && cols > 1){
+            rows = cols;
+            cols = 1;
+        }
+
+        int[] nameTag = getTag(element, dimsTag[3]);
+        int[] real = getTag(element, nameTag[3]);
+
+        double[][] columns = new double[cols][rows];
+        int pos = real[2];
+        int count = Math.min(rows*cols, real[1]/getSize(real[0]));
+
+        for(int k = 0; k < count; k++){
+            double value;
+            switch(real[0]){
+                case miDOUBLE:  value = element.getDouble(pos); pos += 8; break;
+                case miSINGLE:  value = element.getFloat(pos);  pos += 4; break;
+                case miINT8:    value = element.get(pos);       pos += 1; break;
+                case miUINT8:   value = element.get(pos) & 0xff;        pos += 1; break;
+                case miINT16:   value = element.getShort(pos);  pos += 2; break;
+                case miUINT16:  value = element.getShort(pos) & 0xffff; pos += 2; break;
+                case miINT32:   value = element.getInt(pos);    pos += 4; break;
+                case miUINT32:  value = element.getInt(pos) & 0xffffffffL; pos += 4; break;
+                case miINT64:   value = element.getLong(pos);   pos += 8; break;
+                case miUINT64:  value = unsignedToDouble(element.getLong(pos)); pos += 8; break;
+                default:
+                    System.out.println("Error: " + name + " in " + fileName + " is stored in an unknown data type " + real[0]);
+                    return null;
+            }
+            columns[k / rows][k % rows] = value;
+        }
+        return columns;
+    }
+
+    /**
+     * @return The number of bytes taken by one value of a MAT data type
+     */
+    private static int getSize(int type){
+        switch(type){
+            case miINT8: case miUINT8:                  return 1;
+            case miINT16: case miUINT16:                return 2;
+            case miINT32: case miUINT32: case miSINGLE: return 4;
+            default:                                    return 8;
+        }
+    }
+
+    private static double unsignedToDouble(long value){
+        double d = (double)(value >>> 1)*2;
+        return d + (value & 1);
+    }
+
+    /**
+     * @return true if name, or one of its fields, is one of names
+     */
+    private static boolean isWanted(String[] names, String name){
+        for(int k = 0; k < names.length; k++){
+            if(names[k].equals(name) || names[k].startsWith(name + "."))
+                return true;
+        }
+        return false;
+    }
+
+    private static int indexOf(String[] names, String name){
+        for(int k = 0; k < names.length; k++){
+            if(names[k].equals(name))
+                return k;
+        }
+        return -1;
+    }
+
+}
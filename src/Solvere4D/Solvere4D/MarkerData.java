@@ -52,7 +52,7 @@ public class MarkerData {
      *                <li> 1=cylinder, 
      *                <li> 2=box 
      *                <li> 3=cone
-     * @param xyz   : An array of x,y,z positions for each of the makers, as a [n][3] sized array
+     * @param xyz   : The x,y,z positions of the markers, one row per marker
      * @param sizeProperties_m : The size properties for the shape of choice,
      *                           always an array with 3 indicies:
      *          <li> Sphere:    idx1=radius,    idx2=0,     idx3 = 0; 
@@ -63,7 +63,7 @@ public class MarkerData {
      * @param transparency  :The transparency of the maker from opaque (0) to totally clear (1)
      * 
      */
-    public MarkerData(int shape, double[][] xyz, double[] sizeProperties_m,double[] RGB, double transparency) {
+    public MarkerData(int shape, ChannelData xyz, double[] sizeProperties_m,double[] RGB, double transparency) {
             
             markerTransparency = (float)transparency;
             
@@ -95,14 +95,14 @@ public class MarkerData {
             markerRGB[1] = (float)RGB[1];
             markerRGB[2] = (float)RGB[2];
              
-            int rows = xyz.length;
-            int cols = xyz[0].length;
+            int rows = xyz.numRows();
+            int cols = xyz.numCol();
             
             markerXYZPos = new float[rows][cols];
             
             for(int i = 0; i < rows; i++){
                 for(int j = 0; j < cols; j++){
-                    markerXYZPos[i][j] = (float)xyz[i][j];
+                    markerXYZPos[i][j] = (float)xyz.get(i, j);
                 }
             }
             
@@ -0,0 +1,546 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * MeshReader.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * This class reads the geometry of a body from a Wavefront OBJ file or from a
+ * binary or ASCII STL file, the formats that CAD packages export to, so that
+ * they can be listed in the <bodyGEO> block of a *.s4d file in place of a
+ * VRML97 file. A "gz" extension may follow either one.
+ *
+ * The file is read a buffer at a time into an indexed mesh: a list of vertex
+ * coordinates and a list of faces that index into it. The vertices of an OBJ
+ * file are already shared by its faces; STL stores three vertices for every
+ * triangle, so vertices with the same coordinates are welded together as
+ * they are read. The mesh is then written as a single IndexedFaceSet inside a
+ * Transform, which BodyData names and animates like any other geometry file.
+ *
+ * Only the vertices and faces of the mesh are read. Texture coordinates,
+ * normals, materials and groups of an OBJ file and the colours of a binary
+ * STL file are left out; the mesh is drawn in a plain grey and the browser
+ * works out its normals.
+ *
+ * @author mjhmilla
+ */
+public class MeshReader {
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final int STL_HEADER_SIZE = 84;
+    private static final int STL_TRIANGLE_SIZE = 50;
+    private static final int STL_PROBE_SIZE = 1024;
+
+    private float[] coords;         //x, y, z of each vertex
+    private int numVertices;
+    private int[] coordIndex;       //the vertices of each face, then -1
+    private int numIndices;
+    private int numFaces;
+
+    //Used to weld the vertices of an STL file
+    private int[] weldTable;
+
+    //Used while a line is parsed
+    private float[] xyz;
+    private byte[] token;
+
+    private String fileName;
+
+    /**
+     * @param name : The name of the file being read, used in error messages
+     */
+    private MeshReader(String name){
+        fileName = name;
+        coords = new float[3*1024];
+        coordIndex = new int[4*1024];
+        xyz = new float[3];
+        token = new byte[64];
+    }
+
+    /**
+     * @return true if absoluteFilePath names an OBJ or STL file, with or
+     *         without a "gz" extension
+     */
+    public static boolean isMesh(String absoluteFilePath){
+        return isOBJ(absoluteFilePath) || isSTL(absoluteFilePath);
+    }
+
+    private static boolean isOBJ(String absoluteFilePath){
+        return DataReader.getUncompressedPath(absoluteFilePath).toLowerCase().endsWith(".obj");
+    }
+
+    private static boolean isSTL(String absoluteFilePath){
+        return DataReader.getUncompressedPath(absoluteFilePath).toLowerCase().endsWith(".stl");
+    }
+
+    /**
+     * Reads a mesh file and writes it as VRML97.
+     *
+     * @param meshFile : An OBJ or STL file
+     * @return The lines of a Transform holding the mesh as an IndexedFaceSet,
+     *         or null if the file could not be read
+     */
+    public static String[] readGeometryLines(File meshFile){
+        String path = meshFile.getAbsolutePath();
+
+        try{
+            InputStream in = DataReader.openStream(path);
+            try{
+                return readGeometryLines(in, path, DataReader.isCompressed(path) ? -1 : meshFile.length());
+            }finally{
+                in.close();
+            }
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in MeshReader");
+            ioe.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Reads an OBJ or STL mesh from a stream, such as one that has been piped
+     * in (see ScenePipe), and gives the VRML lines of the mesh.
+     *
+     * @param in   : The (decompressed) contents of the mesh file
+     * @param path : The name of the mesh file, which tells OBJ from STL
+     * @param size : The number of bytes in the stream, or -1 if not known
+     * @return The lines of a VRML Transform node holding the mesh
+     */
+    public static String[] readGeometryLines(InputStream in, String path, long size) throws IOException{
+        MeshReader mesh = new MeshReader(path);
+        if(isOBJ(path))
+            mesh.readOBJ(in);
+        else
+            mesh.readSTL(in, size);
+
+        if(mesh.numFaces == 0)
+            System.out.println("Error: There are no faces in " + path);
+
+        return mesh.getVRMLLines();
+    }
+
+    /**
+     * Reads the "v" and "f" lines of an OBJ file. A face may have any number
+     * of vertices, given as v, v/vt, v//vn or v/vt/vn; negative indices count
+     * back from the last vertex read.
+     */
+    private void readOBJ(InputStream in) throws IOException{
+        byte[] buf = new byte[BUFFER_SIZE];
+        byte[] line = new byte[256];
+        int lineLen = 0;
+        int lineNum = 0;
+
+        int n = in.read(buf);
+        while(n != -1){
+            for(int i = 0; i < n; i++){
+                byte c = buf[i];
+                if(c == '\n'){
+                    lineNum++;
+                    parseOBJLine(line, lineLen, lineNum);
+                    lineLen = 0;
+                }else{
+                    if(lineLen == line.length){
+                        byte[] tempLine = new byte[2*line.length];
+                        System.arraycopy(line, 0, tempLine, 0, lineLen);
+                        line = tempLine;
+                    }
+                    line[lineLen++] = c;
+                }
+            }
+            n = in.read(buf);
+        }
+        if(lineLen > 0)
+            parseOBJLine(line, lineLen, lineNum+1);
+    }
+
+    private void parseOBJLine(byte[] line, int len, int lineNum){
+        int i = skipSpaces(line, 0, len);
+        if(i+1 >= len || (line[i+1] != ' ' && line[i+1] != '\t'))
+            return;
+
+        if(line[i] == 'v'){
+            if(!parseXYZ(line, i+1, len)){
+                System.out.println("Error: Line " + lineNum + " of " + fileName + " does not have 3 coordinates");
+                //A vertex is still added, so that the faces keep their numbering
+                xyz[0] = 0;
+                xyz[1] = 0;
+                xyz[2] = 0;
+            }
+            addVertex(xyz[0], xyz[1], xyz[2]);
+
+        }else if(line[i] == 'f'){
+            i += 1;
+            int first = numIndices;
+            while(true){
+                i = skipSpaces(line, i, len);
+                int e = skipToken(line, i, len);
+                if(e == i)
+                    break;
+
+                //Only the vertex index, before any '/', is used
+                int v = 0;
+                int k = i;
+                boolean negative = false;
+                if(line[k] == '-'){
+                    negative = true;
+                    k++;
+                }
+                while(k < e && line[k] >= '0' && line[k] <= '9'){
+                    v = 10*v + (line[k] - '0');
+                    k++;
+                }
+                v = negative ? numVertices - v : v - 1;
+                if(v < 0 || v >= numVertices){
+                    System.out.println("Error: Line " + lineNum + " of " + fileName + " refers to a vertex that has not been defined");
+                    numIndices = first;
+                    return;
+                }
+                addIndex(v);
+                i = e;
+            }
+
+            if(numIndices - first < 3){
+                numIndices = first;
+                return;
+            }
+            addIndex(-1);
+            numFaces++;
+        }
+    }
+
+    private static int skipSpaces(byte[] line, int i, int len){
+        while(i < len && (line[i] == ' ' || line[i] == '\t' || line[i] == '\r'))
+            i++;
+        return i;
+    }
+
+    private static int skipToken(byte[] line, int i, int len){
+        while(i < len && line[i] != ' ' && line[i] != '\t' && line[i] != '\r')
+            i++;
+        return i;
+    }
+
+    /**
+     * Reads the three numbers that follow position i of line into xyz.
+     *
+     * @return false if there are fewer than three numbers
+     */
+    private boolean parseXYZ(byte[] line, int i, int len){
+        for(int k = 0; k < 3; k++){
+            i = skipSpaces(line, i, len);
+            int e = skipToken(line, i, len);
+            if(e == i)
+                return false;
+
+            //NumericParser.toDouble reads from the start of its buffer
+            if(e - i > token.length)
+                token = new byte[e - i];
+            System.arraycopy(line, i, token, 0, e - i);
+            try{
+                xyz[k] = (float)NumericParser.toDouble(token, e - i);
+            }catch(NumberFormatException nfe){
+                return false;
+            }
+            i = e;
+        }
+        return true;
+    }
+
+    /**
+     * Reads an STL file. A binary STL file is an 80 byte header, the number of
+     * triangles, and then 50 bytes for every triangle. An ASCII STL file
+     * starts with "solid", as some binary headers do too, so a file is taken
+     * to be binary if its size is that of a binary file with the number of
+     * triangles it claims to have. If the size is not known, as for a "gz"
+     * file, the first bytes after the header are read ahead instead, and the
+     * file is taken to be ASCII only if "facet" or "endsolid" is among them.
+     *
+     * @param size : The size of the file, or -1 if it is not known
+     */
+    private void readSTL(InputStream in, long size) throws IOException{
+        weldTable = new int[4096];
+        Arrays.fill(weldTable, -1);
+
+        byte[] header = new byte[STL_HEADER_SIZE + STL_PROBE_SIZE];
+        int headerLen = readFully(in, header, STL_HEADER_SIZE);
+        long triangles = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt(80) & 0xffffffffL;
+
+        boolean ascii = new String(header, 0, Math.min(5, headerLen), "US-ASCII").equals("solid");
+        int startLen = headerLen;
+        if(ascii && headerLen == STL_HEADER_SIZE){
+            if(size < 0){
+                startLen += readFully(in, header, STL_HEADER_SIZE, STL_PROBE_SIZE);
+                String start = new String(header, 0, startLen, "ISO-8859-1");
+                ascii = start.indexOf("facet") >= 0 || start.indexOf("endsolid") >= 0;
+            }else if(size == STL_HEADER_SIZE + STL_TRIANGLE_SIZE*triangles){
+                ascii = false;
+            }
+        }
+
+        if(ascii)
+            readASCIISTL(in, header, startLen);
+        else if(headerLen == STL_HEADER_SIZE)
+            readBinarySTL(new SequenceInputStream(new ByteArrayInputStream(header, STL_HEADER_SIZE, startLen - STL_HEADER_SIZE), in), triangles);
+        else
+            System.out.println("Error: " + fileName + " is too short to be an STL file");
+    }
+
+    private void readBinarySTL(InputStream in, long triangles) throws IOException{
+        byte[] buf = new byte[STL_TRIANGLE_SIZE*(BUFFER_SIZE/STL_TRIANGLE_SIZE)];
+        ByteBuffer data = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+
+        long read = 0;
+        while(read < triangles){
+            int wanted = (int)Math.min(buf.length/STL_TRIANGLE_SIZE, triangles - read);
+            int len = readFully(in, buf, wanted*STL_TRIANGLE_SIZE);
+            int count = len/STL_TRIANGLE_SIZE;
+
+            for(int t = 0; t < count; t++){
+                //The 12 bytes of the normal come first, then the 3 vertices
+                int b = t*STL_TRIANGLE_SIZE + 12;
+                for(int k = 0; k < 3; k++, b += 12)
+                    addIndex(weldVertex(data.getFloat(b), data.getFloat(b+4), data.getFloat(b+8)));
+                endTriangle();
+            }
+
+            read += count;
+            if(count < wanted){
+                System.out.println("Error: " + fileName + " ends after " + read + " of its " + triangles + " triangles");
+                break;
+            }
+        }
+    }
+
+    /**
+     * Reads the "vertex x y z" lines of an ASCII STL file, every three of
+     * which make a triangle.
+     */
+    private void readASCIISTL(InputStream in, byte[] start, int startLen) throws IOException{
+        byte[] buf = new byte[BUFFER_SIZE];
+        byte[] line = new byte[256];
+        int lineLen = 0;
+        int inTriangle = 0;
+
+        int n = startLen;
+        System.arraycopy(start, 0, buf, 0, startLen);
+        while(n > 0){
+            for(int i = 0; i < n; i++){
+                byte c = buf[i];
+                if(c == '\n'){
+                    inTriangle = parseSTLLine(line, lineLen, inTriangle);
+                    lineLen = 0;
+                }else if(lineLen < line.length){
+                    line[lineLen++] = c;
+                }
+            }
+            n = in.read(buf);
+        }
+        if(lineLen > 0)
+            parseSTLLine(line, lineLen, inTriangle);
+    }
+
+    private int parseSTLLine(byte[] line, int len, int inTriangle){
+        int i = skipSpaces(line, 0, len);
+        int e = skipToken(line, i, len);
+        if(e - i != 6 || line[i] != 'v' || !new String(line, i, 6).equals("vertex"))
+            return inTriangle;
+
+        if(!parseXYZ(line, e, len)){
+            System.out.println("Error: A vertex of " + fileName + " does not have 3 coordinates");
+            xyz[0] = 0;
+            xyz[1] = 0;
+            xyz[2] = 0;
+        }
+
+        addIndex(weldVertex(xyz[0], xyz[1], xyz[2]));
+        if(inTriangle == 2){
+            endTriangle();
+            return 0;
+        }
+        return inTriangle + 1;
+    }
+
+    /**
+     * Ends a triangle of an STL file, leaving it out if two of its corners
+     * were welded into one vertex.
+     */
+    private void endTriangle(){
+        int a = coordIndex[numIndices-3];
+        int b = coordIndex[numIndices-2];
+        int c = coordIndex[numIndices-1];
+        if(a == b || b == c || a == c){
+            numIndices -= 3;
+            return;
+        }
+        addIndex(-1);
+        numFaces++;
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int len) throws IOException{
+        return readFully(in, buf, 0, len);
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int off, int len) throws IOException{
+        int read = 0;
+        while(read < len){
+            int n = in.read(buf, off + read, len - read);
+            if(n == -1)
+                break;
+            read += n;
+        }
+        return read;
+    }
+
+    private void addVertex(float x, float y, float z){
+        if(3*numVertices == coords.length){
+            float[] tempCoords = new float[2*coords.length];
+            System.arraycopy(coords, 0, tempCoords, 0, coords.length);
+            coords = tempCoords;
+        }
+        coords[3*numVertices] = x;
+        coords[3*numVertices+1] = y;
+        coords[3*numVertices+2] = z;
+        numVertices++;
+    }
+
+    private void addIndex(int index){
+        if(numIndices == coordIndex.length){
+            int[] tempIndex = new int[2*coordIndex.length];
+            System.arraycopy(coordIndex, 0, tempIndex, 0, coordIndex.length);
+            coordIndex = tempIndex;
+        }
+        coordIndex[numIndices++] = index;
+    }
+
+    /**
+     * @return The index of the vertex at x, y, z, which is added if no vertex
+     *         has been read there before. The vertices are found through an
+     *         open addressing hash table of their indices, which is doubled
+     *         in size whenever it is half full.
+     */
+    private int weldVertex(float x, float y, float z){
+        //-0 and 0 are the same point
+        x += 0.0f;
+        y += 0.0f;
+        z += 0.0f;
+
+        int mask = weldTable.length - 1;
+        int slot = hash(x, y, z) & mask;
+        while(weldTable[slot] != -1){
+            int v = weldTable[slot];
+            if(coords[3*v] == x && coords[3*v+1] == y && coords[3*v+2] == z)
+                return v;
+            slot = (slot + 1) & mask;
+        }
+
+        addVertex(x, y, z);
+        weldTable[slot] = numVertices - 1;
+
+        if(2*numVertices > weldTable.length){
+            weldTable = new int[2*weldTable.length];
+            Arrays.fill(weldTable, -1);
+            mask = weldTable.length - 1;
+            for(int v = 0; v < numVertices; v++){
+                slot = hash(coords[3*v], coords[3*v+1], coords[3*v+2]) & mask;
+                while(weldTable[slot] != -1)
+                    slot = (slot + 1) & mask;
+                weldTable[slot] = v;
+            }
+        }
+        return numVertices - 1;
+    }
+
+    private static int hash(float x, float y, float z){
+        int h = Float.floatToIntBits(x);
+        h = 31*h + Float.floatToIntBits(y);
+        h = 31*h + Float.floatToIntBits(z);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return The mesh as a VRML97 Transform holding one IndexedFaceSet, with
+     *         one vertex and one face per line
+     */
+    private String[] getVRMLLines(){
+        String[] lines = new String[numVertices + numFaces + 16];
+        int k = 0;
+
+        lines[k++] = "Transform {";
+        lines[k++] = "  children [";
+        lines[k++] = "    Shape {";
+        lines[k++] = "      appearance Appearance { material Material { diffuseColor 0.8 0.8 0.8 } }";
+        lines[k++] = "      geometry IndexedFaceSet {";
+        lines[k++] = "        solid FALSE";
+        lines[k++] = "        coord Coordinate { point [";
+
+        StringBuilder line = new StringBuilder();
+        for(int v = 0; v < numVertices; v++){
+            line.setLength(0);
+            appendNumber(line, coords[3*v]).append(' ');
+            appendNumber(line, coords[3*v+1]).append(' ');
+            appendNumber(line, coords[3*v+2]).append(',');
+            lines[k++] = line.toString();
+        }
+
+        lines[k++] = "        ] }";
+        lines[k++] = "        coordIndex [";
+
+        line.setLength(0);
+        for(int i = 0; i < numIndices; i++){
+            line.append(coordIndex[i]);
+            if(coordIndex[i] == -1){
+                line.append(',');
+                lines[k++] = line.toString();
+                line.setLength(0);
+            }else{
+                line.append(' ');
+            }
+        }
+
+        lines[k++] = "        ]";
+        lines[k++] = "      }";
+        lines[k++] = "    }";
+        lines[k++] = "  ]";
+        lines[k++] = "}";
+
+        String[] tempLines = new String[k];
+        System.arraycopy(lines, 0, tempLines, 0, k);
+        return tempLines;
+    }
+
+    /**
+     * Appends the shortest text that reads back as value, without a trailing
+     * ".0" on whole numbers.
+     */
+    private static StringBuilder appendNumber(StringBuilder line, float value){
+        String number = Float.toString(value);
+        if(number.endsWith(".0"))
+            number = number.substring(0, number.length() - 2);
+        return line.append(number);
+    }
+
+}
@@ -0,0 +1,667 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * NPYFile.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * This class reads and writes NumPy arrays, so that data can be passed to and
+ * from Python without being written out as text. A *.npy file holds a single
+ * array; a *.npz file is a zip archive of *.npy files, each stored as it is
+ * or compressed with deflate (numpy.savez and numpy.savez_compressed).
+ *
+ * An array with N rows gives N rows of the table: a vector gives one column,
+ * and an array of N by M (or N by M by K, ...) gives M (M*K, ...) columns, in
+ * C order. Arrays of floats, signed and unsigned integers and booleans of any
+ * size and byte order are read, in C or Fortran order; arrays of records,
+ * strings or objects are not.
+ *
+ * An array that is not compressed is memory mapped. If it holds 32 or 64 bit
+ * floats, and every array that is read does too, the table reads its values
+ * straight out of the mapped file (see OffHeapStore.wrap), so however large
+ * the array is it is neither copied nor kept on the heap. Other arrays are
+ * copied into a table of doubles.
+ *
+ * The arrays to read from a *.npz file are chosen by name in the *.s4d file,
+ * between braces after the file name, with the time array first, in the same
+ * way as for a *.mat file (see MATFile):
+ *
+ *      trial.npz{time hip knee}
+ *
+ * A vector is named for its array and the columns of a larger array are
+ * named name_1 ... name_M. If no names are given every array in the file is
+ * read, in the order they were saved, and the first of them is taken to be
+ * time.
+ *
+ * Tables are written (see write) as a single 64 bit float array, N rows by
+ * the number of columns, in C order.
+ *
+ * @author mjhmilla
+ */
+public class NPYFile {
+
+    public static final String EXTENSION = ".npy";
+    public static final String ARCHIVE_EXTENSION = ".npz";
+
+    private static final byte[] MAGIC = {(byte)0x93, 'N', 'U', 'M', 'P', 'Y'};
+
+    private static final int ZIP_LOCAL_HEADER = 0x04034b50;
+    private static final int ZIP_CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP_END_HEADER = 0x06054b50;
+    private static final int ZIP_STORED = 0;
+    private static final int ZIP_DEFLATED = 8;
+
+    /**
+     * One array of a file, with the type of its values and where its columns
+     * start.
+     */
+    private static class Array {
+        String name;
+        ByteBuffer data;        //the values, in their own byte order
+        boolean mapped;         //true if data is a view of the mapped file
+        char kind;              //'f', 'i', 'u' or 'b'
+        int size;               //the size of a value in bytes
+        int rows;
+        int cols;
+        int[] colStart;         //the byte offset of row 0 of each column
+        int[] rowBytes;         //the bytes from one row of each column to the next
+    }
+
+    /**
+     * @return true if fileName has the *.npy or the *.npz extension
+     */
+    public static boolean isNPYFile(String fileName){
+        String name = fileName.toLowerCase();
+        return name.endsWith(EXTENSION) || name.endsWith(ARCHIVE_EXTENSION);
+    }
+
+    /**
+     * Reads a *.npy file, or the chosen arrays of a *.npz file.
+     *
+     * @param absoluteFilePath : The complete file path of the file
+     * @param names            : The names of the arrays of a *.npz file to
+     *                           read, time first, or null to read every array
+     * @return The table of data, with the time in column 0
+     */
+    public static ChannelData read(String absoluteFilePath, String[] names){
+        ChannelData data = null;
+
+        try{
+            RandomAccessFile npyFile = new RandomAccessFile(absoluteFilePath, "r");
+            FileChannel npyChannel = npyFile.getChannel();
+            if(npyChannel.size() > Integer.MAX_VALUE){
+                System.out.println("Error: " + absoluteFilePath + " is larger than 2 GB and cannot be read");
+            }else{
+                ByteBuffer mapped = npyChannel.map(FileChannel.MapMode.READ_ONLY, 0, npyChannel.size());
+                data = read(mapped, true, names, absoluteFilePath);
+            }
+
+            //The mapping stays valid once the file is closed
+            npyChannel.close();
+            npyFile.close();
+
+        }catch(FileNotFoundException fnfe){
+            System.out.println("File not found exception thrown in NPYFile");
+            fnfe.printStackTrace();
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in NPYFile");
+            ioe.printStackTrace();
+        }catch(IndexOutOfBoundsException ioobe){
+            System.out.println("Error: " + absoluteFilePath + " is not a valid NumPy file, it ends too soon");
+        }
+
+        if(data == null)
+            data = new ChannelData(0, 1);
+        return data;
+    }
+
+    /**
+     * Reads a *.npy file, or the chosen arrays of a *.npz file, that is held
+     * in memory rather than in a file (see ScenePipe). The values are copied
+     * into a table of doubles.
+     *
+     * @param contents : The contents of the file
+     * @param names    : The names of the arrays of a *.npz file to read, time
+     *                   first, or null to read every array
+     * @param fileName : The name of the file, which tells a *.npy file from a
+     *                   *.npz file
+     * @return The table of data, with the time in column 0
+     */
+    public static ChannelData read(byte[] contents, String[] names, String fileName){
+        ChannelData data = null;
+        try{
+            data = read(ByteBuffer.wrap(contents), false, names, fileName);
+        }catch(IndexOutOfBoundsException ioobe){
+            System.out.println("Error: " + fileName + " is not a valid NumPy file, it ends too soon");
+        }
+
+        if(data == null)
+            data = new ChannelData(0, 1);
+        return data;
+    }
+
+    /**
+     * @param buf    : The contents of the *.npy or *.npz file
+     * @param mapped : true if buf is a mapped file
+     */
+    private static ChannelData read(ByteBuffer buf, boolean mapped, String[] names, String fileName){
+        ArrayList<Array> arrays = new ArrayList<Array>();
+        if(fileName.toLowerCase().endsWith(ARCHIVE_EXTENSION)){
+            readArchive(buf, mapped, names, arrays, fileName);
+        }else{
+            if(names != null)
+                System.out.println("Error: Arrays cannot be chosen by name from the *.npy file "
+                        + fileName + ", the whole file is read");
+            Array array = readArray(buf, mapped, fileName);
+            if(array != null)
+                arrays.add(array);
+        }
+
+        return makeTable(arrays, fileName);
+    }
+
+    /**
+     * Reads the arrays of a *.npz file, through the central directory at the
+     * end of the zip archive.
+     */
+    private static void readArchive(ByteBuffer buf, boolean mapped, String[] names, ArrayList<Array> arrays, String fileName){
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        //The end of central directory record is followed by a comment of at
+        //most 65535 bytes
+        int end = -1;
+        for(int p = buf.limit() - 22; p >= 0 && p >= buf.limit() - 22 - 65535; p--){
+            if(buf.getInt(p) == ZIP_END_HEADER){
+                end = p;
+                break;
+            }
+        }
+        if(end == -1){
+            System.out.println("Error: " + fileName + " is not a zip archive");
+            return;
+        }
+
+        int entries = buf.getShort(end + 10) & 0xffff;
+        int p = buf.getInt(end + 16);
+        ArrayList<Array> found = new ArrayList<Array>();
+
+        for(int k = 0; k < entries; k++){
+            if(buf.getInt(p) != ZIP_CENTRAL_HEADER){
+                System.out.println("Error: The central directory of " + fileName + " is damaged");
+                break;
+            }
+            int method = buf.getShort(p + 10) & 0xffff;
+            long compressedSize = buf.getInt(p + 20) & 0xffffffffL;
+            long size = buf.getInt(p + 24) & 0xffffffffL;
+            int nameLen = buf.getShort(p + 28) & 0xffff;
+            int extraLen = buf.getShort(p + 30) & 0xffff;
+            int commentLen = buf.getShort(p + 32) & 0xffff;
+            long offset = buf.getInt(p + 42) & 0xffffffffL;
+
+            byte[] nameBytes = new byte[nameLen];
+            for(int b = 0; b < nameLen; b++)
+                nameBytes[b] = buf.get(p + 46 + b);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            //numpy writes zip64 sizes and offsets, which are kept in an extra
+            //field in place of the values that are all ones
+            int x = p + 46 + nameLen;
+            while(x + 4 <= p + 46 + nameLen + extraLen){
+                int id = buf.getShort(x) & 0xffff;
+                int len = buf.getShort(x + 2) & 0xffff;
+                if(id == 1){
+                    int y = x + 4;
+                    if(size == 0xffffffffL){
+                        size = buf.getLong(y);
+                        y += 8;
+                    }
+                    if(compressedSize == 0xffffffffL){
+                        compressedSize = buf.getLong(y);
+                        y += 8;
+                    }
+                    if(offset == 0xffffffffL)
+                        offset = buf.getLong(y);
+                }
+                x += 4 + len;
+            }
+            p += 46 + nameLen + extraLen + commentLen;
+
+            if(name.endsWith(EXTENSION))
+                name = name.substring(0, name.length() - EXTENSION.length());
+            if(names != null && indexOf(names, name) == -1)
+                continue;
+
+            if(offset + 30 > buf.limit() || buf.getInt((int)offset) != ZIP_LOCAL_HEADER){
+                System.out.println("Error: The array " + name + " in " + fileName + " is damaged");
+                continue;
+            }
+            int start = (int)offset + 30 + (buf.getShort((int)offset + 26) & 0xffff)
+                    + (buf.getShort((int)offset + 28) & 0xffff);
+
+            Array array = null;
+            if(method == ZIP_STORED){
+                ByteBuffer entry = buf.duplicate();
+                entry.position(start);
+                entry.limit(start + (int)size);
+                array = readArray(entry.slice(), mapped, fileName);
+            }else if(method == ZIP_DEFLATED){
+                if(size > Integer.MAX_VALUE){
+                    System.out.println("Error: The array " + name + " in " + fileName + " is larger than 2 GB and cannot be read");
+                    continue;
+                }
+                ByteBuffer entry = inflate(buf, start, (int)compressedSize, (int)size, name, fileName);
+                if(entry != null)
+                    array = readArray(entry, false, fileName);
+            }else{
+                System.out.println("Error: The array " + name + " in " + fileName + " is compressed in a way that cannot be read");
+            }
+
+            if(array != null){
+                array.name = name;
+                found.add(array);
+            }
+        }
+
+        if(names == null){
+            arrays.addAll(found);
+            return;
+        }
+
+        //The arrays are put in the order the names are given
+        for(int k = 0; k < names.length; k++){
+            Array array = null;
+            for(Array a : found){
+                if(a.name.equals(names[k]))
+                    array = a;
+            }
+            if(array != null)
+                arrays.add(array);
+            else
+                System.out.println("Error: There is no array named " + names[k] + " in " + fileName);
+        }
+    }
+
+    private static int indexOf(String[] names, String name){
+        for(int k = 0; k < names.length; k++){
+            if(names[k].equals(name))
+                return k;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The inflated contents of a deflated entry of a zip archive, or
+     *         null if it could not be inflated
+     */
+    private static ByteBuffer inflate(ByteBuffer buf, int start, int compressedSize, int size, String name, String fileName){
+        byte[] compressed = new byte[compressedSize];
+        ByteBuffer entry = buf.duplicate();
+        entry.position(start);
+        entry.get(compressed);
+
+        byte[] inflated = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try{
+            inflater.setInput(compressed);
+            int n = 0;
+            while(n < size && !inflater.finished()){
+                int k = inflater.inflate(inflated, n, size - n);
+                if(k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += k;
+            }
+            if(n < size){
+                System.out.println("Error: The array " + name + " in " + fileName + " ends too soon");
+                return null;
+            }
+        }catch(DataFormatException dfe){
+            System.out.println("Error: The array " + name + " in " + fileName + " could not be inflated");
+            return null;
+        }finally{
+            inflater.end();
+        }
+        return ByteBuffer.wrap(inflated);
+    }
+
+    /**
+     * Reads the header of a *.npy file (or of an entry of a *.npz file) and
+     * works out where each column of its array starts.
+     *
+     * @param buf    : The contents of the *.npy file, starting at position 0
+     * @param mapped : true if buf is a view of a mapped file
+     * @return The array, or null if it cannot be read
+     */
+    private static Array readArray(ByteBuffer buf, boolean mapped, String fileName){
+        for(int b = 0; b < MAGIC.length; b++){
+            if(buf.limit() < 10 || buf.get(b) != MAGIC[b]){
+                System.out.println("Error: " + fileName + " holds something that is not a NumPy array");
+                return null;
+            }
+        }
+
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        int major = buf.get(6);
+        int headerLen;
+        int dataStart;
+        if(major == 1){
+            headerLen = buf.getShort(8) & 0xffff;
+            dataStart = 10 + headerLen;
+        }else{
+            headerLen = buf.getInt(8);
+            dataStart = 12 + headerLen;
+        }
+
+        byte[] headerBytes = new byte[headerLen];
+        for(int b = 0; b < headerLen; b++)
+            headerBytes[b] = buf.get(dataStart - headerLen + b);
+        String header = new String(headerBytes, StandardCharsets.ISO_8859_1);
+
+        String descr = getHeaderValue(header, "descr");
+        String order = getHeaderValue(header, "fortran_order");
+        String shape = getHeaderValue(header, "shape");
+        if(descr == null || order == null || shape == null || !descr.startsWith("'")){
+            System.out.println("Error: " + fileName + " holds an array of records or of an unknown type, which cannot be read");
+            return null;
+        }
+
+        Array array = new Array();
+        array.mapped = mapped;
+
+        //For example '<f8': little-endian, float, 8 bytes
+        descr = descr.substring(1, descr.length() - 1);
+        char byteOrder = descr.charAt(0);
+        array.kind = descr.charAt(1);
+        try{
+            array.size = Integer.parseInt(descr.substring(2));
+        }catch(NumberFormatException nfe){
+            array.size = 0;
+        }
+        boolean known = (array.kind == 'f' && (array.size == 4 || array.size == 8))
+                || ((array.kind == 'i' || array.kind == 'u') && (array.size == 1 || array.size == 2 || array.size == 4 || array.size == 8))
+                || (array.kind == 'b' && array.size == 1);
+        if(!known){
+            System.out.println("Error: " + fileName + " holds an array of type " + descr + ", which cannot be read");
+            return null;
+        }
+
+        //For example (1000, 3, 3)
+        String[] dimText = shape.substring(1, shape.length() - 1).split(",");
+        int numDims = 0;
+        long[] dims = new long[dimText.length];
+        for(int k = 0; k < dimText.length; k++){
+            if(dimText[k].trim().length() > 0)
+                dims[numDims++] = Long.parseLong(dimText[k].trim());
+        }
+        if(numDims == 0){
+            System.out.println("Error: " + fileName + " holds a single number rather than an array");
+            return null;
+        }
+
+        long cols = 1;
+        for(int k = 1; k < numDims; k++)
+            cols *= dims[k];
+        if(dims[0]*cols*array.size > buf.limit() - dataStart || dims[0]*cols*array.size > Integer.MAX_VALUE){
+            System.out.println("Error: " + fileName + " is shorter than the array it describes");
+            return null;
+        }
+        array.rows = (int)dims[0];
+        array.cols = (int)cols;
+
+        ByteBuffer data = buf.duplicate();
+        data.position(dataStart);
+        array.data = data.slice().order((byteOrder == '>') ? ByteOrder.BIG_ENDIAN
+                : (byteOrder == '=') ? ByteOrder.nativeOrder() : ByteOrder.LITTLE_ENDIAN);
+
+        //Column j is the j'th of the trailing dimensions in C order. In C
+        //order the trailing dimensions vary fastest, in Fortran order the
+        //rows do.
+        boolean fortran = order.startsWith("True");
+        array.colStart = new int[array.cols];
+        array.rowBytes = new int[array.cols];
+        for(int j = 0; j < array.cols; j++){
+            if(fortran){
+                long offset = 0;
+                long step = dims[0];
+                int rest = j;
+                long[] index = new long[numDims];
+                for(int k = numDims-1; k >= 1; k--){
+                    index[k] = rest % dims[k];
+                    rest /= dims[k];
+                }
+                for(int k = 1; k < numDims; k++){
+                    offset += index[k]*step;
+                    step *= dims[k];
+                }
+                array.colStart[j] = (int)(offset*array.size);
+                array.rowBytes[j] = array.size;
+            }else{
+                array.colStart[j] = j*array.size;
+                array.rowBytes[j] = array.cols*array.size;
+            }
+        }
+
+        return array;
+    }
+
+    /**
+     * @return The text of the value of key in the header dictionary of a
+     *         *.npy file, for example "'<f8'", "False" or "(100, 3)"
+     */
+    private static String getHeaderValue(String header, String key){
+        int k = header.indexOf("'" + key + "'");
+        if(k == -1)
+            return null;
+        k = header.indexOf(':', k);
+        if(k == -1)
+            return null;
+        k++;
+        while(k < header.length() && header.charAt(k) == ' ')
+            k++;
+
+        int e;
+        if(header.startsWith("'", k))
+            e = header.indexOf('\'', k+1) + 1;
+        else if(header.startsWith("(", k))
+            e = header.indexOf(')', k) + 1;
+        else if(header.startsWith("[", k))
+            return "[";
+        else{
+            e = k;
+            while(e < header.length() && Character.isLetterOrDigit(header.charAt(e)))
+                e++;
+        }
+        if(e <= k)
+            return null;
+        return header.substring(k, e);
+    }
+
+    /**
+     * Puts the columns of the arrays side by side, leaving out any array
+     * whose number of rows differs from that of the first (time) array.
+     */
+    private static ChannelData makeTable(ArrayList<Array> arrays, String fileName){
+        if(arrays.isEmpty())
+            return null;
+
+        int rows = arrays.get(0).rows;
+        ArrayList<Array> used = new ArrayList<Array>();
+        int cols = 0;
+        boolean wrap = true;
+        for(Array array : arrays){
+            if(array.rows != rows){
+                System.out.println("Error: " + array.name + " in " + fileName + " has " + array.rows
+                        + " rows rather than the " + rows + " of " + arrays.get(0).name + ", it is left out");
+                continue;
+            }
+            used.add(array);
+            cols += array.cols;
+            wrap = wrap && array.mapped && array.kind == 'f' && array.size == arrays.get(0).size;
+        }
+
+        String[] names = new String[cols];
+        int j = 0;
+        for(Array array : used){
+            for(int k = 0; k < array.cols; k++){
+                if(array.name == null)
+                    names[j++] = null;
+                else
+                    names[j++] = (array.cols == 1) ? array.name : array.name + "_" + (k+1);
+            }
+        }
+
+        ChannelData data;
+        if(wrap){
+            ByteBuffer[] columns = new ByteBuffer[cols];
+            int[] rowBytes = new int[cols];
+            j = 0;
+            for(Array array : used){
+                for(int k = 0; k < array.cols; k++){
+                    ByteBuffer column = array.data.duplicate();
+                    column.position(array.colStart[k]);
+                    columns[j] = column.slice().order(array.data.order());
+                    rowBytes[j] = array.rowBytes[k];
+                    j++;
+                }
+            }
+            data = new ChannelData(OffHeapStore.wrap(columns, rowBytes, rows, used.get(0).size == 4));
+        }else{
+            double[][] columns = new double[cols][rows];
+            j = 0;
+            for(Array array : used){
+                for(int k = 0; k < array.cols; k++){
+                    for(int i = 0; i < rows; i++)
+                        columns[j][i] = getValue(array, array.colStart[k] + i*array.rowBytes[k]);
+                    j++;
+                }
+            }
+            data = new ChannelData(columns, rows);
+        }
+
+        data.setColumnNames(names);
+        return data;
+    }
+
+    /**
+     * @return The value of array that starts at byte pos, as a double
+     */
+    private static double getValue(Array array, int pos){
+        ByteBuffer buf = array.data;
+        switch(array.kind){
+            case 'f':
+                return (array.size == 4) ? buf.getFloat(pos) : buf.getDouble(pos);
+            case 'b':
+                return (buf.get(pos) != 0) ? 1 : 0;
+            case 'i':
+                switch(array.size){
+                    case 1: return buf.get(pos);
+                    case 2: return buf.getShort(pos);
+                    case 4: return buf.getInt(pos);
+                    default: return buf.getLong(pos);
+                }
+            default:
+                switch(array.size){
+                    case 1: return buf.get(pos) & 0xff;
+                    case 2: return buf.getShort(pos) & 0xffff;
+                    case 4: return buf.getInt(pos) & 0xffffffffL;
+                    default:
+                        long value = buf.getLong(pos);
+                        return (value >= 0) ? value : value + 0x1p64;
+                }
+        }
+    }
+
+    /**
+     * Writes a table to a *.npy file as an array of 64 bit floats, one row of
+     * the array per row of the table. The file is written under a temporary
+     * name first and then renamed, so that a program that reads it never sees
+     * half of it.
+     *
+     * @param npyFile : The file to write
+     * @param data    : The table
+     */
+    public static void write(File npyFile, ChannelData data){
+        int rows = data.numRows();
+        int cols = data.numCol();
+
+        //The header is padded with spaces so that the array starts on a
+        //multiple of 64 bytes, and ends with a new line
+        StringBuilder header = new StringBuilder();
+        header.append("{'descr': '<f8', 'fortran_order': False, 'shape': (");
+        header.append(rows);
+        header.append(", ");
+        header.append(cols);
+        header.append("), }");
+        while((10 + header.length() + 1) % 64 != 0)
+            header.append(' ');
+        header.append('\n');
+
+        File temp = new File(npyFile.getAbsolutePath() + ".tmp");
+        try{
+            FileOutputStream out = new FileOutputStream(temp);
+            FileChannel outChannel = out.getChannel();
+
+            ByteBuffer buf = ByteBuffer.allocate(65536).order(ByteOrder.LITTLE_ENDIAN);
+            buf.put(MAGIC);
+            buf.put((byte)1);
+            buf.put((byte)0);
+            buf.putShort((short)header.length());
+            buf.put(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+            for(int i = 0; i < rows; i++){
+                for(int j = 0; j < cols; j++){
+                    if(buf.remaining() < 8){
+                        buf.flip();
+                        outChannel.write(buf);
+                        buf.clear();
+                    }
+                    buf.putDouble(data.get(i, j));
+                }
+            }
+            buf.flip();
+            outChannel.write(buf);
+
+            outChannel.close();
+            out.close();
+
+            if(npyFile.exists())
+                npyFile.delete();
+            if(!temp.renameTo(npyFile)){
+                System.out.println("Error: " + temp.getAbsolutePath() + " could not be renamed to " + npyFile.getAbsolutePath());
+                temp.delete();
+            }
+
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in NPYFile while writing " + npyFile.getAbsolutePath());
+            ioe.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * NumberBenchmark.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * This is a small command line benchmark for the conversion of numbers from
+ * text. Every field of the given data files is converted to a double both
+ * the way TextParser.getDoubleData does it (new Double(String)) and with
+ * NumericParser.toDouble, which the data readers use. Each is timed on its
+ * own, over the same fields, and every result of toDouble is checked to be
+ * bit for bit the same as that of new Double(String). Run it with
+ *
+ *      java Solvere4D.NumberBenchmark dataFile [dataFile ...] [-r repetitions]
+ *
+ * @author mjhmilla
+ */
+public class NumberBenchmark {
+
+    /** The most fields taken from a single file */
+    private static final int MAX_FIELDS = 2000000;
+
+    /** The results are added up into this, so that the conversions are not optimized away */
+    private static volatile double sink;
+
+    //new Double(String) is what the data files were read with, and so is the
+    //conversion toDouble is timed against
+    @SuppressWarnings("removal")
+    public static void main(String[] args){
+
+        if(args.length == 0){
+            System.out.println("Usage: java Solvere4D.NumberBenchmark dataFile [dataFile ...] [-r repetitions]");
+            return;
+        }
+
+        int reps = 5;
+        ArrayList<String> paths = new ArrayList<String>();
+        for(int a = 0; a < args.length; a++){
+            if(args[a].compareTo("-r") == 0 && a+1 < args.length)
+                reps = Integer.parseInt(args[++a]);
+            else
+                paths.add(new File(args[a]).getAbsolutePath());
+        }
+
+        long totalFields = 0;
+        long totalOld = 0;
+        long totalNew = 0;
+        for(int f = 0; f < paths.size(); f++){
+            byte[][] fields = readFields(paths.get(f));
+            if(fields == null || fields.length == 0)
+                continue;
+
+            //Fields that are not numbers (headers, for example) are left out
+            ArrayList<byte[]> numbers = new ArrayList<byte[]>();
+            ArrayList<String> numberText = new ArrayList<String>();
+            for(int k = 0; k < fields.length; k++){
+                String field = new String(fields[k], 0, fields[k].length, StandardCharsets.ISO_8859_1);
+                try{
+                    Double.parseDouble(field);
+                    numbers.add(fields[k]);
+                    numberText.add(field);
+                }catch(NumberFormatException nfe){
+                }
+            }
+            if(numbers.size() == 0)
+                continue;
+            fields = numbers.toArray(new byte[numbers.size()][]);
+            String[] text = numberText.toArray(new String[numberText.size()]);
+
+            int differ = 0;
+            for(int k = 0; k < fields.length; k++){
+                double expected = new Double(text[k]).doubleValue();
+                double value = NumericParser.toDouble(fields[k], fields[k].length);
+                if(Double.doubleToRawLongBits(expected) != Double.doubleToRawLongBits(value)){
+                    if(differ < 10)
+                        System.out.println("DIFFERENT: " + text[k] + " gives " + value + " instead of " + expected);
+                    differ++;
+                }
+            }
+
+            long bestOld = Long.MAX_VALUE;
+            long bestNew = Long.MAX_VALUE;
+            double sum = 0;
+            for(int r = 0; r < reps; r++){
+                long t = System.nanoTime();
+                for(int k = 0; k < text.length; k++)
+                    sum += new Double(text[k]).doubleValue();
+                bestOld = Math.min(bestOld, System.nanoTime() - t);
+
+                t = System.nanoTime();
+                for(int k = 0; k < fields.length; k++)
+                    sum += NumericParser.toDouble(fields[k], fields[k].length);
+                bestNew = Math.min(bestNew, System.nanoTime() - t);
+            }
+
+            System.out.println(paths.get(f) + ": " + fields.length + " fields, new Double(String) "
+                    + (double)bestOld/fields.length + " ns, toDouble " + (double)bestNew/fields.length
+                    + " ns, speed up " + (double)bestOld/bestNew
+                    + ((differ == 0) ? ", identical" : ", " + differ + " DIFFERENT"));
+            sink = sum;
+
+            totalFields += fields.length;
+            totalOld += bestOld;
+            totalNew += bestNew;
+        }
+
+        if(totalFields > 0)
+            System.out.println("all files: " + totalFields + " fields, new Double(String) " + (double)totalOld/totalFields
+                    + " ns, toDouble " + (double)totalNew/totalFields + " ns, speed up " + (double)totalOld/totalNew);
+    }
+
+    /**
+     * @return The fields of a data file (separated by tabs, spaces and new
+     *         lines), up to MAX_FIELDS of them, or null if it cannot be read
+     */
+    private static byte[][] readFields(String absoluteFilePath){
+        ArrayList<byte[]> fields = new ArrayList<byte[]>();
+        byte[] field = new byte[64];
+        int len = 0;
+
+        try{
+            InputStream in = DataReader.openStream(absoluteFilePath);
+            byte[] buf = new byte[65536];
+            int n = in.read(buf);
+            while(n != -1 && fields.size() < MAX_FIELDS){
+                for(int k = 0; k < n; k++){
+                    byte c = buf[k];
+                    if(c == ' ' || c == '\t' || c == '\n' || c == '\r'){
+                        if(len > 0){
+                            byte[] copy = new byte[len];
+                            System.arraycopy(field, 0, copy, 0, len);
+                            fields.add(copy);
+                            len = 0;
+                        }
+                    }else if(len < field.length){
+                        field[len++] = c;
+                    }
+                }
+                n = in.read(buf);
+            }
+            in.close();
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown while reading " + absoluteFilePath + " in NumberBenchmark");
+            ioe.printStackTrace();
+            return null;
+        }
+
+        return fields.toArray(new byte[fields.size()][]);
+    }
+
+}
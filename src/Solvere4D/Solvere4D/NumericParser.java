@@ -0,0 +1,789 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * NumericParser.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class reads the numeric data files (motion, force/torque, marker, plot,
+ * stick figure and label files) into a ChannelData table, in place of the
+ * String tables of TextParser. The *.s4d configuration file is read by
+ * SceneParser.
+ *
+ * The bytes of the file are scanned once. Fields are separated by tabs or
+ * spaces and rows by new lines, and each field is converted straight into the
+ * column it belongs to: no line Strings, field Strings or Double objects are
+ * made along the way. Like TextParser, the number of columns is set by the
+ * first line, and the table ends at the end of the file or at the first empty
+ * line, whichever comes first.
+ *
+ * The bytes can be handed over in as many pieces as is convenient with parse(),
+ * either as byte arrays or as ByteBuffers (DataReader hands over memory mapped
+ * views of the file); a field or line that is split between two pieces is
+ * handled correctly.
+ *
+ * The parser can be told which columns are needed (setProjection). Fields in
+ * the other columns are stepped over without being copied or converted, and
+ * the table holds only the needed columns, in the order asked for. Columns
+ * that are asked for but that the file does not have are left out.
+ *
+ * The parser can also be told to keep only every n'th row (setStride). The
+ * rows in between are only scanned for the new line that ends them; none of
+ * their fields are converted.
+ *
+ * Numbers are converted by toDouble, which gives exactly the same double as
+ * Double.parseDouble but without making a String. Short numbers with small
+ * exponents are converted with a single exact multiplication or division;
+ * the rest (values like 6.45125357705e-023) use the Eisel-Lemire algorithm,
+ * which multiplies the digits by a 128 bit approximation of the power of ten
+ * and can tell when that approximation is not good enough to round
+ * correctly. Only then, or for numbers that are too long or not plain
+ * decimals (NaN, Infinity, hexadecimal), is Double.parseDouble used.
+ *
+ * The parser can also be given a time window (setTimeWindow), in which case
+ * column 0 of every row is read as its time and only the rows inside the
+ * window are kept; the stride then counts from the first row in the window.
+ * If the times are known to be in order, parsing stops at the first row past
+ * the end of the window.
+ *
+ * Rather than collecting the rows into a table, the parser can push each row
+ * into a RowConsumer as soon as it has been read (setConsumer), so that the
+ * whole table is never held in memory.
+ *
+ * @author mjhmilla
+ */
+public class NumericParser {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    /** The powers of ten that can be represented exactly by a double */
+    private static final double[] POWERS_OF_TEN = {
+        1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /** The range of powers of ten that are not rounded to 0 or infinity */
+    private static final int SMALLEST_POWER_OF_TEN = -342;
+    private static final int LARGEST_POWER_OF_TEN = 308;
+
+    /**
+     * The powers of five from 5^SMALLEST_POWER_OF_TEN to 5^LARGEST_POWER_OF_TEN,
+     * each scaled by a power of two to 128 bits and stored as its high 64 bits
+     * followed by its low 64 bits
+     */
+    private static final long[] POWERS_OF_FIVE = makePowersOfFive();
+
+    /** Returned by eiselLemire when it cannot round correctly */
+    private static final long NO_RESULT = -1;
+
+    private String sourceName;
+    private ChannelData data;
+    private RowConsumer consumer;
+    private RowConsumer sink;
+
+    private double[] rowBuf;
+    private int col;
+    private int cols;
+
+    private int[] projection;
+    private int[] target;
+
+    private int stride;
+    private boolean keepRow;
+    private boolean float32;
+    private OffHeapStore.Space offHeap;
+
+    private boolean windowed;
+    private boolean sortedTimes;
+    private double windowStart;
+    private double windowEnd;
+    private boolean inWindow;
+    private int windowRows;
+
+    private byte[] field;
+    private int fieldLen;
+    private boolean inField;
+    private boolean keepField;
+
+    private int line;
+    private long consumed;
+    private long sizeHint;
+    private boolean finished;
+
+    /**
+     * @param name : The name of the data source, used to write useful error messages
+     */
+    public NumericParser(String name){
+        sourceName = name;
+        rowBuf = new double[16];
+        field = new byte[64];
+        line = 1;
+        stride = 1;
+        keepRow = true;
+    }
+
+    /**
+     * Sets the expected size of the source in bytes. Once the first line has
+     * been read this is used to estimate the number of rows, so that the
+     * columns rarely have to be grown.
+     */
+    public void setSizeHint(long bytes){
+        sizeHint = bytes;
+    }
+
+    /**
+     * Fixes the number of columns in the table, rather than taking it from the
+     * first line parsed. This is used when a file is split into chunks that are
+     * parsed separately, so that every chunk has the column count of the first
+     * line of the file.
+     */
+    public void setColumns(int numCols){
+        cols = numCols;
+        if(rowBuf.length < cols)
+            rowBuf = new double[cols];
+    }
+
+    /**
+     * Chooses the columns of the source that go into the table. Column k of
+     * the table is column columns[k] of the source; columns that are not
+     * chosen are skipped. This must be called before parsing starts.
+     *
+     * @param columns : The columns of the source to keep, or null to keep all
+     */
+    public void setProjection(int[] columns){
+        projection = columns;
+        if(projection == null)
+            return;
+
+        int maxCol = -1;
+        for(int k = 0; k < projection.length; k++)
+            maxCol = Math.max(maxCol, projection[k]);
+
+        target = new int[maxCol + 1];
+        for(int j = 0; j < target.length; j++)
+            target[j] = -1;
+        for(int k = 0; k < projection.length; k++)
+            target[projection[k]] = k;
+
+        if(rowBuf.length < projection.length)
+            rowBuf = new double[projection.length];
+    }
+
+    /**
+     * Keeps only every rowStride'th row of the source, counting from its first
+     * row, and skips the rest. This must be called before parsing starts.
+     *
+     * @param rowStride : The number of rows of the source for every row kept
+     */
+    public void setStride(int rowStride){
+        stride = Math.max(rowStride, 1);
+        keepRow = windowed ? (windowRows % stride == 0) : ((line - 1) % stride == 0);
+    }
+
+    /**
+     * Keeps only the rows whose time (column 0 of the source) is at least
+     * startTime and at most endTime. This must be called before parsing starts.
+     *
+     * @param startTime : The time of the first row wanted
+     * @param endTime   : The time of the last row wanted
+     * @param sorted    : true if the times never decrease, so that parsing
+     *                    can stop at the first row after endTime
+     */
+    public void setTimeWindow(double startTime, double endTime, boolean sorted){
+        windowed = true;
+        windowStart = startTime;
+        windowEnd = endTime;
+        sortedTimes = sorted;
+        windowRows = 0;
+        keepRow = true;
+    }
+
+    /**
+     * Pushes every row into consumer as it is read, instead of collecting the
+     * rows into a table. This must be called before parsing starts.
+     *
+     * @param rowConsumer : The consumer of the rows, or null to make a table
+     */
+    public void setConsumer(RowConsumer rowConsumer){
+        consumer = rowConsumer;
+    }
+
+    /**
+     * Stores the table as float32 rather than float64. The fields are still
+     * converted to the nearest double first. This must be called before
+     * parsing starts.
+     */
+    public void setFloat32(boolean storeFloat32){
+        float32 = storeFloat32;
+    }
+
+    /**
+     * Makes the table off the heap, in space, rather than on it. This must be
+     * called before parsing starts.
+     *
+     * @param space : The room off the heap for the table, or null
+     */
+    public void setOffHeap(OffHeapStore.Space space){
+        offHeap = space;
+    }
+
+    /**
+     * Tells the parser that the first line it is given is row firstRow of the
+     * source (counting from 0), rather than row 0. This is used when a file is
+     * split into chunks, so that the stride and the line numbers in error
+     * messages follow the whole file. This must be called before parsing starts.
+     */
+    public void setFirstRow(int firstRow){
+        line = firstRow + 1;
+        keepRow = windowed ? (windowRows % stride == 0) : ((line - 1) % stride == 0);
+    }
+
+    /**
+     * Parses the next len bytes of the source, starting at buf[off].
+     */
+    public void parse(byte[] buf, int off, int len){
+        parse(ByteBuffer.wrap(buf, off, len));
+    }
+
+    /**
+     * Parses the bytes of buf from its position up to its limit. The bytes are
+     * read in place, so buf can be a memory mapped view of the source file.
+     * The position of buf is left unchanged.
+     */
+    public void parse(ByteBuffer buf){
+        int start = buf.position();
+        int end = buf.limit();
+
+        for(int i = start; i < end && !finished; i++){
+            byte b = buf.get(i);
+
+            if(b == '\t' || b == ' ' || b == '\r'){
+                if(inField) endField();
+            }else if(b == '\n'){
+                if(inField) endField();
+                endLine(consumed + (i - start) + 1);
+            }else{
+                if(!inField){
+                    inField = true;
+                    keepField = keepRow && ((projection == null) || (col < target.length && target[col] != -1));
+                    //The time of every row is needed to place it against the window
+                    if(windowed && col == 0)
+                        keepField = true;
+                }
+                if(keepField){
+                    if(fieldLen == field.length){
+                        byte[] tempField = new byte[2*field.length];
+                        System.arraycopy(field, 0, tempField, 0, fieldLen);
+                        field = tempField;
+                    }
+                    field[fieldLen++] = b;
+                }
+            }
+        }
+        consumed += end - start;
+    }
+
+    /**
+     * Parses whatever is left over from the last call to parse() as the final
+     * line of the source.
+     *
+     * @return The table of data that was read, or null if the rows were
+     *         pushed into a consumer
+     */
+    public ChannelData finish(){
+        if(!finished){
+            if(inField) endField();
+            if(col > 0) endLine(consumed);
+            finished = true;
+        }
+
+        if(sink == null)
+            startSink(1);
+
+        sink.finish();
+        return data;
+    }
+
+    /**
+     * Makes the table, or starts the consumer, once the number of columns is known.
+     */
+    private void startSink(int initialRows){
+        if(consumer == null){
+            if(offHeap != null)
+                data = new ChannelData(getTableColumns(), float32, offHeap);
+            else
+                data = new ChannelData(getTableColumns(), initialRows, float32);
+            sink = data;
+        }else{
+            sink = consumer;
+        }
+        sink.start(getTableColumns());
+    }
+
+    /**
+     * @return true once the end of the table (an empty line) has been reached
+     */
+    public boolean isFinished(){
+        return finished;
+    }
+
+    private void endField(){
+        inField = false;
+        if(!keepField){
+            col++;
+            return;
+        }
+
+        double value;
+        try{
+            value = toDouble(field, fieldLen);
+        }catch(NumberFormatException nfe){
+            System.out.println("Error: Parsing numerical field " + new String(field, 0, fieldLen, StandardCharsets.ISO_8859_1)
+                    + " in column " + (col+1) + " of line " + line + " of " + sourceName);
+            value = Double.NaN;
+        }
+        fieldLen = 0;
+
+        if(windowed && col == 0){
+            if(value > windowEnd && sortedTimes){
+                finished = true;
+                return;
+            }
+            inWindow = !(value < windowStart || value > windowEnd);
+            if(!inWindow)
+                keepRow = false;
+            if(!keepRow || (projection != null && (target.length == 0 || target[0] == -1))){
+                col++;
+                return;
+            }
+        }
+
+        if(projection != null){
+            rowBuf[target[col]] = value;
+        }else if(sink == null && cols == 0){
+            if(col == rowBuf.length){
+                double[] tempRow = new double[2*rowBuf.length];
+                System.arraycopy(rowBuf, 0, tempRow, 0, col);
+                rowBuf = tempRow;
+            }
+            rowBuf[col] = value;
+        }else if(col < cols){
+            rowBuf[col] = value;
+        }
+        col++;
+    }
+
+    private void endLine(long bytesSoFar){
+        if(col == 0){
+            //An empty line marks the end of the table
+            finished = true;
+            return;
+        }
+
+        if(!keepRow){
+            nextLine();
+            return;
+        }
+
+        if(sink == null){
+            if(cols == 0)
+                cols = col;
+            int initialRows = 0;
+            if(sizeHint > 0)
+                initialRows = (int)Math.min(sizeHint/bytesSoFar/stride + 16, Integer.MAX_VALUE - 8);
+
+            if(projection != null)
+                dropMissingColumns();
+            startSink(initialRows);
+        }
+
+        if(col < cols){
+            System.out.println("Error: Line " + line + " of " + sourceName + " has " + col
+                    + " of " + cols + " columns, the missing values are set to NaN");
+        }
+
+        if(projection == null){
+            for(int j = col; j < cols; j++)
+                rowBuf[j] = Double.NaN;
+        }else{
+            for(int k = 0; k < projection.length; k++){
+                if(projection[k] >= col)
+                    rowBuf[k] = Double.NaN;
+            }
+        }
+
+        sink.addRow(rowBuf);
+        nextLine();
+    }
+
+    /**
+     * Moves on to the next line, and decides whether it will be kept.
+     */
+    private void nextLine(){
+        col = 0;
+        line++;
+        if(windowed){
+            if(inWindow)
+                windowRows++;
+            inWindow = false;
+            keepRow = (windowRows % stride == 0);
+        }else{
+            keepRow = ((line - 1) % stride == 0);
+        }
+    }
+
+    /**
+     * Takes the columns that were asked for but that the source does not have
+     * (as set by its first line) out of the projection, so that, for example, a
+     * file with only time and position can be read for a body.
+     */
+    private void dropMissingColumns(){
+        int kept = 0;
+        for(int k = 0; k < projection.length; k++){
+            if(projection[k] < cols)
+                kept++;
+        }
+        if(kept == projection.length)
+            return;
+
+        int[] keptColumns = new int[kept];
+        double[] keptValues = new double[kept];
+        kept = 0;
+        for(int k = 0; k < projection.length; k++){
+            if(projection[k] < cols){
+                keptColumns[kept] = projection[k];
+                keptValues[kept] = rowBuf[k];
+                kept++;
+            }
+        }
+
+        setProjection(keptColumns);
+        System.arraycopy(keptValues, 0, rowBuf, 0, kept);
+    }
+
+    /**
+     * @return The number of columns in the table
+     */
+    private int getTableColumns(){
+        return (projection == null) ? cols : projection.length;
+    }
+
+    /**
+     * Converts an ASCII decimal number into a double, giving bit for bit the
+     * same result as Double.parseDouble. Numbers with no more than 15
+     * significant digits and a small enough exponent are converted exactly
+     * with a single multiplication or division; numbers of up to 18 digits
+     * with any exponent go through eiselLemire; everything else, and the rare
+     * number eiselLemire cannot round, goes to Double.parseDouble.
+     *
+     * @param buf : The characters of the number
+     * @param len : The number of characters
+     * @return The number
+     */
+    static double toDouble(byte[] buf, int len){
+        int i = 0;
+        boolean negative = false;
+
+        if(buf[0] == '-' || buf[0] == '+'){
+            negative = (buf[0] == '-');
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        boolean seenDigit = false;
+        boolean seenDot = false;
+
+        for(; i < len; i++){
+            byte c = buf[i];
+            if(c >= '0' && c <= '9'){
+                seenDigit = true;
+                if(mantissa != 0 || c != '0'){
+                    if(digits == 18)
+                        return slowPath(buf, len);
+                    mantissa = mantissa*10 + (c - '0');
+                    digits++;
+                }
+                if(seenDot) exp10--;
+            }else if(c == '.' && !seenDot){
+                seenDot = true;
+            }else{
+                break;
+            }
+        }
+
+        if(!seenDigit)
+            return slowPath(buf, len);
+
+        if(i < len){
+            if(buf[i] != 'e' && buf[i] != 'E')
+                return slowPath(buf, len);
+            i++;
+
+            boolean negExp = false;
+            if(i < len && (buf[i] == '-' || buf[i] == '+')){
+                negExp = (buf[i] == '-');
+                i++;
+            }
+            if(i == len)
+                return slowPath(buf, len);
+
+            int exponent = 0;
+            for(; i < len; i++){
+                byte c = buf[i];
+                if(c < '0' || c > '9')
+                    return slowPath(buf, len);
+                if(exponent < 100000)
+                    exponent = exponent*10 + (c - '0');
+            }
+            exp10 += negExp ? -exponent : exponent;
+        }
+
+        if(mantissa == 0)
+            return negative ? -0.0 : 0.0;
+
+        double value;
+        if(mantissa <= (1L << 53) && exp10 >= -22 && exp10 <= 22){
+            if(exp10 >= 0) value = mantissa*POWERS_OF_TEN[exp10];
+            else value = mantissa/POWERS_OF_TEN[-exp10];
+        }else{
+            long bits = eiselLemire(mantissa, exp10);
+            if(bits == NO_RESULT)
+                return slowPath(buf, len);
+            value = Double.longBitsToDouble(bits);
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Finds the double nearest to w*10^q (ties to even) with the algorithm of
+     * D. Lemire, "Number Parsing at a Gigabyte per Second" (2021), after
+     * M. Eisel. The product of w and a 128 bit approximation of 5^q gives the
+     * leading bits of the result; when the bits that decide the rounding could
+     * be changed by the error of the approximation, NO_RESULT is returned.
+     *
+     * @param w : The decimal digits, greater than 0
+     * @param q : The power of ten
+     * @return The bits of the double, or NO_RESULT
+     */
+    private static long eiselLemire(long w, int q){
+        if(q < SMALLEST_POWER_OF_TEN)
+            return 0;
+        if(q > LARGEST_POWER_OF_TEN)
+            return 0x7FF0000000000000L;
+
+        int lz = Long.numberOfLeadingZeros(w);
+        w <<= lz;
+
+        //The top 55 bits of the product are needed: the 53 bits of the double,
+        //the bit that decides the rounding and the bit that may be 0
+        int index = 2*(q - SMALLEST_POWER_OF_TEN);
+        long high = multiplyHigh(w, POWERS_OF_FIVE[index]);
+        long low = w*POWERS_OF_FIVE[index];
+        long precisionMask = 0xFFFFFFFFFFFFFFFFL >>> 55;
+        if((high & precisionMask) == precisionMask){
+            long secondHigh = multiplyHigh(w, POWERS_OF_FIVE[index + 1]);
+            low += secondHigh;
+            if(isUnsignedLess(low, secondHigh))
+                high++;
+        }
+
+        //5^q is exact for 0 <= q <= 55, and so is its reciprocal for -27 <= q < 0
+        if(low == 0xFFFFFFFFFFFFFFFFL && (q < -27 || q > 55))
+            return NO_RESULT;
+
+        int upperBit = (int)(high >>> 63);
+        int shift = upperBit + 64 - 52 - 3;
+        long mantissa = high >>> shift;
+        int power2 = (((152170 + 65536)*q) >> 16) + 63 + upperBit - lz + 1023;
+
+        if(power2 <= 0){
+            //Subnormal, unless rounding up makes it the smallest normal number
+            if(-power2 + 1 >= 64)
+                return 0;
+            mantissa >>>= -power2 + 1;
+            mantissa += (mantissa & 1);
+            mantissa >>>= 1;
+            power2 = (mantissa < (1L << 52)) ? 0 : 1;
+            return mantissa | ((long)power2 << 52);
+        }
+
+        //Exactly half way between two doubles: round to even rather than up
+        if((low == 0 || low == 1) && q >= -4 && q <= 23 && (mantissa & 3) == 1){
+            if((mantissa << shift) == high)
+                mantissa &= ~1L;
+        }
+
+        mantissa += (mantissa & 1);
+        mantissa >>>= 1;
+        if(mantissa >= (2L << 52)){
+            mantissa = (1L << 52);
+            power2++;
+        }
+        mantissa &= ~(1L << 52);
+
+        if(power2 >= 0x7FF)
+            return 0x7FF0000000000000L;
+        return mantissa | ((long)power2 << 52);
+    }
+
+    /**
+     * @return The high 64 bits of the 128 bit product of a and b, both unsigned
+     */
+    private static long multiplyHigh(long a, long b){
+        long aLow = a & 0xFFFFFFFFL;
+        long aHigh = a >>> 32;
+        long bLow = b & 0xFFFFFFFFL;
+        long bHigh = b >>> 32;
+
+        long lowLow = aLow*bLow;
+        long highLow = aHigh*bLow;
+        long lowHigh = aLow*bHigh;
+        long cross = (lowLow >>> 32) + (highLow & 0xFFFFFFFFL) + lowHigh;
+
+        return aHigh*bHigh + (highLow >>> 32) + (cross >>> 32);
+    }
+
+    /**
+     * @return true if a < b, both unsigned
+     */
+    private static boolean isUnsignedLess(long a, long b){
+        return (a + Long.MIN_VALUE) < (b + Long.MIN_VALUE);
+    }
+
+    /**
+     * Makes the table of POWERS_OF_FIVE. The positive powers are truncated to
+     * their leading 128 bits; the negative powers are the reciprocals
+     * 2^b/5^-q, rounded up, with b chosen to give 128 bits.
+     */
+    private static long[] makePowersOfFive(){
+        long[] table = new long[2*(LARGEST_POWER_OF_TEN - SMALLEST_POWER_OF_TEN + 1)];
+        BigInteger five = BigInteger.valueOf(5);
+
+        for(int q = SMALLEST_POWER_OF_TEN; q <= LARGEST_POWER_OF_TEN; q++){
+            BigInteger c;
+            if(q < 0){
+                BigInteger power5 = five.pow(-q);
+                int z = power5.bitLength();
+                int b = (q >= -27) ? z + 127 : 2*z + 128;
+                c = BigInteger.ONE.shiftLeft(b).divide(power5).add(BigInteger.ONE);
+                if(c.bitLength() > 128)
+                    c = c.shiftRight(c.bitLength() - 128);
+            }else{
+                c = five.pow(q);
+                if(c.bitLength() < 128)
+                    c = c.shiftLeft(128 - c.bitLength());
+                else
+                    c = c.shiftRight(c.bitLength() - 128);
+            }
+
+            int index = 2*(q - SMALLEST_POWER_OF_TEN);
+            table[index] = c.shiftRight(64).longValue();
+            table[index + 1] = c.longValue();
+        }
+        return table;
+    }
+
+    private static double slowPath(byte[] buf, int len){
+        return Double.parseDouble(new String(buf, 0, len, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Reads an entire numeric data file.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @return The table of data in the file
+     */
+    public static ChannelData parseFile(String absoluteFilePath){
+        return parseFile(absoluteFilePath, new ReadOptions());
+    }
+
+    /**
+     * Reads the chosen columns of a numeric data file.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @param columns          : The columns to keep, or null to keep all
+     * @return The table of data in the file
+     */
+    public static ChannelData parseFile(String absoluteFilePath, int[] columns){
+        ReadOptions options = new ReadOptions();
+        options.setColumns(columns);
+        return parseFile(absoluteFilePath, options);
+    }
+
+    /**
+     * Reads the part of a numeric data file described by options.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @param options          : The columns and rows to keep
+     * @return The table of data in the file
+     */
+    public static ChannelData parseFile(String absoluteFilePath, ReadOptions options){
+        return parseFile(absoluteFilePath, options, null);
+    }
+
+    /**
+     * Reads the part of a numeric data file described by options, pushing
+     * each row into consumer as it is read.
+     *
+     * @param absoluteFilePath : The complete file path of the desired data file
+     * @param options          : The columns and rows to keep
+     * @param consumer         : The consumer of the rows, or null to make a table
+     * @return The table of data in the file, or null if consumer was given
+     */
+    public static ChannelData parseFile(String absoluteFilePath, ReadOptions options, RowConsumer consumer){
+        NumericParser parser = new NumericParser(absoluteFilePath);
+        parser.setConsumer(consumer);
+        parser.setProjection(options.getColumns());
+        parser.setStride(options.getStride());
+        parser.setFloat32(options.isFloat32());
+        parser.setOffHeap(options.getOffHeap());
+
+        try{
+            //Compressed files are decompressed as they are read
+            InputStream dataStream = DataReader.openStream(absoluteFilePath);
+            parser.setSizeHint(DataReader.getContentSize(absoluteFilePath));
+
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n = dataStream.read(buf);
+            while(n != -1 && !parser.isFinished()){
+                parser.parse(buf, 0, n);
+                n = dataStream.read(buf);
+            }
+            dataStream.close();
+
+        }catch(FileNotFoundException fnfe){
+            System.out.println("File not found exception thrown in NumericParser");
+            fnfe.printStackTrace();
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in NumericParser");
+            ioe.printStackTrace();
+        }
+
+        return parser.finish();
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * OffHeapStore.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class holds a table of numbers outside of the Java heap. Each column is
+ * kept in blocks of BLOCK_ROWS rows, in direct buffers (DIRECT) or in memory
+ * mapped views of a temporary file (MAPPED), in which case the operating
+ * system can page the table out to disk when memory is short. Either way the
+ * garbage collector only ever sees one small object per block, however long
+ * the recording is, so the heap can stay small and collections stay short.
+ *
+ * The room for the tables of a scene is taken from a Space, which the loader
+ * of the scene makes (see SceneLoader.setOffHeap). The readers add the rows of
+ * a data file straight into a store as they are parsed, so the table is never
+ * held on the heap at all. A full store is given another block rather than
+ * being copied into a larger one; only the first block of a column grows, up
+ * to BLOCK_ROWS rows, so that short tables take little room. All of the
+ * tables of a MAPPED Space share one temporary file, which is deleted when
+ * the Space is closed, or, on Windows, as soon as none of it is mapped.
+ *
+ * A ChannelData that is held off the heap reads its values through this
+ * class, so the rest of the package does not need to know where a table is
+ * kept.
+ *
+ * A store can also wrap the columns of a file that is mapped as it is, such as
+ * an uncompressed NumPy array (see NPYFile), so that the table is read
+ * straight out of the file's pages without being copied. The values of a
+ * column of such a file need not be next to each other; each column has its
+ * own distance in bytes from one row to the next. A wrapped column is a single
+ * block, and so is limited to Integer.MAX_VALUE bytes.
+ *
+ * @author mjhmilla
+ */
+public class OffHeapStore {
+
+    /** Keep the table in direct buffers */
+    public static final int DIRECT = 1;
+
+    /** Keep the table in a memory mapped temporary file */
+    public static final int MAPPED = 2;
+
+    private static final int BLOCK_SHIFT = 16;
+    private static final int BLOCK_ROWS = 1 << BLOCK_SHIFT;
+    private static final int FIRST_BLOCK_ROWS = 1024;
+
+    private ByteBuffer[][] blocks;  //The blocks of each column, in order
+    private int[] rowBytes;         //The distance from one row of each column to the next
+    private int shift;              //row >>> shift is the block that holds a row
+    private int mask;               //and row & mask the row within that block
+    private int rows;
+    private int cols;
+    private int valueBytes;
+    private int capacity;
+    private Space space;            //null for a store that wraps a file
+    private boolean growable;       //false for a view of another store
+
+    private OffHeapStore(ByteBuffer[][] columnBlocks, int[] bytesPerRow, int numRows, int bytesPerValue,
+            int blockShift, Space fromSpace){
+        blocks = columnBlocks;
+        rows = numRows;
+        capacity = numRows;
+        cols = columnBlocks.length;
+        valueBytes = bytesPerValue;
+        shift = blockShift;
+        mask = (int)((1L << blockShift) - 1);
+        space = fromSpace;
+        rowBytes = bytesPerRow;
+        if(rowBytes == null){
+            rowBytes = new int[cols];
+            for(int j = 0; j < cols; j++)
+                rowBytes[j] = valueBytes;
+        }
+    }
+
+    /**
+     * Wraps columns that are already filled in, for example with the pages
+     * of a mapped file. The buffers are used as they are, with their own byte
+     * order, and are never written to.
+     *
+     * @param filledColumns : One buffer per column, each starting at the value
+     *                        of row 0
+     * @param bytesPerRow   : The distance in bytes from one row of each column
+     *                        to the next
+     * @param numRows       : The number of rows in the table
+     * @param float32       : true if the values are floats, false if doubles
+     * @return The store
+     */
+    public static OffHeapStore wrap(ByteBuffer[] filledColumns, int[] bytesPerRow, int numRows, boolean float32){
+        ByteBuffer[][] columnBlocks = new ByteBuffer[filledColumns.length][];
+        for(int j = 0; j < filledColumns.length; j++)
+            columnBlocks[j] = new ByteBuffer[] {filledColumns[j]};
+        return new OffHeapStore(columnBlocks, bytesPerRow, numRows, float32 ? 4 : 8, 31, null);
+    }
+
+    /**
+     * Sets aside the room for a table in space. The values start out as 0,
+     * and more rows can be added to the end of the table (see addRow).
+     *
+     * @param numRows : The number of rows to set aside, 0 for an empty table
+     * @param numCols : The number of columns in the table
+     * @param float32 : If true the values are stored as floats
+     * @param space   : The room to take the table from
+     * @return The store
+     */
+    public static OffHeapStore allocate(int numRows, int numCols, boolean float32, Space space){
+        OffHeapStore store = new OffHeapStore(new ByteBuffer[numCols][0], null, 0, float32 ? 4 : 8, BLOCK_SHIFT, space);
+        store.growable = true;
+        if(numRows > 0 && numCols > 0){
+            store.grow(numRows);
+            store.rows = numRows;
+        }
+        return store;
+    }
+
+    /**
+     * Adds room for at least numRows rows: the first block is replaced with a
+     * larger one until it holds BLOCK_ROWS rows, and then blocks are added.
+     */
+    private void grow(int numRows){
+        while(capacity < numRows){
+            if(capacity < BLOCK_ROWS){
+                int firstRows = Math.min(Math.max(Math.max(2*capacity, FIRST_BLOCK_ROWS), numRows), BLOCK_ROWS);
+                for(int j = 0; j < cols; j++){
+                    ByteBuffer block = space.allocate(valueBytes*firstRows);
+                    if(rows > 0){
+                        ByteBuffer filled = blocks[j][0].duplicate();
+                        filled.clear();
+                        filled.limit(valueBytes*rows);
+                        block.put(filled);
+                        block.clear();
+                    }
+                    blocks[j] = new ByteBuffer[] {block};
+                }
+                capacity = firstRows;
+            }else{
+                for(int j = 0; j < cols; j++){
+                    blocks[j] = Arrays.copyOf(blocks[j], blocks[j].length + 1);
+                    blocks[j][blocks[j].length - 1] = space.allocate(valueBytes*BLOCK_ROWS);
+                }
+                capacity += BLOCK_ROWS;
+            }
+        }
+    }
+
+    /**
+     * Adds one row to the end of the table. Only the first numCol() entries
+     * of row are used.
+     */
+    public void addRow(double[] row){
+        if(!growable)
+            throw new UnsupportedOperationException("Rows cannot be added to a table that is part of another one");
+        if(rows == capacity)
+            grow(rows + 1);
+
+        int block = rows >>> shift;
+        int pos = valueBytes*(rows & mask);
+        for(int j = 0; j < cols; j++){
+            if(valueBytes == 4)
+                blocks[j][block].putFloat(pos, (float)row[j]);
+            else
+                blocks[j][block].putDouble(pos, row[j]);
+        }
+        rows++;
+    }
+
+    /**
+     * @return  the value at row, col
+     */
+    public double get(int row, int col){
+        ByteBuffer block = blocks[col][row >>> shift];
+        if(valueBytes == 4)
+            return block.getFloat(rowBytes[col]*(row & mask));
+        return block.getDouble(rowBytes[col]*(row & mask));
+    }
+
+    /**
+     * Sets the value at row, col.
+     */
+    public void set(int row, int col, double value){
+        ByteBuffer block = blocks[col][row >>> shift];
+        if(valueBytes == 4)
+            block.putFloat(rowBytes[col]*(row & mask), (float)value);
+        else
+            block.putDouble(rowBytes[col]*(row & mask), value);
+    }
+
+    /**
+     * Picks columns out of the store.
+     *
+     * @param picked : The columns to keep, in order; -1 gives a column of zeros
+     * @return A store sharing the picked columns with this one
+     */
+    public OffHeapStore pick(int[] picked){
+        ByteBuffer[][] pickedBlocks = new ByteBuffer[picked.length][];
+        int[] pickedRowBytes = new int[picked.length];
+        for(int k = 0; k < picked.length; k++){
+            if(picked[k] == -1){
+                //Every block of a column of zeros is the same block
+                int numBlocks = (cols > 0) ? blocks[0].length : 1;
+                int zeroRows = (shift == BLOCK_SHIFT) ? Math.min(rows, BLOCK_ROWS) : rows;
+                pickedBlocks[k] = new ByteBuffer[numBlocks];
+                Arrays.fill(pickedBlocks[k], ByteBuffer.allocateDirect(valueBytes*zeroRows).order(ByteOrder.nativeOrder()));
+                pickedRowBytes[k] = valueBytes;
+            }else{
+                pickedBlocks[k] = blocks[picked[k]];
+                pickedRowBytes[k] = rowBytes[picked[k]];
+            }
+        }
+        return new OffHeapStore(pickedBlocks, pickedRowBytes, rows, valueBytes, shift, space);
+    }
+
+    /**
+     * @return The room the table was taken from, or null if it wraps a file
+     */
+    public Space getSpace(){
+        return space;
+    }
+
+    /**
+     * @return true if the values are stored as floats rather than doubles
+     */
+    public boolean isFloat32(){
+        return valueBytes == 4;
+    }
+
+    /**
+     * @return  the number of rows in the table
+     */
+    public int numRows(){
+        return rows;
+    }
+
+    /**
+     * @return  the number of columns in the table
+     */
+    public int numCol(){
+        return cols;
+    }
+
+    /**
+     * The room that the tables of a scene are kept in, outside of the heap.
+     * A DIRECT Space hands out direct buffers. A MAPPED Space maps every block
+     * from the end of a single temporary file, which is opened to be deleted
+     * when it is closed; the blocks stay valid after it is closed. If a block
+     * cannot be found off the heap it is made on the heap instead, so that
+     * the table can still be read.
+     */
+    public static final class Space {
+
+        private int mode;
+        private FileChannel channel;    //The temporary file of a MAPPED Space, once it is made
+        private long end;               //The end of the last block in the file
+        private boolean failed;
+
+        /**
+         * @param offHeapMode : DIRECT or MAPPED
+         */
+        public Space(int offHeapMode){
+            mode = offHeapMode;
+        }
+
+        private synchronized ByteBuffer allocate(int bytes){
+            try{
+                if(mode == MAPPED){
+                    if(channel == null){
+                        File file = File.createTempFile("solvere4d", ".cols");
+                        try{
+                            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                        }finally{
+                            if(channel == null)
+                                file.delete();
+                        }
+                        end = 0;
+                    }
+                    ByteBuffer block = channel.map(FileChannel.MapMode.READ_WRITE, end, bytes);
+                    end += (bytes + 7) & ~7L;
+                    return block.order(ByteOrder.nativeOrder());
+                }
+                return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+
+            }catch(IOException ioe){
+                if(!failed){
+                    System.out.println("IO exception thrown in OffHeapStore, the tables that do not fit are kept on the heap");
+                    ioe.printStackTrace();
+                }
+            }catch(OutOfMemoryError oome){
+                if(!failed)
+                    System.out.println("Error: There is not enough direct memory to keep the tables off the heap, the tables that do not fit are kept on the heap");
+            }
+            failed = true;
+            return ByteBuffer.allocate(bytes).order(ByteOrder.nativeOrder());
+        }
+
+        /**
+         * Closes the temporary file of a MAPPED Space, which deletes it. The
+         * tables that were taken from the Space can still be read.
+         */
+        public synchronized void close(){
+            if(channel == null)
+                return;
+            try{
+                channel.close();
+            }catch(IOException ioe){
+                System.out.println("IO exception thrown while closing the temporary file of an OffHeapStore");
+                ioe.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * ParseCache.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * This class keeps a binary copy of every parsed data file next to the file
+ * itself, so that a scene that is written again and again (while colours or
+ * down sampling are being tweaked, say) only has to parse its text files once.
+ * The copy of "HatPosOrien.dat" is kept in "HatPosOrien.dat.s4c".
+ *
+ * A cache file is little-endian and laid out as follows:
+ *
+ *      bytes  0 -  3 : "S4DC"
+ *      bytes  4 -  7 : version (int)
+ *      bytes  8 - 15 : size of the source file in bytes (long)
+ *      bytes 16 - 23 : last modified time of the source file in ms (long)
+ *      bytes 24 - 31 : CRC32 of the contents of the source file (long)
+ *      bytes 32 - 35 : rows (int)
+ *      bytes 36 - 39 : columns (int)
+ *      bytes 40 - 47 : CRC32 of the column CRCs that follow the header (long)
+ *      bytes 48 - 63 : unused
+ *      bytes 64 -    : the CRC32 of each column (one long per column)
+ *      followed by   : the table as doubles, column 0 first, then column 1, ...
+ *
+ * When the size and modification time of the source still match, the cache
+ * file is mapped and the columns that are needed are read directly; since the
+ * table is stored a column at a time, columns that are not needed are never
+ * touched, and each column is checked against its own CRC. When only the
+ * modification time has changed (the file was copied or touched) the contents
+ * of the source are hashed, and if the hash still matches the cache is used
+ * and its time stamp updated. In every other case, or if the cache file is
+ * damaged (its data does not match its CRC), the whole source is parsed again
+ * and the cache file rewritten. A cache file in a read only directory, or
+ * one that is itself read only, is read but never written.
+ *
+ * @author mjhmilla
+ */
+public class ParseCache {
+
+    public static final String EXTENSION = ".s4c";
+
+    private static final int MAGIC = 0x43443453; //"S4DC" read little-endian
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * Reads a numeric data file through its cache file, creating or updating
+     * the cache file as required.
+     *
+     * @param absoluteFilePath : The complete file path of the data file
+     * @param options          : The part of the file that is needed
+     * @return The table of data in the file
+     */
+    public static ChannelData read(String absoluteFilePath, ReadOptions options){
+        int[] group = DataReader.getColumnGroup(absoluteFilePath);
+        if(group != null)
+            return read(DataReader.getFilePath(absoluteFilePath), DataReader.getGroupOptions(group, options));
+        
+        //A time window is found through the file's TimeIndex instead
+        if(DataReader.isBinary(absoluteFilePath) || DataReader.getSelection(absoluteFilePath) != null
+                || options.hasTimeWindow())
+            return DataReader.read(absoluteFilePath, options);
+
+        File source = new File(absoluteFilePath);
+        File cache = new File(absoluteFilePath + EXTENSION);
+
+        long size = source.length();
+        long modified = source.lastModified();
+        long hash = -1;
+
+        if(cache.exists()){
+            try{
+                //The cache is only opened for writing if its stamp is out of
+                //date, so that a read only cache or directory can still be read
+                RandomAccessFile cacheFile = new RandomAccessFile(cache, "r");
+                FileChannel cacheChannel = cacheFile.getChannel();
+                ChannelData data = null;
+
+                ByteBuffer header = readHeader(cacheChannel);
+                if(header != null && header.getLong(8) == size){
+                    boolean current = (header.getLong(16) == modified);
+
+                    if(!current){
+                        hash = hashFile(source);
+                        current = (header.getLong(24) == hash);
+                    }
+
+                    if(current){
+                        data = readTable(cacheChannel, header, options);
+
+                        if(data != null && header.getLong(16) != modified && cache.canWrite())
+                            writeStamp(cache, modified);
+                    }
+                }
+
+                cacheChannel.close();
+                cacheFile.close();
+
+                if(data != null)
+                    return data;
+
+            }catch(IOException ioe){
+                System.out.println("IO exception thrown while reading " + cache.getAbsolutePath() + ", it will be rebuilt");
+            }
+        }
+
+        //The whole file is cached, whatever part of it is needed now
+        ReadOptions whole = new ReadOptions();
+        whole.setOffHeap(options.getOffHeap());
+        ChannelData data = DataReader.read(absoluteFilePath, whole);
+
+        try{
+            if(hash == -1)
+                hash = hashFile(source);
+            if(source.lastModified() == modified && source.length() == size && canWriteCache(cache))
+                writeCache(cache, data, size, modified, hash);
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown while writing " + cache.getAbsolutePath());
+            ioe.printStackTrace();
+        }
+
+        data = data.project(options.getColumns()).decimate(options.getStride());
+        return options.isFloat32() ? data.toFloat32() : data;
+    }
+
+    /**
+     * @return The header of the cache file, or null if it is not a cache file
+     *         of the current version
+     */
+    private static ByteBuffer readHeader(FileChannel cacheChannel) throws IOException{
+        if(cacheChannel.size() < HEADER_SIZE)
+            return null;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        cacheChannel.read(header, 0);
+
+        if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+            return null;
+
+        long rows = header.getInt(32);
+        long cols = header.getInt(36);
+        if(rows < 0 || cols < 0 || cacheChannel.size() != HEADER_SIZE + 8*cols + 8*rows*cols)
+            return null;
+
+        return header;
+    }
+
+    /**
+     * Maps the chosen columns of the table held in a cache file and copies
+     * every stride'th row of them into a ChannelData (as float32 if the
+     * options ask for it, and off the heap if they give it room there),
+     * checking each column against its CRC along the way.
+     *
+     * @return The table, or null if the data does not match its CRCs
+     */
+    private static ChannelData readTable(FileChannel cacheChannel, ByteBuffer header, ReadOptions options) throws IOException{
+        int[] columns = options.getColumns();
+        int stride = options.getStride();
+        boolean float32 = options.isFloat32();
+
+        int rows = header.getInt(32);
+        int cols = header.getInt(36);
+        long dataStart = HEADER_SIZE + 8L*cols;
+
+        ByteBuffer crcTable = ByteBuffer.allocate(8*cols).order(ByteOrder.LITTLE_ENDIAN);
+        cacheChannel.read(crcTable, HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(crcTable.array(), 0, 8*cols);
+        if(crc.getValue() != header.getLong(40))
+            return null;
+
+        //Columns the table does not have are left out
+        int numCols = 0;
+        int[] picked = new int[(columns == null) ? cols : columns.length];
+        for(int k = 0; k < picked.length; k++){
+            int j = (columns == null) ? k : columns[k];
+            if(j < cols)
+                picked[numCols++] = j;
+        }
+        int keptRows = (rows + stride - 1)/stride;
+        OffHeapStore store = (options.getOffHeap() != null)
+                ? OffHeapStore.allocate(keptRows, numCols, float32, options.getOffHeap()) : null;
+        double[][] table = (float32 || store != null) ? null : new double[numCols][];
+        float[][] floatTable = (float32 && store == null) ? new float[numCols][] : null;
+        byte[] chunk = new byte[BUFFER_SIZE];
+        ByteBuffer chunkBuf = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+
+        for(int k = 0; k < numCols; k++){
+            int j = picked[k];
+            if(floatTable != null)
+                floatTable[k] = new float[keptRows];
+            else if(table != null)
+                table[k] = new double[keptRows];
+
+            crc.reset();
+            long bytes = 8L*rows;
+            int row = 0;
+            long pos = 0;
+            while(pos < bytes){
+                long len = Math.min(1L << 30, bytes - pos);
+                MappedByteBuffer window = cacheChannel.map(FileChannel.MapMode.READ_ONLY, dataStart + 8L*rows*j + pos, len);
+
+                while(window.hasRemaining()){
+                    int n = Math.min(chunk.length, window.remaining());
+                    window.get(chunk, 0, n);
+                    crc.update(chunk, 0, n);
+                    for(int b = 0; b < n; b += 8, row++){
+                        if(row % stride != 0)
+                            continue;
+                        if(store != null)
+                            store.set(row/stride, k, chunkBuf.getDouble(b));
+                        else if(float32)
+                            floatTable[k][row/stride] = (float)chunkBuf.getDouble(b);
+                        else
+                            table[k][row/stride] = chunkBuf.getDouble(b);
+                    }
+                }
+                pos += len;
+            }
+
+            if(crc.getValue() != crcTable.getLong(8*j))
+                return null;
+        }
+
+        if(store != null)
+            return new ChannelData(store);
+        return float32 ? new ChannelData(floatTable, keptRows) : new ChannelData(table, keptRows);
+    }
+
+    /**
+     * Updates the modification time of the source file that is kept in a
+     * cache file whose contents still match it.
+     */
+    private static void writeStamp(File cache, long modified){
+        try{
+            RandomAccessFile cacheFile = new RandomAccessFile(cache, "rw");
+            ByteBuffer stamp = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            stamp.putLong(0, modified);
+            cacheFile.getChannel().write(stamp, 16);
+            cacheFile.close();
+        }catch(IOException ioe){
+            //The source is hashed again next time, which is all that is lost
+        }
+    }
+
+    /**
+     * @return false if the cache file cannot be written, as when the data
+     *         files are kept in a read only directory, so that the table is
+     *         used without being cached
+     */
+    private static boolean canWriteCache(File cache){
+        File dir = cache.getAbsoluteFile().getParentFile();
+        return dir != null && dir.canWrite() && (!cache.exists() || cache.canWrite());
+    }
+
+    /**
+     * Writes a table to a cache file. The file is written under a temporary
+     * name first and then renamed, so that a half written cache file is never
+     * mistaken for a complete one.
+     */
+    private static void writeCache(File cache, ChannelData data, long size, long modified, long hash) throws IOException{
+        //Each writer has its own temporary file, since the loader's threads may
+        //write the cache of the same file (read with other options) at once
+        File temp = File.createTempFile(cache.getName(), ".tmp", cache.getAbsoluteFile().getParentFile());
+        FileOutputStream out = new FileOutputStream(temp);
+        FileChannel outChannel = out.getChannel();
+
+        int rows = data.numRows();
+        int cols = data.numCol();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putLong(8, size);
+        header.putLong(16, modified);
+        header.putLong(24, hash);
+        header.putInt(32, rows);
+        header.putInt(36, cols);
+
+        CRC32 crc = new CRC32();
+        ByteBuffer crcTable = ByteBuffer.allocate(8*cols).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] chunk = new byte[BUFFER_SIZE];
+        ByteBuffer chunkBuf = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+        long pos = HEADER_SIZE + 8L*cols;
+
+        for(int j = 0; j < cols; j++){
+            crc.reset();
+            int k = 0;
+            for(int i = 0; i < rows; i++){
+                chunkBuf.putDouble(k, data.get(i, j));
+                k += 8;
+                if(k == chunk.length || i == rows - 1){
+                    crc.update(chunk, 0, k);
+                    outChannel.write(ByteBuffer.wrap(chunk, 0, k), pos);
+                    pos += k;
+                    k = 0;
+                }
+            }
+            crcTable.putLong(8*j, crc.getValue());
+        }
+
+        crc.reset();
+        crc.update(crcTable.array(), 0, 8*cols);
+        header.putLong(40, crc.getValue());
+        outChannel.write(header, 0);
+        outChannel.write(crcTable, HEADER_SIZE);
+
+        outChannel.close();
+        out.close();
+
+        if(cache.exists())
+            cache.delete();
+        if(!temp.renameTo(cache))
+            temp.delete();
+    }
+
+    /**
+     * @return The CRC32 of the contents of file
+     */
+    public static long hashFile(File file) throws IOException{
+        CRC32 crc = new CRC32();
+        FileInputStream in = new FileInputStream(file);
+        byte[] buf = new byte[BUFFER_SIZE];
+
+        int n = in.read(buf);
+        while(n != -1){
+            crc.update(buf, 0, n);
+            n = in.read(buf);
+        }
+        in.close();
+
+        return crc.getValue();
+    }
+
+}
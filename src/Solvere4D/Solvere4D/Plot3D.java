@@ -31,14 +31,10 @@ import java.lang.Double;
  */
 public class Plot3D {
 
-    private SolvereUtilities SolUtil;
     private String rgbColour;
     private String transparency;
     private String nameTag;
     
-    private double[] time;
-    private double[][] axis1;
-    private double[][] axis2;
     private String[] markerPos;
     
     private double textScale;
@@ -61,7 +57,7 @@ public class Plot3D {
  * 
  * @param tag   : The unique name that is used to identify this element from others 
  *              in the VRML file
- * @param data  : The plot data to display. Here is the format <br>
+ * @param data  : The table of plot data to display. Here is the format <br>
  *                  Column 1: Time <br>
  *                  Column 2,3,4: Axis 1: The X,Y,Z coordinates of the first axis. <br>
  *                  Column 5,6,7: Axis 2: The X,Y,Z coordinates of the second axis. <br>
@@ -81,7 +77,7 @@ public class Plot3D {
  *                   Axis2 as a function of time.
  * @param markerColourRGB : The colour of the marker
  */    
-public Plot3D(String tag, double[][] data, boolean wireFrame, double[] plotOptions, double scale, String label, double[] labelColourRGB, boolean marker, double[] markerColourRGB){
+public Plot3D(String tag, ChannelData data, boolean wireFrame, double[] plotOptions, double scale, String label, double[] labelColourRGB, boolean marker, double[] markerColourRGB){
     
     nameTag = tag;
     displayName = label;
@@ -89,11 +85,11 @@ public Plot3D(String tag, double[][] data, boolean wireFrame, double[] plotOptio
     
     labelSRGBStr = new String[2];
     markerSRGBStr = new String[2];
-    time = new double[data.length];
-    timeStr = new String[data.length];
-    axis1 = new double[data.length][3];
-    axis2 = new double[data.length][3];
-    markerPos = new String[data.length];
+    //The text of the plot is made straight from the table, so only the text
+    //outlives the constructor
+    int rows = data.numRows();
+    timeStr = new String[rows];
+    markerPos = new String[rows];
     labelRGB = new double[3];
     
     labelSRGBStr[0] = Double.toString(scale);
@@ -105,28 +101,9 @@ public Plot3D(String tag, double[][] data, boolean wireFrame, double[] plotOptio
     
     
     
-    for(int i=0; i<data.length; i++){
-        time[i] = data[i][0]/data[data.length-1][0];
-        timeStr[i] = Double.toString(time[i]);
-        int k=0;
-        for(int j=1; j<4; j++){
-            axis1[i][k] = data[i][j];
-            k++;
-            if(k>2) k=0;
-        }
-        
-        k=0;
-        tempStrBuf.replace(0, tempStrBuf.length(), "");
-        for(int j=4; j<7; j++){
-            axis2[i][k] = data[i][j];
-            tempStrBuf.append(axis2[i][k]); 
-            if(k<2) tempStrBuf.append(" ");
-            
-            k++;
-            if(k>2) k=0;
-        }
-        markerPos[i]=tempStrBuf.toString();
-        
+    for(int i=0; i<rows; i++){
+        timeStr[i] = Double.toString(data.get(i, 0)/data.get(rows-1, 0));
+        markerPos[i] = getXYZText(data, i, 4, tempStrBuf);
     }
     plotWire = wireFrame;
     plotOption = new double[4];
@@ -160,35 +137,39 @@ public Plot3D(String tag, double[][] data, boolean wireFrame, double[] plotOptio
     }
     markerSRGBStr[1] = tempStrBuf.toString();
     
-    axis1 = new double[data.length][3]; 
-    axis2 = new double[data.length][3]; 
-   
-    for(int i=0; i<data.length; i++){
-        for(int j=0; j< 3; j++){
-            axis1[i][j] = data[i][j+1];
-            axis2[i][j] = data[i][j+4];
+    //The two triangles between the axes of rows i-1 and i, laid out as in
+    //SolvereUtilities.getTriangularArray; the first row repeats the second
+    triDataStr = new String[6*rows];
+    String zero = "0.0 0.0 0.0";
+    
+    for(int i = 0; i<rows; i++){
+        if(rows < 2){
+            for(int j = 0; j<6; j++)
+                triDataStr[i*6 + j] = zero;
+            continue;
         }
+        int prev = Math.max(i, 1) - 1;
+        int curr = Math.max(i, 1);
+        triDataStr[i*6    ] = getXYZText(data, prev, 1, tempStrBuf);
+        triDataStr[i*6 + 1] = getXYZText(data, prev, 4, tempStrBuf);
+        triDataStr[i*6 + 2] = getXYZText(data, curr, 4, tempStrBuf);
+        triDataStr[i*6 + 3] = triDataStr[i*6];
+        triDataStr[i*6 + 4] = triDataStr[i*6 + 2];
+        triDataStr[i*6 + 5] = getXYZText(data, curr, 1, tempStrBuf);
     }
     
-    double[][][] tempData = SolUtil.getTriangularArray(axis1, axis2);
-    triDataStr = new String[6*data.length];
-    
-    for(int i = 0; i<data.length; i++){
-        for(int j = 0; j<6; j++){
-            tempStrBuf.replace(0,tempStrBuf.length(),"");
-            for(int k = 0; k<3; k++){
-                tempStrBuf.append(tempData[i][j][k]);
-                if(k < 2) tempStrBuf.append(" ");
-                    
-            }
-            triDataStr[i*6 + j] = tempStrBuf.toString();
-            
-        }    
+}
+
+/**
+ * @return "X Y Z" of the axis that starts at column firstCol of a row of data
+ */
+private static String getXYZText(ChannelData data, int row, int firstCol, StringBuffer tempStrBuf){
+    tempStrBuf.replace(0, tempStrBuf.length(), "");
+    for(int k = 0; k<3; k++){
+        tempStrBuf.append(data.get(row, firstCol + k));
+        if(k < 2) tempStrBuf.append(" ");
     }
-    
-    
-    
-    
+    return tempStrBuf.toString();
 }
 
 
@@ -0,0 +1,208 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * ReadOptions.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+/**
+ * This class describes which part of a data file the element reading it
+ * actually needs, so that the readers can skip the rest instead of converting
+ * it and handing it over only to have it thrown away. A BodyData, for example,
+ * needs only columns 0 - 12 of its motion file, and when the scene is down
+ * sampled by 4 it needs only rows 0, 4, 8, ... of it. When only part of a
+ * recording is wanted the options hold a time window, and only the rows whose
+ * time (column 0) falls inside it are read. The options also say whether the
+ * table should be stored as float32 to save memory, and whether it should be
+ * made off the heap (see OffHeapStore).
+ *
+ * @author mjhmilla
+ */
+public class ReadOptions {
+
+    private int[] columns;
+    private int stride;
+    private boolean float32;
+    private boolean windowed;
+    private double windowStart;
+    private double windowEnd;
+    private OffHeapStore.Space offHeap;
+
+    /**
+     * Options that read the whole file.
+     */
+    public ReadOptions(){
+        columns = null;
+        stride = 1;
+    }
+
+    /**
+     * @param numCols : The number of columns needed, counted from column 0
+     * @return Options that read only the first numCols columns of a file
+     */
+    public static ReadOptions firstColumns(int numCols){
+        int[] cols = new int[numCols];
+        for(int j = 0; j < numCols; j++)
+            cols[j] = j;
+
+        ReadOptions options = new ReadOptions();
+        options.setColumns(cols);
+        return options;
+    }
+
+    /**
+     * @param cols : The columns of the file to read, in the order they should
+     *               appear in the table, or null to read every column
+     * @return A copy of these options that reads cols instead
+     */
+    public ReadOptions copyWithColumns(int[] cols){
+        ReadOptions options = new ReadOptions();
+        options.setColumns(cols);
+        options.setStride(stride);
+        options.setFloat32(float32);
+        if(windowed)
+            options.setTimeWindow(windowStart, windowEnd);
+        options.setOffHeap(offHeap);
+        return options;
+    }
+
+    /**
+     * @param cols : The columns of the file to read, in the order they should
+     *               appear in the table, or null to read every column
+     */
+    public void setColumns(int[] cols){
+        columns = cols;
+    }
+
+    /**
+     * @return The columns of the file to read, or null to read every column
+     */
+    public int[] getColumns(){
+        return columns;
+    }
+
+    /**
+     * @param rowStride : Only every rowStride'th row of the file is read,
+     *                    starting with the first; 1 reads every row
+     */
+    public void setStride(int rowStride){
+        stride = Math.max(rowStride, 1);
+    }
+
+    /**
+     * @return The number of rows of the file for every row that is read
+     */
+    public int getStride(){
+        return stride;
+    }
+
+    /**
+     * @param storeFloat32 : If true the table is stored as float32 rather than
+     *                       float64, which halves the memory it takes
+     */
+    public void setFloat32(boolean storeFloat32){
+        float32 = storeFloat32;
+    }
+
+    /**
+     * @return true if the table is to be stored as float32
+     */
+    public boolean isFloat32(){
+        return float32;
+    }
+
+    /**
+     * @param space : The room off the heap that the table is made in, or null
+     *                to make it on the heap. This is left out of getKey, since
+     *                it does not change what is in the table.
+     */
+    public void setOffHeap(OffHeapStore.Space space){
+        offHeap = space;
+    }
+
+    /**
+     * @return The room off the heap that the table is made in, or null
+     */
+    public OffHeapStore.Space getOffHeap(){
+        return offHeap;
+    }
+
+    /**
+     * Reads only the rows whose time (column 0 of the file) is at least
+     * startTime and at most endTime. Stride counts from the first row inside
+     * the window.
+     *
+     * @param startTime : The time of the first row wanted
+     * @param endTime   : The time of the last row wanted
+     */
+    public void setTimeWindow(double startTime, double endTime){
+        windowed = true;
+        windowStart = startTime;
+        windowEnd = endTime;
+    }
+
+    /**
+     * @return true if only the rows inside a time window are to be read
+     */
+    public boolean hasTimeWindow(){
+        return windowed;
+    }
+
+    /**
+     * @return The time of the first row wanted
+     */
+    public double getWindowStart(){
+        return windowStart;
+    }
+
+    /**
+     * @return The time of the last row wanted
+     */
+    public double getWindowEnd(){
+        return windowEnd;
+    }
+
+    /**
+     * @return A string that is the same for equal options, used to tell apart
+     *         requests for the same file with different options
+     */
+    public String getKey(){
+        StringBuffer key = new StringBuffer();
+        if(columns != null){
+            key.append("columns");
+            for(int j = 0; j < columns.length; j++)
+                key.append(" ").append(columns[j]);
+        }
+        if(stride > 1){
+            if(key.length() > 0)
+                key.append(" ");
+            key.append("stride ").append(stride);
+        }
+        if(float32){
+            if(key.length() > 0)
+                key.append(" ");
+            key.append("float32");
+        }
+        if(windowed){
+            if(key.length() > 0)
+                key.append(" ");
+            key.append("window ").append(windowStart).append(" ").append(windowEnd);
+        }
+        return key.toString();
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * ReaderBenchmark.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This is a small command line benchmark for the data readers. Given a data
+ * file it times the sequential reader and then the parallel reader with 1, 2,
+ * 4, ... threads up to the number of processors, and checks that every
+ * parallel result is identical to the sequential one. Run it with
+ *
+ *      java Solvere4D.ReaderBenchmark dataFile [repetitions]
+ *
+ * @author mjhmilla
+ */
+public class ReaderBenchmark {
+
+    public static void main(String[] args){
+
+        if(args.length == 0){
+            System.out.println("Usage: java Solvere4D.ReaderBenchmark dataFile [repetitions]");
+            return;
+        }
+
+        String path = new File(args[0]).getAbsolutePath();
+        int reps = 5;
+        if(args.length > 1)
+            reps = Integer.parseInt(args[1]);
+
+        double mb = new File(path).length()/(1024.0*1024.0);
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        System.out.println(path + ": " + mb + " MB, " + processors + " processors");
+
+        ChannelData reference = null;
+        long best = Long.MAX_VALUE;
+        for(int r = 0; r < reps; r++){
+            long t = System.nanoTime();
+            reference = DataReader.readMapped(path);
+            best = Math.min(best, System.nanoTime() - t);
+        }
+        double sequentialMs = best/1e6;
+        System.out.println("sequential: " + reference.numRows() + " rows x " + reference.numCol()
+                + " columns, " + sequentialMs + " ms, " + (mb/(sequentialMs/1000.0)) + " MB/s");
+
+        int threads = 1;
+        while(threads <= processors){
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ChannelData data = null;
+            best = Long.MAX_VALUE;
+            for(int r = 0; r < reps; r++){
+                long t = System.nanoTime();
+                data = DataReader.readParallel(path, threads, pool);
+                best = Math.min(best, System.nanoTime() - t);
+            }
+            pool.shutdown();
+
+            double ms = best/1e6;
+            System.out.println("threads " + threads + ": " + ms + " ms, speed up " + (sequentialMs/ms)
+                    + (isIdentical(reference, data) ? ", identical" : ", DIFFERENT FROM SEQUENTIAL"));
+
+            if(threads < processors && 2*threads > processors)
+                threads = processors;
+            else
+                threads = 2*threads;
+        }
+    }
+
+    /**
+     * @return true if a and b have the same size and bit for bit the same values
+     */
+    private static boolean isIdentical(ChannelData a, ChannelData b){
+        if(a.numRows() != b.numRows() || a.numCol() != b.numCol())
+            return false;
+
+        for(int j = 0; j < a.numCol(); j++){
+            for(int i = 0; i < a.numRows(); i++){
+                if(Double.doubleToRawLongBits(a.get(i, j)) != Double.doubleToRawLongBits(b.get(i, j)))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * RowConsumer.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+/**
+ * This interface is implemented by anything that can take the rows of a data
+ * file one at a time, as they are read, rather than all at once as a table.
+ * DataReader.stream pushes the rows of a file into a RowConsumer, so an
+ * element such as a BodyData can turn each row into the text of the animation
+ * as soon as it is read, and the table is never held in memory as a whole.
+ *
+ * The calls are always made in the order start, addRow (once per row), finish.
+ * When a data file is followed while it is being written (see DataFollower),
+ * more rows may be pushed in after finish, each batch followed by another
+ * call to finish.
+ *
+ * @author mjhmilla
+ */
+public interface RowConsumer {
+
+    /**
+     * Called once, before the first row.
+     *
+     * @param numCols : The number of values in every row
+     */
+    public void start(int numCols);
+
+    /**
+     * Called once per row, in file order. The array is reused for the next
+     * row, so any values that are needed later must be copied out of it.
+     *
+     * @param row : The values of the row, one per column
+     */
+    public void addRow(double[] row);
+
+    /**
+     * Called once, after the last row.
+     */
+    public void finish();
+
+}
@@ -0,0 +1,518 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * Scene.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class holds everything a *.s4d file says, once it has been parsed (see
+ * SceneParser): the options of the animation, and the entries of each of its
+ * blocks with the files they refer to and the display options given for them.
+ * A Scene cannot be changed once it has been made, and the arrays it gives out
+ * are copies, so the same Scene can be handed to the threads that read the
+ * files and to the code that writes the animation without being copied.
+ *
+ * Every entry keeps the number of the line it was declared on, so that a
+ * problem with its file can be reported against the line that named it.
+ *
+ * @author mjhmilla
+ */
+public final class Scene {
+
+    /**
+     * A line of a block that names a file. The file name is as written in the
+     * *.s4d file, relative to the *.s4d file, and may be followed by channel
+     * names in braces or a column group in square brackets.
+     */
+    public static class Entry {
+        private final int line;
+        private final String file;
+
+        Entry(int line, String file){
+            this.line = line;
+            this.file = file;
+        }
+
+        /**
+         * @return The number of the line of the *.s4d file the entry is on
+         */
+        public int getLine(){
+            return line;
+        }
+
+        /**
+         * @return The data file of the entry, as written in the *.s4d file
+         */
+        public String getFile(){
+            return file;
+        }
+
+        /**
+         * @return A string that is the same for entries with the same files
+         *         and options, used to tell whether an entry has changed
+         *         (see FragmentCache)
+         */
+        public String getKey(){
+            return file;
+        }
+    }
+
+    /**
+     * An entry of the bodyGEO block: a geometry file and the motion file that
+     * moves it.
+     */
+    public static final class Body extends Entry {
+        private final String geometryFile;
+
+        Body(int line, String geometryFile, String dataFile){
+            super(line, dataFile);
+            this.geometryFile = geometryFile;
+        }
+
+        /**
+         * @return The VRML, OBJ or STL geometry file of the body
+         */
+        public String getGeometryFile(){
+            return geometryFile;
+        }
+
+        public String getKey(){
+            return getFile() + " " + geometryFile;
+        }
+    }
+
+    /**
+     * An entry of a forceTorque block, with the scaling of the block it is in.
+     */
+    public static final class Force extends Entry {
+        private final double normF;
+        private final double normT;
+        private final double normD;
+        private final boolean[] plotFlags;
+        private final double[] plotOptions;
+
+        Force(int line, String file, double normF, double normT, double normD, boolean[] plotFlags, double[] plotOptions){
+            super(line, file);
+            this.normF = normF;
+            this.normT = normT;
+            this.normD = normD;
+            this.plotFlags = plotFlags.clone();
+            this.plotOptions = plotOptions.clone();
+        }
+
+        public double getForceNorm(){
+            return normF;
+        }
+
+        public double getTorqueNorm(){
+            return normT;
+        }
+
+        public double getDistanceNorm(){
+            return normD;
+        }
+
+        /**
+         * @return The force plot, wire frame and colour flags followed by the
+         *         same three for the torque (see ForceTorqueData)
+         */
+        public boolean[] getPlotFlags(){
+            return plotFlags.clone();
+        }
+
+        /**
+         * @return The R, G, B and T of the force plot followed by those of the
+         *         torque plot
+         */
+        public double[] getPlotOptions(){
+            return plotOptions.clone();
+        }
+
+        public String getKey(){
+            return getFile() + " " + normF + " " + normT + " " + normD + " " + Arrays.toString(plotFlags)
+                    + " " + Arrays.toString(plotOptions);
+        }
+    }
+
+    /**
+     * An entry of the markers block: a file of static marker positions, or
+     * the points of one frame of a C3D file.
+     */
+    public static final class MarkerSet extends Entry {
+        private final int shape;
+        private final double[] size;
+        private final double[] rgb;
+        private final double transparency;
+        private final int frame;
+
+        MarkerSet(int line, String file, int shape, double[] size, double[] rgb, double transparency, int frame){
+            super(line, file);
+            this.shape = shape;
+            this.size = size.clone();
+            this.rgb = rgb.clone();
+            this.transparency = transparency;
+            this.frame = frame;
+        }
+
+        /**
+         * @return One of MarkerData.SHAPE_SPHERE, SHAPE_CYLINDER, SHAPE_BOX or
+         *         SHAPE_CONE
+         */
+        public int getShape(){
+            return shape;
+        }
+
+        /**
+         * @return The radius and height of the marker, or its x, y and z
+         *         size for a box
+         */
+        public double[] getSize(){
+            return size.clone();
+        }
+
+        public double[] getRGB(){
+            return rgb.clone();
+        }
+
+        public double getTransparency(){
+            return transparency;
+        }
+
+        /**
+         * @return The frame of a C3D file that the markers are taken from,
+         *         counted from 1
+         */
+        public int getFrame(){
+            return frame;
+        }
+
+        public String getKey(){
+            return getFile() + " " + shape + " " + Arrays.toString(size) + " " + Arrays.toString(rgb) + " " + transparency
+                    + " " + frame;
+        }
+    }
+
+    /**
+     * An entry of the plot3D block.
+     */
+    public static final class Plot extends Entry {
+        private final boolean wireFrame;
+        private final double[] rgbt;
+        private final double scale;
+        private final String label;
+        private final double[] labelRGB;
+        private final boolean marker;
+        private final double[] markerRGB;
+
+        Plot(int line, String file, boolean wireFrame, double[] rgbt, double scale, String label, double[] labelRGB,
+                boolean marker, double[] markerRGB){
+            super(line, file);
+            this.wireFrame = wireFrame;
+            this.rgbt = rgbt.clone();
+            this.scale = scale;
+            this.label = label;
+            this.labelRGB = labelRGB.clone();
+            this.marker = marker;
+            this.markerRGB = markerRGB.clone();
+        }
+
+        public boolean isWireFrame(){
+            return wireFrame;
+        }
+
+        /**
+         * @return The R, G, B and T of the plot
+         */
+        public double[] getRGBT(){
+            return rgbt.clone();
+        }
+
+        public double getScale(){
+            return scale;
+        }
+
+        /**
+         * @return The label of the plot, or null if it has none
+         */
+        public String getLabel(){
+            return label;
+        }
+
+        public double[] getLabelRGB(){
+            return labelRGB.clone();
+        }
+
+        public boolean hasMarker(){
+            return marker;
+        }
+
+        public double[] getMarkerRGB(){
+            return markerRGB.clone();
+        }
+
+        public String getKey(){
+            return getFile() + " " + wireFrame + " " + Arrays.toString(rgbt) + " " + scale + " \"" + label + "\" "
+                    + Arrays.toString(labelRGB) + " " + marker + " " + Arrays.toString(markerRGB);
+        }
+    }
+
+    /**
+     * An entry of the stickFigures block.
+     */
+    public static final class Stick extends Entry {
+        private final double[] rgb;
+
+        Stick(int line, String file, double[] rgb){
+            super(line, file);
+            this.rgb = rgb.clone();
+        }
+
+        public double[] getRGB(){
+            return rgb.clone();
+        }
+
+        public String getKey(){
+            return getFile() + " " + Arrays.toString(rgb);
+        }
+    }
+
+    /**
+     * An entry of the movingLabels block.
+     */
+    public static final class Label extends Entry {
+        private final String text;
+        private final double scale;
+        private final double[] rgb;
+
+        Label(int line, String file, String text, double scale, double[] rgb){
+            super(line, file);
+            this.text = text;
+            this.scale = scale;
+            this.rgb = rgb.clone();
+        }
+
+        public String getText(){
+            return text;
+        }
+
+        public double getScale(){
+            return scale;
+        }
+
+        public double[] getRGB(){
+            return rgb.clone();
+        }
+
+        public String getKey(){
+            return getFile() + " \"" + text + "\" " + scale + " " + Arrays.toString(rgb);
+        }
+    }
+
+    /**
+     * The options of the animation, each given on a line of its own.
+     */
+    public static final class Options {
+        private final double timeScaling;
+        private final int downSampling;
+        private final double[] backgroundColour;
+        private final double[] lightDirection;
+        private final boolean headlight;
+        private final boolean parseCache;
+        private final int offHeap;
+        private final boolean float32;
+        private final boolean exportNPY;
+        private final boolean streaming;
+        private final boolean timeWindow;
+        private final double windowStart;
+        private final double windowEnd;
+        private final double follow;
+        private final boolean incremental;
+
+        Options(double timeScaling, int downSampling, double[] backgroundColour, double[] lightDirection, boolean headlight,
+                boolean parseCache, int offHeap, boolean float32, boolean exportNPY, boolean streaming,
+                boolean timeWindow, double windowStart, double windowEnd, double follow, boolean incremental){
+            this.timeScaling = timeScaling;
+            this.downSampling = downSampling;
+            this.backgroundColour = backgroundColour.clone();
+            this.lightDirection = (lightDirection == null) ? null : lightDirection.clone();
+            this.headlight = headlight;
+            this.parseCache = parseCache;
+            this.offHeap = offHeap;
+            this.float32 = float32;
+            this.exportNPY = exportNPY;
+            this.streaming = streaming;
+            this.timeWindow = timeWindow;
+            this.windowStart = windowStart;
+            this.windowEnd = windowEnd;
+            this.follow = follow;
+            this.incremental = incremental;
+        }
+
+        /** @return <timeScaling>, 1 if not given */
+        public double getTimeScaling(){
+            return timeScaling;
+        }
+
+        /** @return <downSampling>, 1 if not given */
+        public int getDownSampling(){
+            return downSampling;
+        }
+
+        /** @return <backgroundColour> as R, G, B, 0.95 grey if not given */
+        public double[] getBackgroundColour(){
+            return backgroundColour.clone();
+        }
+
+        /** @return <lightDirection> as X, Y, Z, or null if not given */
+        public double[] getLightDirection(){
+            return (lightDirection == null) ? null : lightDirection.clone();
+        }
+
+        /** @return <headlight>, true if not given */
+        public boolean isHeadlight(){
+            return headlight;
+        }
+
+        /** @return <parseCache> */
+        public boolean isParseCache(){
+            return parseCache;
+        }
+
+        /** @return <offHeap>, 0 if not given (see SceneLoader.setOffHeap) */
+        public int getOffHeap(){
+            return offHeap;
+        }
+
+        /** @return <float32> */
+        public boolean isFloat32(){
+            return float32;
+        }
+
+        /** @return <exportNPY> */
+        public boolean isExportNPY(){
+            return exportNPY;
+        }
+
+        /** @return <streaming> */
+        public boolean isStreaming(){
+            return streaming;
+        }
+
+        /** @return true if a valid <timeWindow> was given */
+        public boolean hasTimeWindow(){
+            return timeWindow;
+        }
+
+        public double getWindowStart(){
+            return windowStart;
+        }
+
+        public double getWindowEnd(){
+            return windowEnd;
+        }
+
+        /** @return <follow> in seconds, 0 if the files are not followed */
+        public double getFollowInterval(){
+            return follow;
+        }
+
+        /** @return <incremental> (see FragmentCache) */
+        public boolean isIncremental(){
+            return incremental;
+        }
+    }
+
+    private final String name;
+    private final Options options;
+    private final List<Body> bodies;
+    private final Entry camera;
+    private final List<Force> forces;
+    private final List<MarkerSet> markers;
+    private final List<Plot> plots;
+    private final List<Stick> sticks;
+    private final List<Label> labels;
+
+    Scene(String name, Options options, List<Body> bodies, Entry camera, List<Force> forces, List<MarkerSet> markers,
+            List<Plot> plots, List<Stick> sticks, List<Label> labels){
+        this.name = name;
+        this.options = options;
+        this.bodies = Collections.unmodifiableList(new ArrayList<Body>(bodies));
+        this.camera = camera;
+        this.forces = Collections.unmodifiableList(new ArrayList<Force>(forces));
+        this.markers = Collections.unmodifiableList(new ArrayList<MarkerSet>(markers));
+        this.plots = Collections.unmodifiableList(new ArrayList<Plot>(plots));
+        this.sticks = Collections.unmodifiableList(new ArrayList<Stick>(sticks));
+        this.labels = Collections.unmodifiableList(new ArrayList<Label>(labels));
+    }
+
+    /**
+     * @return The name of the *.s4d file, for messages
+     */
+    public String getName(){
+        return name;
+    }
+
+    public Options getOptions(){
+        return options;
+    }
+
+    /**
+     * @return The bodies, in the order they are declared; the times of the
+     *         first are the key frames of the animation
+     */
+    public List<Body> getBodies(){
+        return bodies;
+    }
+
+    /**
+     * @return The camera path, or null if there is none
+     */
+    public Entry getCamera(){
+        return camera;
+    }
+
+    /**
+     * @return The forces of every forceTorque block, in the order they are
+     *         declared
+     */
+    public List<Force> getForces(){
+        return forces;
+    }
+
+    public List<MarkerSet> getMarkers(){
+        return markers;
+    }
+
+    public List<Plot> getPlots(){
+        return plots;
+    }
+
+    public List<Stick> getStickFigures(){
+        return sticks;
+    }
+
+    public List<Label> getLabels(){
+        return labels;
+    }
+
+}
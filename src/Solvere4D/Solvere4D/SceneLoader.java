@@ -0,0 +1,353 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * SceneLoader.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * This class reads all of the files referenced by a *.s4d file at the same
+ * time. Once the configuration file has been read, every data file and every
+ * geometry file it refers to is requested up front; they are then read and
+ * parsed on a small, fixed size pool of threads while the main thread builds
+ * the BodyData, ForceTorqueData, ... objects in the order they are declared,
+ * waiting only for the file it needs next. The time taken to load a scene is
+ * then close to the time taken to read its largest file.
+ *
+ * A file that is referenced more than once is only read once. That includes
+ * a wide file that several elements are made from, each from its own group
+ * of columns (see DataReader.getColumnGroup): the whole file is read once,
+ * and each element is given a view of its columns of the table. If the parse
+ * cache is switched on, data files are read through ParseCache, so that a
+ * data file that has not changed since the last time it was read is not
+ * parsed again.
+ *
+ * For very long recordings the loader can keep every table off the heap (see
+ * OffHeapStore), in direct buffers or in a memory mapped temporary file; the
+ * readers then add the rows of each table there as they parse them. The
+ * temporary file is deleted when the loader is shut down.
+ *
+ * Data files that were not requested can instead be streamed row by row into
+ * the element that uses them (see streamData), so that their tables are never
+ * held in memory at all.
+ *
+ * The contents of a file can also be given to the loader before it is
+ * requested (see addFile), as they are when a scene is piped in (see
+ * ScenePipe); the file is then read from memory and never looked for on disk.
+ *
+ * @author mjhmilla
+ */
+public class SceneLoader {
+
+    /** The largest number of files that are read at the same time */
+    public static final int MAX_THREADS = 8;
+
+    private ExecutorService pool;
+    private HashMap<String, Future<ChannelData>> dataFiles;
+    private HashMap<String, Future<String[]>> textFiles;
+    private HashMap<String, byte[]> memoryFiles;
+    private boolean useCache;
+    private OffHeapStore.Space offHeap;
+
+    public SceneLoader(){
+        int threads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() + 1);
+        //Daemon threads, so that a scene that fails to load never keeps the
+        //program from exiting
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable task){
+                Thread thread = new Thread(task, "SceneLoader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        dataFiles = new HashMap<String, Future<ChannelData>>();
+        textFiles = new HashMap<String, Future<String[]>>();
+        memoryFiles = new HashMap<String, byte[]>();
+    }
+
+    /**
+     * Gives the loader the contents of a file, which are then read in place of
+     * the file on disk. This must be done before the file is requested.
+     *
+     * @param absoluteFilePath : The complete file path of the file
+     * @param contents         : The contents of the file
+     */
+    public void addFile(String absoluteFilePath, byte[] contents){
+        memoryFiles.put(DataReader.getFilePath(absoluteFilePath), contents);
+    }
+
+    /**
+     * @param absoluteFilePath : The complete file path of a file
+     * @return true if the contents of the file were given to the loader
+     */
+    public boolean hasFile(String absoluteFilePath){
+        return memoryFiles.containsKey(DataReader.getFilePath(absoluteFilePath));
+    }
+
+    /**
+     * @param cache : true if data files should be read through ParseCache.
+     *                This must be set before any data files are requested.
+     */
+    public void setUseCache(boolean cache){
+        useCache = cache;
+    }
+
+    /**
+     * @param mode : 0 to keep the tables on the heap, OffHeapStore.DIRECT or
+     *               OffHeapStore.MAPPED to make them off the heap. This must
+     *               be set before any data files are requested.
+     */
+    public void setOffHeap(int mode){
+        if(mode == OffHeapStore.DIRECT || mode == OffHeapStore.MAPPED)
+            offHeap = new OffHeapStore.Space(mode);
+        else
+            offHeap = null;
+    }
+
+    /**
+     * Starts reading a numeric data file in the background.
+     *
+     * @param absoluteFilePath : The complete file path of the data file
+     */
+    public void requestData(String absoluteFilePath){
+        requestData(absoluteFilePath, new ReadOptions());
+    }
+
+    /**
+     * Starts reading part of a numeric data file in the background. The same
+     * file can be requested with different options, and is then read once for
+     * each.
+     *
+     * @param absoluteFilePath : The complete file path of the data file
+     * @param options          : The part of the file that is needed
+     */
+    public void requestData(final String absoluteFilePath, final ReadOptions options){
+        if(DataReader.getColumnGroup(absoluteFilePath) != null){
+            requestData(DataReader.getFilePath(absoluteFilePath), options.copyWithColumns(null));
+            return;
+        }
+        
+        String key = getKey(absoluteFilePath, options);
+        if(dataFiles.containsKey(key))
+            return;
+
+        dataFiles.put(key, pool.submit(new Callable<ChannelData>() {
+            public ChannelData call(){
+                return readData(absoluteFilePath, options);
+            }
+        }));
+    }
+
+    /**
+     * Starts reading a text file (for example VRML geometry) in the background.
+     * An OBJ or STL mesh is read as the VRML of the mesh (see MeshReader).
+     *
+     * @param absoluteFilePath : The complete file path of the text file
+     */
+    public void requestText(final String absoluteFilePath){
+        if(textFiles.containsKey(absoluteFilePath))
+            return;
+
+        textFiles.put(absoluteFilePath, pool.submit(new Callable<String[]>() {
+            public String[] call(){
+                return readText(absoluteFilePath);
+            }
+        }));
+    }
+
+    /**
+     * Waits for a data file to be read. If the file was never requested it is
+     * read now, on the calling thread.
+     *
+     * @param absoluteFilePath : The complete file path of the data file
+     * @return The table of data in the file
+     */
+    public ChannelData getData(String absoluteFilePath){
+        return getData(absoluteFilePath, new ReadOptions());
+    }
+
+    /**
+     * Waits for part of a data file to be read. If it was never requested it
+     * is read now, on the calling thread.
+     *
+     * @param absoluteFilePath : The complete file path of the data file
+     * @param options          : The part of the file that is needed
+     * @return The table of data in the file
+     */
+    public ChannelData getData(String absoluteFilePath, ReadOptions options){
+        int[] group = DataReader.getColumnGroup(absoluteFilePath);
+        if(group != null){
+            //The whole file is kept for the other elements made from it
+            requestData(absoluteFilePath, options);
+            ChannelData data = getData(DataReader.getFilePath(absoluteFilePath), options.copyWithColumns(null));
+            return data.project(DataReader.getGroupOptions(group, options).getColumns());
+        }
+        
+        Future<ChannelData> result = dataFiles.get(getKey(absoluteFilePath, options));
+
+        if(result != null){
+            try{
+                return result.get();
+            }catch(InterruptedException ie){
+                System.out.println("Interrupted while reading " + absoluteFilePath + " in SceneLoader");
+                ie.printStackTrace();
+            }catch(ExecutionException ee){
+                System.out.println("Exception thrown while reading " + absoluteFilePath + " in SceneLoader");
+                ee.printStackTrace();
+            }
+        }
+        return readData(absoluteFilePath, options);
+    }
+
+    /**
+     * Pushes the rows of part of a data file into consumer. A file that was
+     * requested with the same options (or any file, when the parse cache is
+     * on, or a group of columns of a wide file) is taken from its table;
+     * otherwise it is streamed from the file on the calling thread, and no
+     * table is ever made.
+     *
+     * @param absoluteFilePath : The complete file path of the data file
+     * @param options          : The part of the file that is needed
+     * @param consumer         : The consumer of the rows
+     */
+    public void streamData(String absoluteFilePath, ReadOptions options, RowConsumer consumer){
+        if(useCache || dataFiles.containsKey(getKey(absoluteFilePath, options))
+                || DataReader.getColumnGroup(absoluteFilePath) != null)
+            getData(absoluteFilePath, options).pushRows(consumer);
+        else if(hasFile(absoluteFilePath))
+            DataReader.readContents(getContents(absoluteFilePath), absoluteFilePath, options, consumer);
+        else
+            DataReader.stream(absoluteFilePath, options, consumer);
+    }
+
+    private ChannelData readData(String absoluteFilePath, ReadOptions options){
+        if(offHeap != null){
+            options = options.copyWithColumns(options.getColumns());
+            options.setOffHeap(offHeap);
+        }
+
+        //A file held in memory has nothing on disk to cache
+        if(hasFile(absoluteFilePath))
+            return DataReader.readContents(getContents(absoluteFilePath), absoluteFilePath, options, null);
+        else if(useCache)
+            return ParseCache.read(absoluteFilePath, options);
+        else
+            return DataReader.read(absoluteFilePath, options);
+    }
+
+    private byte[] getContents(String absoluteFilePath){
+        return memoryFiles.get(DataReader.getFilePath(absoluteFilePath));
+    }
+
+    private static String getKey(String absoluteFilePath, ReadOptions options){
+        return absoluteFilePath + "|" + options.getKey();
+    }
+
+    /**
+     * Waits for a text file to be read. If the file was never requested it is
+     * read now, on the calling thread.
+     *
+     * @param absoluteFilePath : The complete file path of the text file
+     * @return The lines of the file, or null if it could not be read
+     */
+    public String[] getText(String absoluteFilePath){
+        Future<String[]> result = textFiles.get(absoluteFilePath);
+
+        if(result != null){
+            try{
+                return result.get();
+            }catch(InterruptedException ie){
+                System.out.println("Interrupted while reading " + absoluteFilePath + " in SceneLoader");
+                ie.printStackTrace();
+            }catch(ExecutionException ee){
+                System.out.println("Exception thrown while reading " + absoluteFilePath + " in SceneLoader");
+                ee.printStackTrace();
+            }
+        }
+        return readText(absoluteFilePath);
+    }
+
+    /**
+     * @return The lines of a text file, or of the VRML of an OBJ or STL mesh
+     */
+    private String[] readText(String absoluteFilePath){
+        if(hasFile(absoluteFilePath))
+            return readText(getContents(absoluteFilePath), absoluteFilePath);
+        if(MeshReader.isMesh(absoluteFilePath))
+            return MeshReader.readGeometryLines(new File(absoluteFilePath));
+        return SolvereUtilities.getTextFile(new File(absoluteFilePath));
+    }
+
+    /**
+     * @return The lines of a text file held in memory, or of the VRML of an
+     *         OBJ or STL mesh, or null if it could not be read
+     */
+    private static String[] readText(byte[] contents, String absoluteFilePath){
+        try{
+            InputStream in = new ByteArrayInputStream(contents);
+            long size = contents.length;
+            if(DataReader.isCompressed(absoluteFilePath)){
+                in = new GZIPInputStream(in);
+                size = -1;
+            }
+            if(MeshReader.isMesh(absoluteFilePath))
+                return MeshReader.readGeometryLines(in, absoluteFilePath, size);
+
+            BufferedReader textBuf = new BufferedReader(new InputStreamReader(in));
+            ArrayList<String> lines = new ArrayList<String>();
+            String line = textBuf.readLine();
+            while(line != null){
+                lines.add(line);
+                line = textBuf.readLine();
+            }
+            textBuf.close();
+            return lines.toArray(new String[lines.size()]);
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown while reading " + absoluteFilePath + " in SceneLoader");
+            ioe.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Stops the threads of this loader once all of the files have been read,
+     * and deletes the temporary file of the tables kept off the heap. The
+     * tables can still be read.
+     */
+    public void shutdown(){
+        pool.shutdown();
+        if(offHeap != null)
+            offHeap.close();
+    }
+
+}
@@ -0,0 +1,588 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * SceneParser.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.IOException;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+
+/**
+ * This class reads a *.s4d file into a Scene in a single pass. Each line is
+ * split into fields and tokens by a SceneTokenizer, and is either an option,
+ * such as
+ *
+ *      <timeScaling>,  1.0
+ *      <lightDirection>, <X-0.5 Y-0.5 Z-1>
+ *
+ * the first or last line of a block, such as <bodyGEO> and <\bodyGEO>, an
+ * entry of the block that is open, or a comment. A line that does not start
+ * with a tag outside of a block is a comment, as is a whole block whose tag is
+ * not known (such as #<plot3D>, which is how a block is commented out).
+ *
+ * The attributes of an entry are read by key rather than by their place in
+ * the line, so extra spaces or tabs make no difference. Where a key is given
+ * more than once the first is used, except that the colour of the marker of a
+ * plot is the one after "m", and the colour of the label of a plot or of a
+ * moving label is the one after its quoted text. The first group of a force
+ * entry is for the force and the second for the torque.
+ *
+ * Anything that cannot be read is reported with the number of its line, and
+ * is then either skipped or given a default value, as the message says.
+ *
+ * @author mjhmilla
+ */
+public class SceneParser {
+
+    private static final String BODIES = "bodyGEO";
+    private static final String CAMERA = "camera";
+    private static final String FORCES = "forceTorque";
+    private static final String MARKERS = "markers";
+    private static final String PLOTS = "plot3D";
+    private static final String STICKS = "stickFigures";
+    private static final String LABELS = "movingLabels";
+    private static final String[] BLOCKS = {BODIES, CAMERA, FORCES, MARKERS, PLOTS, STICKS, LABELS};
+
+    private static final String[] OPTIONS = {"timeScaling", "sizeScaling", "downSampling", "backgroundColour",
+        "lightDirection", "headlight", "parseCache", "offHeap", "float32", "exportNPY", "streaming",
+        "timeWindow", "follow", "incremental"};
+
+    private static final String[] FORCE_KEYS = {"f", "t", "w", "c", "R", "G", "B", "T"};
+    private static final String[] MARKER_KEYS = {"sphere", "cylinder", "cone", "box", "r", "h", "x", "y", "z", "R", "G", "B", "T", "n"};
+    private static final String[] PLOT_KEYS = {"w", "R", "G", "B", "T", "s", "m"};
+    private static final String[] COLOUR_KEYS = {"R", "G", "B", "T"};
+    private static final String[] LABEL_KEYS = {"s", "R", "G", "B", "T"};
+    private static final String[] DIRECTION_KEYS = {"X", "Y", "Z"};
+
+    private SceneTokenizer tokens;
+    private String name;
+
+    private double timeScaling = 1.0;
+    private int downSampling = 1;
+    private double[] backgroundColour = {0.95, 0.95, 0.95};
+    private double[] lightDirection;
+    private boolean headlight = true;
+    private boolean parseCache;
+    private int offHeap;
+    private boolean float32;
+    private boolean exportNPY;
+    private boolean streaming;
+    private boolean timeWindow;
+    private double windowStart;
+    private double windowEnd;
+    private double follow;
+    private boolean incremental;
+
+    private ArrayList<Scene.Body> bodies = new ArrayList<Scene.Body>();
+    private Scene.Entry camera;
+    private ArrayList<Scene.Force> forces = new ArrayList<Scene.Force>();
+    private ArrayList<Scene.MarkerSet> markers = new ArrayList<Scene.MarkerSet>();
+    private ArrayList<Scene.Plot> plots = new ArrayList<Scene.Plot>();
+    private ArrayList<Scene.Stick> sticks = new ArrayList<Scene.Stick>();
+    private ArrayList<Scene.Label> labels = new ArrayList<Scene.Label>();
+
+    private String block;       //The block that is open, or null
+    private int blockLine;      //The line the open block starts on
+    private double normF;       //The scaling of the open forceTorque block
+    private double normT;
+    private double normD;
+
+    private SceneParser(Reader reader, String name){
+        tokens = new SceneTokenizer(reader, name);
+        this.name = name;
+    }
+
+    /**
+     * Reads a *.s4d file.
+     *
+     * @param s4dFile : The *.s4d file
+     * @return The scene, which is empty if the file could not be read
+     */
+    public static Scene parse(File s4dFile){
+        try{
+            FileReader reader = new FileReader(s4dFile);
+            try{
+                return parse(reader, s4dFile.getName());
+            }finally{
+                reader.close();
+            }
+        }catch(FileNotFoundException fnfe){
+            System.out.println("File not found exception thrown in SceneParser");
+            fnfe.printStackTrace();
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in SceneParser");
+            ioe.printStackTrace();
+        }
+        return parse(new StringReader(""), s4dFile.getName());
+    }
+
+    /**
+     * Reads the text of a *.s4d file.
+     *
+     * @param reader : The text of the *.s4d file
+     * @param name   : The name of the *.s4d file, for messages
+     * @return The scene
+     */
+    public static Scene parse(Reader reader, String name){
+        SceneParser parser = new SceneParser(reader, name);
+        try{
+            parser.readLines();
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in SceneParser");
+            ioe.printStackTrace();
+        }
+        return parser.makeScene();
+    }
+
+    private void readLines() throws IOException{
+        String[] fields = tokens.nextLine();
+        while(fields != null){
+            if(fields.length > 0)
+                readLine(fields);
+            fields = tokens.nextLine();
+        }
+
+        if(block != null)
+            tokens.error("the <" + block + "> block that starts on line " + blockLine + " is not closed by <\\" + block + ">");
+    }
+
+    private Scene makeScene(){
+        if(follow > 0 && timeWindow){
+            System.out.println("Error: <follow> cannot be used with <timeWindow>, the files are not followed");
+            follow = 0;
+        }
+
+        Scene.Options options = new Scene.Options(timeScaling, downSampling, backgroundColour, lightDirection, headlight,
+                parseCache, offHeap, float32, exportNPY, streaming, timeWindow, windowStart, windowEnd, follow, incremental);
+        return new Scene(name, options, bodies, camera, forces, markers, plots, sticks, labels);
+    }
+
+    private void readLine(String[] fields){
+        String first = fields[0];
+        String tag = getTag(first);
+
+        if(block != null){
+            if(first.compareTo("<\\" + block + ">") == 0){
+                block = null;
+                return;
+            }
+            if(tag != null && tag.startsWith("\\") && indexOf(BLOCKS, tag.substring(1)) != -1){
+                tokens.error("<" + tag + "> closes the <" + block + "> block that starts on line " + blockLine);
+                block = null;
+                return;
+            }
+            if(tag == null || indexOf(BLOCKS, tag) == -1){
+                readEntry(fields);
+                return;
+            }
+            tokens.error("a <" + tag + "> block starts inside the <" + block + "> block that starts on line "
+                    + blockLine + ", which is closed here");
+            block = null;
+        }
+
+        //A line outside of a block that is not a tag, or is the last line of
+        //a block, such as <\camera>, is a comment
+        if(tag == null || tag.startsWith("\\"))
+            return;
+
+        if(indexOf(BLOCKS, tag) != -1){
+            block = tag;
+            blockLine = tokens.getLineNumber();
+            if(tag.compareTo(FORCES) == 0)
+                readNorms((fields.length > 1) ? tokens.tokenize(fields[1]) : new SceneTokenizer.Token[0]);
+            return;
+        }
+
+        if(indexOf(OPTIONS, tag) != -1)
+            readOption(tag, (fields.length > 1) ? fields[1] : null);
+        else
+            System.out.println("Warning: Line " + tokens.getLineNumber() + " of " + name + ": <" + tag
+                    + "> is not a known tag, the line is taken to be a comment");
+    }
+
+    /**
+     * @return The name of the tag in field, such as "bodyGEO" for "<bodyGEO>"
+     *         or "\bodyGEO" for "<\bodyGEO>", or null if field is not a tag
+     */
+    private static String getTag(String field){
+        if(field.length() < 3 || field.charAt(0) != '<' || field.charAt(field.length() - 1) != '>')
+            return null;
+        String tag = field.substring(1, field.length() - 1);
+        if(tag.indexOf('<') != -1 || tag.indexOf('>') != -1 || tag.indexOf(' ') != -1)
+            return null;
+        return tag;
+    }
+
+    private void readOption(String tag, String value){
+        String option = "<" + tag + ">";
+
+        if(tag.compareTo("timeScaling") == 0){
+            timeScaling = toNumber(value, option, 1.0);
+
+        }else if(tag.compareTo("sizeScaling") == 0){
+            //Not used yet, everything is drawn at its own size
+
+        }else if(tag.compareTo("downSampling") == 0){
+            downSampling = toInteger(value, option, 1);
+
+        }else if(tag.compareTo("backgroundColour") == 0){
+            SceneTokenizer.Token[] group = getGroup(value, 0);
+            checkKeys(group, option, COLOUR_KEYS);
+            double[] rgbt = getRGBT(group, 0);
+            for(int z = 0; z < 3; z++)
+                backgroundColour[z] = rgbt[z];
+
+        }else if(tag.compareTo("lightDirection") == 0){
+            SceneTokenizer.Token[] group = getGroup(value, 0);
+            checkKeys(group, option, DIRECTION_KEYS);
+            lightDirection = new double[3];
+            for(int z = 0; z < 3; z++)
+                lightDirection[z] = getNumber(group, DIRECTION_KEYS[z], 0, 0, option);
+
+        }else if(tag.compareTo("headlight") == 0){
+            headlight = (toNumber(value, option, 0) > 0.5);
+
+        }else if(tag.compareTo("parseCache") == 0){
+            parseCache = (toInteger(value, option, 0) > 0);
+
+        }else if(tag.compareTo("offHeap") == 0){
+            //1: keep the data off the heap in direct memory, 2: in memory mapped temporary files
+            offHeap = toInteger(value, option, 0);
+
+        }else if(tag.compareTo("float32") == 0){
+            float32 = (toInteger(value, option, 0) > 0);
+
+        }else if(tag.compareTo("incremental") == 0){
+            //<incremental>, 1 : only the sections of the animation whose
+            //files or options have changed are worked out again
+            incremental = (toInteger(value, option, 0) > 0);
+
+        }else if(tag.compareTo("exportNPY") == 0){
+            exportNPY = (toInteger(value, option, 0) > 0);
+
+        }else if(tag.compareTo("streaming") == 0){
+            streaming = (toInteger(value, option, 0) > 0);
+
+        }else if(tag.compareTo("timeWindow") == 0){
+            //<timeWindow>, start end : only the rows from start to end (in the
+            //time units of the data files) are read
+            timeWindow = false;
+            String[] times = (value == null) ? new String[0] : value.split("\\s+");
+            try{
+                if(times.length >= 2){
+                    windowStart = Double.valueOf(times[0]);
+                    windowEnd = Double.valueOf(times[1]);
+                    timeWindow = (windowEnd >= windowStart);
+                }
+            }catch(NumberFormatException nfe){
+                timeWindow = false;
+            }
+            if(!timeWindow)
+                tokens.error("<timeWindow> should give a start and an end time, the whole recording is read");
+
+        }else if(tag.compareTo("follow") == 0){
+            //<follow>, seconds : the data files are still being written, and
+            //are checked for new rows every so many seconds
+            try{
+                follow = Double.valueOf(value);
+            }catch(NumberFormatException nfe){
+                follow = 0;
+            }catch(NullPointerException npe){
+                follow = 0;
+            }
+            if(value == null || follow < 0 || Double.isNaN(follow)){
+                tokens.error("<follow> should give the number of seconds between checks, the files are not followed");
+                follow = 0;
+            }
+        }
+    }
+
+    private void readEntry(String[] fields){
+        int line = tokens.getLineNumber();
+        String file = fields[0];
+        String attributes = (fields.length > 1) ? fields[1] : null;
+        String entry = "the <" + block + "> entry " + file;
+
+        if(block.compareTo(BODIES) == 0){
+            if(fields.length < 2){
+                tokens.error(entry + " should give a geometry file and a data file, it is skipped");
+                return;
+            }
+            bodies.add(new Scene.Body(line, fields[0], fields[1]));
+
+        }else if(block.compareTo(CAMERA) == 0){
+            if(camera != null)
+                tokens.error("there is more than one camera, the camera of line " + camera.getLine() + " is replaced");
+            camera = new Scene.Entry(line, file);
+            //The camera block has a single entry, and its last line is optional
+            block = null;
+
+        }else if(block.compareTo(FORCES) == 0){
+            readForce(line, file, attributes, entry);
+
+        }else if(block.compareTo(MARKERS) == 0){
+            readMarkers(line, file, attributes, entry);
+
+        }else if(block.compareTo(PLOTS) == 0){
+            readPlot(line, file, attributes, entry);
+
+        }else if(block.compareTo(STICKS) == 0){
+            SceneTokenizer.Token[] group = getGroup(attributes, 0);
+            checkKeys(group, entry, COLOUR_KEYS);
+            sticks.add(new Scene.Stick(line, file, getRGBT(group, 0)));
+
+        }else if(block.compareTo(LABELS) == 0){
+            SceneTokenizer.Token[] group = getGroup(attributes, 0);
+            checkKeys(group, entry, LABEL_KEYS);
+            int q = findQuoted(group, 0);
+            if(q == -1){
+                tokens.error(entry + " should give the text of the label in quotes, it is skipped");
+                return;
+            }
+            labels.add(new Scene.Label(line, file, group[q].getText(), getNumber(group, "s", q + 1, 1, entry),
+                    getRGBT(group, q + 1)));
+        }
+    }
+
+    /**
+     * Reads normF=, normT= and normD= of the first line of a forceTorque
+     * block.
+     */
+    private void readNorms(SceneTokenizer.Token[] words){
+        String block = "<" + FORCES + ">";
+        normF = getNumber(words, "normF", 0, 1, block);
+        normT = getNumber(words, "normT", 0, 1, block);
+        normD = getNumber(words, "normD", 0, 1, block);
+    }
+
+    /**
+     * Reads a force entry, which has a group for the force, such as
+     * <f1 w0 c1 R0.0 G0.0 B0.5 T0.5>, and one for the torque, which starts
+     * with t in place of f. A group or the colour of a group is only read if
+     * it is switched on with f1 or t1, and c1.
+     */
+    private void readForce(int line, String file, String attributes, String entry){
+        boolean[] plotFlags = new boolean[6];
+        double[] plotOptions = new double[8];
+
+        for(int k = 0; k < 2; k++){
+            SceneTokenizer.Token[] group = getGroup(attributes, k);
+            checkKeys(group, entry, FORCE_KEYS);
+            if(getNumber(group, (k == 0) ? "f" : "t", 0, Double.NaN, null) == 1){
+                plotFlags[3*k] = true;
+                plotFlags[3*k + 1] = (getNumber(group, "w", 0, Double.NaN, null) == 1);
+                if(getNumber(group, "c", 0, Double.NaN, null) == 1){
+                    plotFlags[3*k + 2] = true;
+                    double[] rgbt = getRGBT(group, 0);
+                    for(int z = 0; z < 4; z++)
+                        plotOptions[4*k + z] = rgbt[z];
+                }
+            }
+        }
+
+        forces.add(new Scene.Force(line, file, normF, normT, normD, plotFlags, plotOptions));
+    }
+
+    /**
+     * Reads a marker entry, such as <sphere r0.02 R0.6 G0.6 B0.9 T0.0> or
+     * <box x0.05 y0.01 z0.2 R0.6 G0.6 B0.8 T0.0>. A sphere needs r, a
+     * cylinder or cone r and h, and a box x, y and z. The markers of a C3D
+     * file are its points in the frame given by n, the first if it is left
+     * out (see C3DFile.getMarkers).
+     */
+    private void readMarkers(int line, String file, String attributes, String entry){
+        SceneTokenizer.Token[] group = getGroup(attributes, 0);
+        checkKeys(group, entry, MARKER_KEYS);
+
+        int shape = MarkerData.SHAPE_SPHERE;
+        if(find(group, "cylinder", 0) != -1) shape = MarkerData.SHAPE_CYLINDER;
+        if(find(group, "cone", 0) != -1)     shape = MarkerData.SHAPE_CONE;
+        if(find(group, "box", 0) != -1)      shape = MarkerData.SHAPE_BOX;
+
+        double[] size = {0.1, 0.1, 0.1};
+        if(shape != MarkerData.SHAPE_BOX){
+            size[0] = getNumber(group, "r", 0, 0.1, entry);
+            if(shape != MarkerData.SHAPE_SPHERE)
+                size[1] = getNumber(group, "h", 0, 0.1, entry);
+        }else{
+            size[0] = getNumber(group, "x", 0, 0.1, entry);
+            size[1] = getNumber(group, "y", 0, 0.1, entry);
+            size[2] = getNumber(group, "z", 0, 0.1, entry);
+        }
+
+        int frame = (int)getNumber(group, "n", 0, 1, null);
+        if(frame != 1 && !C3DFile.isC3DFile(DataReader.getFilePath(file))){
+            tokens.error(entry + " gives n, which is only read for a C3D file");
+            frame = 1;
+        }
+
+        double[] rgbt = getRGBT(group, 0);
+        markers.add(new Scene.MarkerSet(line, file, shape, size, new double[]{rgbt[0], rgbt[1], rgbt[2]}, rgbt[3], frame));
+    }
+
+    /**
+     * Reads a plot entry, such as
+     * <w0 R0.5 G0.0 B0.0 T0.75 s0.15 m1 R0.0 G0.0 B0.0 "Ho" R0.0 G0.0 B0.0>
+     * which gives the plot's wire frame flag, colour and scale, then whether
+     * it has a marker and the marker's colour, then its label and the label's
+     * colour.
+     */
+    private void readPlot(int line, String file, String attributes, String entry){
+        SceneTokenizer.Token[] group = getGroup(attributes, 0);
+        checkKeys(group, entry, PLOT_KEYS);
+
+        boolean wireFrame = (getNumber(group, "w", 0, Double.NaN, null) == 1);
+        double[] rgbt = getRGBT(group, 0);
+        double scale = getNumber(group, "s", 0, 1, entry);
+
+        int m = find(group, "m", 0);
+        boolean marker = (m != -1 && getNumber(group, "m", 0, 0, entry) > 0.5);
+        double[] markerRGB = marker ? getRGBT(group, m + 1) : new double[4];
+
+        int q = findQuoted(group, 0);
+        String label = (q == -1) ? null : group[q].getText();
+        double[] labelRGB = (q == -1) ? new double[4] : getRGBT(group, q + 1);
+
+        plots.add(new Scene.Plot(line, file, wireFrame, rgbt, scale, label, labelRGB, marker, markerRGB));
+    }
+
+    /**
+     * @param field : A field of attributes, or null if there is none
+     * @param k     : Which group of the field to give
+     * @return The tokens of the k'th <...> group of field. If field has no
+     *         groups at all its words are taken to be its first group.
+     */
+    private SceneTokenizer.Token[] getGroup(String field, int k){
+        if(field == null)
+            return new SceneTokenizer.Token[0];
+
+        SceneTokenizer.Token[] fieldTokens = tokens.tokenize(field);
+        int count = 0;
+        for(int j = 0; j < fieldTokens.length; j++){
+            if(fieldTokens[j].getKind() == SceneTokenizer.GROUP){
+                if(count == k)
+                    return fieldTokens[j].getGroup();
+                count++;
+            }
+        }
+        return (count == 0 && k == 0) ? fieldTokens : new SceneTokenizer.Token[0];
+    }
+
+    /**
+     * Reports every word of group whose key is not one of keys.
+     */
+    private void checkKeys(SceneTokenizer.Token[] group, String entry, String[] keys){
+        for(int j = 0; j < group.length; j++){
+            if(group[j].getKind() == SceneTokenizer.GROUP)
+                tokens.error("<" + group[j].getText() + "> cannot be inside another group in " + entry + ", it is ignored");
+            if(group[j].getKind() == SceneTokenizer.WORD && indexOf(keys, group[j].getKey()) == -1)
+                tokens.error(group[j].getText() + " is not an option of " + entry + ", it is ignored");
+        }
+    }
+
+    /**
+     * @return The index of the first word of group at or after from with the
+     *         key, or -1 if there is none
+     */
+    private static int find(SceneTokenizer.Token[] group, String key, int from){
+        for(int j = from; j < group.length; j++){
+            if(group[j].getKind() == SceneTokenizer.WORD && group[j].getKey().compareTo(key) == 0)
+                return j;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index of the first quoted string of group at or after from,
+     *         or -1 if there is none
+     */
+    private static int findQuoted(SceneTokenizer.Token[] group, int from){
+        for(int j = from; j < group.length; j++){
+            if(group[j].getKind() == SceneTokenizer.QUOTED)
+                return j;
+        }
+        return -1;
+    }
+
+    /**
+     * @param entry : The entry or option the number is for, or null if the
+     *                number may be left out
+     * @return The number of the first word of group at or after from with the
+     *         key, or missing if there is none or it is not a number
+     */
+    private double getNumber(SceneTokenizer.Token[] group, String key, int from, double missing, String entry){
+        int j = find(group, key, from);
+        if(j == -1){
+            if(entry != null)
+                tokens.error(entry + " should give " + key + ", " + missing + " is used");
+            return missing;
+        }
+        try{
+            return Double.valueOf(group[j].getValue());
+        }catch(NumberFormatException nfe){
+        }catch(NullPointerException npe){
+        }
+        tokens.error(group[j].getText() + " should be " + key + " followed by a number, " + missing + " is used");
+        return missing;
+    }
+
+    /**
+     * @return The R, G, B and T of the first words with these keys at or
+     *         after from; any that are not given are 0
+     */
+    private double[] getRGBT(SceneTokenizer.Token[] group, int from){
+        double[] rgbt = new double[4];
+        for(int z = 0; z < 4; z++)
+            rgbt[z] = getNumber(group, COLOUR_KEYS[z], from, 0, null);
+        return rgbt;
+    }
+
+    private double toNumber(String value, String option, double missing){
+        try{
+            if(value != null)
+                return Double.valueOf(value);
+        }catch(NumberFormatException nfe){
+        }
+        tokens.error(option + " should give a number, " + missing + " is used");
+        return missing;
+    }
+
+    private int toInteger(String value, String option, int missing){
+        try{
+            if(value != null)
+                return Integer.valueOf(value);
+        }catch(NumberFormatException nfe){
+        }
+        tokens.error(option + " should give a whole number, " + missing + " is used");
+        return missing;
+    }
+
+    private static int indexOf(String[] names, String name){
+        for(int k = 0; k < names.length; k++){
+            if(names[k].compareTo(name) == 0)
+                return k;
+        }
+        return -1;
+    }
+
+}
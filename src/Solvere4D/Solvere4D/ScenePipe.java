@@ -0,0 +1,216 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * ScenePipe.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Reader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * This class reads a scene that is piped into Solvere4D on its standard input
+ * rather than kept in files, so that a program that makes the data can hand it
+ * straight over without writing any files. Solvere4D is run as
+ *
+ *      java Solvere4D.Solvere4D - < scene.pipe > scene.wrl
+ *
+ * and the animation is written to its standard output (every message goes to
+ * standard error instead), so that it can be compressed or sent on in the same
+ * pipeline.
+ *
+ * The stream is a list of blocks. Each block starts with a line that gives its
+ * kind, its name and the number of bytes that follow the line, separated by
+ * spaces, and is followed by exactly that many bytes:
+ *
+ *      scene airWalkHat.s4d 1234
+ *      ... the 1234 bytes of the *.s4d file ...
+ *      file HatPosOrien.dat 56789
+ *      ... the 56789 bytes of the data file ...
+ *      end
+ *
+ * There is one "scene" block, the *.s4d file, and a "file" block for every
+ * data, geometry or *.fr file that it refers to, named as it is in the *.s4d
+ * file. The blocks may come in any order, blank lines between them are
+ * skipped, and the stream ends with an "end" line or at the end of the input.
+ * A file the scene refers to that is not in the stream is read from disk, from
+ * the directory the scene is named in (the current directory for a plain
+ * name), so that geometry that never changes need not be piped every time.
+ *
+ * Text data files (compressed with gzip or not) and NumPy files can be piped;
+ * the other binary formats have to be read from disk (see
+ * DataReader.readContents).
+ *
+ * @author mjhmilla
+ */
+public class ScenePipe {
+
+    /** The argument that tells Solvere4D to read the scene from its input */
+    public static final String STDIN = "-";
+
+    private static final String SCENE = "scene";
+    private static final String FILE = "file";
+    private static final String END = "end";
+
+    private String sceneName;
+    private byte[] scene;
+    private ArrayList<String> fileNames;
+    private ArrayList<byte[]> fileContents;
+
+    private ScenePipe(){
+        fileNames = new ArrayList<String>();
+        fileContents = new ArrayList<byte[]>();
+    }
+
+    /**
+     * Reads every block of a piped scene.
+     *
+     * @param in : The stream, usually System.in
+     * @return The scene, or null if the stream is not a valid scene stream
+     */
+    public static ScenePipe read(InputStream in){
+        ScenePipe pipe = new ScenePipe();
+
+        try{
+            String header = readLine(in);
+            while(header != null){
+                header = header.trim();
+                if(header.length() == 0){
+                    header = readLine(in);
+                    continue;
+                }
+                if(header.compareTo(END) == 0)
+                    break;
+
+                int first = header.indexOf(' ');
+                int last = header.lastIndexOf(' ');
+                if(first == -1 || last == first){
+                    System.out.println("Error: \"" + header + "\" is not a block header of a piped scene, it should be \"kind name length\"");
+                    return null;
+                }
+                String kind = header.substring(0, first);
+                String name = header.substring(first + 1, last).trim();
+                long length;
+                try{
+                    length = Long.valueOf(header.substring(last + 1));
+                }catch(NumberFormatException nfe){
+                    length = -1;
+                }
+                if(length < 0 || length > Integer.MAX_VALUE - 8){
+                    System.out.println("Error: The length of the block " + name + " of the piped scene should be a number of bytes below 2 GB");
+                    return null;
+                }
+
+                byte[] contents = new byte[(int)length];
+                if(readFully(in, contents) < contents.length){
+                    System.out.println("Error: The piped scene ends in the middle of the block " + name);
+                    return null;
+                }
+
+                if(kind.compareTo(SCENE) == 0){
+                    if(pipe.scene != null)
+                        System.out.println("Error: The piped scene has more than one scene block, " + name + " is used");
+                    pipe.sceneName = name;
+                    pipe.scene = contents;
+                }else if(kind.compareTo(FILE) == 0){
+                    pipe.fileNames.add(name);
+                    pipe.fileContents.add(contents);
+                }else{
+                    System.out.println("Error: The piped scene has a block of unknown kind " + kind + ", it is skipped");
+                }
+                header = readLine(in);
+            }
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown in ScenePipe");
+            ioe.printStackTrace();
+            return null;
+        }
+
+        if(pipe.scene == null){
+            System.out.println("Error: The piped scene has no scene block");
+            return null;
+        }
+        return pipe;
+    }
+
+    /**
+     * @return The name of the *.s4d file, as it was given in its block
+     */
+    public String getSceneName(){
+        return sceneName;
+    }
+
+    /**
+     * @return The text of the *.s4d file
+     */
+    public Reader getSceneReader(){
+        return new InputStreamReader(new ByteArrayInputStream(scene), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gives every piped file to a loader, so that it is read from memory in
+     * place of the disk.
+     *
+     * @param loader   : The loader of the scene
+     * @param sceneDir : The directory of the *.s4d file, which the names of
+     *                   the files are relative to
+     */
+    public void addFilesTo(SceneLoader loader, File sceneDir){
+        for(int k = 0; k < fileNames.size(); k++)
+            loader.addFile(new File(sceneDir, fileNames.get(k)).getAbsolutePath(), fileContents.get(k));
+    }
+
+    /**
+     * @return The next line of in, without its line break, or null at the end
+     *         of in
+     */
+    private static String readLine(InputStream in) throws IOException{
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b = in.read();
+        if(b == -1)
+            return null;
+        while(b != -1 && b != '\n'){
+            if(b != '\r')
+                line.write(b);
+            b = in.read();
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The number of bytes read into buf, which is less than its
+     *         length only if in ended first
+     */
+    private static int readFully(InputStream in, byte[] buf) throws IOException{
+        int n = 0;
+        while(n < buf.length){
+            int k = in.read(buf, n, buf.length - n);
+            if(k == -1)
+                break;
+            n += k;
+        }
+        return n;
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * SceneTokenizer.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.BufferedReader;
+import java.io.Reader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * This class splits the text of a *.s4d file into lines, each line into its
+ * comma separated fields, and a field into tokens:
+ *
+ *      words           : f0, R0.5, normF=1000.0, sphere, ...
+ *      quoted strings  : "Ankle Torque"
+ *      groups          : everything between < and >, as a list of tokens
+ *
+ * A word is read as a key followed by a number, if it has one: "R0.5" has the
+ * key R and the value 0.5, "X-1" the key X and the value -1, "normF=1000.0"
+ * the key normF and the value 1000.0, and "sphere" the key sphere and no
+ * value. Commas inside a group or a quoted string do not split the field.
+ *
+ * Fields are trimmed and empty fields are dropped, as TextParser does. The
+ * file ends at the first empty line; everything after it is a comment.
+ *
+ * @author mjhmilla
+ */
+public class SceneTokenizer {
+
+    public static final int WORD = 0;
+    public static final int QUOTED = 1;
+    public static final int GROUP = 2;
+
+    /**
+     * A word, quoted string or group of a field.
+     */
+    public static final class Token {
+        private final int kind;
+        private final String text;
+        private final String key;
+        private final String value;
+        private final Token[] group;
+
+        private Token(int kind, String text, String key, String value, Token[] group){
+            this.kind = kind;
+            this.text = text;
+            this.key = key;
+            this.value = value;
+            this.group = group;
+        }
+
+        /**
+         * @return WORD, QUOTED or GROUP
+         */
+        public int getKind(){
+            return kind;
+        }
+
+        /**
+         * @return The text of a word, the text between the quotes of a quoted
+         *         string, or the text between the brackets of a group
+         */
+        public String getText(){
+            return text;
+        }
+
+        /**
+         * @return The part of a word in front of its number, without a
+         *         trailing '=', or null if this is not a word
+         */
+        public String getKey(){
+            return key;
+        }
+
+        /**
+         * @return The number of a word as it was written, or null if it has
+         *         none
+         */
+        public String getValue(){
+            return value;
+        }
+
+        /**
+         * @return The tokens of a group, or null if this is not a group
+         */
+        public Token[] getGroup(){
+            return group;
+        }
+    }
+
+    private BufferedReader reader;
+    private String name;
+    private int lineNumber;
+    private boolean finished;
+
+    /**
+     * @param reader : The text of the *.s4d file
+     * @param name   : The name of the *.s4d file, for messages
+     */
+    public SceneTokenizer(Reader reader, String name){
+        this.reader = new BufferedReader(reader);
+        this.name = name;
+    }
+
+    /**
+     * Reads the next line of the file.
+     *
+     * @return The fields of the line, which may be none at all, or null at the
+     *         end of the file
+     */
+    public String[] nextLine() throws IOException{
+        if(finished)
+            return null;
+
+        String line = reader.readLine();
+        if(line == null || line.length() == 0){
+            finished = true;
+            return null;
+        }
+        lineNumber++;
+
+        ArrayList<String> fields = new ArrayList<String>();
+        int start = 0;
+        int depth = 0;
+        boolean quoted = false;
+        for(int k = 0; k <= line.length(); k++){
+            char c = (k < line.length()) ? line.charAt(k) : ',';
+            if(c == '"')
+                quoted = !quoted;
+            else if(c == '<' && !quoted)
+                depth++;
+            else if(c == '>' && !quoted && depth > 0)
+                depth--;
+            else if(c == ',' && ((!quoted && depth == 0) || k == line.length())){
+                String field = line.substring(start, k).trim();
+                if(field.length() > 0)
+                    fields.add(field);
+                start = k + 1;
+            }
+        }
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * @return The number of the line that was read last, counted from 1
+     */
+    public int getLineNumber(){
+        return lineNumber;
+    }
+
+    /**
+     * Reports a problem with the line that was read last.
+     *
+     * @param message : What is wrong, and what is done about it
+     */
+    public void error(String message){
+        System.out.println("Error: Line " + lineNumber + " of " + name + ": " + message);
+    }
+
+    /**
+     * Splits a field of the line that was read last into tokens.
+     *
+     * @param field : A field returned by nextLine
+     * @return The tokens of the field
+     */
+    public Token[] tokenize(String field){
+        ArrayList<Token> tokens = new ArrayList<Token>();
+        tokenize(field, 0, false, tokens);
+        return tokens.toArray(new Token[tokens.size()]);
+    }
+
+    /**
+     * Reads tokens from field into tokens, starting at start, up to the end of
+     * the field or, inside a group, up to its closing '>'.
+     *
+     * @return The index of the closing '>', or the length of the field
+     */
+    private int tokenize(String field, int start, boolean inGroup, ArrayList<Token> tokens){
+        int k = start;
+        int len = field.length();
+
+        while(k < len){
+            char c = field.charAt(k);
+
+            if(Character.isWhitespace(c)){
+                k++;
+
+            }else if(c == '>'){
+                if(inGroup)
+                    return k;
+                error("the '>' in \"" + field + "\" has no '<', it is skipped");
+                k++;
+
+            }else if(c == '<'){
+                ArrayList<Token> group = new ArrayList<Token>();
+                int e = tokenize(field, k + 1, true, group);
+                if(e == len)
+                    error("the '<' of \"" + field + "\" is not closed by a '>'");
+                tokens.add(new Token(GROUP, field.substring(k + 1, e), null, null, group.toArray(new Token[group.size()])));
+                k = e + 1;
+
+            }else if(c == '"'){
+                int e = field.indexOf('"', k + 1);
+                if(e == -1){
+                    error("the quote in \"" + field + "\" is not closed");
+                    e = len;
+                }
+                tokens.add(new Token(QUOTED, field.substring(k + 1, e), null, null, null));
+                k = e + 1;
+
+            }else{
+                int e = k;
+                while(e < len && !Character.isWhitespace(field.charAt(e)) && "<>\"".indexOf(field.charAt(e)) == -1)
+                    e++;
+                tokens.add(makeWord(field.substring(k, e)));
+                k = e;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * @return A word, split into its key and its number
+     */
+    private static Token makeWord(String text){
+        int v = 0;
+        while(v < text.length() && "0123456789+-.".indexOf(text.charAt(v)) == -1)
+            v++;
+
+        String key = text.substring(0, v);
+        if(key.endsWith("="))
+            key = key.substring(0, key.length() - 1);
+        String value = (v < text.length()) ? text.substring(v) : null;
+        return new Token(WORD, text, key, value, null);
+    }
+
+}
@@ -23,8 +23,10 @@ package Solvere4D;
 
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
+import java.io.BufferedInputStream;
 
 import java.io.IOException;
 
@@ -46,6 +48,9 @@ import javax.swing.JLabel;
 import javax.swing.JCheckBox;
 
 import java.util.prefs.Preferences;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This is an open source software program that will take in VRML97 geometry,
@@ -58,7 +63,7 @@ import java.util.prefs.Preferences;
  * @author Matthew Millard
  * @version 1.0 - September 29, 2008
  */
-public strictfp class Solvere4D extends javax.swing.JFrame implements ActionListener {
+public strictfp class Solvere4D implements ActionListener {
     
     
     private static String packageName = "Solvere4D";
@@ -79,16 +84,26 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
     private double timeScaling; //The desired time scaling for the default play speed
     private double sizeScaling; //Not used. When implemented will scale everything - this allows extreme close ups
     private int downSampleFactor; //The degree in which to downsample the video data
+    private int downSampleOverride; //The down sample factor chosen in the GUI, or 0 to use that of the *.s4d file
+    private boolean float32Storage; //If true the data files are stored as float32 once read, to save memory
+    private boolean streamRows;     //If true the body, camera and force files are streamed into their elements rather than read into tables
+    private boolean timeWindow;     //If true only the rows between windowStart and windowEnd are read
+    private double windowStart;
+    private double windowEnd;
+    private double followInterval;  //If above 0, the data files are checked for new rows every followInterval seconds
+    private ArrayList<DataFollower> followers;  //The followers of the body, camera and force files
+    private DataFollower timeFollower;  //The follower of the first body's file, which sets the key frames
+    private TimeBase timeBase;      //The key frames of the animation
+    private boolean exportChannels; //If true the animated channels of the bodies, camera and forces are written to *.npy files
+    private ScenePipe pipe;         //The scene and its files, if they were piped in rather than read from disk
+    private FileOutputStream pipeOut;   //The standard output, which the animation is written to if the scene was piped in
+    private FragmentCache fragments;    //The sections of the last animation file, if only the changed ones are worked out again
     
     
     private ForceTorqueData[] ft;           //Force & Torque object array
     private BodyData[]      bodies;         //Object array for storing geometry and animated paths
-    private double[][]      partTransXYZ;   //Temporary arrays for storing XYZ(t) paths
-    private double[][]      partRotMAT;     //Temporary array for storing a row-wise rotation matrices
     
     private BodyData        cameraPath;     //The body data object for the camera path
-    private double[][]      cameraXYZ;      //Temporary array for the XYZ(t) pos of the camera
-    private double[][]      cameraRotMAT;   //Temporary array for the array of rotation matricies 
     
     private MarkerData[]    markerData; //Array of marker data objects
     private double[][] markerPos;   //Temporary array of marker positions
@@ -102,6 +117,7 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
     
     
     /**Animation Panel Variables*/
+    private JFrame frame;   //Only made if the GUI is shown, so that files can be written without a display
     private JPanel controlPanel;
     private Dimension       screenSize;
     private JPanel aniOptionPanel;
@@ -152,7 +168,9 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
      * GUI will popup that will allow the user to choose the appropriate *.sd4
      * file. If Solvere4D is called with a path to a *.sd4 file, that config
      * file will be loaded, and a *.wrl file with the appropriate extention 
-     * will be added in the same directory.
+     * will be added in the same directory. If Solvere4D is called with "-" the
+     * scene and its files are read from the standard input, and the animation
+     * is written to the standard output (see ScenePipe).
      */
     public Solvere4D(String[] args) {
         
@@ -164,7 +182,27 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
         backgroundColour[1] = 0;
         backgroundColour[2] = 0;
         
-        if (args.length != 0){
+        if (args.length != 0 && args[0].compareTo(ScenePipe.STDIN) == 0){
+            pipe = ScenePipe.read(new BufferedInputStream(System.in));
+            if(pipe != null){
+                rootFile = new File(pipe.getSceneName()).getAbsoluteFile();
+                readAnimationData(rootFile.getAbsolutePath());
+                
+                StringBuffer targetFile = new StringBuffer(rootFile.getName());
+                int extIdx = targetFile.indexOf(".");
+                if(extIdx != -1)
+                    targetFile.delete(extIdx,targetFile.length());
+                targetFile.append(".wrl");
+                
+                //The target name only chooses the format of the animation
+                pipeOut = new FileOutputStream(FileDescriptor.out);
+                if(aniTime != null && aniTime.length > 0)
+                    writeAnimationFile(targetFile.toString());
+                else
+                    System.out.println("Error: The piped scene has no rows of data, no animation is written");
+            }
+            
+        }else if (args.length != 0){
             rootFile = new File(args[0]);
             if(rootFile != null){
                 readAnimationData(rootFile.getAbsolutePath());
@@ -174,7 +212,12 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                 targetFile.delete(extIdx,targetFile.length());
                 targetFile.append(".wrl");
 
-                writeAnimationFile(targetFile.toString());
+                //A followed scene may not have any rows yet
+                if(followInterval == 0 || (aniTime != null && aniTime.length > 0))
+                    writeAnimationFile(targetFile.toString());
+                
+                if(followInterval > 0)
+                    followAnimationData(targetFile.toString());
            }
             
         }else{
@@ -184,10 +227,11 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
             screenSize =  java.awt.Toolkit.getDefaultToolkit().getScreenSize(); 
             screenSize.setSize(screenSize.getWidth()/1.5d,screenSize.getHeight()/5.0d);
 
-            setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-            setSize(screenSize);
-            setTitle("Solvere4D File Writer");
-            setVisible(true);
+            frame = new JFrame();
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            frame.setSize(screenSize);
+            frame.setTitle("Solvere4D File Writer");
+            frame.setVisible(true);
 
 
 
@@ -302,7 +346,7 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
             mainPanel.add(controlPanel,0);
 
 
-            setFocusable(true);
+            frame.setFocusable(true);
 
                 javax.swing.SwingUtilities.invokeLater(new Runnable() {
                 public void run() {
@@ -320,15 +364,15 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
      */
     private void showAnimation(JPanel panel){
         
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setSize(screenSize);
-        setTitle("Solvere4D Animation Script Writer");
-        setVisible(true);
-        getContentPane().add(panel);   
-        pack();
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.setSize(screenSize);
+        frame.setTitle("Solvere4D Animation Script Writer");
+        frame.setVisible(true);
+        frame.getContentPane().add(panel);   
+        frame.pack();
         //show();
-        setVisible(true);
-        repaint();
+        frame.setVisible(true);
+        frame.repaint();
 
     }
     
@@ -336,10 +380,14 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
      * @param args : A full path to the desired *.s4d configuration file, if no argument
      *               is passed in a simple gui is launched to help the user choose
      *               the configuration file that should be used to write the 
-     *               animation script (VRML in this case).
+     *               animation script (VRML in this case). If the argument is
+     *               "-" the scene is piped in, see ScenePipe.
      */
     public static void main(String[] args) {
         
+        //The standard output is kept for the animation of a piped scene
+        if(args.length != 0 && args[0].compareTo(ScenePipe.STDIN) == 0)
+            System.setOut(System.err);
         
         try {
             JFrame.setDefaultLookAndFeelDecorated(true);
@@ -380,7 +428,13 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
             temp = (Double)sizeSpinner.getValue();
             //sizeScaling = temp.doubleValue();
             Integer iTemp = (Integer)downSampleSpinner.getValue();
-            downSampleFactor = iTemp.intValue();
+            
+            //The data is down sampled as it is read, so it has to be read
+            //again if a different factor has been chosen
+            if(iTemp.intValue() != downSampleFactor){
+                downSampleOverride = iTemp.intValue();
+                readAnimationData(rootFile.getAbsolutePath());
+            }
             
             StringBuffer targetFile = new StringBuffer(rootFile.getAbsolutePath());
             int extIdx = targetFile.indexOf(".");
@@ -453,13 +507,22 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                 
         double maxTime = aniTime[aniTime.length-1]*timeScaling;
         
+        //The data files were read down sampled (see getReadOptions), so the
+        //"append ..." functions are asked to keep every row they are given.
+        
         try{
-            FileOutputStream fos = new FileOutputStream(targetFile); 
+            FileOutputStream fos = (pipeOut != null) ? pipeOut : new FileOutputStream(targetFile); 
             OutputStreamWriter out = new OutputStreamWriter(fos, "UTF-8"); 
             
             if(vrml_0_x3d_1 == 0){
                 
-                aniStrBuf = SolUtil.appendHeader(aniStrBuf, maxTime, backgroundColour, lightDirection, headlight);
+                if(fragments != null)
+                    fragments.setSignature("header", "header | " + maxTime + " " + Arrays.toString(backgroundColour)
+                            + " " + Arrays.toString(lightDirection) + " " + headlight);
+                if(!appendCached(aniStrBuf, "header")){
+                    aniStrBuf = SolUtil.appendHeader(aniStrBuf, maxTime, backgroundColour, lightDirection, headlight);
+                    keepFragment(aniStrBuf, "header", 0);
+                }
                 
                 String[] rbGeo = null;
                 String[] rbTrans = null;
@@ -468,6 +531,10 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                 String rbTag = null;
                 
                 for(int i = 0; i < bodies.length; i++){
+                    if(appendCached(aniStrBuf, "body " + i))
+                        continue;
+                    int start = aniStrBuf.length();
+                    
                     rbGeo = bodies[i].getGeometryText();
                     rbTrans = bodies[i].getTranslationText();
                     rbOrien = bodies[i].getOrientationText();
@@ -481,18 +548,22 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                     }
                     aniStrBuf.append('\n');
                     
-                    if(rbTrans != null) aniStrBuf = SolUtil.appendTranslationTag(aniStrBuf, rbTag, rbKeyFrame, rbTrans, downSampleFactor);
+                    if(rbTrans != null) aniStrBuf = SolUtil.appendTranslationTag(aniStrBuf, rbTag, rbKeyFrame, rbTrans, 1);
                     if(rbTrans != null) aniStrBuf = SolUtil.appendRouteTranslation(aniStrBuf,rbTag);
                     
-                    if(rbOrien != null) aniStrBuf = SolUtil.appendOrientationTag(aniStrBuf, rbTag, rbKeyFrame, rbOrien, downSampleFactor);
+                    if(rbOrien != null) aniStrBuf = SolUtil.appendOrientationTag(aniStrBuf, rbTag, rbKeyFrame, rbOrien, 1);
                     if(rbOrien != null) aniStrBuf = SolUtil.appendRouteRotation(aniStrBuf,rbTag);
                     
                     aniStrBuf.append('\n');
+                    keepFragment(aniStrBuf, "body " + i, start);
      
             }
                 
                 if(markerData != null){
                     for(int i=0; i < markerData.length; i++){
+                        if(appendCached(aniStrBuf, "marker " + i))
+                            continue;
+                        int start = aniStrBuf.length();
                         
                         float[][] mkrPos = markerData[i].getMarkerPos();
                         float[] mkrRGB = markerData[i].getMarkerRGB();
@@ -505,6 +576,7 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                     
                         aniStrBuf.append('\n');
                         aniStrBuf.append('\n');
+                        keepFragment(aniStrBuf, "marker " + i, start);
                     }
                 }
                  
@@ -532,6 +604,10 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                         boolean wireFrame = false;
                         
                         for(int i = 0; i < ft.length; i++){
+                            if(appendCached(aniStrBuf, "force " + i))
+                                continue;
+                            int start = aniStrBuf.length();
+                            
                             fGeo = ft[i].getForceGeometryText();
                             tGeo = ft[i].getTorqueGeometryText();
                             fTrans = ft[i].getForcePosText();
@@ -563,27 +639,27 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                                 aniStrBuf.append('\n');
                             }
                             
-                            if(fTrans != null) aniStrBuf = SolUtil.appendTranslationTag(aniStrBuf, fTag, ftKeyFrame, fTrans, downSampleFactor);
+                            if(fTrans != null) aniStrBuf = SolUtil.appendTranslationTag(aniStrBuf, fTag, ftKeyFrame, fTrans, 1);
                             if(fTrans != null) aniStrBuf = SolUtil.appendRouteTranslation(aniStrBuf,fTag);
-                            if(fOrien != null) aniStrBuf = SolUtil.appendOrientationTag(aniStrBuf, fTag, ftKeyFrame, fOrien, downSampleFactor);    
+                            if(fOrien != null) aniStrBuf = SolUtil.appendOrientationTag(aniStrBuf, fTag, ftKeyFrame, fOrien, 1);    
                             if(fOrien != null) aniStrBuf = SolUtil.appendRouteRotation(aniStrBuf,fTag);
                             aniStrBuf.append('\n');
                             
-                            if(tTrans != null) aniStrBuf = SolUtil.appendTranslationTag(aniStrBuf, tTag, ftKeyFrame, tTrans, downSampleFactor);
+                            if(tTrans != null) aniStrBuf = SolUtil.appendTranslationTag(aniStrBuf, tTag, ftKeyFrame, tTrans, 1);
                             if(tTrans != null) aniStrBuf = SolUtil.appendRouteTranslation(aniStrBuf,tTag);
-                            if(tOrien != null) aniStrBuf = SolUtil.appendOrientationTag(aniStrBuf, tTag, ftKeyFrame, tOrien, downSampleFactor);                         
+                            if(tOrien != null) aniStrBuf = SolUtil.appendOrientationTag(aniStrBuf, tTag, ftKeyFrame, tOrien, 1);                         
                             if(tOrien != null) aniStrBuf = SolUtil.appendRouteRotation(aniStrBuf,tTag);
                             aniStrBuf.append('\n');
                             
-                            if(fTrans != null) aniStrBuf = SolUtil.appendColourTag(aniStrBuf, fTag, ftKeyFrame, fColour, downSampleFactor);   
+                            if(fTrans != null) aniStrBuf = SolUtil.appendColourTag(aniStrBuf, fTag, ftKeyFrame, fColour, 1);   
                             if(fTrans != null) aniStrBuf = SolUtil.appendRouteColour(aniStrBuf, fTag);
-                            if(tTrans != null) aniStrBuf = SolUtil.appendColourTag(aniStrBuf, tTag, ftKeyFrame, tColour, downSampleFactor);
+                            if(tTrans != null) aniStrBuf = SolUtil.appendColourTag(aniStrBuf, tTag, ftKeyFrame, tColour, 1);
                             if(tTrans != null) aniStrBuf = SolUtil.appendRouteColour(aniStrBuf, tTag);
                             aniStrBuf.append('\n');
                             
-                            if(fTrans != null) aniStrBuf = SolUtil.appendScaleTag(aniStrBuf, fTag, ftKeyFrame, fScale, downSampleFactor);    
+                            if(fTrans != null) aniStrBuf = SolUtil.appendScaleTag(aniStrBuf, fTag, ftKeyFrame, fScale, 1);    
                             if(fTrans != null) aniStrBuf = SolUtil.appendRouteScale(aniStrBuf, fTag);
-                            if(tTrans != null) aniStrBuf = SolUtil.appendScaleTag(aniStrBuf, tTag, ftKeyFrame, tScale, downSampleFactor);
+                            if(tTrans != null) aniStrBuf = SolUtil.appendScaleTag(aniStrBuf, tTag, ftKeyFrame, tScale, 1);
                             if(tTrans != null) aniStrBuf = SolUtil.appendRouteScale(aniStrBuf, tTag);
                             aniStrBuf.append('\n');
                             aniStrBuf.append('\n');
@@ -596,7 +672,7 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                                 fpTag = fpTag + "_P";
                                 transparency = ft[i].getForceTransparencyText();
                                 wireFrame = ft[i].plotForceInWireFrame();
-                                if(fPlotTri != null) aniStrBuf = SolUtil.appendPlot(aniStrBuf, fpTag ,null,null,false, null,null,null, downSampleFactor, fPlotTri, fPlotColour,transparency, wireFrame);
+                                if(fPlotTri != null) aniStrBuf = SolUtil.appendPlot(aniStrBuf, fpTag ,null,null,false, null,null,null, 1, fPlotTri, fPlotColour,transparency, wireFrame);
                             }
                             
                             if(ft[i].plotTorqueHist()){
@@ -606,8 +682,9 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                                 tpTag = tpTag + "_P";
                                 transparency = ft[i].getTorqueTransparencyText();
                                 wireFrame = ft[i].plotTorqueInWireFrame();
-                                if(tPlotTri != null) aniStrBuf = SolUtil.appendPlot(aniStrBuf,tpTag, null,null,false, null,null,null, downSampleFactor, tPlotTri, tPlotColour, transparency, wireFrame);
+                                if(tPlotTri != null) aniStrBuf = SolUtil.appendPlot(aniStrBuf,tpTag, null,null,false, null,null,null, 1, tPlotTri, tPlotColour, transparency, wireFrame);
                             }
+                            keepFragment(aniStrBuf, "force " + i, start);
                     }       
                 
                 }
@@ -626,6 +703,9 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                     String[] mkrPos;
                     
                     for (int i = 0; i < plot3Ddata.length; i++){
+                        if(appendCached(aniStrBuf, "plot " + i))
+                            continue;
+                        int start = aniStrBuf.length();
                         
                         label   = plot3Ddata[i].getLabelText();
                         tag     = plot3Ddata[i].getTag();
@@ -639,7 +719,8 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                         mkrTime         = plot3Ddata[i].getKeyValues();
                         mkrPos          = plot3Ddata[i].getMarkerPositions();
                         //appendPlot(StringBuffer curBuf, String tag, String[] triPlotGeo, String[] vertexColour, String transparency, boolean wireFrame)
-                        SolUtil.appendPlot(aniStrBuf, tag, label, labelOpt, applyMkr, mkrOptions, mkrTime, mkrPos, downSampleFactor,data, rgb, transparency, wireFrame);
+                        SolUtil.appendPlot(aniStrBuf, tag, label, labelOpt, applyMkr, mkrOptions, mkrTime, mkrPos, 1,data, rgb, transparency, wireFrame);
+                        keepFragment(aniStrBuf, "plot " + i, start);
                     
                     } 
                 }
@@ -651,12 +732,17 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                         String[] sfVertexCnt = null;
                 
                     for(int i=0; i<stickFigures.length; i++){
+                        if(appendCached(aniStrBuf, "stick " + i))
+                            continue;
+                        int start = aniStrBuf.length();
+                        
                         tag = stickFigures[i].getTag();
                         sfRGB = stickFigures[i].getColourText();
                         sfData = stickFigures[i].getDataText();
                         sfVertexCnt = stickFigures[i].getVertexText();
                                                   
                         SolUtil.appendStickFigure(aniStrBuf, tag, sfRGB, sfData, sfVertexCnt);                        
+                        keepFragment(aniStrBuf, "stick " + i, start);
                     }
                     
                 }
@@ -670,13 +756,18 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                     String[] labelPos = null;
                     
                     for(int i=0; i< labels3D.length; i++){
+                        if(appendCached(aniStrBuf, "label " + i))
+                            continue;
+                        int start = aniStrBuf.length();
+                        
                         tag     = labels3D[i].getTag();
                         text    = labels3D[i].getLabelText();
                         scaling = labels3D[i].getLabelScaling();
                         rgb     = labels3D[i].getLabelColour();
                         labelTime   = labels3D[i].getLabelTime();
                         labelPos    = labels3D[i].getLabelPos();
-                        SolUtil.appendMovingLabel(aniStrBuf, tag, text, scaling, rgb, labelTime, labelPos, downSampleFactor);
+                        SolUtil.appendMovingLabel(aniStrBuf, tag, text, scaling, rgb, labelTime, labelPos, 1);
+                        keepFragment(aniStrBuf, "label " + i, start);
                     }
                     
                     //appendMovingLabel(StringBuffer curBuf, String tag, String text,
@@ -684,7 +775,8 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                 }
                 
                 //Navigation Information
-                if(cameraPath != null){
+                if(!appendCached(aniStrBuf, "camera") && cameraPath != null){
+                    int start = aniStrBuf.length();
                     String camTag = cameraPath.getTagName();
                     String camTTag = camTag + "_T";
                     String[] camKeyFrame = cameraPath.getKeyFrameText();
@@ -721,8 +813,8 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                     
                     
                     
-                    aniStrBuf = SolUtil.appendTranslationTag(aniStrBuf, camTag, camKeyFrame, camTrans, downSampleFactor);
-                    aniStrBuf = SolUtil.appendOrientationTag(aniStrBuf, camTag, camKeyFrame, camOrien, downSampleFactor);
+                    aniStrBuf = SolUtil.appendTranslationTag(aniStrBuf, camTag, camKeyFrame, camTrans, 1);
+                    aniStrBuf = SolUtil.appendOrientationTag(aniStrBuf, camTag, camKeyFrame, camOrien, 1);
                     
                     aniStrBuf.append('\n');
                     aniStrBuf.append('\n');    
@@ -750,9 +842,16 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
                         aniStrBuf.append(".translation");
                         aniStrBuf.append('\n');
                         aniStrBuf.append('\n');
+                    keepFragment(aniStrBuf, "camera", start);
                 }
                 
-                aniStrBuf = SolUtil.appendTimeControls(aniStrBuf, aniTime, timeScaling);
+                if(fragments != null)
+                    fragments.setSignature("time controls", "time controls | " + fragments.getSignature("time") + " " + timeScaling);
+                if(!appendCached(aniStrBuf, "time controls")){
+                    int start = aniStrBuf.length();
+                    aniStrBuf = SolUtil.appendTimeControls(aniStrBuf, aniTime, timeScaling);
+                    keepFragment(aniStrBuf, "time controls", start);
+                }
                 
             }
             
@@ -764,6 +863,13 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
             out.close();
             fos.close();
             
+            if(exportChannels)
+                exportChannelData();
+            
+            if(fragments != null){
+                System.out.println(fragments.numClean() + " unchanged sections of " + targetFile + " were copied from " + rootFile.getName() + FragmentCache.EXTENSION);
+                fragments.write();
+            }
             
         }catch(IOException ioe){
             System.out.println("IO exception thrown in DynaFlexAnimation class while writing text file");
@@ -786,577 +892,571 @@ public strictfp class Solvere4D extends javax.swing.JFrame implements ActionList
      */
     private void readAnimationData(String s4dFile){
         
-        //to be gotten by a pop up from the file menu in the future
-        TextParser pRootFile = new TextParser(s4dFile, ",",",");
+        Scene scene = (pipe != null) ? SceneParser.parse(pipe.getSceneReader(), rootFile.getName())
+                                     : SceneParser.parse(new File(s4dFile));
+        Scene.Options options = scene.getOptions();
         
+        float32Storage = options.isFloat32();
+        streamRows = options.isStreaming();
+        exportChannels = options.isExportNPY();
+        timeWindow = options.hasTimeWindow();
+        windowStart = options.getWindowStart();
+        windowEnd = options.getWindowEnd();
+        followInterval = options.getFollowInterval();
+        followers = new ArrayList<DataFollower>();
+        timeFollower = null;
+        timeBase = null;
         
-        String[][] aniFiles = pRootFile.getStringData();
-        String leafTagName = null;
-        int leafTagTempInt = 0;
+        lightDirection = options.getLightDirection();
+        headlight = options.isHeadlight();
+        timeScaling = options.getTimeScaling();
+        downSampleFactor = options.getDownSampling();
+        backgroundColour = options.getBackgroundColour();
         
-        int numBodies = 0;
-        int numForces = 0;
-        boolean bodyFlag = false;
-        boolean forceFlag = false;
+        if(followInterval > 0 && pipe != null){
+            System.out.println("Error: <follow> cannot be used with a piped scene, the files are not followed");
+            followInterval = 0;
+        }
         
-        lightDirection = null;
-        headlight = true;
-        timeScaling = 1.0;
-        downSampleFactor = 1;
-        backgroundColour = new double[3];
-        for(int z=0; z<3; z++)
-            backgroundColour[z] = 0.95;
+        if(downSampleOverride > 0)
+            downSampleFactor = downSampleOverride;
+        if(downSampleFactor < 1)
+            downSampleFactor = 1;
         
-        for(int i = 0; i < aniFiles.length; i++){
-            if(bodyFlag == true && aniFiles[i][0].compareTo("<\\bodyGEO>") != 0){
-                numBodies = numBodies+1;
-            }
-            
-            if(aniFiles[i][0].compareTo("<\\bodyGEO>") == 0){
-                bodyFlag = false;
-            }
-            
-            if(aniFiles[i][0].compareTo("<bodyGEO>")==0){
-                bodyFlag = true;
-            }
-            
-            if(forceFlag == true && aniFiles[i][0].compareTo("<\\forceTorque>") != 0){
-                numForces = numForces+1;
-            }
-            
-            if(aniFiles[i][0].compareTo("<\\forceTorque>") == 0){
-                forceFlag = false;
-            }
-            
-            if(aniFiles[i][0].compareTo("<forceTorque>")==0){
-                forceFlag = true;
+        //Only the sections whose files or options have changed since the
+        //animation was last written are worked out again (see FragmentCache)
+        fragments = null;
+        if(options.isIncremental()){
+            if(pipe != null || followInterval > 0 || exportChannels)
+                System.out.println("Warning: <incremental> cannot be used with a piped or followed scene or with <exportNPY>, the whole animation is written");
+            else{
+                fragments = FragmentCache.open(rootFile);
+                setSignatures(scene);
             }
         }
         
-        
         dataFile = null;
         
-        markerSize = new double[3];
-        
-        markerData = null;
-        TextParser aniData = null;
-        
-        partTransXYZ = null;
-        partRotMAT = null;
-        
-        double[][] fTTransXYZ = null;
-        double[][] fVector = null;
-        double[][] tVector = null;
-        double fNorm = 1;
-        double dNorm = 1;
-        double tNorm = 1;
-        
-        cameraXYZ = null;
-        cameraRotMAT = null;
-        
-        int rows = 0;
-        int cols = 0;
-        double[][] temp = null;
-        
-        int bodyCount = 0;
-        int fTCount = 0;
+        //Start reading every file the scene refers to in the background
+        SceneLoader loader = new SceneLoader();
+        loader.setUseCache(options.isParseCache());
+        loader.setOffHeap(options.getOffHeap());
+        try{
+            if(pipe != null)
+                pipe.addFilesTo(loader, rootFile.getParentFile());
+            requestSceneFiles(scene, loader);
         
-        bodies = new BodyData[numBodies];
+            ChannelData aniData = null;
         
-        if(numForces > 0)
-            ft = new ForceTorqueData[numForces];
-        else ft = null;
+            //The times of the first body are the key frames of the animation;
+            //every other element is keyed against them by its own times, so the
+            //bodies are made first wherever they are declared
+            List<Scene.Body> bodyEntries = scene.getBodies();
+            bodies = new BodyData[bodyEntries.size()];
+            for(int k = 0; k < bodies.length; k++){
+                if(isCached("body " + k))
+                    continue;
+                Scene.Body entry = bodyEntries.get(k);
+                dataFile = new File(getScenePath(entry.getGeometryFile()));
             
-           
-        cameraPath = null;
+                String[] frLines = null;
+                File frFile = new File(BodyData.getReplacementFileName(dataFile));
+                if(frFile.exists() || loader.hasFile(frFile.getAbsolutePath()))
+                    frLines = loader.getText(frFile.getAbsolutePath());
+            
+                bodies[k] = new BodyData(getTagName(entry.getFile()), dataFile, loader.getText(dataFile.getAbsolutePath()), frLines);
+                bodies[k].setTimeBase(timeBase);
+                bodies[k].setKeepChannels(exportChannels);
+                DataFollower follower = streamElementData(loader, getScenePath(entry.getFile()), getReadOptions("<bodyGEO>"), bodies[k]);
+            
+                if(timeBase == null){
+                    timeBase = new TimeBase(bodies[k].getTime());
+                    timeFollower = follower;
+                    setAnimationTime();
+                    if(fragments != null)
+                        fragments.setTimes(fragments.getSignature("time"), aniTime);
+                }
+            }
         
-        boolean timeRead = false;
-        boolean matricesSized = false;
+            //Nothing that is keyed against the times of the first body has changed
+            if(bodies.length > 0 && bodies[0] == null)
+                aniTime = fragments.getTimes(fragments.getSignature("time"));
         
-        int i = 0;
-        while(i < aniFiles.length){
-
-            if(aniFiles[i][0].compareTo("<timeScaling>") == 0){
-                    try{ 
-                        timeScaling = Double.valueOf(aniFiles[i][1]);
-                    
-                    }catch(NumberFormatException nfe){
-                        timeScaling = 1.0;
-                    }
-                        
+            cameraPath = null;
+            if(scene.getCamera() != null && !isCached("camera")){
+                Scene.Entry entry = scene.getCamera();
+                cameraPath = new BodyData(getTagName(entry.getFile()), null, null, null);
+                cameraPath.setTimeBase(timeBase);
+                cameraPath.setKeepChannels(exportChannels);
+                streamElementData(loader, getScenePath(entry.getFile()), getReadOptions("<camera>"), cameraPath);
             }
+        
+            List<Scene.Force> forceEntries = scene.getForces();
+            ft = (forceEntries.size() > 0) ? new ForceTorqueData[forceEntries.size()] : null;
+            for(int k = 0; k < forceEntries.size(); k++){
+                if(isCached("force " + k))
+                    continue;
+                Scene.Force entry = forceEntries.get(k);
+                File forceFile = new File("../../SolvereLibs/WRL_SYNTAX/lib_force.wrl");
+                File torqueFile = new File("../../SolvereLibs/WRL_SYNTAX/lib_torque.wrl");
             
-            if(aniFiles[i][0].compareTo("<sizeScaling>") == 0){
-                    try{ 
-                        sizeScaling = Double.valueOf(aniFiles[i][1]);
-                    
-                    }catch(NumberFormatException nfe){
-                        sizeScaling = 1.0;
-                    }
-                    sizeScaling = 1.0; //I have not gotten this to work just yet.
-                        
+                ft[k] = new ForceTorqueData(getTagName(entry.getFile()), forceFile, torqueFile, entry.getForceNorm(),
+                        entry.getTorqueNorm(), entry.getDistanceNorm(), entry.getPlotFlags(), entry.getPlotOptions());
+                ft[k].setTimeBase(timeBase);
+                ft[k].setKeepChannels(exportChannels);
+                streamElementData(loader, getScenePath(entry.getFile()), getReadOptions("<forceTorque>"), ft[k]);
             }
-            if(aniFiles[i][0].compareTo("<downSampling>") == 0){
-                    try{ 
-                        downSampleFactor = Integer.valueOf(aniFiles[i][1]);
-                    
-                    }catch(NumberFormatException nfe){
-                        downSampleFactor = 1;
-                    }
-                        
+        
+            List<Scene.MarkerSet> markerEntries = scene.getMarkers();
+            markerData = (markerEntries.size() > 0) ? new MarkerData[markerEntries.size()] : null;
+            for(int k = 0; k < markerEntries.size(); k++){
+                if(isCached("marker " + k))
+                    continue;
+                Scene.MarkerSet entry = markerEntries.get(k);
+                aniData = loader.getData(getScenePath(entry.getFile()), getReadOptions("<markers>"));
+                if(C3DFile.isC3DFile(DataReader.getFilePath(entry.getFile())))
+                    aniData = C3DFile.getMarkers(aniData, entry.getFrame(), entry.getFile());
+                checkData(aniData, entry.getFile(), false);
+                markerData[k] = new MarkerData(entry.getShape(), aniData, entry.getSize(), entry.getRGB(), entry.getTransparency());
             }
-            
-            if(aniFiles[i][0].compareTo("<backgroundColour>") == 0){
-                    String temp2 = aniFiles[i][1];
-                    int s = temp2.indexOf("<",0);
-                    int e = temp2.indexOf(">",0);
-                    temp2 = temp2.substring(s+1,e);
-                    double[] rgbt = new double[4];
-                    rgbt = SolUtil.parseRGBT(temp2, 0, temp2.length()-1,i+1);
-                    for(int z=0; z<3;z++)
-                        backgroundColour[z]=rgbt[z];
-                        
+        
+            List<Scene.Plot> plotEntries = scene.getPlots();
+            plot3Ddata = (plotEntries.size() > 0) ? new Plot3D[plotEntries.size()] : null;
+            for(int k = 0; k < plotEntries.size(); k++){
+                if(isCached("plot " + k))
+                    continue;
+                Scene.Plot entry = plotEntries.get(k);
+                aniData = loader.getData(getScenePath(entry.getFile()), getReadOptions("<plot3D>"));
+                checkData(aniData, entry.getFile(), true);
+                plot3Ddata[k] = new Plot3D(getTagName(entry.getFile()), aniData, entry.isWireFrame(), entry.getRGBT(),
+                        entry.getScale(), entry.getLabel(), entry.getLabelRGB(), entry.hasMarker(), entry.getMarkerRGB());
             }
-            
-            if(aniFiles[i][0].compareTo("<lightDirection>") == 0){
-                    String temp2 = aniFiles[i][1];
-                    int s = temp2.indexOf("<",0);
-                    int e = temp2.indexOf(">",0);
-                    temp2 = temp2.substring(s+1,e);
-                    lightDirection = new double[3];
-                    lightDirection[0] = SolUtil.parseNumber(temp2, "X", " ", 0, temp2.length()-2, i+1);
-                    lightDirection[1] = SolUtil.parseNumber(temp2, "Y", " ", 0, temp2.length()-2, i+1);
-                    lightDirection[2] = SolUtil.parseNumber(temp2, "Z", " ", 0, temp2.length()-1, i+1);
-                        
+        
+            List<Scene.Stick> stickEntries = scene.getStickFigures();
+            stickFigures = (stickEntries.size() > 0) ? new StickFigure[stickEntries.size()] : null;
+            for(int k = 0; k < stickEntries.size(); k++){
+                if(isCached("stick " + k))
+                    continue;
+                Scene.Stick entry = stickEntries.get(k);
+                aniData = loader.getData(getScenePath(entry.getFile()), getReadOptions("<stickFigures>"));
+                checkData(aniData, entry.getFile(), false);
+                stickFigures[k] = new StickFigure(getTagName(entry.getFile()), aniData, entry.getRGB());
             }
-            
-            if(aniFiles[i][0].compareTo("<headlight>") == 0){
-                    String temp2 = aniFiles[i][1];
-                    double tempD = 0;
-                    try{ 
-                        tempD = Integer.valueOf(aniFiles[i][1]);
-                    
-                    }catch(NumberFormatException nfe){
-                        tempD = 0;
-                    }
-                    
-                    if(tempD > 0.5){
-                        headlight = true;
-                    }else{
-                        headlight = false;
-                    }
-                        
+        
+            List<Scene.Label> labelEntries = scene.getLabels();
+            labels3D = (labelEntries.size() > 0) ? new Label3D[labelEntries.size()] : null;
+            for(int k = 0; k < labelEntries.size(); k++){
+                if(isCached("label " + k))
+                    continue;
+                Scene.Label entry = labelEntries.get(k);
+                aniData = loader.getData(getScenePath(entry.getFile()), getReadOptions("<movingLabels>"));
+                checkData(aniData, entry.getFile(), true);
+                labels3D[k] = new Label3D(getTagName(entry.getFile()), entry.getText(), entry.getScale(), entry.getRGB(), aniData);
             }
-            
-            if(aniFiles[i][0].compareTo("<bodyGEO>") == 0){
-                i = i+1;
-                while(aniFiles[i][0].compareTo("<\\bodyGEO>") != 0){
-                    aniData = new TextParser(rootFile.getParent()  + "\\"+ aniFiles[i][1], "\t", "\t");
-                    if(matricesSized == false){
-                        rows = aniData.numRows();
-                        cols = aniData.numCol();
-                        partTransXYZ = new double[rows][3];
-                        partRotMAT = new double[rows][9];
-                        aniTime = new double[rows];
-                        temp = new double[rows][cols];
-                        matricesSized = true;
-                    }
-
-                    temp = aniData.getDoubleData();
-
-                    for(int r = 0; r < rows; r++){
-                        partTransXYZ[r][0] = temp[r][1];
-                        partTransXYZ[r][1] = temp[r][2];
-                        partTransXYZ[r][2] = temp[r][3];
-
-                        partRotMAT[r][0] = temp[r][4];
-                        partRotMAT[r][1] = temp[r][5];
-                        partRotMAT[r][2] = temp[r][6];
-                        partRotMAT[r][3] = temp[r][7];
-                        partRotMAT[r][4] = temp[r][8];
-                        partRotMAT[r][5] = temp[r][9];
-                        partRotMAT[r][6] = temp[r][10];
-                        partRotMAT[r][7] = temp[r][11];
-                        partRotMAT[r][8] = temp[r][12];
-                    }
-
-                    if(timeRead == false){
-                        for( int r = 0; r < rows; r++){
-                            aniTime[r] = temp[r][0];
-                        }
-                        timeRead = true;
-                    }
-                    dataFile = new File(rootFile.getParent()  + "\\"+ aniFiles[i][0]);
-                    
-                    leafTagTempInt = aniFiles[i][1].indexOf(".");
-                    leafTagName = new String(aniFiles[i][1].substring(0,leafTagTempInt));
-                    bodies[bodyCount] = new BodyData(leafTagName,dataFile, partTransXYZ,partRotMAT, (int)downSampleFactor);
-                    bodyCount++;
-                    i++;
-                }
-            
-           }
-            
-            
-            
-           if(aniFiles[i][0].compareTo("<camera>") == 0 ){
-                
-                i = i+1;
-                cameraXYZ = new double[rows][3];
-                cameraRotMAT = new double[rows][9];
-                temp = new double[rows][cols];
-                
-                aniData = new TextParser(rootFile.getParent()  + "\\"+ aniFiles[i][0],"\t","\t");
-                temp = aniData.getDoubleData();
-                
-                for(int r = 0; r < rows; r++){
-                        cameraXYZ[r][0] = temp[r][1];
-                        cameraXYZ[r][1] = temp[r][2];
-                        cameraXYZ[r][2] = temp[r][3];
-
-                        cameraRotMAT[r][0] = temp[r][4];
-                        cameraRotMAT[r][1] = temp[r][5];
-                        cameraRotMAT[r][2] = temp[r][6];
-                        cameraRotMAT[r][3] = temp[r][7];
-                        cameraRotMAT[r][4] = temp[r][8];
-                        cameraRotMAT[r][5] = temp[r][9];
-                        cameraRotMAT[r][6] = temp[r][10];
-                        cameraRotMAT[r][7] = temp[r][11];
-                        cameraRotMAT[r][8] = temp[r][12];
-                    }
-                
-                leafTagTempInt = aniFiles[i][0].indexOf(".");
-                leafTagName = new String(aniFiles[i][0].substring(0,leafTagTempInt));
-                
-                cameraPath = new BodyData(leafTagName,null, cameraXYZ, cameraRotMAT, downSampleFactor);
-                
-           }
-            
-            
-            if(aniFiles[i][0].compareTo("<forceTorque>") == 0){
-                String temp2;      
-                temp2 = aniFiles[i][1];
-                int p;
-                int q;
-                
-                
-                
-                fNorm = SolUtil.parseNumber(temp2,"normF="," ",0,temp2.length()-1,i+1);
-                    if(fNorm == Double.NaN) fNorm = 1;
-
-                tNorm = SolUtil.parseNumber(temp2,"normT="," ",0,temp2.length()-1,i+1);
-                    if(tNorm == Double.NaN) tNorm = 1;
-
-                dNorm = SolUtil.parseNumber(temp2,"normD="," ",0,temp2.length(),i+1);
-                    if(dNorm == Double.NaN) dNorm = 1;
-
-                i = i+1;
-                matricesSized = false;
-                boolean[] plotFlags = new boolean[6];
-                double[] plotOptions = new double[8];
-                double[] rgbt = new double[3];
-                int s = 0;
-                int e = 0;
-                
-                while(aniFiles[i][0].compareTo("<\\forceTorque>") != 0){
-                    aniData = new TextParser(rootFile.getParent()  + "\\"+ aniFiles[i][0], "\t", "\t");
-
-                    for(int z = 0; z < plotFlags.length; z++)
-                        plotFlags[z]=false;
-                    for(int z = 0; z < plotOptions.length; z++)
-                        plotOptions[z]=0;
-                    
-                    //Parse force history plot data
-                    temp2 = aniFiles[i][1];
-
-                    s = temp2.indexOf("<",0);
-                    e = temp2.indexOf(">",0);
-                    if(SolUtil.parseNumber(temp2,"f"," ",s,e,i+1) == 1){ 
-                        plotFlags[0] = true;
-                        if(SolUtil.parseNumber(temp2,"w"," ",s,e,i+1) == 1) 
-                            plotFlags[1] = true;
-                        if(SolUtil.parseNumber(temp2,"c"," ",s,e,i+1) == 1){ 
-                            plotFlags[2] = true;
-                            rgbt = SolUtil.parseRGBT(temp2,s,e,i+1);
-                            for(int z = 0; z <4; z++)
-                                plotOptions[z]=rgbt[z];
-                        }
-                     }
-                    
-                    s = temp2.indexOf("<",e);
-                    e = temp2.indexOf(">",s);
-                    if(SolUtil.parseNumber(temp2,"t"," ",s,e,i+1) == 1){ 
-                        plotFlags[3] = true;
-                        if(SolUtil.parseNumber(temp2,"w"," ",s,e,i+1) == 1) 
-                            plotFlags[4] = true;
-                        if(SolUtil.parseNumber(temp2,"c"," ",s,e,i+1) == 1){ 
-                            plotFlags[5] = true;
-                            rgbt = SolUtil.parseRGBT(temp2,s,e,i+1);
-                            for(int z = 0; z <4; z++)
-                                plotOptions[z+4]=rgbt[z];
-                        }
-                     }
-                    
-                    
-                    if(matricesSized == false){
-                        rows = aniData.numRows();
-                        cols = aniData.numCol();
-                        fTTransXYZ = new double[rows][3];
-                        fVector = new double[rows][3];
-                        tVector = new double[rows][3];
-                        temp = new double[rows][cols];        
-                        matricesSized = true;
-                    }
-
-                    temp = aniData.getDoubleData();
-
-                    for(int r = 0; r < rows; r++){
-                        fTTransXYZ[r][0] = temp[r][1];
-                        fTTransXYZ[r][1] = temp[r][2];
-                        fTTransXYZ[r][2] = temp[r][3];
-
-                        fVector[r][0] = temp[r][4];
-                        fVector[r][1] = temp[r][5];
-                        fVector[r][2] = temp[r][6];
-                        
-                        tVector[r][0] = temp[r][7];
-                        tVector[r][1] = temp[r][8];
-                        tVector[r][2] = temp[r][9];
-                    }
-
-                    File forceFile = new File("../../SolvereLibs/WRL_SYNTAX/lib_force.wrl");
-                    File torqueFile = new File("../../SolvereLibs/WRL_SYNTAX/lib_torque.wrl");
-                    
-                    leafTagTempInt = aniFiles[i][0].indexOf(".");
-                    leafTagName = new String(aniFiles[i][0].substring(0,leafTagTempInt));
-                    ft[fTCount] = new ForceTorqueData(leafTagName, forceFile,torqueFile,fTTransXYZ,fVector,tVector, fNorm, tNorm, dNorm, plotFlags,plotOptions, downSampleFactor);
-                    fTCount++;
-                    i++;
-                }
-            
-           }
-            
-            if(aniFiles[i][0].compareTo("<markers>") == 0){
-                int j = i+1;
-                int numMarkerSets = 0;
-                while(aniFiles[j][0].compareTo("<\\markers>") != 0){
-                    numMarkerSets++;
-                    j++;
-                }
-                
-                markerData = new MarkerData[numMarkerSets];
-                for(int k = 0; k < numMarkerSets; k++){
-                        i = i+1;
-                        temp = null;
-                        String markerProp = aniFiles[i][1];
-                        aniData = new TextParser(rootFile.getParent() + "\\" + aniFiles[i][0],"\t","\t");
-                        markerPos = aniData.getDoubleData();
-                        markerRGB = new double[3];
-
-                        int s = markerProp.indexOf("<",0);
-                        int e = markerProp.indexOf(">",0);
-                        markerProp = markerProp.substring(s+1,e);
-                        s=0;
-                        e=markerProp.length();
-                        
-                        String tempProp = "";
-                        Double tempPropD = null;
-                        int markerShape = 0;
-
-                        int p = markerProp.indexOf("sphere");
-                        int q = markerProp.indexOf("cylinder");
-                        int r = markerProp.indexOf("cone");
-                        s = markerProp.indexOf("box");
-
-                        if(p != -1) markerShape = MarkerData.SHAPE_SPHERE;
-                        if(q != -1) markerShape = MarkerData.SHAPE_CYLINDER;
-                        if(r != -1) markerShape = MarkerData.SHAPE_CONE;
-                        if(s != -1) markerShape = MarkerData.SHAPE_BOX;
-
-                        markerSize[0] = 0.1;
-                        markerSize[1] = 0.1;
-                        markerSize[2] = 0.1;
-
-                        
-                        s = 0;
-                        e = markerProp.length();
-                        if(markerShape != MarkerData.SHAPE_BOX){
-                            markerSize[0] = SolUtil.parseNumber(markerProp," r"," ",s,e-1,i+1);
-                            if(markerShape != MarkerData.SHAPE_SPHERE)
-                                markerSize[1] = SolUtil.parseNumber(markerProp," h"," ",s,e-1,i+1);
-                        }else{
-                            markerSize[0] = SolUtil.parseNumber(markerProp," x"," ",s,e-1,i+1);
-                            markerSize[1] = SolUtil.parseNumber(markerProp," y"," ",s,e-1,i+1);
-                            markerSize[2] = SolUtil.parseNumber(markerProp," z"," ",s,e-1,i+1);
-                        }
-                        
-                        String tempRGB = markerProp.substring(markerProp.indexOf("R"), e);
-                        double[] tempRGBT = SolUtil.parseRGBT(tempRGB,0,tempRGB.length(),i+1);
-                        
-                        for(int z=0; z<3; z++)
-                            markerRGB[z] = tempRGBT[z];
-
-                        markerTrans = tempRGBT[3];
+        }finally{
+            loader.shutdown();
+        }
 
-                        markerData[k] = new MarkerData(markerShape,markerPos,markerSize,markerRGB,markerTrans);
-                }
+     
+        //Here we write the code to write the *.x3d or *.x3dv file
+        //If geometry files are x3d write x3d? If they are vrml, write .x3dv?       
+        
+    }
+    
+    /**
+     * Sets aniTime, the times of the key frames of the animation, from the
+     * times of the first body.
+     */
+    private void setAnimationTime(){
+        ChannelData time = bodies[0].getTime();
+        int rows = time.numRows();
+        aniTime = new double[rows];
+        for( int r = 0; r < rows; r++){
+            aniTime[r] = time.get(r, 0);
+        }
+        //A window is played from its start
+        if(timeWindow){
+            for( int r = rows-1; r >= 0; r--)
+                aniTime[r] = aniTime[r] - aniTime[0];
+        }
+    }
+    
+    /**
+     * Reads a body, camera or force file into its element. When the scene is
+     * followed (see followAnimationData) the file is read through a
+     * DataFollower, which is kept so that the rows written to the file later
+     * on can be read as well.
+     * 
+     * @param loader            : The loader of the scene
+     * @param absoluteFilePath  : The complete file path of the data file
+     * @param options           : The part of the file that the element uses
+     * @param element           : The element made from the file
+     * @return The follower of the file, or null if it is not followed
+     */
+    private DataFollower streamElementData(SceneLoader loader, String absoluteFilePath, ReadOptions options, RowConsumer element){
+        if(followInterval > 0 && DataFollower.canFollow(absoluteFilePath)){
+            DataFollower follower = new DataFollower(absoluteFilePath, options, element, timeBase);
+            follower.update();
+            element.finish();
+            followers.add(follower);
+            return follower;
+        }
+        
+        loader.streamData(absoluteFilePath, options, element);
+        return null;
+    }
+    
+    /**
+     * Reads the rows that have been written to the followed data files since
+     * they were last read. The first body's file is read first, since its
+     * times are the key frames that the other elements are keyed against.
+     * When it has grown the keys of every element are worked out again, and
+     * otherwise only those of the elements whose files have grown.
+     * 
+     * @return true if any element has changed
+     */
+    private boolean updateAnimationData(){
+        boolean keyFramesAdded = false;
+        if(timeFollower != null && timeFollower.update()){
+            timeBase.update(bodies[0].getTime());
+            setAnimationTime();
+            keyFramesAdded = true;
+        }
+        
+        boolean changed = keyFramesAdded;
+        for(int k = 0; k < followers.size(); k++){
+            DataFollower follower = followers.get(k);
+            if(follower == timeFollower)
+                continue;
+            if(follower.update() && !keyFramesAdded){
+                follower.getConsumer().finish();
+                changed = true;
             }
-            
-            if(aniFiles[i][0].compareTo("<plot3D>") == 0){
-                int j = i+1;
-                    int numPlotSets = 0;
-                    while(aniFiles[j][0].compareTo("<\\plot3D>") != 0){
-                        numPlotSets++;
-                        j++;
-                    }
-                    plot3Ddata = new Plot3D[numPlotSets];
-                    
-                    double[][] plotData;
-                    double[] plotOptions = new double[4];
-                    double[] rgbt;
-                    boolean plotFlags = false;
-                    
-                    String tag;
-                    String plotLabel;
-                    int s=0;
-                    int e=0;
-                    
-                for(int k=0; k < numPlotSets; k++){
-                    i=i+1;
-                    String temp2  = aniFiles[i][1];
-                    aniData = new TextParser(rootFile.getParent() + "\\" + aniFiles[i][0],"\t","\t");
-                    plotData = aniData.getDoubleData();
-
-                    s = temp2.indexOf("<",0);
-                    e = temp2.indexOf(">",0);
-                    temp2 = temp2.substring(s+1,e);
-                    s=0;
-                    e=temp2.length();
-                   
-                    if( SolUtil.parseNumber(temp2,"w"," ",s,e,i+1) == 1){ 
-                        plotFlags = true;
-                    }
-                           
-                    rgbt = SolUtil.parseRGBT(temp2,s,e-1,i+1);
-                    for(int z = 0; z <4; z++)
-                        plotOptions[z]=rgbt[z];
-                   
-                    double scale = SolUtil.parseNumber(temp2," s"," ",s,temp2.length(), i+1);
-                    boolean addMarker=false;
-                    double[] markerOptions = new double[3];
-                    if(SolUtil.parseNumber(temp2," m"," ",s,temp2.length(), i+1) > 0.5){
-                        addMarker=true;
-                        double[] tempRGBT = SolUtil.parseRGBT(temp2,temp2.indexOf(" m"), temp2.indexOf("\""),i+1); 
-                        for(int z=0; z<3; z++)
-                            markerOptions[z] = tempRGBT[z];
-                    }
-                    
-                    s = temp2.indexOf("\"",s);
-                    e = temp2.indexOf("\"", s+1);
-                    if(s != -1 && e != -1) plotLabel = temp2.substring(s+1, e);
-                    else plotLabel = null;
-                    
-                    //(String tag, double[][] data, boolean wireFrame, double[] plotOptions, String label)
-                    double[] labelOptions = new double[3];
-                    
-                    if(plotLabel != null){
-                        double[] tempRGBT =  SolUtil.parseRGBT(temp2,e, temp2.length(), i+1); 
-                        for(int z=0; z<3; z++)
-                            labelOptions[z] = tempRGBT[z];
-                    }
-                    
-                    
-                    
-                    tag = aniFiles[i][0].substring(0, aniFiles[i][0].indexOf("."));
-                    plot3Ddata[k] = new Plot3D(tag, plotData, plotFlags, plotOptions, scale,plotLabel, labelOptions, addMarker, markerOptions);
-                    
-                }
-                    
+        }
+        
+        if(keyFramesAdded){
+            for(int k = 0; k < bodies.length; k++)
+                bodies[k].finish();
+            if(cameraPath != null)
+                cameraPath.finish();
+            if(ft != null){
+                for(int k = 0; k < ft.length; k++)
+                    ft[k].finish();
             }
-            
-            if(aniFiles[i][0].compareTo("<stickFigures>") == 0){
-                int j = i+1;
-                int numStickSets = 0;
-                while(aniFiles[j][0].compareTo("<\\stickFigures>") != 0){
-                    numStickSets++;
-                    j++;
-                }
-                stickFigures = new StickFigure[numStickSets];
-
-                double[][] stickData;
-                double[] stickOptions = new double[3];
-                
-                
-                for(int k=0; k < numStickSets; k++){
-                    i=i+1;
-                    String temp2  = aniFiles[i][1];
-                    aniData = new TextParser(rootFile.getParent() + "\\" + aniFiles[i][0],"\t","\t");
-                    stickData = aniData.getDoubleData();
-                    temp2 = aniFiles[i][1];
-                    int s = temp2.indexOf("<",0);
-                    int e = temp2.indexOf(">",0);
-                    temp2 = temp2.substring(s+1,e);
-                    
-                    double[] rgbtemp = SolUtil.parseRGBT(temp2,0,temp2.length(),i+1);
-                    for(int z=0; z<3; z++) 
-                        stickOptions[z] = rgbtemp[z]; 
-                    String tag = aniFiles[i][0].substring(0, aniFiles[i][0].indexOf("."));
-                    stickFigures[k] = new StickFigure(tag, stickData, stickOptions);
-                    
-                }     
+        }
+        
+        return changed;
+    }
+    
+    /**
+     * Keeps the animation file up to date with data files that a simulation
+     * is still writing. Every followInterval seconds the rows that have been
+     * added to the body, camera and force files are read, and if there were
+     * any the animation file is written again. Only the new rows are parsed
+     * and turned into text; the text of the earlier rows is kept. The file is
+     * written under a temporary name and then renamed, so that a viewer that
+     * reloads it never sees half of it. This carries on until the program is
+     * stopped.
+     * 
+     * @param targetFile : The full path of the target animation file (VRML file)
+     */
+    private void followAnimationData(String targetFile){
+        System.out.println("Following the data files of " + rootFile.getName() + ", stop the program to finish");
+        File target = new File(targetFile);
+        File temp = new File(targetFile + ".tmp");
+        
+        while(true){
+            try{
+                Thread.sleep((long)(1000*followInterval));
+            }catch(InterruptedException ie){
+                return;
             }
             
-            if(aniFiles[i][0].compareTo("<movingLabels>") == 0){
-                int j = i+1;
-                int numLabels = 0;
-                while(aniFiles[j][0].compareTo("<\\movingLabels>") != 0){
-                    numLabels++;
-                    j++;
-                }
-                labels3D = new Label3D[numLabels];
-                
-                String tag = null;
-                String text = null;
-                double scaling = 0;
-                double[] rgb = new double[3];
-                double[][] data = null;
-                int s = 0;
-                int e = 0;
-                
-                for(int k=0; k<numLabels; k++){
-                    i=i+1;
-                    
-                    aniData = new TextParser(rootFile.getParent() + "\\" + aniFiles[i][0],"\t","\t");
-                    data = aniData.getDoubleData();
-                    String temp2 = aniFiles[i][1];
-                    s = temp2.indexOf("<",0);
-                    e = temp2.indexOf(">",0);
-                    temp2 = temp2.substring(s+1,e);
-                    
-                    tag = aniFiles[i][0].substring(0, aniFiles[i][0].indexOf("."));
-                    s = temp2.indexOf("\"");
-                    e = temp2.indexOf("\"",s+1);
-                    text = temp2.substring(s+1, e);
-                    scaling = SolUtil.parseNumber(temp2," s"," ", e, temp2.length()-1, i+1);
-                    double[] rgbtemp = SolUtil.parseRGBT(temp2,e,temp2.length()-1, i+1);
-                    for(int z=0; z<3; z++) 
-                        rgb[z] = rgbtemp[z];
-                    
-                    labels3D[k] = new Label3D(tag, text, scaling, rgb, data);
-                }
-            
+            if(updateAnimationData() && aniTime.length > 0){
+                writeAnimationFile(temp.getAbsolutePath());
+                if(target.exists())
+                    target.delete();
+                if(!temp.renameTo(target))
+                    System.out.println("Error: " + temp.getAbsolutePath() + " could not be renamed to " + targetFile);
             }
+        }
+    }
+    
+   
+    /**
+     * Writes the channels that are animated for every body, the camera and
+     * every force (see BodyData.getChannels and ForceTorqueData.getChannels)
+     * to *.npy files next to the *.s4d file, so that they can be analysed
+     * without being worked out again. The channels of the body "HatPosOrien"
+     * of "airWalkHat.s4d" are written to "airWalkHat_HatPosOrien.npy".
+     */
+    private void exportChannelData(){
+        String base = rootFile.getAbsolutePath();
+        base = base.substring(0, base.lastIndexOf(".")) + "_";
+        
+        for(int i = 0; i < bodies.length; i++){
+            if(bodies[i] != null && bodies[i].getChannels() != null)
+                NPYFile.write(new File(base + bodies[i].getTagName() + NPYFile.EXTENSION), bodies[i].getChannels());
+        }
+        if(cameraPath != null && cameraPath.getChannels() != null)
+            NPYFile.write(new File(base + cameraPath.getTagName() + NPYFile.EXTENSION), cameraPath.getChannels());
+        for(int i = 0; ft != null && i < ft.length; i++){
+            if(ft[i] != null && ft[i].getChannels() != null)
+                NPYFile.write(new File(base + ft[i].getTagName() + NPYFile.EXTENSION), ft[i].getChannels());
+        }
+    }
+    
+    /**
+     * @param fileName : The name of a file as it is written in the *.s4d file
+     * @return The complete path of the file, which is in the same directory as
+     *         the *.s4d file
+     */
+    private String getScenePath(String fileName){
+        return new File(rootFile.getParent(), fileName).getAbsolutePath();
+    }
+    
+    /**
+     * @param blockTag : The tag of the block of the *.s4d file that a data
+     *                   file is listed in, for example "<bodyGEO>"
+     * @return The part of the data file that the element made from it uses, so
+     *         that the readers can skip the rest
+     */
+    private ReadOptions getReadOptions(String blockTag){
+        ReadOptions options = new ReadOptions();
+        
+        if(blockTag.compareTo("<bodyGEO>") == 0 || blockTag.compareTo("<camera>") == 0)
+            options = ReadOptions.firstColumns(13);    //time, X, Y, Z, rotation matrix
+        if(blockTag.compareTo("<forceTorque>") == 0)
+            options = ReadOptions.firstColumns(10);    //time, position, force, torque
+        if(blockTag.compareTo("<plot3D>") == 0)
+            options = ReadOptions.firstColumns(7);     //time, two axes
+        if(blockTag.compareTo("<movingLabels>") == 0)
+            options = ReadOptions.firstColumns(4);     //time, X, Y, Z
+        
+        //Every element that changes with time is down sampled here, and only
+        //here; markers are static and keep all of their rows, and stick
+        //figures have always kept theirs
+        if(blockTag.compareTo("<markers>") != 0 && blockTag.compareTo("<stickFigures>") != 0)
+            options.setStride(downSampleFactor);
+        if(timeWindow && blockTag.compareTo("<markers>") != 0)
+            options.setTimeWindow(windowStart, windowEnd);
+        options.setFloat32(float32Storage);
+        
+        return options;
+    }
+    
+    /**
+     * Warns the user about data that will not animate properly, using the
+     * summary of the columns that was gathered while the file was read.
+     *
+     * @param data      : The table read from the file
+     * @param fileName  : The name of the file as it is written in the *.s4d file
+     * @param timeKeyed : true if the keys of the element are its times divided
+     *                    by its last time (plots and moving labels)
+     */
+    private void checkData(ChannelData data, String fileName, boolean timeKeyed){
+        ColumnStats stats = data.getStats();
+        
+        if(stats.getNaNCount() > 0)
+            System.out.println("Warning: " + fileName + " has " + stats.getNaNCount() + " values that are not numbers");
+        
+        if(timeKeyed && stats.numRows() > 0){
+            if(!(stats.getLastTime() > 0))
+                System.out.println("Warning: The last time in " + fileName + " is not greater than 0, so it cannot be animated");
+            else if(!stats.isTimeIncreasing())
+                System.out.println("Warning: The times in " + fileName + " do not increase from row to row");
+        }
+    }
+    
+    /**
+     * @param fileName : The name of a data file as it is written in the *.s4d
+     *                   file, possibly followed by channel names in braces
+     *                   or a column group in square brackets
+     * @return The name used to DEF the nodes made from the file: the file name
+     *         without its extension, followed by the channel names or the
+     *         column group, if any
+     */
+    private String getTagName(String fileName){
+        String tag = fileName.substring(0, fileName.indexOf("."));
+        
+        String[] selection = DataReader.getSelection(fileName);
+        if(selection != null){
+            for(int k = 0; k < selection.length; k++)
+                tag = tag + "_" + selection[k].replaceAll("[^A-Za-z0-9_]", "_");
+        }
+        
+        //Elements made from different columns of one file need their own names
+        int s = fileName.indexOf("[");
+        if(s != -1 && DataReader.getColumnGroup(fileName) != null){
+            int e = fileName.indexOf("]", s);
+            if(e == -1)
+                e = fileName.length();
+            tag = tag + "_" + fileName.substring(s+1, e).trim().replaceAll("[^A-Za-z0-9_]+", "_");
+        }
+        return tag;
+    }
+    
+    /**
+     * This function goes through the entries of the scene in the same order 
+     * that readAnimationData makes its elements, and asks the loader to start
+     * reading every data file, geometry file and geometry replacement (*.fr)
+     * file that will be needed. When the scene is streamed or followed the
+     * body, camera and force files are left out, since they are read row by
+     * row as their elements are made.
+     * 
+     * @param scene     : The parsed *.s4d file
+     * @param loader    : The loader that will read the files
+     */
+    private void requestSceneFiles(Scene scene, SceneLoader loader){
+        //Streamed files are read as their elements are made
+        boolean streamed = streamRows || followInterval > 0;
+        
+        List<Scene.Body> bodyEntries = scene.getBodies();
+        for(int k = 0; k < bodyEntries.size(); k++){
+            if(isCached("body " + k))
+                continue;
+            Scene.Body entry = bodyEntries.get(k);
+            if(!streamed)
+                loader.requestData(getScenePath(entry.getFile()), getReadOptions("<bodyGEO>"));
             
-            i = i+1;
-            
+            File geoFile = new File(getScenePath(entry.getGeometryFile()));
+            loader.requestText(geoFile.getAbsolutePath());
+            File frFile = new File(BodyData.getReplacementFileName(geoFile));
+            if(frFile.exists() || loader.hasFile(frFile.getAbsolutePath()))
+                loader.requestText(frFile.getAbsolutePath());
         }
-
-     
-        //Here we write the code to write the *.x3d or *.x3dv file
-        //If geometry files are x3d write x3d? If they are vrml, write .x3dv?       
         
+        if(scene.getCamera() != null && !streamed && !isCached("camera"))
+            loader.requestData(getScenePath(scene.getCamera().getFile()), getReadOptions("<camera>"));
+        
+        for(int k = 0; k < scene.getForces().size() && !streamed; k++){
+            if(!isCached("force " + k))
+                loader.requestData(getScenePath(scene.getForces().get(k).getFile()), getReadOptions("<forceTorque>"));
+        }
+        for(int k = 0; k < scene.getMarkers().size(); k++){
+            if(!isCached("marker " + k))
+                loader.requestData(getScenePath(scene.getMarkers().get(k).getFile()), getReadOptions("<markers>"));
+        }
+        for(int k = 0; k < scene.getPlots().size(); k++){
+            if(!isCached("plot " + k))
+                loader.requestData(getScenePath(scene.getPlots().get(k).getFile()), getReadOptions("<plot3D>"));
+        }
+        for(int k = 0; k < scene.getStickFigures().size(); k++){
+            if(!isCached("stick " + k))
+                loader.requestData(getScenePath(scene.getStickFigures().get(k).getFile()), getReadOptions("<stickFigures>"));
+        }
+        for(int k = 0; k < scene.getLabels().size(); k++){
+            if(!isCached("label " + k))
+                loader.requestData(getScenePath(scene.getLabels().get(k).getFile()), getReadOptions("<movingLabels>"));
+        }
+    }
+    
+    /**
+     * Gives every section of the animation that is made from the scene its
+     * signature, so that the sections that are the same as when the animation
+     * was last written can be copied from the cache rather than worked out
+     * again. The bodies, camera and forces are keyed against the times of the
+     * first body, so they depend on its data file as well as their own.
+     * 
+     * @param scene : The parsed *.s4d file
+     */
+    private void setSignatures(Scene scene){
+        List<Scene.Body> bodyEntries = scene.getBodies();
+        String time = "";
+        if(bodyEntries.size() > 0)
+            time = "time | " + getDataSignature(bodyEntries.get(0).getFile(), "<bodyGEO>");
+        fragments.setSignature("time", time);
+        
+        boolean timeKeyedDirty = false;
+        for(int k = 0; k < bodyEntries.size(); k++){
+            Scene.Body entry = bodyEntries.get(k);
+            File geoFile = new File(getScenePath(entry.getGeometryFile()));
+            File frFile = new File(BodyData.getReplacementFileName(geoFile));
+            fragments.setSignature("body " + k, "<bodyGEO> | " + entry.getKey()
+                    + " | " + getDataSignature(entry.getFile(), "<bodyGEO>")
+                    + " | " + fragments.hashFile(geoFile.getAbsolutePath())
+                    + " | " + fragments.hashFile(frFile.getAbsolutePath()) + " | " + time);
+            timeKeyedDirty = timeKeyedDirty || !fragments.isClean("body " + k);
+        }
+        
+        if(scene.getCamera() != null){
+            Scene.Entry entry = scene.getCamera();
+            fragments.setSignature("camera", "<camera> | " + entry.getKey()
+                    + " | " + getDataSignature(entry.getFile(), "<camera>") + " | " + time);
+            timeKeyedDirty = timeKeyedDirty || !fragments.isClean("camera");
+        }
+        
+        String libs = fragments.hashFile(new File("../../SolvereLibs/WRL_SYNTAX/lib_force.wrl").getAbsolutePath())
+                + " " + fragments.hashFile(new File("../../SolvereLibs/WRL_SYNTAX/lib_torque.wrl").getAbsolutePath());
+        List<Scene.Force> forceEntries = scene.getForces();
+        for(int k = 0; k < forceEntries.size(); k++){
+            Scene.Force entry = forceEntries.get(k);
+            fragments.setSignature("force " + k, "<forceTorque> | " + entry.getKey()
+                    + " | " + getDataSignature(entry.getFile(), "<forceTorque>") + " | " + libs + " | " + time);
+            timeKeyedDirty = timeKeyedDirty || !fragments.isClean("force " + k);
+        }
+        
+        for(int k = 0; k < scene.getMarkers().size(); k++){
+            Scene.Entry entry = scene.getMarkers().get(k);
+            fragments.setSignature("marker " + k, "<markers> | " + entry.getKey() + " | " + getDataSignature(entry.getFile(), "<markers>"));
+        }
+        for(int k = 0; k < scene.getPlots().size(); k++){
+            Scene.Entry entry = scene.getPlots().get(k);
+            fragments.setSignature("plot " + k, "<plot3D> | " + entry.getKey() + " | " + getDataSignature(entry.getFile(), "<plot3D>"));
+        }
+        for(int k = 0; k < scene.getStickFigures().size(); k++){
+            Scene.Entry entry = scene.getStickFigures().get(k);
+            fragments.setSignature("stick " + k, "<stickFigures> | " + entry.getKey() + " | " + getDataSignature(entry.getFile(), "<stickFigures>"));
+        }
+        for(int k = 0; k < scene.getLabels().size(); k++){
+            Scene.Entry entry = scene.getLabels().get(k);
+            fragments.setSignature("label " + k, "<movingLabels> | " + entry.getKey() + " | " + getDataSignature(entry.getFile(), "<movingLabels>"));
+        }
+        
+        //The key frames are needed to key anything that has changed, and are
+        //read from the first body
+        if(bodyEntries.size() > 0 && (timeKeyedDirty || fragments.getTimes(time) == null))
+            fragments.setDirty("body 0");
+    }
+    
+    /**
+     * @param fileName : The name of a data file as it is written in the *.s4d
+     *                   file
+     * @param blockTag : The tag of the block it is listed in
+     * @return The part of the file that is read and the size and CRC32 of its
+     *         contents, for the signature of a section
+     */
+    private String getDataSignature(String fileName, String blockTag){
+        return getReadOptions(blockTag).getKey() + " " + fragments.hashFile(getScenePath(DataReader.getFilePath(fileName)));
+    }
+    
+    /**
+     * @return true if the text of the section is the same as when the
+     *         animation was last written, so its element need not be made
+     */
+    private boolean isCached(String section){
+        return fragments != null && fragments.isClean(section);
     }
     
+    /**
+     * Appends the text of a section from the cache, if it has not changed.
+     * 
+     * @return true if the text was appended
+     */
+    private boolean appendCached(StringBuffer aniStrBuf, String section){
+        if(!isCached(section))
+            return false;
+        aniStrBuf.append(fragments.reuse(section));
+        return true;
+    }
+    
+    /**
+     * Keeps the text of a section that has just been worked out, from start
+     * to the end of aniStrBuf, for the next time the animation is written.
+     */
+    private void keepFragment(StringBuffer aniStrBuf, String section, int start){
+        if(fragments != null)
+            fragments.put(section, aniStrBuf.substring(start));
+    }
    
 }
-
@@ -22,7 +22,7 @@
 package Solvere4D;
 
 import java.io.File;
-import java.io.FileReader;
+import java.io.InputStreamReader;
 import java.io.BufferedReader;
 
 import java.io.IOException;
@@ -215,79 +215,72 @@ public class SolvereUtilities {
      * 
      */
    public static double[][] getColourMapping(double[][] a){
-        double[][] rgb = new double[a.length][3];
+        double[][] rgb = new double[a.length][];
         double[] posBasis = new double[6];
+        
+        for(int i = 0; i < a.length; i++)
+            rgb[i] = getColourMapping(a[i], posBasis);
+        
+        return rgb;
+    }     
+    
+    /**
+     * This function maps the orientation of a single vector into the RGB
+     * colour space, in the same way as getColourMapping(double[][]), so that
+     * the colours of a long series of vectors can be found one vector at a time.
+     * 
+     * @param a        : A vector, X, Y and Z
+     * @param posBasis : The 6 entries of the positive and negative basis that
+     *                   are carried from one vector to the next; start with an
+     *                   array of zeros and pass the same array for every vector
+     *                   of the series
+     * @return The R, G and B colour of the vector
+     */
+   public static double[] getColourMapping(double[] a, double[] posBasis){
+        double[] rgb = new double[3];
         double mag = 0;
-        double[][] rgbBasis = new double[6][3];
-        
-        //x pos : Red
-        rgbBasis[0][0] = 1; 
-        rgbBasis[0][1] = 0;
-        rgbBasis[0][2] = 0;
-        
-        //y pos : yellow
-        rgbBasis[1][0] = 1; 
-        rgbBasis[1][1] = 1;
-        rgbBasis[1][2] = 0;
-        
-        //z pos : Blue
-        rgbBasis[2][0] = 0; 
-        rgbBasis[2][1] = 0;
-        rgbBasis[2][2] = 1;
-        
-        //x neg : green
-        rgbBasis[3][0] = 0; 
-        rgbBasis[3][1] = 1;
-        rgbBasis[3][2] = 0;
-        
-        //y neg : magenta
-        rgbBasis[4][0] = 1; 
-        rgbBasis[4][1] = 0;
-        rgbBasis[4][2] = 1;
-        
-        //z neg : cyan
-        rgbBasis[5][0] = 0; 
-        rgbBasis[5][1] = 1;
-        rgbBasis[5][2] = 1;
-        
-        for(int i = 0; i < a.length; i++){
-            mag = 0;
-            for(int j = 0; j < 3; j++){
-                if(a[i][j] > 0)
-                        posBasis[j] = a[i][j];
-                else posBasis[j+3] = Math.abs(a[i][j]);      
-                mag = mag + posBasis[j]*posBasis[j] + posBasis[j+3]*posBasis[j+3];
-            }
-            if( mag > Double.MIN_VALUE*100){
-                    mag = Math.sqrt(mag);
-                    for(int j = 0; j < 6; j++)
-                        posBasis[j] = posBasis[j]/mag;
-
-                    for(int j = 0; j < 6; j++){
-                        rgb[i][0] = rgb[i][0] + posBasis[j]*rgbBasis[j][0];
-                        rgb[i][1] = rgb[i][1] + posBasis[j]*rgbBasis[j][1];
-                        rgb[i][2] = rgb[i][2] + posBasis[j]*rgbBasis[j][2];
-                    }
+        
+        for(int j = 0; j < 3; j++){
+            if(a[j] > 0)
+                    posBasis[j] = a[j];
+            else posBasis[j+3] = Math.abs(a[j]);      
+            mag = mag + posBasis[j]*posBasis[j] + posBasis[j+3]*posBasis[j+3];
+        }
+        if( mag > Double.MIN_VALUE*100){
+                mag = Math.sqrt(mag);
+                for(int j = 0; j < 6; j++)
+                    posBasis[j] = posBasis[j]/mag;
+
+                for(int j = 0; j < 6; j++){
+                    rgb[0] = rgb[0] + posBasis[j]*RGB_BASIS[j][0];
+                    rgb[1] = rgb[1] + posBasis[j]*RGB_BASIS[j][1];
+                    rgb[2] = rgb[2] + posBasis[j]*RGB_BASIS[j][2];
+                }
 
-                    mag = 0;
-                    for(int j=0; j<3; j++){
-                        if(rgb[i][j] > mag)
-                            mag = rgb[i][j];
-                    }
+                mag = 0;
+                for(int j=0; j<3; j++){
+                    if(rgb[j] > mag)
+                        mag = rgb[j];
+                }
 
-                    for(int j=0; j<3; j++)
-                        rgb[i][j] = rgb[i][j]/mag;                
-            
-            }else{
-                rgb[i][0] = 0;
-                rgb[i][1] = 0;
-                rgb[i][2] = 0;
-            }
+                for(int j=0; j<3; j++)
+                    rgb[j] = rgb[j]/mag;                
         }
         
         return rgb;
     }     
     
+    //The colours of the +X, +Y, +Z, -X, -Y and -Z directions:
+    //red, yellow, blue, green, magenta and cyan
+    private static final double[][] RGB_BASIS = {
+        {1, 0, 0},
+        {1, 1, 0},
+        {0, 0, 1},
+        {0, 1, 0},
+        {1, 0, 1},
+        {0, 1, 1}
+    };
+    
 /**
  * This function will take an array of rotation matricies and convert it into
  * an array of quaternions. There is one rotation matrix in R[][] per row, with 
@@ -314,6 +307,22 @@ public class SolvereUtilities {
  *  VRML/X3D.
  */   
 public static double[][] convertToQuat(double[][] R){
+        double[][] q = new double[R.length][];
+        
+        for(int i=0; i<R.length; i++)
+            q[i] = convertToQuat(R[i]);
+        
+        return q;
+    }
+
+/**
+ * This function converts a single rotation matrix, taken row wise, into a
+ * quaternion in the same way as convertToQuat(double[][]).
+ * 
+ * @param  R : A rotation matrix with 9 entries, decomposed by rows
+ * @return The quaternion of R
+ */   
+public static double[] convertToQuat(double[] R){
         
         double t;
 
@@ -330,7 +339,7 @@ public static double[][] convertToQuat(double[][] R){
         double m22;
 
         
-        double[][] q = new double[R.length][4];
+        double[] q = new double[4];
         
         double S = 0;
         double qx = 0;
@@ -340,21 +349,19 @@ public static double[][] convertToQuat(double[][] R){
         
         double scaling = 0;
         
-        for(int i=0; i<R.length; i++){
-        
-         t = R[i][0]+R[i][4]+R[i][8]+1;
+         t = R[0]+R[4]+R[8]+1;
 
-         m00 = R[i][0];
-         m01 = R[i][1];
-         m02 = R[i][2];
+         m00 = R[0];
+         m01 = R[1];
+         m02 = R[2];
 
-         m10 = R[i][3];
-         m11 = R[i][4];
-         m12 = R[i][5];
+         m10 = R[3];
+         m11 = R[4];
+         m12 = R[5];
 
-         m20 = R[i][6];
-         m21 = R[i][7];
-         m22 = R[i][8];    
+         m20 = R[6];
+         m21 = R[7];
+         m22 = R[8];    
             
         if(t > 0){
             S = 0.5 / Math.pow(t,0.5);
@@ -383,11 +390,11 @@ public static double[][] convertToQuat(double[][] R){
         }
         
          scaling = 1e-12 + (qx*qx + qy*qy + qz*qz);
-         q[i][0] = qx/scaling;
-         q[i][1] = qy/scaling;
-         q[i][2] = qz/scaling;
-         q[i][3] = 2.0d*Math.acos(qw);
-        }
+         q[0] = qx/scaling;
+         q[1] = qy/scaling;
+         q[2] = qz/scaling;
+         q[3] = 2.0d*Math.acos(qw);
+        
         return q;
         
     }
@@ -405,7 +412,25 @@ public static double[][] convertToQuat(double[][] R){
   * @return double array of nx4 elements with the X,Y,Z axis unit vector in the first 3 elements and the angle in the 4th.
   */  
  public static double[][] getAxisAngle(double[][] vArray, double[] vRef){
-        double[][] aa = new double[vArray.length][4];
+        double[][] aa = new double[vArray.length][];
+        
+        for(int i = 0; i < vArray.length; i++)
+            aa[i] = getAxisAngle(vArray[i], vRef);
+        
+        return aa;
+    
+    }  
+ 
+ /**
+  * This function is the same as getAxisAngle(double[][], double[]), for a
+  * single vector.
+  * 
+  * @param v    : The vector, X, Y and Z
+  * @param vRef : The reference vector
+  * @return The X,Y,Z axis unit vector in the first 3 elements and the angle in the 4th.
+  */  
+ public static double[] getAxisAngle(double[] v, double[] vRef){
+        double[] aa = new double[4];
         double[] temp = new double[3];
         double tempMag = 1;
         double tempAngle = 0;
@@ -414,16 +439,15 @@ public static double[][] convertToQuat(double[][] R){
         double rMag = vRef[0]*vRef[0] + vRef[1]*vRef[1] + vRef[2]*vRef[2];
         rMag = Math.sqrt(rMag);
         
-        for(int i = 0; i < vArray.length; i++){
-            temp[0] = -(vArray[i][1]*vRef[2] - vArray[i][2]*vRef[1]);
-            temp[1] = -(vArray[i][2]*vRef[0] - vArray[i][0]*vRef[2]);
-            temp[2] = -(vArray[i][0]*vRef[1] - vArray[i][1]*vRef[0]);
+            temp[0] = -(v[1]*vRef[2] - v[2]*vRef[1]);
+            temp[1] = -(v[2]*vRef[0] - v[0]*vRef[2]);
+            temp[2] = -(v[0]*vRef[1] - v[1]*vRef[0]);
             tempMag = temp[0]*temp[0] + temp[1]*temp[1] + temp[2]*temp[2];
             tempAngle = 0;
             
-            vDotR = vArray[i][0]*vRef[0] + vArray[i][1]*vRef[1] + vArray[i][2]*vRef[2];
+            vDotR = v[0]*vRef[0] + v[1]*vRef[1] + v[2]*vRef[2];
             
-            vMag = vArray[i][0]*vArray[i][0] + vArray[i][1]*vArray[i][1] + vArray[i][2]*vArray[i][2];
+            vMag = v[0]*v[0] + v[1]*v[1] + v[2]*v[2];
             vMag = Math.sqrt(vMag);
 
             if(tempMag > Double.MIN_VALUE*100){
@@ -433,19 +457,17 @@ public static double[][] convertToQuat(double[][] R){
                 temp[2] = temp[2]*tempMag;
                 tempAngle = Math.acos(vDotR/(vMag*rMag));
                 
-                aa[i][0] = temp[0];
-                aa[i][1] = temp[1];
-                aa[i][2] = temp[2];
-                aa[i][3] = tempAngle;
+                aa[0] = temp[0];
+                aa[1] = temp[1];
+                aa[2] = temp[2];
+                aa[3] = tempAngle;
                 
             }else{
-                aa[i][0] = 0;
-                aa[i][1] = 0;
-                aa[i][2] = 1;
-                aa[i][3] = 0;
+                aa[0] = 0;
+                aa[1] = 0;
+                aa[2] = 1;
+                aa[3] = 0;
             }
-            
-        }
         
         return aa;
     
@@ -1488,7 +1510,8 @@ public static  StringBuffer appendTimeControls(StringBuffer curBuf, double[] ani
 }
 /**
  * This function will read in a text file into a String array with one line of
- * text for each array index.
+ * text for each array index. A file whose name ends in ".gz" is decompressed
+ * as it is read.
  * 
  * @param textFile : The file associated with the text file to open
  */
@@ -1501,7 +1524,7 @@ public static  StringBuffer appendTimeControls(StringBuffer curBuf, double[] ani
         if(textFile != null){
     
             try{
-                    FileReader fileFRdr = new FileReader(textFile.getAbsolutePath());
+                    InputStreamReader fileFRdr = new InputStreamReader(DataReader.openStream(textFile.getAbsolutePath()));
                     BufferedReader fileBufRdr = new BufferedReader(fileFRdr);
                     
                     
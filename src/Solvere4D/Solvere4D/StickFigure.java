@@ -39,7 +39,7 @@ public class StickFigure {
     /**
      * @param tag : the String that acts as a unique identifier in 
      *              the VRML/X3D script
-     * @param data : An array of time and position data. Time is always in
+     * @param data : A table of time and position data. Time is always in
      *              column 1, and after that you have 3 columns of X,Y,Z points
      *              for every vertex in the stick figure map. <br>
      *      Column 1: Time (in seconds)<br>
@@ -52,13 +52,14 @@ public class StickFigure {
      * 
      * @param rgb : The colour of the sticks specified in R,G and B between 0 and 1 
      */
-public StickFigure(String tag, double[][] data, double[] rgb){
+public StickFigure(String tag, ChannelData data, double[] rgb){
     stickTag = tag;
     StringBuffer temp = new StringBuffer();
-    pts = (int)Math.floor( (data[0].length-1)/3);
-    stickDataStr = new String[data.length*pts];
-    stickVertexCount = new String[data.length];
-    stickTime = new String[data.length];
+    int rows = data.numRows();
+    pts = (int)Math.floor( (data.numCol()-1)/3);
+    stickDataStr = new String[rows*pts];
+    stickVertexCount = new String[rows];
+    stickTime = new String[rows];
     
     temp.replace(0, temp.length(), "");
     for(int i=0; i<3; i++){
@@ -69,14 +70,14 @@ public StickFigure(String tag, double[][] data, double[] rgb){
     stickRGB = temp.toString();
         
     
-    for(int i=0; i<data.length; i++){
+    for(int i=0; i<rows; i++){
         temp.replace(0, temp.length(), "");
-        stickTime[i] = Double.toString(data[i][0]);
+        stickTime[i] = Double.toString(data.get(i, 0));
         
         for(int j=0; j<pts; j++){
             temp.replace(0, temp.length(), "");
             for(int k=0; k<3; k++){
-                temp.append(data[i][j*3 + 1 + k]);
+                temp.append(data.get(i, j*3 + 1 + k));
                 if(k < 2) temp.append(" ");
             }
             stickDataStr[i*pts + j] = temp.toString();
@@ -0,0 +1,136 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * TimeBase.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+/**
+ * This class holds the times of the key frames of the animation (the times of
+ * the first body of the scene), against which every other element places its
+ * own key frames. Every element of a scene is played by the same TimeSensor,
+ * and the key of row i of the first body is (i+1)/n. A row of another element
+ * that was recorded at the same time gets the same key, and a row recorded in
+ * between two rows of the first body gets a key in between theirs. The force
+ * plates of a gait lab (1000 Hz) can so be animated alongside the kinematics
+ * (100 Hz) without being resampled to the rate of the kinematics first.
+ *
+ * Rows recorded before the first or after the last key frame of the animation
+ * lie outside of its cycle and are left out. If the times of the animation do
+ * not increase from row to row they cannot be searched, and the rows of every
+ * element are instead matched up one for one, as they are in the files.
+ *
+ * @author mjhmilla
+ */
+public class TimeBase {
+
+    private double[] times;
+    private boolean increasing;
+
+    /**
+     * @param keyTimes : The times of the key frames of the animation, in
+     *                   column 0
+     */
+    public TimeBase(ChannelData keyTimes){
+        times = new double[0];
+        increasing = true;
+        update(keyTimes);
+    }
+
+    /**
+     * Adds the key frames that have been added to the end of keyTimes since
+     * this TimeBase was made or last updated, when the file of the first body
+     * is followed while it is being written (see DataFollower).
+     *
+     * @param keyTimes : The times of the key frames of the animation, in
+     *                   column 0
+     */
+    public void update(ChannelData keyTimes){
+        int n = times.length;
+        if(keyTimes.numRows() <= n)
+            return;
+
+        boolean wasIncreasing = increasing;
+        double[] tempTimes = new double[keyTimes.numRows()];
+        System.arraycopy(times, 0, tempTimes, 0, n);
+        times = tempTimes;
+        for(int i = n; i < times.length; i++){
+            times[i] = keyTimes.get(i, 0);
+            if(i > 0 && !(times[i] > times[i-1]))
+                increasing = false;
+        }
+        if(wasIncreasing && !increasing)
+            System.out.println("Warning: The times of the first body do not increase, so every element is animated row for row");
+    }
+
+    /**
+     * @return The number of key frames of the animation
+     */
+    public int getNumRows(){
+        return times.length;
+    }
+
+    /**
+     * @param time : The time of a row
+     * @return true if the row is later than the last key frame of the
+     *         animation, and so may yet lie within it once more key frames
+     *         have been added
+     */
+    public boolean isAfterEnd(double time){
+        if(!increasing)
+            return false;
+        return times.length == 0 || time > times[times.length-1];
+    }
+
+    /**
+     * Finds where a row of an element lies among the key frames of the
+     * animation. A row recorded at the time of key frame i lies at i exactly,
+     * and a row recorded a quarter of the way from key frame i to i+1 lies at
+     * i + 0.25.
+     *
+     * @param time : The time of the row
+     * @param row  : The number of the row among the rows of its element that
+     *               have been kept, used if the times cannot be searched
+     * @return The position of the row, from 0 to getNumRows()-1, or -1 if the
+     *         row lies outside of the animation. The key of the row is
+     *         (position+1)/getNumRows()
+     */
+    public double getPosition(double time, int row){
+        int n = times.length;
+        if(!increasing)
+            return (row < n) ? row : -1;
+
+        if(n == 0 || !(time >= times[0]) || !(time <= times[n-1]))
+            return -1;
+
+        //The last key frame at or before time
+        int lo = 0;
+        int hi = n-1;
+        while(lo < hi){
+            int mid = (lo + hi + 1) >>> 1;
+            if(times[mid] <= time)
+                lo = mid;
+            else
+                hi = mid-1;
+        }
+
+        if(times[lo] == time || lo == n-1)
+            return lo;
+        return lo + (time - times[lo])/(times[lo+1] - times[lo]);
+    }
+
+}
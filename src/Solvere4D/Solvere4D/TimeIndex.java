@@ -0,0 +1,364 @@
+/*
+ * Copyright Matthew J.H. Millard 2008
+ *
+ * TimeIndex.java is part of Solvere4D.
+
+    Solvere4D is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Solvere4D is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Solvere4D.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Solvere4D;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class is a sparse index from time to position in a text data file, so
+ * that a short time window of a long recording can be read without parsing
+ * everything before it. The time (column 0) and the byte offset of every
+ * INTERVAL'th row are recorded; to read a window the file is entered at the
+ * last recorded row before the start of the window and parsing stops at the
+ * first row after its end.
+ *
+ * The index is built with one pass over the file, the first time a window of
+ * it is read, and is kept next to the file: the index of "HatPosOrien.dat" is
+ * "HatPosOrien.dat.s4i". It is rebuilt whenever the size or modification
+ * time of the file no longer match the ones it was built from. For a file
+ * compressed with gzip the offsets are into the decompressed contents, which
+ * still saves parsing the rows before the window, if not decompressing them.
+ *
+ * An index file is little-endian and laid out as follows:
+ *
+ *      bytes  0 -  3 : "S4DI"
+ *      bytes  4 -  7 : version (int)
+ *      bytes  8 - 15 : size of the source file in bytes (long)
+ *      bytes 16 - 23 : last modified time of the source file in ms (long)
+ *      bytes 24 - 27 : rows in the source (int)
+ *      bytes 28 - 31 : 1 if the times never decrease, 0 if not (int)
+ *      bytes 32 - 35 : entries (int)
+ *      bytes 36 - 63 : unused
+ *      bytes 64 -    : one entry per indexed row: time (double), byte
+ *                      offset of the row (long) and row number (long)
+ *
+ * @author mjhmilla
+ */
+public class TimeIndex {
+
+    public static final String EXTENSION = ".s4i";
+
+    /** The number of rows between indexed rows */
+    public static final int INTERVAL = 1024;
+
+    private static final int MAGIC = 0x49443453; //"S4DI" read little-endian
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int ENTRY_SIZE = 24;
+    private static final int BUFFER_SIZE = 65536;
+
+    private double[] times;
+    private long[] offsets;
+    private long[] rowNumbers;
+    private int entries;
+    private int rows;
+    private boolean sorted;
+
+    private TimeIndex(int numEntries){
+        times = new double[Math.max(numEntries, 16)];
+        offsets = new long[times.length];
+        rowNumbers = new long[times.length];
+    }
+
+    /**
+     * Gets the index of a text data file, reading it from its index file if
+     * that is current, and building it (and writing the index file) if not.
+     *
+     * @param absoluteFilePath : The complete file path of the data file
+     * @return The index, or null if the file could not be read
+     */
+    public static TimeIndex get(String absoluteFilePath){
+        File source = new File(absoluteFilePath);
+        File indexFile = new File(absoluteFilePath + EXTENSION);
+
+        long size = source.length();
+        long modified = source.lastModified();
+
+        if(indexFile.exists()){
+            try{
+                TimeIndex index = readIndex(indexFile, size, modified);
+                if(index != null)
+                    return index;
+            }catch(IOException ioe){
+                System.out.println("IO exception thrown while reading " + indexFile.getAbsolutePath() + ", it will be rebuilt");
+            }
+        }
+
+        TimeIndex index = null;
+        try{
+            index = build(absoluteFilePath);
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown while indexing " + absoluteFilePath + " in TimeIndex");
+            ioe.printStackTrace();
+            return null;
+        }
+
+        try{
+            if(source.lastModified() == modified && source.length() == size)
+                index.write(indexFile, size, modified);
+        }catch(IOException ioe){
+            System.out.println("IO exception thrown while writing " + indexFile.getAbsolutePath());
+            ioe.printStackTrace();
+        }
+        return index;
+    }
+
+    /**
+     * @return The byte offset at which to start parsing to find every row at
+     *         or after startTime: that of the last indexed row whose time is
+     *         before startTime, or 0
+     */
+    public long getStartOffset(double startTime){
+        int e = findEntry(startTime);
+        return (e == -1) ? 0 : offsets[e];
+    }
+
+    /**
+     * @return The row number of the row at getStartOffset(startTime)
+     */
+    public int getStartRow(double startTime){
+        int e = findEntry(startTime);
+        return (e == -1) ? 0 : (int)rowNumbers[e];
+    }
+
+    /**
+     * @return true if the times in the file never decrease. If they do, the
+     *         index can not be used to skip ahead, and the whole file has to
+     *         be parsed to find the rows in a window.
+     */
+    public boolean isSorted(){
+        return sorted;
+    }
+
+    /**
+     * @return The number of rows in the file
+     */
+    public int numRows(){
+        return rows;
+    }
+
+    /**
+     * @return The last entry whose time is strictly before startTime, so that
+     *         rows with the same time as an indexed row are never skipped, or
+     *         -1 if there is none
+     */
+    private int findEntry(double startTime){
+        if(!sorted)
+            return -1;
+
+        int low = 0;
+        int high = entries - 1;
+        int found = -1;
+        while(low <= high){
+            int mid = (low + high) >>> 1;
+            if(times[mid] < startTime){
+                found = mid;
+                low = mid + 1;
+            }else{
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private void add(double time, long offset, long row){
+        if(entries == times.length){
+            double[] tempTimes = new double[2*entries];
+            long[] tempOffsets = new long[2*entries];
+            long[] tempRows = new long[2*entries];
+            System.arraycopy(times, 0, tempTimes, 0, entries);
+            System.arraycopy(offsets, 0, tempOffsets, 0, entries);
+            System.arraycopy(rowNumbers, 0, tempRows, 0, entries);
+            times = tempTimes;
+            offsets = tempOffsets;
+            rowNumbers = tempRows;
+        }
+        times[entries] = time;
+        offsets[entries] = offset;
+        rowNumbers[entries] = row;
+        entries++;
+    }
+
+    /**
+     * Scans a data file once, reading the first field of every row as its
+     * time. The file ends at its end or at its first empty line, as it does
+     * for NumericParser.
+     */
+    private static TimeIndex build(String absoluteFilePath) throws IOException{
+        TimeIndex index = new TimeIndex(16);
+        index.sorted = true;
+
+        InputStream in = DataReader.openStream(absoluteFilePath);
+        byte[] buf = new byte[BUFFER_SIZE];
+        byte[] field = new byte[64];
+        int fieldLen = 0;
+
+        long offset = 0;        //offset of buf[0] in the file
+        long lineStart = 0;     //offset of the start of the current line
+        int row = 0;
+        boolean atLineStart = true;
+        boolean inFirstField = false;
+        boolean seenField = false;
+        double previous = Double.NEGATIVE_INFINITY;
+
+        int n = in.read(buf);
+        boolean ended = false;
+        while(n != -1 && !ended){
+            for(int i = 0; i < n; i++){
+                byte b = buf[i];
+                if(b == '\n'){
+                    if(!seenField && !inFirstField){
+                        //An empty line marks the end of the table
+                        ended = true;
+                        break;
+                    }
+                    if(inFirstField)
+                        previous = index.endRow(field, fieldLen, lineStart, row, previous);
+                    row++;
+                    lineStart = offset + i + 1;
+                    atLineStart = true;
+                    inFirstField = false;
+                    seenField = false;
+                    fieldLen = 0;
+                }else if(b == '\t' || b == ' ' || b == '\r'){
+                    if(inFirstField){
+                        previous = index.endRow(field, fieldLen, lineStart, row, previous);
+                        inFirstField = false;
+                        seenField = true;
+                    }
+                }else if(atLineStart || inFirstField){
+                    atLineStart = false;
+                    inFirstField = true;
+                    if(fieldLen < field.length)
+                        field[fieldLen++] = b;
+                }
+            }
+            offset += n;
+            if(!ended)
+                n = in.read(buf);
+        }
+        in.close();
+
+        //The last line need not end with a new line
+        if(!ended && (inFirstField || seenField)){
+            if(inFirstField)
+                index.endRow(field, fieldLen, lineStart, row, previous);
+            row++;
+        }
+
+        index.rows = row;
+        return index;
+    }
+
+    /**
+     * Takes the time of a row, records it if the row is indexed, and checks
+     * that the times are in order.
+     *
+     * @return The time of the row
+     */
+    private double endRow(byte[] field, int fieldLen, long lineStart, int row, double previous){
+        double time;
+        try{
+            time = NumericParser.toDouble(field, fieldLen);
+        }catch(NumberFormatException nfe){
+            time = Double.NaN;
+        }
+
+        if(!(time >= previous))
+            sorted = false;
+        if(row % INTERVAL == 0)
+            add(time, lineStart, row);
+        return time;
+    }
+
+    private static TimeIndex readIndex(File indexFile, long size, long modified) throws IOException{
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        FileChannel channel = file.getChannel();
+        TimeIndex index = null;
+
+        try{
+            if(channel.size() < HEADER_SIZE)
+                return null;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                    || header.getLong(8) != size || header.getLong(16) != modified)
+                return null;
+
+            int numEntries = header.getInt(32);
+            if(numEntries < 0 || channel.size() != HEADER_SIZE + (long)ENTRY_SIZE*numEntries)
+                return null;
+
+            ByteBuffer body = ByteBuffer.allocate(ENTRY_SIZE*numEntries).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(body, HEADER_SIZE);
+
+            index = new TimeIndex(numEntries);
+            index.rows = header.getInt(24);
+            index.sorted = (header.getInt(28) == 1);
+            for(int e = 0; e < numEntries; e++)
+                index.add(body.getDouble(ENTRY_SIZE*e), body.getLong(ENTRY_SIZE*e + 8), body.getLong(ENTRY_SIZE*e + 16));
+        }finally{
+            channel.close();
+            file.close();
+        }
+        return index;
+    }
+
+    /**
+     * Writes the index to indexFile, under a temporary name first so that a
+     * half written index is never mistaken for a complete one.
+     */
+    private void write(File indexFile, long size, long modified) throws IOException{
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + ENTRY_SIZE*entries).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(0, MAGIC);
+        out.putInt(4, VERSION);
+        out.putLong(8, size);
+        out.putLong(16, modified);
+        out.putInt(24, rows);
+        out.putInt(28, sorted ? 1 : 0);
+        out.putInt(32, entries);
+        for(int e = 0; e < entries; e++){
+            out.putDouble(HEADER_SIZE + ENTRY_SIZE*e, times[e]);
+            out.putLong(HEADER_SIZE + ENTRY_SIZE*e + 8, offsets[e]);
+            out.putLong(HEADER_SIZE + ENTRY_SIZE*e + 16, rowNumbers[e]);
+        }
+
+        File temp = new File(indexFile.getAbsolutePath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        FileChannel channel = stream.getChannel();
+        channel.write(out, 0);
+        channel.close();
+        stream.close();
+
+        if(indexFile.exists())
+            indexFile.delete();
+        if(!temp.renameTo(indexFile))
+            temp.delete();
+    }
+
+}